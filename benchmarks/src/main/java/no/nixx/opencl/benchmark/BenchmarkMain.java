@@ -0,0 +1,37 @@
+package no.nixx.opencl.benchmark;
+
+import no.nixx.opencl.util.OCLUtils;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with JSON results in jmh-result.json unless other result options are given, and restricts the
+ * run to the pure-Java backend when there is no OpenCL device.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        final ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+
+        if (!commandLineOptions.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLineOptions.getResult().hasValue()) {
+            options.result("jmh-result.json");
+        }
+
+        if (!OCLUtils.isDeviceAvailable()) {
+            System.out.println("No OpenCL device found, running the pure-Java backend only");
+            options.param("backend", Benchmarks.JAVA);
+            options.exclude(TransferBenchmark.class.getSimpleName());
+        }
+
+        new Runner(options.build()).run();
+    }
+}
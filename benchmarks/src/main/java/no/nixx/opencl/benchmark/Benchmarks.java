@@ -0,0 +1,46 @@
+package no.nixx.opencl.benchmark;
+
+import no.nixx.opencl.ImageResizer;
+import no.nixx.opencl.ImageRotator;
+import no.nixx.opencl.ResizeFilter;
+import no.nixx.opencl.Resizer;
+import no.nixx.opencl.Rotator;
+import no.nixx.opencl.cpu.CpuImageResizer;
+import no.nixx.opencl.cpu.CpuImageRotator;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+class Benchmarks {
+
+    static final String OPENCL = "opencl";
+    static final String JAVA = "java";
+
+    static Resizer createResizer(String backend) {
+        return OPENCL.equals(backend) ? new ImageResizer() : new CpuImageResizer();
+    }
+
+    static Resizer createResizer(String backend, ResizeFilter filter) {
+        return OPENCL.equals(backend) ? new ImageResizer(filter) : new CpuImageResizer(filter);
+    }
+
+    static Rotator createRotator(String backend) {
+        return OPENCL.equals(backend) ? new ImageRotator() : new CpuImageRotator();
+    }
+
+    static BufferedImage createImage(int width, int height) {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final int data[] = getDataBufferInt(image);
+        final Random random = new Random(width * 31 + height);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = random.nextInt() & 0xffffff;
+        }
+
+        return image;
+    }
+}
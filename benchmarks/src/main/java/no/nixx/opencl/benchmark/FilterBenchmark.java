@@ -0,0 +1,50 @@
+package no.nixx.opencl.benchmark;
+
+import no.nixx.opencl.ResizeFilter;
+import no.nixx.opencl.Resizer;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The high-quality filters, downscaling by the same factor as {@link ScalrBenchmark} so the two can be compared.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class FilterBenchmark {
+
+    @Param({"128", "512", "2048", "8192"})
+    public int size;
+
+    @Param({Benchmarks.OPENCL, Benchmarks.JAVA})
+    public String backend;
+
+    @Param({"AREA", "BICUBIC", "LANCZOS3"})
+    public ResizeFilter filter;
+
+    private Resizer resizer;
+    private BufferedImage image;
+
+    @Setup
+    public void setup() {
+        resizer = Benchmarks.createResizer(backend, filter);
+        image = Benchmarks.createImage(size, size);
+    }
+
+    @TearDown
+    public void teardown() {
+        resizer.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage resize() {
+        return resizer.resize(image, size / 2, size / 2);
+    }
+}
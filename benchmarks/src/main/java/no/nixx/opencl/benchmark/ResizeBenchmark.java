@@ -0,0 +1,56 @@
+package no.nixx.opencl.benchmark;
+
+import no.nixx.opencl.Resizer;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class ResizeBenchmark {
+
+    @Param({"128", "512", "2048", "8192"})
+    public int size;
+
+    @Param({Benchmarks.OPENCL, Benchmarks.JAVA})
+    public String backend;
+
+    private Resizer resizer;
+    private BufferedImage image;
+
+    @Setup
+    public void setup() {
+        resizer = Benchmarks.createResizer(backend);
+        image = Benchmarks.createImage(size, size);
+
+        // A long-edge resize that rounds the short edge down to nothing would time an empty image
+        final BufferedImage resized = resizer.resize(image, size / 2);
+        if (resized.getWidth() != size / 2 || resized.getHeight() != size / 2) {
+            throw new IllegalStateException(String.format("Long-edge resize of %dx%d gave %dx%d",
+                    size, size, resized.getWidth(), resized.getHeight()));
+        }
+    }
+
+    @TearDown
+    public void teardown() {
+        resizer.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage resizeSpecifyingBothEdges() {
+        return resizer.resize(image, size / 2, size / 2);
+    }
+
+    @Benchmark
+    public BufferedImage resizeSpecifyingOnlyLongEdge() {
+        return resizer.resize(image, size / 2);
+    }
+}
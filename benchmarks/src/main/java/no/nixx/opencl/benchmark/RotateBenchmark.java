@@ -0,0 +1,49 @@
+package no.nixx.opencl.benchmark;
+
+import no.nixx.opencl.ImageRotator.Rotation;
+import no.nixx.opencl.Rotator;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class RotateBenchmark {
+
+    @Param({"128", "512", "2048", "8192"})
+    public int size;
+
+    @Param({"CW_90", "CCW_90", "FLIP"})
+    public Rotation rotation;
+
+    @Param({Benchmarks.OPENCL, Benchmarks.JAVA})
+    public String backend;
+
+    private Rotator rotator;
+    private BufferedImage image;
+
+    @Setup
+    public void setup() {
+        rotator = Benchmarks.createRotator(backend);
+        // Not square, so that the 90 degree rotations change the image shape
+        image = Benchmarks.createImage(size, size / 2);
+    }
+
+    @TearDown
+    public void teardown() {
+        rotator.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage rotate() {
+        return rotator.rotate(image, rotation);
+    }
+}
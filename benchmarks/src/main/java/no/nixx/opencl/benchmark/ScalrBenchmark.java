@@ -0,0 +1,39 @@
+package no.nixx.opencl.benchmark;
+
+import org.imgscalr.Scalr;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CPU baseline the OpenCL resize is measured against.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class ScalrBenchmark {
+
+    @Param({"128", "512", "2048", "8192"})
+    public int size;
+
+    @Param({"BALANCED", "QUALITY"})
+    public Scalr.Method method;
+
+    private BufferedImage image;
+
+    @Setup
+    public void setup() {
+        image = Benchmarks.createImage(size, size);
+    }
+
+    @Benchmark
+    public BufferedImage resize() {
+        return Scalr.resize(image, method, size / 2);
+    }
+}
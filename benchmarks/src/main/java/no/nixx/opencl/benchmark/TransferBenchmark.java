@@ -0,0 +1,59 @@
+package no.nixx.opencl.benchmark;
+
+import no.nixx.opencl.ImagePool;
+import no.nixx.opencl.OCLDevice;
+import no.nixx.opencl.OCLRegistry;
+import org.jocl.cl_mem;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import static no.nixx.opencl.util.OCLUtils.*;
+import static org.jocl.CL.CL_MEM_READ_WRITE;
+
+/**
+ * Raw host to device and device to host image transfers, without any kernel.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class TransferBenchmark {
+
+    @Param({"128", "512", "2048", "8192"})
+    public int size;
+
+    private OCLDevice device;
+    private cl_mem deviceImage;
+    private BufferedImage hostImage;
+
+    @Setup
+    public void setup() {
+        device = OCLRegistry.acquireDefaultDevice();
+        deviceImage = device.getImagePool().acquire(size, size, getPackedIntImageFormat(), CL_MEM_READ_WRITE);
+        hostImage = Benchmarks.createImage(size, size);
+    }
+
+    @TearDown
+    public void teardown() {
+        final ImagePool imagePool = device.getImagePool();
+        imagePool.release(deviceImage);
+        device.release();
+    }
+
+    @Benchmark
+    public void upload() {
+        writeImage(device.getCommandQueue(), deviceImage, hostImage);
+    }
+
+    @Benchmark
+    public BufferedImage download() {
+        readImage(device.getCommandQueue(), deviceImage, hostImage, null);
+        return hostImage;
+    }
+}
@@ -0,0 +1,20 @@
+package no.nixx.opencl;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Common interface for the OpenCL and the pure-Java image analysis implementations.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public interface Analyzer {
+
+    ImageStatistics analyze(BufferedImage inputImage);
+
+    /**
+     * Returns an image of the same size as the input, with every channel mapped through the levels.
+     */
+    BufferedImage applyLevels(BufferedImage inputImage, Levels levels);
+
+    void dispose();
+}
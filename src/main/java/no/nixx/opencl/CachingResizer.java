@@ -0,0 +1,56 @@
+package no.nixx.opencl;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Puts a {@link TransformCache} in front of a resizer, so that resizing the same image to the same size again
+ * returns the earlier result.
+ * <p/>
+ * The name identifies the resizer and its filter in the cache keys, e.g. "lanczos3", and must differ between
+ * resizers that share a cache but give different results.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class CachingResizer implements Resizer {
+
+    private final Resizer resizer;
+    private final String name;
+    private final TransformCache cache;
+
+    public CachingResizer(Resizer resizer, String name, TransformCache cache) {
+        this.resizer = resizer;
+        this.name = name;
+        this.cache = cache;
+    }
+
+    @Override
+    public BufferedImage resize(BufferedImage inputImage, int outputImageWidth, int outputImageHeight) {
+        return cache.get(TransformCache.Key.of(inputImage, getOperation(outputImageWidth, outputImageHeight)),
+                () -> resizer.resize(inputImage, outputImageWidth, outputImageHeight));
+    }
+
+    /**
+     * Resizes an image the caller has its own key for, e.g. the path and modification time of its file, which saves
+     * hashing its pixels.
+     */
+    public BufferedImage resize(String sourceKey, BufferedImage inputImage, int outputImageWidth, int outputImageHeight) {
+        return cache.get(TransformCache.Key.of(sourceKey, getOperation(outputImageWidth, outputImageHeight)),
+                () -> resizer.resize(inputImage, outputImageWidth, outputImageHeight));
+    }
+
+    public TransformCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Disposes the wrapped resizer. The cache may be shared, and is left as it is.
+     */
+    @Override
+    public void dispose() {
+        resizer.dispose();
+    }
+
+    private String getOperation(int outputImageWidth, int outputImageHeight) {
+        return "resize " + name + " " + outputImageWidth + "x" + outputImageHeight;
+    }
+}
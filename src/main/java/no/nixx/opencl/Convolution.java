@@ -0,0 +1,181 @@
+package no.nixx.opencl;
+
+import java.awt.image.Kernel;
+
+/**
+ * A convolution of an image: either separable, as a horizontal and a vertical pass, or with a small two-dimensional
+ * kernel, optionally blended with the input as an unsharp mask. Pixels outside the image repeat the nearest edge
+ * pixel.
+ * <p/>
+ * The weights are kept as they are applied: the output pixel at (x, y) is the sum of weight (i, j) times the input
+ * pixel at (x - originX + i, y - originY + j). Kernels of {@link java.awt.image.ConvolveOp}, which are mirrored, are
+ * converted by {@link #of(Kernel)}.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public final class Convolution {
+
+    /**
+     * The largest radius of a separable pass. The work-group of a pass stages twice the radius of pixels beyond its
+     * own in local memory.
+     */
+    public static final int MAX_RADIUS = 255;
+
+    /**
+     * The largest edge of a two-dimensional kernel, whose whole footprint is staged in local memory.
+     */
+    public static final int MAX_KERNEL_SIZE = 15;
+
+    private final float horizontal[];
+    private final float vertical[];
+    private final float weights[];
+    private final int width;
+    private final int height;
+    private final int originX;
+    private final int originY;
+    private final float amount;
+
+    private Convolution(float horizontal[], float vertical[], float weights[], int width, int height, int originX, int originY, float amount) {
+        this.horizontal = horizontal;
+        this.vertical = vertical;
+        this.weights = weights;
+        this.width = width;
+        this.height = height;
+        this.originX = originX;
+        this.originY = originY;
+        this.amount = amount;
+    }
+
+    /**
+     * A Gaussian blur with the given standard deviation in pixels, cut off at three standard deviations.
+     */
+    public static Convolution gaussian(double sigma) {
+        final float weights[] = getGaussianWeights(sigma);
+
+        return new Convolution(weights, weights, null, weights.length, weights.length, weights.length / 2, weights.length / 2, 0);
+    }
+
+    /**
+     * Sharpens by adding amount times the difference between the image and its Gaussian blur, e.g. amount 0.5 to 1.5
+     * with sigma 0.5 to 2 for thumbnails.
+     */
+    public static Convolution unsharpMask(double sigma, double amount) {
+        final float weights[] = getGaussianWeights(sigma);
+
+        return new Convolution(weights, weights, null, weights.length, weights.length, weights.length / 2, weights.length / 2, (float) amount);
+    }
+
+    /**
+     * A separable convolution with centered passes of odd length.
+     */
+    public static Convolution separable(float horizontal[], float vertical[]) {
+        checkPass(horizontal);
+        checkPass(vertical);
+
+        return new Convolution(horizontal.clone(), vertical.clone(), null, horizontal.length, vertical.length,
+                horizontal.length / 2, vertical.length / 2, 0);
+    }
+
+    /**
+     * The convolution {@link java.awt.image.ConvolveOp} performs with the given kernel, except at the edges.
+     */
+    public static Convolution of(Kernel kernel) {
+        final int width = kernel.getWidth();
+        final int height = kernel.getHeight();
+        if (width > MAX_KERNEL_SIZE || height > MAX_KERNEL_SIZE) {
+            throw new IllegalArgumentException("Kernel is larger than " + MAX_KERNEL_SIZE + "x" + MAX_KERNEL_SIZE + ": " + width + "x" + height);
+        }
+
+        // ConvolveOp mirrors the kernel around its origin
+        final float data[] = kernel.getKernelData(null);
+        final float weights[] = new float[data.length];
+        for (int i = 0; i < data.length; i++) {
+            weights[data.length - 1 - i] = data[i];
+        }
+
+        return new Convolution(null, null, weights, width, height, width - 1 - kernel.getXOrigin(), height - 1 - kernel.getYOrigin(), 0);
+    }
+
+    public boolean isSeparable() {
+        return weights == null;
+    }
+
+    /**
+     * The weights of the horizontal pass of a separable convolution, centered on the output pixel.
+     */
+    public float[] getHorizontal() {
+        return horizontal.clone();
+    }
+
+    /**
+     * The weights of the vertical pass of a separable convolution, centered on the output pixel.
+     */
+    public float[] getVertical() {
+        return vertical.clone();
+    }
+
+    /**
+     * The weights of a two-dimensional convolution in row-major order, as they are applied.
+     */
+    public float[] getWeights() {
+        return weights.clone();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginY() {
+        return originY;
+    }
+
+    /**
+     * The amount of an unsharp mask, or 0 for a plain convolution.
+     */
+    public float getAmount() {
+        return amount;
+    }
+
+    /**
+     * The weight of the input in the output: the output is the convolution plus this times the difference between
+     * the input and the convolution, so that 0 is the plain convolution and 1 + amount the unsharp mask.
+     */
+    public float getSharpening() {
+        return amount == 0 ? 0 : 1 + amount;
+    }
+
+    private static float[] getGaussianWeights(double sigma) {
+        if (!(sigma > 0)) {
+            throw new IllegalArgumentException("Sigma must be positive: " + sigma);
+        }
+        final int radius = (int) Math.ceil(3 * sigma);
+        if (radius > MAX_RADIUS) {
+            throw new IllegalArgumentException("Sigma " + sigma + " needs a radius above " + MAX_RADIUS);
+        }
+
+        final float weights[] = new float[2 * radius + 1];
+        double sum = 0;
+        for (int i = -radius; i <= radius; i++) {
+            sum += Math.exp(-i * i / (2 * sigma * sigma));
+        }
+        for (int i = -radius; i <= radius; i++) {
+            weights[i + radius] = (float) (Math.exp(-i * i / (2 * sigma * sigma)) / sum);
+        }
+
+        return weights;
+    }
+
+    private static void checkPass(float weights[]) {
+        if (weights.length % 2 == 0 || weights.length / 2 > MAX_RADIUS) {
+            throw new IllegalArgumentException("A pass needs an odd number of weights, at most " + (2 * MAX_RADIUS + 1) + ": " + weights.length);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package no.nixx.opencl;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Common interface for the OpenCL and the pure-Java convolution implementations.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public interface Convolver {
+
+    /**
+     * Returns an image of the same size as the input.
+     */
+    BufferedImage convolve(BufferedImage inputImage, Convolution convolution);
+
+    /**
+     * Convolves without blocking the calling thread. Implementations without a native asynchronous path run
+     * {@link #convolve(BufferedImage, Convolution)} on the common ForkJoinPool.
+     */
+    default CompletableFuture<BufferedImage> convolveAsync(BufferedImage inputImage, Convolution convolution) {
+        return CompletableFuture.supplyAsync(() -> convolve(inputImage, convolution));
+    }
+
+    void dispose();
+}
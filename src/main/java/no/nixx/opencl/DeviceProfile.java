@@ -0,0 +1,154 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.util.OCLUtils;
+import org.jocl.cl_device_id;
+import org.jocl.cl_kernel;
+
+import java.util.Arrays;
+
+import static no.nixx.opencl.util.OCLUtils.*;
+import static org.jocl.CL.*;
+
+/**
+ * The capabilities and limits of a device, probed once when the device is opened, so that operators can size their
+ * work without querying the driver on every request, and devices the operators cannot run on are rejected up front.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class DeviceProfile {
+
+    private final String name;
+    private final String vendor;
+    private final String driverVersion;
+    private final long type;
+    private final boolean imageSupport;
+    private final long maxImage2dWidth;
+    private final long maxImage2dHeight;
+    private final long maxMemAllocSize;
+    private final long globalMemSize;
+    private final long localMemSize;
+    private final int maxComputeUnits;
+    private final long maxWorkGroupSize;
+    private final long maxWorkItemSizes[];
+
+    DeviceProfile(String name, String vendor, String driverVersion, long type, boolean imageSupport,
+                  long maxImage2dWidth, long maxImage2dHeight, long maxMemAllocSize, long globalMemSize,
+                  long localMemSize, int maxComputeUnits, long maxWorkGroupSize, long maxWorkItemSizes[]) {
+        this.name = name;
+        this.vendor = vendor;
+        this.driverVersion = driverVersion;
+        this.type = type;
+        this.imageSupport = imageSupport;
+        this.maxImage2dWidth = maxImage2dWidth;
+        this.maxImage2dHeight = maxImage2dHeight;
+        this.maxMemAllocSize = maxMemAllocSize;
+        this.globalMemSize = globalMemSize;
+        this.localMemSize = localMemSize;
+        this.maxComputeUnits = maxComputeUnits;
+        this.maxWorkGroupSize = maxWorkGroupSize;
+        this.maxWorkItemSizes = maxWorkItemSizes;
+    }
+
+    public static DeviceProfile probe(cl_device_id deviceId) {
+        final boolean imageSupport = hasImage2dSupport(deviceId);
+
+        return new DeviceProfile(
+                getDeviceInfoString(deviceId, CL_DEVICE_NAME),
+                getDeviceInfoString(deviceId, CL_DEVICE_VENDOR),
+                getDeviceInfoString(deviceId, CL_DRIVER_VERSION),
+                getDeviceInfoLong(deviceId, CL_DEVICE_TYPE),
+                imageSupport,
+                // The image limits are only defined for devices that support images
+                imageSupport ? OCLUtils.getMaxImage2DWidth(deviceId) : 0,
+                imageSupport ? OCLUtils.getMaxImage2dHeight(deviceId) : 0,
+                OCLUtils.getMaxMemAllocSize(deviceId),
+                getDeviceInfoLong(deviceId, CL_DEVICE_GLOBAL_MEM_SIZE),
+                getDeviceInfoLong(deviceId, CL_DEVICE_LOCAL_MEM_SIZE),
+                getDeviceInfoInt(deviceId, CL_DEVICE_MAX_COMPUTE_UNITS),
+                getDeviceInfoLong(deviceId, CL_DEVICE_MAX_WORK_GROUP_SIZE),
+                OCLUtils.getMaxWorkItemSizes(deviceId));
+    }
+
+    /**
+     * The preferred multiple of the work-group size of a kernel built for this device, e.g. the warp or wavefront
+     * width of a GPU. Only known once a kernel has been built.
+     */
+    public static long getPreferredWorkGroupSizeMultiple(cl_kernel kernel, cl_device_id deviceId) {
+        return getKernelWorkGroupInfoLong(kernel, deviceId, CL_KERNEL_PREFERRED_WORK_GROUP_SIZE_MULTIPLE);
+    }
+
+    /**
+     * Throws if the device cannot run the image operators, which all read and write OpenCL images.
+     */
+    public void checkImageSupport() {
+        if (!imageSupport) {
+            throw new IllegalArgumentException("Device has no image support: " + name);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getVendor() {
+        return vendor;
+    }
+
+    public String getDriverVersion() {
+        return driverVersion;
+    }
+
+    /**
+     * A bitfield of CL_DEVICE_TYPE_* values.
+     */
+    public long getType() {
+        return type;
+    }
+
+    public boolean isGpu() {
+        return (type & CL_DEVICE_TYPE_GPU) != 0;
+    }
+
+    public boolean hasImageSupport() {
+        return imageSupport;
+    }
+
+    public long getMaxImage2dWidth() {
+        return maxImage2dWidth;
+    }
+
+    public long getMaxImage2dHeight() {
+        return maxImage2dHeight;
+    }
+
+    public long getMaxMemAllocSize() {
+        return maxMemAllocSize;
+    }
+
+    public long getGlobalMemSize() {
+        return globalMemSize;
+    }
+
+    public long getLocalMemSize() {
+        return localMemSize;
+    }
+
+    public int getMaxComputeUnits() {
+        return maxComputeUnits;
+    }
+
+    public long getMaxWorkGroupSize() {
+        return maxWorkGroupSize;
+    }
+
+    public long[] getMaxWorkItemSizes() {
+        return maxWorkItemSizes.clone();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DeviceProfile[name=%s, vendor=%s, driver=%s, imageSupport=%b, maxImage2d=%dx%d, maxMemAlloc=%d, globalMem=%d, localMem=%d, computeUnits=%d, maxWorkGroupSize=%d, maxWorkItemSizes=%s]",
+                name, vendor, driverVersion, imageSupport, maxImage2dWidth, maxImage2dHeight, maxMemAllocSize,
+                globalMemSize, localMemSize, maxComputeUnits, maxWorkGroupSize, Arrays.toString(maxWorkItemSizes));
+    }
+}
@@ -0,0 +1,250 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.ImageRotator.Rotation;
+import org.jocl.CLException;
+import org.jocl.cl_device_id;
+import org.jocl.cl_platform_id;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static no.nixx.opencl.util.OCLUtils.*;
+import static org.jocl.CL.CL_DEVICE_NAME;
+import static org.jocl.CL.CL_DEVICE_TYPE_ALL;
+
+/**
+ * Spreads resize and rotate jobs over several devices, each with its own context and command queue.
+ * <p/>
+ * Every job goes to the device expected to finish it first: the pixels already in flight on a device plus the pixels
+ * of the new job, divided by the throughput measured on that device. Throughput is a moving average over completed
+ * jobs, so a slow CPU runtime next to a GPU ends up with a proportionally smaller share of the work. Failed jobs are
+ * not measured, since a device that fails fast would otherwise look like the fastest one; instead every failure
+ * halves the throughput of its lane, which backs the lane off until it completes jobs again.
+ * <p/>
+ * Devices are represented by {@link Lane}s wrapping a resizer and a rotator, so any backend can be scheduled; the
+ * pure-Java operators can stand in for devices in tests.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class DeviceScheduler implements Resizer, Rotator {
+
+    // Weight of the most recent job in the throughput average
+    private static final double THROUGHPUT_SMOOTHING = 0.2;
+    // Factor applied to the throughput of a lane for every failed job
+    private static final double FAILURE_PENALTY = 0.5;
+
+    private final List<Lane> lanes;
+
+    public DeviceScheduler(List<Lane> lanes) {
+        if (lanes.isEmpty()) {
+            throw new IllegalArgumentException("At least one lane is required");
+        }
+        this.lanes = Collections.unmodifiableList(new ArrayList<>(lanes));
+    }
+
+    /**
+     * Creates a scheduler over every device of every platform.
+     */
+    public static DeviceScheduler createForAllDevices() {
+        final List<Lane> lanes = new ArrayList<>();
+        for (cl_platform_id platformId : getPlatformIds()) {
+            final cl_device_id deviceIds[];
+            try {
+                deviceIds = getDeviceIdsForPlatformIdAndType(platformId, CL_DEVICE_TYPE_ALL);
+            } catch (CLException e) {
+                // Platforms without any devices report CL_DEVICE_NOT_FOUND
+                continue;
+            }
+
+            for (cl_device_id deviceId : deviceIds) {
+                if (!hasImage2dSupport(deviceId)) {
+                    continue;
+                }
+                final OCLDevice device = new OCLDevice(platformId, deviceId);
+                final String name = getDeviceInfoString(deviceId, CL_DEVICE_NAME) + " #" + lanes.size();
+                lanes.add(new Lane(name, new ImageResizer(device.retain()), new ImageRotator(device)));
+            }
+        }
+
+        return new DeviceScheduler(lanes);
+    }
+
+    public List<Lane> getLanes() {
+        return lanes;
+    }
+
+    @Override
+    public BufferedImage resize(BufferedImage inputImage, int outputImageWidth, int outputImageHeight) {
+        final long pixels = getPixels(inputImage) + (long) outputImageWidth * outputImageHeight;
+        final Lane lane = selectLane(pixels);
+
+        return lane.run(pixels, () -> lane.resizer.resize(inputImage, outputImageWidth, outputImageHeight));
+    }
+
+    @Override
+    public CompletableFuture<BufferedImage> resizeAsync(BufferedImage inputImage, int outputImageWidth, int outputImageHeight) {
+        final long pixels = getPixels(inputImage) + (long) outputImageWidth * outputImageHeight;
+        final Lane lane = selectLane(pixels);
+
+        return lane.runAsync(pixels, () -> lane.resizer.resizeAsync(inputImage, outputImageWidth, outputImageHeight));
+    }
+
+    @Override
+    public BufferedImage rotate(BufferedImage inputImage, Rotation rotation) {
+        final long pixels = 2 * getPixels(inputImage);
+        final Lane lane = selectLane(pixels);
+
+        return lane.run(pixels, () -> lane.rotator.rotate(inputImage, rotation));
+    }
+
+    @Override
+    public CompletableFuture<BufferedImage> rotateAsync(BufferedImage inputImage, Rotation rotation) {
+        final long pixels = 2 * getPixels(inputImage);
+        final Lane lane = selectLane(pixels);
+
+        return lane.runAsync(pixels, () -> lane.rotator.rotateAsync(inputImage, rotation));
+    }
+
+    @Override
+    public void dispose() {
+        for (Lane lane : lanes) {
+            lane.resizer.dispose();
+            lane.rotator.dispose();
+        }
+    }
+
+    /**
+     * Picks the lane with the earliest expected completion and books the job on it before returning, so that
+     * concurrent callers see each other's work.
+     */
+    synchronized Lane selectLane(long pixels) {
+        Lane selected = null;
+        double earliestCompletion = Double.MAX_VALUE;
+        for (Lane lane : lanes) {
+            final double completion = (lane.inFlightPixels.get() + pixels) / lane.throughput;
+            if (completion < earliestCompletion) {
+                selected = lane;
+                earliestCompletion = completion;
+            }
+        }
+
+        selected.begin(pixels);
+        return selected;
+    }
+
+    private static long getPixels(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight();
+    }
+
+    /**
+     * One device, or anything standing in for one, together with its load and measured throughput.
+     */
+    public static class Lane {
+
+        private final String name;
+        private final Resizer resizer;
+        private final Rotator rotator;
+        private final AtomicInteger inFlightJobs = new AtomicInteger();
+        private final AtomicLong inFlightPixels = new AtomicLong();
+        private final AtomicLong completedJobs = new AtomicLong();
+        private final AtomicLong failedJobs = new AtomicLong();
+
+        // Pixels per nanosecond. Lanes start out equal, so the first jobs are spread by in-flight work alone
+        private volatile double throughput = 1;
+        private volatile boolean measured;
+        private long lastCompletion = Long.MIN_VALUE;
+
+        public Lane(String name, Resizer resizer, Rotator rotator) {
+            this.name = name;
+            this.resizer = resizer;
+            this.rotator = rotator;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getInFlightJobs() {
+            return inFlightJobs.get();
+        }
+
+        public long getCompletedJobs() {
+            return completedJobs.get();
+        }
+
+        public long getFailedJobs() {
+            return failedJobs.get();
+        }
+
+        /**
+         * Returns the measured throughput in pixels per second, or 0 before the first job has completed.
+         */
+        public double getPixelsPerSecond() {
+            return measured ? throughput * 1e9 : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d in flight, %d completed, %d failed, %.0f pixels/s",
+                    name, getInFlightJobs(), getCompletedJobs(), getFailedJobs(), getPixelsPerSecond());
+        }
+
+        private void begin(long pixels) {
+            inFlightJobs.incrementAndGet();
+            inFlightPixels.addAndGet(pixels);
+        }
+
+        private BufferedImage run(long pixels, Supplier<BufferedImage> job) {
+            final long start = System.nanoTime();
+            boolean succeeded = false;
+            try {
+                final BufferedImage image = job.get();
+                succeeded = true;
+                return image;
+            } finally {
+                end(pixels, start, succeeded);
+            }
+        }
+
+        private CompletableFuture<BufferedImage> runAsync(long pixels, Supplier<CompletableFuture<BufferedImage>> job) {
+            final long start = System.nanoTime();
+            final CompletableFuture<BufferedImage> future;
+            try {
+                future = job.get();
+            } catch (RuntimeException e) {
+                end(pixels, start, false);
+                throw e;
+            }
+
+            return future.whenComplete((image, throwable) -> end(pixels, start, throwable == null));
+        }
+
+        private synchronized void end(long pixels, long start, boolean succeeded) {
+            inFlightJobs.decrementAndGet();
+            inFlightPixels.addAndGet(-pixels);
+
+            // Jobs on one device mostly run one after the other, so a job that was queued behind another one only
+            // occupied the device since that one completed
+            final long now = System.nanoTime();
+            final long serviceNanos = Math.max(1, now - Math.max(start, lastCompletion));
+            lastCompletion = now;
+
+            if (!succeeded) {
+                failedJobs.incrementAndGet();
+                throughput *= FAILURE_PENALTY;
+                return;
+            }
+            completedJobs.incrementAndGet();
+
+            final double jobThroughput = pixels / (double) serviceNanos;
+            throughput = measured ? THROUGHPUT_SMOOTHING * jobThroughput + (1 - THROUGHPUT_SMOOTHING) * throughput : jobThroughput;
+            measured = true;
+        }
+    }
+}
@@ -0,0 +1,531 @@
+package no.nixx.opencl;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Decodes image files, runs them through an operation and encodes the results, with each of the three stages on
+ * threads of its own. Decoding and encoding run on worker pools, while a single thread feeds the device, so that the
+ * device sees one caller and the CPU-bound codecs use the remaining cores.
+ * <p/>
+ * The stages are joined by bounded queues: when a later stage falls behind, the earlier ones block instead of
+ * filling the heap with decoded images. The {@link Report} tells how busy each stage was, and therefore which one
+ * limits the throughput.
+ * <p/>
+ * Files are read through NIO, and large files are memory-mapped rather than copied onto the heap. A file that fails
+ * in any stage is recorded in the report, and does not stop the others. So is a file whose output would overwrite an
+ * input or the output of an earlier file, such as {@code a.png} and {@code a.jpg} both encoded as {@code a.bmp}.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class FilePipeline {
+
+    // Smaller files are cheaper to read than to map
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+
+    private final UnaryOperator<BufferedImage> operation;
+    private final Path outputDirectory;
+    private final String outputFormat;
+    private final int decodeThreads;
+    private final int encodeThreads;
+    private final int queueCapacity;
+
+    private FilePipeline(Builder builder) {
+        this.operation = builder.operation;
+        this.outputDirectory = builder.outputDirectory;
+        this.outputFormat = builder.outputFormat;
+        this.decodeThreads = builder.decodeThreads;
+        this.encodeThreads = builder.encodeThreads;
+        this.queueCapacity = builder.queueCapacity;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Processes the files in the directory that ImageIO has a reader for.
+     */
+    public Report run(Path directory) {
+        final Set<String> suffixes = new HashSet<>();
+        for (String suffix : ImageIO.getReaderFileSuffixes()) {
+            suffixes.add(suffix.toLowerCase());
+        }
+
+        final List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                if (Files.isRegularFile(path) && suffixes.contains(getSuffix(path))) {
+                    paths.add(path);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Collections.sort(paths);
+
+        return run(paths);
+    }
+
+    public Report run(List<Path> paths) {
+        try {
+            Files.createDirectories(outputDirectory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final Stage decode = new Stage("decode", decodeThreads);
+        final Stage process = new Stage("process", 1);
+        final Stage encode = new Stage("encode", encodeThreads);
+        final Map<Path, Exception> failures = new ConcurrentSkipListMap<>();
+
+        final Queue<Path> pendingPaths = new ConcurrentLinkedQueue<>(getWritablePaths(paths, failures));
+        final BlockingQueue<Item> decodedItems = new ArrayBlockingQueue<>(queueCapacity);
+        final BlockingQueue<Item> processedItems = new ArrayBlockingQueue<>(queueCapacity);
+        final AtomicInteger runningDecoders = new AtomicInteger(decodeThreads);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(decodeThreads + 1 + encodeThreads);
+        final CompletionService<Void> workers = new ExecutorCompletionService<>(executor);
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < decodeThreads; i++) {
+            workers.submit(() -> {
+                Path path;
+                while ((path = pendingPaths.poll()) != null) {
+                    final long started = System.nanoTime();
+                    Item item;
+                    try {
+                        item = new Item(path, decode(path));
+                    } catch (IOException | RuntimeException e) {
+                        failures.put(path, e);
+                        continue;
+                    } finally {
+                        decode.busy(started);
+                    }
+                    decode.completed();
+                    decode.put(decodedItems, item);
+                }
+                // The last decoder to finish tells the device stage that there is nothing more to come
+                if (runningDecoders.decrementAndGet() == 0) {
+                    decode.put(decodedItems, Item.END);
+                }
+                return null;
+            });
+        }
+
+        workers.submit(() -> {
+            Item item;
+            while ((item = process.take(decodedItems)) != Item.END) {
+                final long started = System.nanoTime();
+                final Item processedItem;
+                try {
+                    processedItem = new Item(item.path, operation.apply(item.image));
+                } catch (RuntimeException e) {
+                    failures.put(item.path, e);
+                    continue;
+                } finally {
+                    process.busy(started);
+                }
+                process.completed();
+                process.put(processedItems, processedItem);
+            }
+            for (int i = 0; i < encodeThreads; i++) {
+                process.put(processedItems, Item.END);
+            }
+            return null;
+        });
+
+        for (int i = 0; i < encodeThreads; i++) {
+            workers.submit(() -> {
+                Item item;
+                while ((item = encode.take(processedItems)) != Item.END) {
+                    final long started = System.nanoTime();
+                    try {
+                        encode(item);
+                        encode.completed();
+                    } catch (IOException | RuntimeException e) {
+                        failures.put(item.path, e);
+                    } finally {
+                        encode.busy(started);
+                    }
+                }
+                return null;
+            });
+        }
+
+        // A worker that dies leaves the others blocked on its queue, so they are interrupted as soon as one fails
+        try {
+            for (int i = 0; i < decodeThreads + 1 + encodeThreads; i++) {
+                workers.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the pipeline", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Pipeline worker failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return new Report(paths.size(), System.nanoTime() - start, Arrays.asList(decode, process, encode), failures);
+    }
+
+    static BufferedImage decode(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final ByteBuffer buffer;
+            if (size >= MAP_THRESHOLD) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // Read until the buffer is full or the file ends
+                }
+                buffer.flip();
+            }
+
+            final BufferedImage image = ImageIO.read(new ByteBufferImageInputStream(buffer));
+            if (image == null) {
+                throw new IOException("No decoder for " + path);
+            }
+
+            return image;
+        }
+    }
+
+    private List<Path> getWritablePaths(List<Path> paths, Map<Path, Exception> failures) {
+        final Set<Path> inputPaths = new HashSet<>();
+        for (Path path : paths) {
+            inputPaths.add(path.toAbsolutePath().normalize());
+        }
+
+        // A file whose output would replace an input, or the output of an earlier file, fails instead of overwriting
+        final Map<Path, Path> outputPaths = new HashMap<>();
+        final List<Path> writablePaths = new ArrayList<>();
+        for (Path path : paths) {
+            final Path outputPath = getOutputPath(path).toAbsolutePath().normalize();
+            final Path previousPath = outputPaths.putIfAbsent(outputPath, path);
+            if (previousPath != null) {
+                failures.put(path, new FileAlreadyExistsException(outputPath.toString(), previousPath.toString(), "Same output as another input"));
+            } else if (inputPaths.contains(outputPath)) {
+                failures.put(path, new FileAlreadyExistsException(outputPath.toString(), null, "Output would overwrite an input"));
+            } else {
+                writablePaths.add(path);
+            }
+        }
+
+        return writablePaths;
+    }
+
+    private Path getOutputPath(Path path) {
+        final String fileName = path.getFileName().toString();
+        final int dot = fileName.lastIndexOf('.');
+        final String baseName = (dot < 0) ? fileName : fileName.substring(0, dot);
+
+        return outputDirectory.resolve(baseName + "." + getOutputFormat(path));
+    }
+
+    private String getOutputFormat(Path path) {
+        return (outputFormat == null) ? getSuffix(path) : outputFormat;
+    }
+
+    private void encode(Item item) throws IOException {
+        final String format = getOutputFormat(item.path);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (!ImageIO.write(item.image, format, bytes)) {
+            throw new IOException("No encoder for " + format + " images of type " + item.image.getType());
+        }
+
+        Files.write(getOutputPath(item.path), bytes.toByteArray());
+    }
+
+    private static String getSuffix(Path path) {
+        final String fileName = path.getFileName().toString();
+        final int dot = fileName.lastIndexOf('.');
+
+        return (dot < 0) ? "" : fileName.substring(dot + 1).toLowerCase();
+    }
+
+    private static class Item {
+        static final Item END = new Item(null, null);
+
+        final Path path;
+        final BufferedImage image;
+
+        Item(Path path, BufferedImage image) {
+            this.path = path;
+            this.image = image;
+        }
+    }
+
+    /**
+     * Time spent by the threads of one stage working, waiting for input, and blocked on a full output queue.
+     */
+    public static class Stage {
+
+        private final String name;
+        private final int threads;
+        private final LongAdder items = new LongAdder();
+        private final LongAdder busyNanos = new LongAdder();
+        private final LongAdder waitingNanos = new LongAdder();
+        private final LongAdder blockedNanos = new LongAdder();
+
+        Stage(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        /**
+         * Items that passed through the stage, not counting those that failed in it.
+         */
+        public long getItems() {
+            return items.sum();
+        }
+
+        public long getBusyNanos() {
+            return busyNanos.sum();
+        }
+
+        public long getWaitingNanos() {
+            return waitingNanos.sum();
+        }
+
+        public long getBlockedNanos() {
+            return blockedNanos.sum();
+        }
+
+        /**
+         * The fraction of the stage's thread time spent working. The stage closest to 1 limits the pipeline.
+         */
+        public double getUtilization(long elapsedNanos) {
+            return getBusyNanos() / ((double) elapsedNanos * threads);
+        }
+
+        private void busy(long started) {
+            busyNanos.add(System.nanoTime() - started);
+        }
+
+        private void completed() {
+            items.increment();
+        }
+
+        private Item take(BlockingQueue<Item> queue) throws InterruptedException {
+            final long started = System.nanoTime();
+            final Item item = queue.take();
+            waitingNanos.add(System.nanoTime() - started);
+
+            return item;
+        }
+
+        private void put(BlockingQueue<Item> queue, Item item) throws InterruptedException {
+            final long started = System.nanoTime();
+            queue.put(item);
+            blockedNanos.add(System.nanoTime() - started);
+        }
+    }
+
+    public static class Report {
+
+        private final int files;
+        private final long elapsedNanos;
+        private final List<Stage> stages;
+        private final Map<Path, Exception> failures;
+
+        Report(int files, long elapsedNanos, List<Stage> stages, Map<Path, Exception> failures) {
+            this.files = files;
+            this.elapsedNanos = elapsedNanos;
+            this.stages = Collections.unmodifiableList(stages);
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+
+        public int getFiles() {
+            return files;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public List<Stage> getStages() {
+            return stages;
+        }
+
+        public Stage getStage(String name) {
+            for (Stage stage : stages) {
+                if (stage.getName().equals(name)) {
+                    return stage;
+                }
+            }
+
+            throw new IllegalArgumentException("Unknown stage: " + name);
+        }
+
+        /**
+         * The stage whose threads were busy the largest fraction of the time.
+         */
+        public Stage getBottleneck() {
+            Stage bottleneck = stages.get(0);
+            for (Stage stage : stages) {
+                if (stage.getUtilization(elapsedNanos) > bottleneck.getUtilization(elapsedNanos)) {
+                    bottleneck = stage;
+                }
+            }
+
+            return bottleneck;
+        }
+
+        public Map<Path, Exception> getFailures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            final double seconds = elapsedNanos / 1e9;
+            sb.append(String.format("%d files in %.2f s, %d failed%n", files, seconds, failures.size()));
+            sb.append(String.format("%-8s %7s %7s %9s %12s %9s %9s%n", "stage", "threads", "items", "items/s", "utilization", "waiting", "blocked"));
+            for (Stage stage : stages) {
+                sb.append(String.format("%-8s %7d %7d %9.1f %11.0f%% %8.2fs %8.2fs%n",
+                        stage.getName(), stage.getThreads(), stage.getItems(), stage.getItems() / seconds,
+                        100 * stage.getUtilization(elapsedNanos), stage.getWaitingNanos() / 1e9, stage.getBlockedNanos() / 1e9));
+            }
+
+            return sb.toString();
+        }
+    }
+
+    public static class Builder {
+
+        private UnaryOperator<BufferedImage> operation;
+        private Path outputDirectory;
+        private String outputFormat;
+        private int decodeThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        private int encodeThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        private int queueCapacity = 8;
+
+        /**
+         * The operation of the device stage, e.g. a resize. It is only ever called from one thread at a time.
+         */
+        public Builder operation(UnaryOperator<BufferedImage> operation) {
+            this.operation = operation;
+            return this;
+        }
+
+        public Builder outputDirectory(Path outputDirectory) {
+            this.outputDirectory = outputDirectory;
+            return this;
+        }
+
+        /**
+         * An ImageIO format name for all outputs. By default each output has the format of its input.
+         */
+        public Builder outputFormat(String outputFormat) {
+            this.outputFormat = outputFormat;
+            return this;
+        }
+
+        public Builder decodeThreads(int decodeThreads) {
+            this.decodeThreads = decodeThreads;
+            return this;
+        }
+
+        public Builder encodeThreads(int encodeThreads) {
+            this.encodeThreads = encodeThreads;
+            return this;
+        }
+
+        /**
+         * The number of images each queue between two stages holds before the stage in front of it blocks.
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public FilePipeline build() {
+            if (operation == null || outputDirectory == null) {
+                throw new IllegalStateException("A file pipeline needs an operation and an output directory");
+            }
+            if (decodeThreads < 1 || encodeThreads < 1 || queueCapacity < 1) {
+                throw new IllegalArgumentException("Thread counts and queue capacity must be positive");
+            }
+
+            return new FilePipeline(this);
+        }
+    }
+
+    /**
+     * Reads a heap or memory-mapped buffer without copying it first.
+     */
+    /**
+     * Reads and seeks within the buffer itself, where a MemoryCacheImageInputStream would copy every byte it reads
+     * onto the heap.
+     */
+    private static class ByteBufferImageInputStream extends ImageInputStreamImpl {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferImageInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (streamPos >= buffer.limit()) {
+                return -1;
+            }
+
+            return buffer.get((int) streamPos++) & 0xff;
+        }
+
+        @Override
+        public int read(byte target[], int offset, int length) throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (length == 0) {
+                return 0;
+            }
+            if (streamPos >= buffer.limit()) {
+                return -1;
+            }
+            final int count = (int) Math.min(length, buffer.limit() - streamPos);
+            final ByteBuffer source = buffer.duplicate();
+            source.position((int) streamPos);
+            source.get(target, offset, count);
+            streamPos += count;
+
+            return count;
+        }
+
+        @Override
+        public long length() {
+            return buffer.limit();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.util.BuildOptions;
+import no.nixx.opencl.util.CLResources;
+import org.jocl.*;
+
+import static no.nixx.opencl.util.OCLUtils.getKernelWorkGroupInfoLong;
+import static org.jocl.CL.*;
+
+/**
+ * Enqueues the histogram kernels of histogram.cl on a device image: a partial histogram per work-group, counted with
+ * local atomics, and a merge of the partial histograms. Only the merged histograms, 4 KB, are read back.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+class HistogramReduction {
+
+    private static final String PROGRAM_RESOURCE = "histogram.cl";
+    private static final int BINS = ImageStatistics.LEVELS * ImageStatistics.Channel.values().length;
+    private static final int MAX_LOCAL_WORK_SIZE = 256;
+    // Enough work-groups to keep every compute unit busy, few enough that the merge stays cheap
+    private static final int WORK_GROUPS_PER_COMPUTE_UNIT = 4;
+
+    private final OCLDevice device;
+
+    HistogramReduction(OCLDevice device) {
+        this.device = device;
+    }
+
+    /**
+     * Enqueues the kernels once the given event has completed. The result has to be collected with
+     * {@link Histograms#getStatistics()}; the kernels, buffers and events are added to the given resources.
+     */
+    Histograms enqueue(cl_mem image, int width, int height, int channels, cl_event waitFor, CLResources resources) {
+        final cl_context context = device.getContext();
+        final cl_command_queue commandQueue = device.getCommandQueue();
+        // A variant per channel count, so that the kernel does not test the count for every pixel
+        final cl_program program = device.getProgram(PROGRAM_RESOURCE, BuildOptions.builder().define("CHANNELS", channels).build());
+
+        final cl_kernel partialKernel = resources.createKernel(program, "histogramPartial");
+        final long localWorkSize = getLocalWorkSize(partialKernel);
+        final long pixels = (long) width * height;
+        final int numPartials = (int) Math.max(1, Math.min(
+                device.getProfile().getMaxComputeUnits() * WORK_GROUPS_PER_COMPUTE_UNIT,
+                (pixels + localWorkSize - 1) / localWorkSize));
+
+        final cl_mem partials = resources.createBuffer(context, CL_MEM_READ_WRITE, (long) numPartials * BINS * Sizeof.cl_uint, null);
+        final cl_mem merged = resources.createBuffer(context, CL_MEM_WRITE_ONLY, (long) BINS * Sizeof.cl_uint, null);
+        clSetKernelArg(partialKernel, 0, Sizeof.cl_mem, Pointer.to(image));
+        clSetKernelArg(partialKernel, 1, Sizeof.cl_int, Pointer.to(new int[]{channels}));
+        clSetKernelArg(partialKernel, 2, Sizeof.cl_mem, Pointer.to(partials));
+        clSetKernelArg(partialKernel, 3, (long) BINS * Sizeof.cl_uint, null);
+
+        final cl_kernel mergeKernel = resources.createKernel(program, "histogramMerge");
+        clSetKernelArg(mergeKernel, 0, Sizeof.cl_mem, Pointer.to(partials));
+        clSetKernelArg(mergeKernel, 1, Sizeof.cl_int, Pointer.to(new int[]{numPartials}));
+        clSetKernelArg(mergeKernel, 2, Sizeof.cl_mem, Pointer.to(merged));
+
+        final Histograms histograms = new Histograms(merged);
+        final int numEvents = waitFor == null ? 0 : 1;
+        final cl_event waitList[] = waitFor == null ? null : new cl_event[]{waitFor};
+        clEnqueueNDRangeKernel(commandQueue, partialKernel, 1, null, new long[]{numPartials * localWorkSize}, new long[]{localWorkSize},
+                numEvents, waitList, histograms.events[0]);
+        resources.add(histograms.events[0]);
+        clEnqueueNDRangeKernel(commandQueue, mergeKernel, 1, null, new long[]{BINS}, null,
+                1, new cl_event[]{histograms.events[0]}, histograms.events[1]);
+        resources.add(histograms.events[1]);
+
+        return histograms;
+    }
+
+    /**
+     * The enqueued kernels of one histogram, and the buffer they merge into.
+     */
+    class Histograms {
+        final cl_mem merged;
+        final cl_event events[] = new cl_event[]{new cl_event(), new cl_event()};
+
+        private Histograms(cl_mem merged) {
+            this.merged = merged;
+        }
+
+        /**
+         * Blocks until the histograms have been computed and read back.
+         */
+        ImageStatistics getStatistics() {
+            final int bins[] = new int[BINS];
+            clEnqueueReadBuffer(device.getCommandQueue(), merged, true, 0, (long) BINS * Sizeof.cl_uint, Pointer.to(bins),
+                    1, new cl_event[]{events[1]}, null);
+
+            return new ImageStatistics(bins);
+        }
+    }
+
+    private long getLocalWorkSize(cl_kernel kernel) {
+        final long maxWorkGroupSize = getKernelWorkGroupInfoLong(kernel, device.getDeviceId(), CL_KERNEL_WORK_GROUP_SIZE);
+
+        return Math.max(1, Math.min(MAX_LOCAL_WORK_SIZE, maxWorkGroupSize));
+    }
+}
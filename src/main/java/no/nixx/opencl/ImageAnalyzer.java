@@ -0,0 +1,79 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.util.CLResource;
+import no.nixx.opencl.util.CLResources;
+import org.jocl.*;
+
+import java.awt.image.BufferedImage;
+
+import static org.jocl.CL.*;
+
+/**
+ * Computes {@link ImageStatistics} with histogram.cl and applies {@link Levels} with levels.cl. The input must fit in
+ * a single device image. To analyze an image that is resized anyway, use
+ * {@link ImagePipeline#processWithStatistics(BufferedImage)}, which computes the statistics on the uploaded image.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class ImageAnalyzer implements Analyzer {
+
+    private static final String PROGRAM_RESOURCE = "levels.cl";
+
+    private final OCLDevice device;
+    private final HistogramReduction histogramReduction;
+    private final ImageKernelLauncher levelsLauncher;
+    private final PixelTransfer transfer;
+
+    public ImageAnalyzer() {
+        this(OCLRegistry.acquireDefaultDevice());
+    }
+
+    /**
+     * Takes over one reference to the given device, which is released by {@link #dispose()}.
+     */
+    public ImageAnalyzer(OCLDevice device) {
+        this.device = device;
+        this.histogramReduction = new HistogramReduction(device);
+        this.levelsLauncher = new ImageKernelLauncher(device, device.getProgram(PROGRAM_RESOURCE), "applyLevels");
+        this.transfer = new PixelTransfer(device);
+    }
+
+    @Override
+    public ImageStatistics analyze(BufferedImage inputImage) {
+        inputImage = transfer.toSupportedFormat(inputImage);
+        try (CLResources resources = new CLResources(device.getCommandQueue())) {
+            final cl_mem inputRaster = transfer.acquire(inputImage, CL_MEM_READ_ONLY, resources);
+            final cl_event writeEvent = new cl_event();
+            transfer.write(inputRaster, inputImage, writeEvent);
+            resources.add(writeEvent);
+            final HistogramReduction.Histograms histograms = histogramReduction.enqueue(inputRaster, inputImage.getWidth(), inputImage.getHeight(),
+                    transfer.getFormat(inputImage).getChannels(), writeEvent, resources);
+            final ImageStatistics statistics = histograms.getStatistics();
+
+            if (device.isProfiling()) {
+                // Nothing but the histograms is read back
+                device.reportOperation("histogram", inputImage.getWidth(), inputImage.getHeight(), writeEvent,
+                        new cl_event[]{histograms.events[0]}, histograms.events[1]);
+            }
+            resources.complete();
+
+            return statistics;
+        }
+    }
+
+    @Override
+    public BufferedImage applyLevels(BufferedImage inputImage, Levels levels) {
+        final BufferedImage outputImage = transfer.createOutputImage(inputImage, inputImage.getWidth(), inputImage.getHeight());
+        final float lut[] = levels.getLut();
+        try (CLResource<cl_mem> lutBuffer = CLResource.createBuffer(device.getContext(), CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR,
+                (long) lut.length * Sizeof.cl_float, Pointer.to(lut))) {
+            return levelsLauncher.run(inputImage, outputImage, new long[]{inputImage.getWidth(), inputImage.getHeight()},
+                    kernel -> clSetKernelArg(kernel, 2, Sizeof.cl_mem, Pointer.to(lutBuffer.get())));
+        }
+    }
+
+    @Override
+    public void dispose() {
+        device.release();
+    }
+}
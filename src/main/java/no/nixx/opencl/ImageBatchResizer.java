@@ -0,0 +1,390 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.util.CLResource;
+import no.nixx.opencl.util.CLResources;
+import org.jocl.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static org.jocl.CL.*;
+
+/**
+ * Resizes many images with one kernel launch per batch instead of one per image.
+ * <p/>
+ * The images of a batch are packed into one staging buffer. Uploads, kernels and downloads go to separate in-order
+ * queues, created once per resizer, and every stage waits for the previous one through events. Two sets of device
+ * buffers are used in turns: the upload of a batch waits for the kernel that last read its input buffers, and its
+ * kernel for the download that last read its output buffer. The upload of batch N+1 and the download of batch N-1
+ * can therefore overlap the kernel for batch N without the host waiting for any of them. The host only waits when
+ * all its staging buffers hold batches that have not been downloaded yet, or for the last batches at the end.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class ImageBatchResizer {
+
+    private static final String PROGRAM_RESOURCE = "resize_batch.cl";
+    private static final int DESCRIPTOR_INTS = 6;
+    private static final int DEVICE_BUFFER_SETS = 2;
+    // Batches the host may pack ahead of the downloads, which bounds the host memory used for staging
+    private static final int HOST_BUFFER_SETS = 4;
+
+    private static final int DEFAULT_MAX_IMAGES_PER_BATCH = 256;
+    private static final int DEFAULT_MAX_PIXELS_PER_BATCH = 8 * 1024 * 1024;
+
+    public static class BatchResult {
+
+        private final List<BufferedImage> images;
+        private final int batches;
+        private final long elapsedNanos;
+
+        private BatchResult(List<BufferedImage> images, int batches, long elapsedNanos) {
+            this.images = images;
+            this.batches = batches;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public List<BufferedImage> getImages() {
+            return images;
+        }
+
+        public int getBatches() {
+            return batches;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getImagesPerSecond() {
+            return elapsedNanos == 0 ? 0 : images.size() / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d images in %d batches, %.1f images/s", images.size(), batches, getImagesPerSecond());
+        }
+    }
+
+    private final OCLDevice device;
+    private final cl_program program;
+    private final int maxImagesPerBatch;
+    private final int maxPixelsPerBatch;
+    private final CLResources queues = new CLResources();
+    private final cl_command_queue uploadQueue;
+    private final cl_command_queue computeQueue;
+    private final cl_command_queue downloadQueue;
+
+    public ImageBatchResizer() {
+        this(OCLRegistry.acquireDefaultDevice());
+    }
+
+    /**
+     * Takes over one reference to the given device, which is released by {@link #dispose()}.
+     */
+    public ImageBatchResizer(OCLDevice device) {
+        this(device, DEFAULT_MAX_IMAGES_PER_BATCH, DEFAULT_MAX_PIXELS_PER_BATCH);
+    }
+
+    public ImageBatchResizer(OCLDevice device, int maxImagesPerBatch, int maxPixelsPerBatch) {
+        this.device = device;
+        this.program = device.getProgram(PROGRAM_RESOURCE);
+        this.maxImagesPerBatch = maxImagesPerBatch;
+        this.maxPixelsPerBatch = maxPixelsPerBatch;
+
+        final cl_context context = device.getContext();
+        final cl_device_id deviceId = device.getDeviceId();
+        try {
+            // Profiled like the queue of the device, so that metrics listeners added later see the batches too
+            this.uploadQueue = queues.add(CLResource.createCommandQueue(context, deviceId, CL_QUEUE_PROFILING_ENABLE));
+            this.computeQueue = queues.add(CLResource.createCommandQueue(context, deviceId, CL_QUEUE_PROFILING_ENABLE));
+            this.downloadQueue = queues.add(CLResource.createCommandQueue(context, deviceId, CL_QUEUE_PROFILING_ENABLE));
+        } catch (RuntimeException e) {
+            queues.close();
+            throw e;
+        }
+    }
+
+    public BatchResult resize(List<BufferedImage> inputImages, List<Dimension> outputSizes) {
+        if (inputImages.size() != outputSizes.size()) {
+            throw new IllegalArgumentException("Expected one output size per image");
+        }
+
+        final long startTime = System.nanoTime();
+        final List<BufferedImage> outputImages = new ArrayList<>(inputImages.size());
+        for (Dimension outputSize : outputSizes) {
+            outputImages.add(new BufferedImage(outputSize.width, outputSize.height, BufferedImage.TYPE_INT_RGB));
+        }
+
+        final List<Batch> batches = partition(inputImages, outputImages, maxImagesPerBatch, maxPixelsPerBatch);
+        if (batches.isEmpty()) {
+            return new BatchResult(Collections.<BufferedImage>emptyList(), 0, 0);
+        }
+
+        int maxInputPixels = 0;
+        int maxOutputPixels = 0;
+        int maxImages = 0;
+        for (Batch batch : batches) {
+            maxInputPixels = Math.max(maxInputPixels, batch.inputPixels);
+            maxOutputPixels = Math.max(maxOutputPixels, batch.outputPixels);
+            maxImages = Math.max(maxImages, batch.images.size());
+        }
+
+        final cl_context context = device.getContext();
+        try (CLResources resources = new CLResources()) {
+            final DeviceBuffers deviceBuffers[] = new DeviceBuffers[DEVICE_BUFFER_SETS];
+            for (int i = 0; i < DEVICE_BUFFER_SETS; i++) {
+                deviceBuffers[i] = new DeviceBuffers(context, maxInputPixels, maxOutputPixels, maxImages, resources);
+            }
+
+            final Deque<HostBuffers> freeHostBuffers = new ArrayDeque<>();
+            final Deque<HostBuffers> pendingHostBuffers = new ArrayDeque<>();
+            // Keeps the staging buffers of the batches in flight reachable until the queues have finished
+            resources.onClose(pendingHostBuffers::clear);
+            // Closed first, so that nothing is released while commands on any of the queues are still using it
+            resources.onClose(() -> {
+                clFinish(uploadQueue);
+                clFinish(computeQueue);
+                clFinish(downloadQueue);
+            });
+
+            for (int i = 0; i < batches.size(); i++) {
+                final HostBuffers hostBuffers = pendingHostBuffers.size() == HOST_BUFFER_SETS
+                        ? unpack(pendingHostBuffers.poll())
+                        : freeHostBuffers.isEmpty() ? new HostBuffers(maxInputPixels, maxOutputPixels, maxImages) : freeHostBuffers.poll();
+
+                hostBuffers.pack(batches.get(i));
+                pendingHostBuffers.add(hostBuffers);
+                deviceBuffers[i % DEVICE_BUFFER_SETS].enqueue(hostBuffers, resources);
+
+                // Unpacks the batches that have already arrived, without waiting for the others
+                while (!pendingHostBuffers.isEmpty() && pendingHostBuffers.peek().isDownloaded()) {
+                    freeHostBuffers.add(unpack(pendingHostBuffers.poll()));
+                }
+            }
+
+            while (!pendingHostBuffers.isEmpty()) {
+                unpack(pendingHostBuffers.poll());
+            }
+        }
+
+        return new BatchResult(outputImages, batches.size(), System.nanoTime() - startTime);
+    }
+
+    /**
+     * Unpacks the batch, and reports it to the metrics listeners of the device under the size of its largest image.
+     */
+    private HostBuffers unpack(HostBuffers hostBuffers) {
+        hostBuffers.unpack();
+        if (device.isProfiling()) {
+            // The descriptors are uploaded right after the pixels, and are a few bytes next to them
+            device.reportOperation("resizeBatch", hostBuffers.largestOutputWidth, hostBuffers.largestOutputHeight,
+                    hostBuffers.uploadEvent, new cl_event[]{hostBuffers.kernelEvent}, hostBuffers.downloadEvent);
+        }
+
+        return hostBuffers;
+    }
+
+    /**
+     * Releases the command queues of the resizer, and its reference to the device.
+     */
+    public void dispose() {
+        queues.close();
+        device.release();
+    }
+
+    static List<Batch> partition(List<BufferedImage> inputImages, List<BufferedImage> outputImages, int maxImagesPerBatch, int maxPixelsPerBatch) {
+        final List<Batch> batches = new ArrayList<>();
+        Batch batch = new Batch();
+
+        for (int i = 0; i < inputImages.size(); i++) {
+            final BufferedImage inputImage = inputImages.get(i);
+            final BufferedImage outputImage = outputImages.get(i);
+            final int inputPixels = inputImage.getWidth() * inputImage.getHeight();
+            final int outputPixels = outputImage.getWidth() * outputImage.getHeight();
+
+            final boolean full = batch.images.size() == maxImagesPerBatch
+                    || batch.inputPixels + inputPixels > maxPixelsPerBatch
+                    || batch.outputPixels + outputPixels > maxPixelsPerBatch;
+            if (!batch.images.isEmpty() && full) {
+                batches.add(batch);
+                batch = new Batch();
+            }
+            batch.add(inputImage, outputImage);
+        }
+
+        if (!batch.images.isEmpty()) {
+            batches.add(batch);
+        }
+
+        return batches;
+    }
+
+    static class Batch {
+
+        private final List<BufferedImage> images = new ArrayList<>();
+        private final List<BufferedImage> outputImages = new ArrayList<>();
+        private int inputPixels;
+        private int outputPixels;
+
+        private void add(BufferedImage inputImage, BufferedImage outputImage) {
+            images.add(inputImage);
+            outputImages.add(outputImage);
+            inputPixels += inputImage.getWidth() * inputImage.getHeight();
+            outputPixels += outputImage.getWidth() * outputImage.getHeight();
+        }
+
+        int size() {
+            return images.size();
+        }
+    }
+
+    /**
+     * Host staging buffers for one batch, from packing until its download has been unpacked.
+     */
+    private static class HostBuffers {
+
+        private final ByteBuffer input;
+        private final ByteBuffer output;
+        private final ByteBuffer descriptors;
+
+        private Batch batch;
+        private int inputPixels;
+        private int outputPixels;
+        private int largestOutputWidth;
+        private int largestOutputHeight;
+        private cl_event uploadEvent;
+        private cl_event kernelEvent;
+        private cl_event downloadEvent;
+
+        private HostBuffers(int maxInputPixels, int maxOutputPixels, int maxImages) {
+            // Non-blocking transfers need direct buffers, since Java arrays may be moved by the garbage collector
+            input = ByteBuffer.allocateDirect(maxInputPixels * Sizeof.cl_uint).order(ByteOrder.nativeOrder());
+            output = ByteBuffer.allocateDirect(maxOutputPixels * Sizeof.cl_uint).order(ByteOrder.nativeOrder());
+            descriptors = ByteBuffer.allocateDirect(maxImages * DESCRIPTOR_INTS * Sizeof.cl_int).order(ByteOrder.nativeOrder());
+        }
+
+        private void pack(Batch batch) {
+            this.batch = batch;
+            input.clear();
+            descriptors.clear();
+
+            final IntBuffer inputBuffer = input.asIntBuffer();
+            inputPixels = 0;
+            outputPixels = 0;
+            largestOutputWidth = 0;
+            largestOutputHeight = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                final BufferedImage inputImage = batch.images.get(i);
+                final BufferedImage outputImage = batch.outputImages.get(i);
+                inputBuffer.put(getDataBufferInt(inputImage));
+                descriptors.putInt(inputPixels).putInt(inputImage.getWidth()).putInt(inputImage.getHeight());
+                descriptors.putInt(outputPixels).putInt(outputImage.getWidth()).putInt(outputImage.getHeight());
+                inputPixels += inputImage.getWidth() * inputImage.getHeight();
+                outputPixels += outputImage.getWidth() * outputImage.getHeight();
+                if (outputImage.getWidth() * outputImage.getHeight() > largestOutputWidth * largestOutputHeight) {
+                    largestOutputWidth = outputImage.getWidth();
+                    largestOutputHeight = outputImage.getHeight();
+                }
+            }
+            descriptors.flip();
+        }
+
+        private boolean isDownloaded() {
+            final int status[] = new int[1];
+            clGetEventInfo(downloadEvent, CL_EVENT_COMMAND_EXECUTION_STATUS, Sizeof.cl_int, Pointer.to(status), null);
+
+            // Failed commands have a negative status, which unpack() reports
+            return status[0] <= CL_COMPLETE;
+        }
+
+        /**
+         * Waits for the download, and copies the pixels into the output images of the batch. The events stay set until
+         * the buffers are enqueued again, and are released with the resources of the run.
+         */
+        private void unpack() {
+            clWaitForEvents(1, new cl_event[]{downloadEvent});
+
+            final IntBuffer outputBuffer = output.asIntBuffer();
+            for (BufferedImage outputImage : batch.outputImages) {
+                outputBuffer.get(getDataBufferInt(outputImage));
+            }
+
+            batch = null;
+        }
+    }
+
+    /**
+     * The device buffers of one batch in flight, and the events of the last commands that read them.
+     */
+    private class DeviceBuffers {
+
+        private final cl_mem input;
+        private final cl_mem output;
+        private final cl_mem descriptors;
+
+        private cl_event kernelEvent;
+        private cl_event downloadEvent;
+
+        private DeviceBuffers(cl_context context, int maxInputPixels, int maxOutputPixels, int maxImages, CLResources resources) {
+            input = resources.createBuffer(context, CL_MEM_READ_ONLY, (long) maxInputPixels * Sizeof.cl_uint, null);
+            output = resources.createBuffer(context, CL_MEM_WRITE_ONLY, (long) maxOutputPixels * Sizeof.cl_uint, null);
+            descriptors = resources.createBuffer(context, CL_MEM_READ_ONLY, (long) maxImages * DESCRIPTOR_INTS * Sizeof.cl_int, null);
+        }
+
+        /**
+         * Enqueues the upload, kernel and download of the packed batch, each waiting for the commands it depends on.
+         * The events are added to the resources, so that they stay valid for the batches that wait for them.
+         */
+        private void enqueue(HostBuffers hostBuffers, CLResources resources) {
+            final int numUploadEvents = kernelEvent == null ? 0 : 1;
+            final cl_event uploadWaitList[] = kernelEvent == null ? null : new cl_event[]{kernelEvent};
+
+            final cl_event inputEvent = new cl_event();
+            clEnqueueWriteBuffer(uploadQueue, input, false, 0, (long) hostBuffers.inputPixels * Sizeof.cl_uint, Pointer.to(hostBuffers.input),
+                    numUploadEvents, uploadWaitList, inputEvent);
+            resources.add(inputEvent);
+            final cl_event descriptorsEvent = new cl_event();
+            clEnqueueWriteBuffer(uploadQueue, descriptors, false, 0, hostBuffers.descriptors.limit(), Pointer.to(hostBuffers.descriptors),
+                    numUploadEvents, uploadWaitList, descriptorsEvent);
+            resources.add(descriptorsEvent);
+            hostBuffers.uploadEvent = inputEvent;
+            clFlush(uploadQueue);
+
+            final cl_event kernelWaitList[] = downloadEvent == null
+                    ? new cl_event[]{inputEvent, descriptorsEvent}
+                    : new cl_event[]{inputEvent, descriptorsEvent, downloadEvent};
+            kernelEvent = new cl_event();
+            // The kernel is retained by the queue until it has been executed
+            try (CLResource<cl_kernel> resource = CLResource.createKernel(program, "resizeBatch")) {
+                final cl_kernel kernel = resource.get();
+                clSetKernelArg(kernel, 0, Sizeof.cl_mem, Pointer.to(input));
+                clSetKernelArg(kernel, 1, Sizeof.cl_mem, Pointer.to(output));
+                clSetKernelArg(kernel, 2, Sizeof.cl_mem, Pointer.to(descriptors));
+                clSetKernelArg(kernel, 3, Sizeof.cl_int, Pointer.to(new int[]{hostBuffers.batch.size()}));
+                clSetKernelArg(kernel, 4, Sizeof.cl_int, Pointer.to(new int[]{hostBuffers.outputPixels}));
+                clEnqueueNDRangeKernel(computeQueue, kernel, 1, null, new long[]{hostBuffers.outputPixels}, null,
+                        kernelWaitList.length, kernelWaitList, kernelEvent);
+                resources.add(kernelEvent);
+                hostBuffers.kernelEvent = kernelEvent;
+                clFlush(computeQueue);
+            }
+
+            downloadEvent = new cl_event();
+            clEnqueueReadBuffer(downloadQueue, output, false, 0, (long) hostBuffers.outputPixels * Sizeof.cl_uint, Pointer.to(hostBuffers.output),
+                    1, new cl_event[]{kernelEvent}, downloadEvent);
+            resources.add(downloadEvent);
+            hostBuffers.downloadEvent = downloadEvent;
+            clFlush(downloadQueue);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.util.CLResources;
+import org.jocl.*;
+
+import java.awt.image.BufferedImage;
+
+import static no.nixx.opencl.util.OCLUtils.getKernelWorkGroupInfoLong;
+import static org.jocl.CL.*;
+
+/**
+ * Applies a {@link Convolution} with convolve.cl: separable convolutions as a row pass into a float image followed by
+ * a column pass, and two-dimensional ones in a single pass. The input must fit in a single device image.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class ImageConvolver implements Convolver {
+
+    private static final String PROGRAM_RESOURCE = "convolve.cl";
+
+    // Work-group size along the filtered axis of a separable pass, and the edge of the work-groups of a 2D pass
+    private static final int MAX_LOCAL_WORK_SIZE = 64;
+    private static final int MAX_LOCAL_WORK_SIZE_2D = 16;
+
+    private final OCLDevice device;
+    private final cl_program program;
+    private final PixelTransfer transfer;
+
+    public ImageConvolver() {
+        this(OCLRegistry.acquireDefaultDevice());
+    }
+
+    /**
+     * Takes over one reference to the given device, which is released by {@link #dispose()}.
+     */
+    public ImageConvolver(OCLDevice device) {
+        this.device = device;
+        this.program = device.getProgram(PROGRAM_RESOURCE);
+        this.transfer = new PixelTransfer(device);
+    }
+
+    @Override
+    public BufferedImage convolve(BufferedImage inputImage, Convolution convolution) {
+        final BufferedImage outputImage = transfer.createOutputImage(inputImage, inputImage.getWidth(), inputImage.getHeight());
+        inputImage = transfer.toSupportedFormat(inputImage);
+        try (CLResources resources = new CLResources(device.getCommandQueue())) {
+            final cl_mem inputRaster = transfer.acquire(inputImage, CL_MEM_READ_ONLY, resources);
+            final cl_mem outputRaster = transfer.acquire(outputImage, CL_MEM_WRITE_ONLY, resources);
+
+            final cl_event writeEvent = new cl_event();
+            transfer.write(inputRaster, inputImage, writeEvent);
+            resources.add(writeEvent);
+            final cl_event passEvents[] = convolution.isSeparable()
+                    ? enqueueSeparable(inputRaster, outputRaster, inputImage.getWidth(), inputImage.getHeight(), convolution, writeEvent, resources)
+                    : enqueue2d(inputRaster, outputRaster, inputImage.getWidth(), inputImage.getHeight(), convolution, writeEvent, resources);
+            final cl_event readEvent = new cl_event();
+            transfer.read(outputRaster, outputImage, passEvents[passEvents.length - 1], readEvent);
+            resources.add(readEvent);
+
+            if (device.isProfiling()) {
+                device.reportOperation("convolve", outputImage.getWidth(), outputImage.getHeight(), writeEvent, passEvents, readEvent);
+            }
+            resources.complete();
+        }
+
+        return outputImage;
+    }
+
+    @Override
+    public void dispose() {
+        device.release();
+    }
+
+    /**
+     * Enqueues the passes, whose kernels, buffers and intermediate image are added to the resources, and returns the
+     * events of the passes.
+     */
+    private cl_event[] enqueueSeparable(cl_mem inputRaster, cl_mem outputRaster, int width, int height, Convolution convolution, cl_event waitFor, CLResources resources) {
+        final float horizontal[] = convolution.getHorizontal();
+        final float vertical[] = convolution.getVertical();
+        final int horizontalRadius = horizontal.length / 2;
+        final int verticalRadius = vertical.length / 2;
+
+        final cl_context context = device.getContext();
+        final cl_command_queue commandQueue = device.getCommandQueue();
+        // Kept in floats, so that the column pass sees the row sums unrounded
+        final ImagePool imagePool = device.getImagePool();
+        final cl_mem intermediate = imagePool.acquire(width, height, getFloatImageFormat(), CL_MEM_READ_WRITE);
+        resources.onClose(() -> imagePool.release(intermediate));
+        final cl_mem horizontalWeights = createBuffer(resources, context, horizontal);
+        final cl_mem verticalWeights = createBuffer(resources, context, vertical);
+
+        final cl_kernel rowsKernel = resources.createKernel(program, "convolveRows");
+        final long rowsLocalWorkSize = getLocalWorkSize(rowsKernel, horizontalRadius);
+        clSetKernelArg(rowsKernel, 0, Sizeof.cl_mem, Pointer.to(inputRaster));
+        clSetKernelArg(rowsKernel, 1, Sizeof.cl_mem, Pointer.to(intermediate));
+        clSetKernelArg(rowsKernel, 2, Sizeof.cl_mem, Pointer.to(horizontalWeights));
+        clSetKernelArg(rowsKernel, 3, Sizeof.cl_int, Pointer.to(new int[]{horizontalRadius}));
+        clSetKernelArg(rowsKernel, 4, (rowsLocalWorkSize + 2 * horizontalRadius) * Sizeof.cl_float4, null);
+
+        final cl_kernel columnsKernel = resources.createKernel(program, "convolveColumns");
+        final long columnsLocalWorkSize = getLocalWorkSize(columnsKernel, verticalRadius);
+        clSetKernelArg(columnsKernel, 0, Sizeof.cl_mem, Pointer.to(intermediate));
+        clSetKernelArg(columnsKernel, 1, Sizeof.cl_mem, Pointer.to(inputRaster));
+        clSetKernelArg(columnsKernel, 2, Sizeof.cl_mem, Pointer.to(outputRaster));
+        clSetKernelArg(columnsKernel, 3, Sizeof.cl_mem, Pointer.to(verticalWeights));
+        clSetKernelArg(columnsKernel, 4, Sizeof.cl_int, Pointer.to(new int[]{verticalRadius}));
+        clSetKernelArg(columnsKernel, 5, Sizeof.cl_float, Pointer.to(new float[]{convolution.getSharpening()}));
+        clSetKernelArg(columnsKernel, 6, (columnsLocalWorkSize + 2 * verticalRadius) * Sizeof.cl_float4, null);
+
+        // The work-groups have to match the local memory set aside above, so these are not left to the tuner
+        final cl_event rowsEvent = new cl_event();
+        clEnqueueNDRangeKernel(commandQueue, rowsKernel, 2, null,
+                new long[]{roundUp(width, rowsLocalWorkSize), height}, new long[]{rowsLocalWorkSize, 1},
+                1, new cl_event[]{waitFor}, rowsEvent);
+        resources.add(rowsEvent);
+        final cl_event columnsEvent = new cl_event();
+        clEnqueueNDRangeKernel(commandQueue, columnsKernel, 2, null,
+                new long[]{roundUp(height, columnsLocalWorkSize), width}, new long[]{columnsLocalWorkSize, 1},
+                1, new cl_event[]{rowsEvent}, columnsEvent);
+        resources.add(columnsEvent);
+
+        return new cl_event[]{rowsEvent, columnsEvent};
+    }
+
+    private cl_event[] enqueue2d(cl_mem inputRaster, cl_mem outputRaster, int width, int height, Convolution convolution, cl_event waitFor, CLResources resources) {
+        final int kernelWidth = convolution.getWidth();
+        final int kernelHeight = convolution.getHeight();
+        final cl_mem weights = createBuffer(resources, device.getContext(), convolution.getWeights());
+
+        final cl_kernel kernel = resources.createKernel(program, "convolve2d");
+        final long localWorkSize[] = getLocalWorkSize2d(kernel, kernelWidth, kernelHeight);
+        clSetKernelArg(kernel, 0, Sizeof.cl_mem, Pointer.to(inputRaster));
+        clSetKernelArg(kernel, 1, Sizeof.cl_mem, Pointer.to(outputRaster));
+        clSetKernelArg(kernel, 2, Sizeof.cl_mem, Pointer.to(weights));
+        clSetKernelArg(kernel, 3, Sizeof.cl_int4, Pointer.to(new int[]{kernelWidth, kernelHeight, convolution.getOriginX(), convolution.getOriginY()}));
+        clSetKernelArg(kernel, 4, getTileBytes(localWorkSize, kernelWidth, kernelHeight), null);
+
+        final cl_event event = new cl_event();
+        clEnqueueNDRangeKernel(device.getCommandQueue(), kernel, 2, null,
+                new long[]{roundUp(width, localWorkSize[0]), roundUp(height, localWorkSize[1])}, localWorkSize,
+                1, new cl_event[]{waitFor}, event);
+        resources.add(event);
+
+        return new cl_event[]{event};
+    }
+
+    /**
+     * The largest work-group of a separable pass whose tile, the work-group plus the radius on either side, fits in
+     * local memory.
+     */
+    private long getLocalWorkSize(cl_kernel kernel, int radius) {
+        final long localMemSize = device.getProfile().getLocalMemSize();
+        final long maxWorkGroupSize = getKernelWorkGroupInfoLong(kernel, device.getDeviceId(), CL_KERNEL_WORK_GROUP_SIZE);
+        long localWorkSize = Math.max(1, Math.min(MAX_LOCAL_WORK_SIZE, maxWorkGroupSize));
+        while (localWorkSize > 1 && (localWorkSize + 2 * radius) * Sizeof.cl_float4 > localMemSize) {
+            localWorkSize /= 2;
+        }
+
+        return localWorkSize;
+    }
+
+    private long[] getLocalWorkSize2d(cl_kernel kernel, int kernelWidth, int kernelHeight) {
+        final long localMemSize = device.getProfile().getLocalMemSize();
+        final long maxWorkGroupSize = getKernelWorkGroupInfoLong(kernel, device.getDeviceId(), CL_KERNEL_WORK_GROUP_SIZE);
+        final long localWorkSize[] = {MAX_LOCAL_WORK_SIZE_2D, MAX_LOCAL_WORK_SIZE_2D};
+        // Shrink the taller side first, which keeps the rows of a work-group long
+        while ((localWorkSize[0] * localWorkSize[1] > maxWorkGroupSize || getTileBytes(localWorkSize, kernelWidth, kernelHeight) > localMemSize)
+                && localWorkSize[0] * localWorkSize[1] > 1) {
+            final int side = localWorkSize[1] >= localWorkSize[0] && localWorkSize[1] > 1 ? 1 : 0;
+            localWorkSize[side] /= 2;
+        }
+
+        return localWorkSize;
+    }
+
+    private static long getTileBytes(long localWorkSize[], int kernelWidth, int kernelHeight) {
+        return (localWorkSize[0] + kernelWidth - 1) * (localWorkSize[1] + kernelHeight - 1) * Sizeof.cl_float4;
+    }
+
+    private static cl_image_format getFloatImageFormat() {
+        final cl_image_format imageFormat = new cl_image_format();
+        imageFormat.image_channel_order = CL_RGBA;
+        imageFormat.image_channel_data_type = CL_FLOAT;
+
+        return imageFormat;
+    }
+
+    private static long roundUp(long value, long multiple) {
+        return (value + multiple - 1) / multiple * multiple;
+    }
+
+    private static cl_mem createBuffer(CLResources resources, cl_context context, float data[]) {
+        return resources.createBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, (long) data.length * Sizeof.cl_float, Pointer.to(data));
+    }
+}
@@ -0,0 +1,219 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.util.BuildOptions;
+import no.nixx.opencl.util.CLResources;
+import org.jocl.*;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import static no.nixx.opencl.WorkGroupTuner.getGlobalWorkSize;
+import static org.jocl.CL.*;
+
+/**
+ * Runs a kernel that reads one image and writes another: uploads the input to a pooled device image, runs the kernel
+ * and downloads the result, either blocking or asynchronously. The images may be of any {@link PixelFormat}.
+ * <p/>
+ * The local work size comes from the device's {@link WorkGroupTuner}, so the kernels must ignore the work-items past
+ * the edges of their images.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+class ImageKernelLauncher {
+
+    /**
+     * Sets the kernel arguments that follow the input and output images.
+     */
+    interface KernelArguments {
+        void set(cl_kernel kernel);
+    }
+
+    private final OCLDevice device;
+    private final cl_command_queue commandQueue;
+    private final cl_program program;
+    private final String kernelName;
+    private final String tuningKey;
+    private final PixelTransfer transfer;
+    private final WorkGroupTuner tuner;
+
+    ImageKernelLauncher(OCLDevice device, cl_program program, String kernelName) {
+        this(device, program, kernelName, BuildOptions.NONE);
+    }
+
+    /**
+     * Launches a kernel of a program built with the given options, which the kernel is tuned separately for.
+     */
+    ImageKernelLauncher(OCLDevice device, cl_program program, String kernelName, BuildOptions options) {
+        this.device = device;
+        this.commandQueue = device.getCommandQueue();
+        this.program = program;
+        this.kernelName = kernelName;
+        this.tuningKey = WorkGroupTuner.getTuningKey(kernelName, options);
+        this.transfer = new PixelTransfer(device);
+        this.tuner = device.getWorkGroupTuner();
+    }
+
+    BufferedImage run(BufferedImage inputImage, BufferedImage outputImage, long globalWorkSize[], KernelArguments arguments) {
+        inputImage = transfer.toSupportedFormat(inputImage);
+        try (CLResources resources = new CLResources(commandQueue)) {
+            final cl_mem inputRaster = transfer.acquire(inputImage, CL_MEM_READ_ONLY, resources);
+            final cl_mem outputRaster = transfer.acquire(outputImage, CL_MEM_WRITE_ONLY, resources);
+            final cl_event writeEvent = new cl_event();
+            transfer.write(inputRaster, inputImage, writeEvent);
+            resources.add(writeEvent);
+
+            final cl_kernel kernel = createKernel(inputRaster, outputRaster, arguments, resources);
+
+            // The queue executes out of order, so the kernel and the read have to wait explicitly
+            final long localWorkSize[] = tuner.getLocalWorkSize(tuningKey, kernel, globalWorkSize, writeEvent);
+            final cl_event kernelEvent = new cl_event();
+            clEnqueueNDRangeKernel(commandQueue, kernel, 2, null, getGlobalWorkSize(globalWorkSize, localWorkSize), localWorkSize,
+                    1, new cl_event[]{writeEvent}, kernelEvent);
+            resources.add(kernelEvent);
+            final cl_event readEvent = new cl_event();
+            transfer.read(outputRaster, outputImage, kernelEvent, readEvent);
+            resources.add(readEvent);
+
+            report(outputImage, writeEvent, kernelEvent, readEvent);
+            resources.complete();
+        }
+
+        return outputImage;
+    }
+
+    /**
+     * Runs the kernel directly on mapped images. No transfers are enqueued, only the unmapping and remapping that
+     * hand the host memory to the device and back.
+     */
+    void run(MappedImage inputImage, MappedImage outputImage, long globalWorkSize[], KernelArguments arguments) {
+        try (CLResources resources = new CLResources()) {
+            final cl_kernel kernel = createKernel(inputImage.getMem(), outputImage.getMem(), arguments, resources);
+            final cl_event unmapEvents[] = new cl_event[]{resources.add(inputImage.unmap()), resources.add(outputImage.unmap())};
+            final cl_event kernelEvent = new cl_event();
+            boolean enqueued = false;
+            try {
+                final long localWorkSize[] = tuner.getLocalWorkSize(tuningKey, kernel, globalWorkSize, unmapEvents);
+                clEnqueueNDRangeKernel(commandQueue, kernel, 2, null, getGlobalWorkSize(globalWorkSize, localWorkSize), localWorkSize,
+                        2, unmapEvents, kernelEvent);
+                resources.add(kernelEvent);
+                enqueued = true;
+            } finally {
+                // The images are handed back to the host also when the kernel could not be enqueued
+                resources.add(inputImage.map(enqueued ? kernelEvent : null));
+                final cl_event mapEvent = resources.add(outputImage.map(enqueued ? kernelEvent : null));
+                if (enqueued) {
+                    report(outputImage.getWidth(), outputImage.getHeight(), unmapEvents[0], kernelEvent, mapEvent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Enqueues the upload, the kernel and the download without blocking. The returned future is completed, and the
+     * device resources released, once the download has finished.
+     */
+    CompletableFuture<BufferedImage> runAsync(BufferedImage inputImage, BufferedImage outputImage, long globalWorkSize[], KernelArguments arguments) {
+        final BufferedImage sourceImage = transfer.toSupportedFormat(inputImage);
+
+        // Non-blocking transfers cannot use Java arrays, which may be moved by the garbage collector
+        final ByteBuffer inputBuffer = PixelTransfer.allocateDirect(sourceImage);
+        final ByteBuffer outputBuffer = PixelTransfer.allocateDirect(outputImage);
+        PixelTransfer.copy(sourceImage, inputBuffer);
+
+        final CompletableFuture<BufferedImage> future = new CompletableFuture<>();
+        final CLResources resources = new CLResources(commandQueue);
+        final cl_event writeEvent = new cl_event();
+        final cl_event kernelEvent = new cl_event();
+        final cl_event readEvent = new cl_event();
+
+        // The driver reads the input buffer until the upload has completed, so the resources keep it reachable until
+        // they are closed
+        resources.onClose(inputBuffer::clear);
+
+        try {
+            final cl_mem inputRaster = transfer.acquire(sourceImage, CL_MEM_READ_ONLY, resources);
+            final cl_mem outputRaster = transfer.acquire(outputImage, CL_MEM_WRITE_ONLY, resources);
+            transfer.write(inputRaster, sourceImage, Pointer.to(inputBuffer), false, writeEvent);
+            resources.add(writeEvent);
+
+            final cl_kernel kernel = createKernel(inputRaster, outputRaster, arguments, resources);
+            // Tuning blocks, so kernels that have not been tuned by a blocking run yet are left to the driver
+            final long localWorkSize[] = tuner.getKnownLocalWorkSize(tuningKey);
+            clEnqueueNDRangeKernel(commandQueue, kernel, 2, null, getGlobalWorkSize(globalWorkSize, localWorkSize), localWorkSize,
+                    1, new cl_event[]{writeEvent}, kernelEvent);
+            resources.add(kernelEvent);
+
+            transfer.read(outputRaster, outputImage, Pointer.to(outputBuffer), false, kernelEvent, readEvent);
+            resources.add(readEvent);
+            clFlush(commandQueue);
+        } catch (CLException e) {
+            // Closing before completion waits for whatever made it into the queue before handing the images back to
+            // the pool
+            closeQuietly(resources, e);
+            future.completeExceptionally(e);
+            return future;
+        } catch (RuntimeException e) {
+            closeQuietly(resources, e);
+            throw e;
+        }
+
+        clSetEventCallback(readEvent, CL_COMPLETE, (event, status, userData) -> {
+            // Callbacks run on a driver thread that must not be blocked, or used to call into OpenCL
+            ForkJoinPool.commonPool().execute(() -> {
+                try {
+                    try {
+                        if (status == CL_COMPLETE) {
+                            report(outputImage, writeEvent, kernelEvent, readEvent);
+                        }
+                    } finally {
+                        resources.complete();
+                        resources.close();
+                    }
+                    if (status == CL_COMPLETE) {
+                        PixelTransfer.copy(outputBuffer, outputImage);
+                        future.complete(outputImage);
+                    } else {
+                        future.completeExceptionally(new CLException(CL.stringFor_errorCode(status), status));
+                    }
+                } catch (Throwable t) {
+                    // Nothing else would complete the future
+                    future.completeExceptionally(t);
+                }
+            });
+        }, null);
+
+        return future;
+    }
+
+    private cl_kernel createKernel(cl_mem inputRaster, cl_mem outputRaster, KernelArguments arguments, CLResources resources) {
+        // Ref. http://www.khronos.org/registry/cl/sdk/1.1/docs/man/xhtml/clSetKernelArg.html:
+        // Rather than attempt to share cl_kernel objects among multiple host threads, applications are strongly
+        // encouraged to make additional cl_kernel objects for kernel functions for each host thread.
+        final cl_kernel kernel = resources.createKernel(program, kernelName);
+        clSetKernelArg(kernel, 0, Sizeof.cl_mem, Pointer.to(inputRaster));
+        clSetKernelArg(kernel, 1, Sizeof.cl_mem, Pointer.to(outputRaster));
+        arguments.set(kernel);
+
+        return kernel;
+    }
+
+    private void report(BufferedImage outputImage, cl_event writeEvent, cl_event kernelEvent, cl_event readEvent) {
+        report(outputImage.getWidth(), outputImage.getHeight(), writeEvent, kernelEvent, readEvent);
+    }
+
+    private void report(int outputImageWidth, int outputImageHeight, cl_event writeEvent, cl_event kernelEvent, cl_event readEvent) {
+        if (device.isProfiling()) {
+            device.reportOperation(kernelName, outputImageWidth, outputImageHeight, writeEvent, new cl_event[]{kernelEvent}, readEvent);
+        }
+    }
+
+    private static void closeQuietly(CLResources resources, RuntimeException failure) {
+        try {
+            resources.close();
+        } catch (RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+    }
+}
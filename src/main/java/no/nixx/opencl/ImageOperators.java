@@ -0,0 +1,59 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.cpu.CpuImageAnalyzer;
+import no.nixx.opencl.cpu.CpuImageConvolver;
+import no.nixx.opencl.cpu.CpuImageResizer;
+import no.nixx.opencl.cpu.CpuImageRotator;
+import no.nixx.opencl.cpu.CpuImageWarper;
+import no.nixx.opencl.cpu.CpuYCbCrConverter;
+import no.nixx.opencl.util.DeviceProbe;
+
+import java.util.Collections;
+
+/**
+ * Creates resizers, rotators, warpers, convolvers, analyzers and YCbCr converters backed by OpenCL when a device is
+ * present, and by the pure-Java implementations otherwise.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class ImageOperators {
+
+    public static Resizer createResizer() {
+        return DeviceProbe.isDeviceAvailable() ? new ImageResizer() : new CpuImageResizer();
+    }
+
+    public static Resizer createResizer(ResizeFilter filter) {
+        return DeviceProbe.isDeviceAvailable() ? new ImageResizer(filter) : new CpuImageResizer(filter);
+    }
+
+    public static Rotator createRotator() {
+        return DeviceProbe.isDeviceAvailable() ? new ImageRotator() : new CpuImageRotator();
+    }
+
+    public static Warper createWarper() {
+        return DeviceProbe.isDeviceAvailable() ? new ImageWarper() : new CpuImageWarper();
+    }
+
+    public static Convolver createConvolver() {
+        return DeviceProbe.isDeviceAvailable() ? new ImageConvolver() : new CpuImageConvolver();
+    }
+
+    public static Analyzer createAnalyzer() {
+        return DeviceProbe.isDeviceAvailable() ? new ImageAnalyzer() : new CpuImageAnalyzer();
+    }
+
+    public static YCbCrConverter createYCbCrConverter() {
+        return DeviceProbe.isDeviceAvailable() ? new ImageYCbCrConverter() : new CpuYCbCrConverter();
+    }
+
+    /**
+     * Creates a scheduler over every OpenCL device in the machine, or over the pure-Java operators when there are none.
+     */
+    public static DeviceScheduler createScheduler() {
+        if (DeviceProbe.isDeviceAvailable()) {
+            return DeviceScheduler.createForAllDevices();
+        } else {
+            return new DeviceScheduler(Collections.singletonList(new DeviceScheduler.Lane("java", new CpuImageResizer(), new CpuImageRotator())));
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.ImageRotator.Rotation;
+import no.nixx.opencl.util.CLResources;
+import org.jocl.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.jocl.CL.*;
+
+/**
+ * Chains resize and rotate operations on device-resident images, so that the image is uploaded and downloaded once
+ * regardless of the number of operations.
+ * <p/>
+ * Rotations only move pixels, so every run of operations with at most one resize is fused into a single generated
+ * kernel that maps each output pixel back through all the operations and samples the input once. A second resize
+ * starts a new kernel, which reads the previous kernel's output without it leaving the device. The statistics of the
+ * input image can be computed from the uploaded image at the same time.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class ImagePipeline {
+
+    private static final String KERNEL_NAME = "pipelineSegment";
+
+    private final OCLDevice device;
+    private final PixelTransfer transfer;
+    private final List<Step> steps;
+
+    private ImagePipeline(OCLDevice device, List<Step> steps) {
+        this.device = device;
+        this.transfer = new PixelTransfer(device);
+        this.steps = steps;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The output image has the same {@link PixelFormat} as the input if the device supports it. Other images are
+     * processed as TYPE_INT_RGB.
+     */
+    public BufferedImage process(BufferedImage inputImage) {
+        return run(inputImage, false, null).getImage();
+    }
+
+    /**
+     * Processes the image, and computes the statistics of the input image on the device while the operations run, so
+     * that the input is analyzed without another upload or reading it back.
+     */
+    public Result processWithStatistics(BufferedImage inputImage) {
+        return run(inputImage, true, null);
+    }
+
+    /**
+     * Processes the image and converts the result to YCbCr planes before it leaves the device, e.g. for a JPEG encoder.
+     * With 4:2:0 subsampling, 1.5 bytes per pixel are read back instead of 4.
+     */
+    public YCbCrImage processToYCbCr(BufferedImage inputImage, YCbCrImage.Subsampling subsampling) {
+        return run(inputImage, false, subsampling).getYCbCrImage();
+    }
+
+    /**
+     * Runs the operations, and reads back either the output image, or its YCbCr planes if a subsampling is given.
+     */
+    private Result run(BufferedImage image, boolean statistics, YCbCrImage.Subsampling subsampling) {
+        final BufferedImage inputImage = transfer.toSupportedFormat(image);
+        final PixelFormat format = transfer.getFormat(inputImage);
+        final List<Segment> segments = plan(steps, inputImage.getWidth(), inputImage.getHeight());
+        final Dimension outputSize = segments.get(segments.size() - 1).outputSize;
+        final boolean convert = subsampling != null;
+        final BufferedImage outputImage = convert ? null : format.createImage(outputSize.width, outputSize.height);
+
+        final cl_command_queue commandQueue = device.getCommandQueue();
+        final ImagePool imagePool = device.getImagePool();
+
+        try (CLResources resources = new CLResources(commandQueue)) {
+            cl_mem sourceImage = transfer.acquire(inputImage, CL_MEM_READ_ONLY, resources);
+            final cl_event writeEvent = new cl_event();
+            transfer.write(sourceImage, inputImage, writeEvent);
+            resources.add(writeEvent);
+
+            // The histograms only read the source image, so the out-of-order queue may run them alongside the operations
+            final HistogramReduction.Histograms histograms = statistics
+                    ? new HistogramReduction(device).enqueue(sourceImage, inputImage.getWidth(), inputImage.getHeight(), format.getChannels(), writeEvent, resources)
+                    : null;
+
+            final List<cl_event> events = new ArrayList<>();
+            cl_event previousEvent = null;
+            for (int i = 0; i < segments.size(); i++) {
+                final Segment segment = segments.get(i);
+                final long flags = (i == segments.size() - 1 && !convert) ? CL_MEM_WRITE_ONLY : CL_MEM_READ_WRITE;
+                // Intermediate images keep the format of the input, so that gray images stay single channel
+                final cl_mem targetImage = acquire(imagePool, segment.outputSize.width, segment.outputSize.height, format, flags, resources);
+
+                final cl_kernel kernel = resources.createKernel(device.getProgramForSource(segment.getSource()), KERNEL_NAME);
+                clSetKernelArg(kernel, 0, Sizeof.cl_mem, Pointer.to(sourceImage));
+                clSetKernelArg(kernel, 1, Sizeof.cl_mem, Pointer.to(targetImage));
+                for (int j = 0; j < segment.parameters.size(); j++) {
+                    clSetKernelArg(kernel, 2 + j, Sizeof.cl_float * 2, Pointer.to(segment.parameters.get(j)));
+                }
+
+                final cl_event event = new cl_event();
+                final cl_event waitFor[] = new cl_event[]{previousEvent == null ? writeEvent : previousEvent};
+                final long globalWorkSize[] = new long[]{segment.outputSize.width, segment.outputSize.height};
+                final long localWorkSize[] = device.getWorkGroupTuner().getLocalWorkSize(KERNEL_NAME, kernel, globalWorkSize, waitFor);
+                clEnqueueNDRangeKernel(
+                        commandQueue, kernel, 2, null, WorkGroupTuner.getGlobalWorkSize(globalWorkSize, localWorkSize), localWorkSize,
+                        1, waitFor, event);
+                events.add(resources.add(event));
+
+                sourceImage = targetImage;
+                previousEvent = event;
+            }
+
+            final cl_event readEvent;
+            final YCbCrConversion.Planes planes;
+            final YCbCrImage outputPlanes;
+            if (convert) {
+                planes = new YCbCrConversion(device).enqueue(sourceImage, outputSize.width, outputSize.height, format.getChannels(), subsampling, previousEvent, resources);
+                outputPlanes = planes.read();
+                readEvent = planes.readEvent;
+            } else {
+                planes = null;
+                outputPlanes = null;
+                readEvent = new cl_event();
+                transfer.read(sourceImage, outputImage, previousEvent, readEvent);
+                resources.add(readEvent);
+            }
+            final ImageStatistics inputStatistics = histograms == null ? null : histograms.getStatistics();
+
+            if (device.isProfiling()) {
+                final List<cl_event> kernelEvents = new ArrayList<>(events);
+                if (planes != null) {
+                    kernelEvents.add(planes.kernelEvent);
+                }
+                if (histograms != null) {
+                    kernelEvents.addAll(Arrays.asList(histograms.events));
+                }
+                device.reportOperation(KERNEL_NAME, outputSize.width, outputSize.height, writeEvent, kernelEvents.toArray(new cl_event[kernelEvents.size()]), readEvent);
+            }
+            resources.complete();
+
+            return new Result(outputImage, outputPlanes, inputStatistics);
+        }
+    }
+
+    private static cl_mem acquire(ImagePool imagePool, long width, long height, PixelFormat format, long flags, CLResources resources) {
+        final cl_mem image = imagePool.acquire(width, height, format.getImageFormat(), flags);
+        resources.onClose(() -> imagePool.release(image));
+
+        return image;
+    }
+
+    public void dispose() {
+        device.release();
+    }
+
+    /**
+     * The output of a pipeline, as an image or as YCbCr planes, and the statistics of its input image if requested.
+     */
+    public static class Result {
+
+        private final BufferedImage image;
+        private final YCbCrImage yCbCrImage;
+        private final ImageStatistics statistics;
+
+        private Result(BufferedImage image, YCbCrImage yCbCrImage, ImageStatistics statistics) {
+            this.image = image;
+            this.yCbCrImage = yCbCrImage;
+            this.statistics = statistics;
+        }
+
+        public BufferedImage getImage() {
+            return image;
+        }
+
+        public YCbCrImage getYCbCrImage() {
+            return yCbCrImage;
+        }
+
+        public ImageStatistics getStatistics() {
+            return statistics;
+        }
+    }
+
+    static List<Segment> plan(List<Step> steps, int inputImageWidth, int inputImageHeight) {
+        final List<Segment> segments = new ArrayList<>();
+        Dimension size = new Dimension(inputImageWidth, inputImageHeight);
+        Segment segment = new Segment(size);
+
+        for (Step step : steps) {
+            if (step.resamples() && segment.resamples()) {
+                segments.add(segment);
+                segment = new Segment(size);
+            }
+            final Dimension outputSize = step.getOutputSize(size);
+            segment.add(step, size, outputSize);
+            size = outputSize;
+        }
+        segments.add(segment);
+
+        return segments;
+    }
+
+    public static class Builder {
+
+        private final List<Step> steps = new ArrayList<>();
+
+        public Builder rotate(Rotation rotation) {
+            steps.add(new RotateStep(rotation));
+            return this;
+        }
+
+        public Builder resize(int outputImageWidth, int outputImageHeight) {
+            steps.add(new ResizeStep(outputImageWidth, outputImageHeight, 0));
+            return this;
+        }
+
+        public Builder resize(int newLongEdgeLength) {
+            steps.add(new ResizeStep(0, 0, newLongEdgeLength));
+            return this;
+        }
+
+        List<Segment> plan(int inputImageWidth, int inputImageHeight) {
+            return ImagePipeline.plan(steps, inputImageWidth, inputImageHeight);
+        }
+
+        public ImagePipeline build() {
+            return build(OCLRegistry.acquireDefaultDevice());
+        }
+
+        /**
+         * Takes over one reference to the given device, which is released by {@link ImagePipeline#dispose()}.
+         */
+        public ImagePipeline build(OCLDevice device) {
+            if (steps.isEmpty()) {
+                throw new IllegalStateException("A pipeline needs at least one operation");
+            }
+
+            return new ImagePipeline(device, Collections.unmodifiableList(new ArrayList<>(steps)));
+        }
+    }
+
+    /**
+     * Operations in one segment are executed by a single kernel.
+     */
+    static class Segment {
+
+        private final List<Step> steps = new ArrayList<>();
+        private final List<float[]> parameters = new ArrayList<>();
+        private Dimension outputSize;
+
+        private Segment(Dimension inputSize) {
+            this.outputSize = inputSize;
+        }
+
+        private void add(Step step, Dimension inputSize, Dimension outputSize) {
+            steps.add(step);
+            parameters.add(step.getParameter(inputSize, outputSize));
+            this.outputSize = outputSize;
+        }
+
+        boolean resamples() {
+            for (Step step : steps) {
+                if (step.resamples()) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        Dimension getOutputSize() {
+            return outputSize;
+        }
+
+        /**
+         * The source only depends on the kind and order of the operations, not on the image sizes, which are passed
+         * as kernel arguments. Each distinct pipeline is therefore compiled once.
+         */
+        String getSource() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("const sampler_t samplerIn =\n");
+            sb.append("    CLK_NORMALIZED_COORDS_FALSE |\n");
+            sb.append("    CLK_ADDRESS_CLAMP |\n");
+            sb.append(resamples() ? "    CLK_FILTER_LINEAR;\n\n" : "    CLK_FILTER_NEAREST;\n\n");
+
+            sb.append("__kernel void ").append(KERNEL_NAME).append("(\n");
+            sb.append("    __read_only  image2d_t sourceImage,\n");
+            sb.append("    __write_only image2d_t targetImage");
+            for (int i = 0; i < steps.size(); i++) {
+                sb.append(",\n    float2 step").append(i);
+            }
+            sb.append(")\n{\n");
+            sb.append("    int outX = get_global_id(0);\n");
+            sb.append("    int outY = get_global_id(1);\n");
+            sb.append("    if (outX >= get_image_width(targetImage) || outY >= get_image_height(targetImage)) {\n");
+            sb.append("        return;\n");
+            sb.append("    }\n");
+            sb.append("    int2 posOut = {outX, outY};\n\n");
+            sb.append("    float2 p = (float2) (outX + 0.5f, outY + 0.5f);\n");
+
+            // Map from the output back to the input, so the operations are visited last to first
+            for (int i = steps.size() - 1; i >= 0; i--) {
+                sb.append("    ").append(steps.get(i).getInverseMapping("step" + i)).append("\n");
+            }
+
+            sb.append("    float4 pixel = read_imagef(sourceImage, samplerIn, p);\n");
+            sb.append("    write_imagef(targetImage, posOut, pixel);\n");
+            sb.append("}\n");
+
+            return sb.toString();
+        }
+    }
+
+    /**
+     * An operation that can be expressed as a mapping from output to input pixel coordinates. Coordinates are
+     * continuous, with the center of pixel (x, y) at (x + 0.5, y + 0.5).
+     */
+    abstract static class Step {
+
+        abstract Dimension getOutputSize(Dimension inputSize);
+
+        abstract boolean resamples();
+
+        abstract float[] getParameter(Dimension inputSize, Dimension outputSize);
+
+        /**
+         * Returns an OpenCL statement that replaces p with the input position of output position p.
+         */
+        abstract String getInverseMapping(String parameterName);
+    }
+
+    private static class RotateStep extends Step {
+
+        private final Rotation rotation;
+
+        private RotateStep(Rotation rotation) {
+            this.rotation = rotation;
+        }
+
+        @Override
+        Dimension getOutputSize(Dimension inputSize) {
+            return rotation.preservesOrientation() ? inputSize : new Dimension(inputSize.height, inputSize.width);
+        }
+
+        @Override
+        boolean resamples() {
+            return false;
+        }
+
+        @Override
+        float[] getParameter(Dimension inputSize, Dimension outputSize) {
+            return new float[]{inputSize.width, inputSize.height};
+        }
+
+        @Override
+        String getInverseMapping(String parameterName) {
+            // Inverse of the mappings in rotate.cl, with the parameter holding the input image size
+            switch (rotation.angle) {
+                case 90:
+                    return "p = (float2) (p.y, " + parameterName + ".y - p.x);";
+                case 180:
+                    return "p = " + parameterName + " - p;";
+                case 270:
+                    return "p = (float2) (" + parameterName + ".x - p.y, p.x);";
+                default:
+                    return "";
+            }
+        }
+    }
+
+    private static class ResizeStep extends Step {
+
+        private final int outputImageWidth;
+        private final int outputImageHeight;
+        private final int newLongEdgeLength;
+
+        private ResizeStep(int outputImageWidth, int outputImageHeight, int newLongEdgeLength) {
+            this.outputImageWidth = outputImageWidth;
+            this.outputImageHeight = outputImageHeight;
+            this.newLongEdgeLength = newLongEdgeLength;
+        }
+
+        @Override
+        Dimension getOutputSize(Dimension inputSize) {
+            if (newLongEdgeLength > 0) {
+                return Resizer.getOutputSize(inputSize.width, inputSize.height, newLongEdgeLength);
+            } else {
+                return new Dimension(outputImageWidth, outputImageHeight);
+            }
+        }
+
+        @Override
+        boolean resamples() {
+            return true;
+        }
+
+        @Override
+        float[] getParameter(Dimension inputSize, Dimension outputSize) {
+            return new float[]{inputSize.width / (float) outputSize.width, inputSize.height / (float) outputSize.height};
+        }
+
+        @Override
+        String getInverseMapping(String parameterName) {
+            // resize.cl samples output pixel x at x / outputWidth in normalized coordinates, i.e. without the half
+            // pixel offset
+            return "p = (p - 0.5f) * " + parameterName + ";";
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.util.CLResource;
+import org.jocl.cl_context;
+import org.jocl.cl_image_format;
+import org.jocl.cl_mem;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static no.nixx.opencl.util.OCLUtils.getBytesPerPixel;
+
+/**
+ * Keeps released device images around for reuse by later requests for an image of the same size, format and access
+ * flags.
+ * <p/>
+ * The budget limits the bytes held by idle images. When it is exceeded, idle images are released starting with the
+ * ones whose key was least recently used. Images in use are not counted against the budget.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class ImagePool {
+
+    public static final String MAX_IDLE_BYTES_PROPERTY = "no.nixx.opencl.imagePoolBytes";
+
+    private static final long DEFAULT_MAX_IDLE_BYTES = 256L * 1024 * 1024;
+
+    private final cl_context context;
+    private final long maxIdleBytes;
+
+    // Ordered by access, so the first key is the least recently used
+    private final LinkedHashMap<ImageKey, ArrayDeque<cl_mem>> idleImages = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<cl_mem, ImageKey> imagesInUse = new IdentityHashMap<>();
+    private final Map<cl_mem, CLResource<cl_mem>> ownedImages = new IdentityHashMap<>();
+
+    private long idleBytes;
+    private long bytesInUse;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ImagePool(cl_context context) {
+        this(context, Long.getLong(MAX_IDLE_BYTES_PROPERTY, DEFAULT_MAX_IDLE_BYTES));
+    }
+
+    public ImagePool(cl_context context, long maxIdleBytes) {
+        this.context = context;
+        this.maxIdleBytes = maxIdleBytes;
+    }
+
+    public synchronized cl_mem acquire(long width, long height, cl_image_format imageFormat, long flags) {
+        final ImageKey key = new ImageKey(width, height, imageFormat.image_channel_order, imageFormat.image_channel_data_type, flags);
+        final ArrayDeque<cl_mem> images = idleImages.get(key);
+
+        final cl_mem image;
+        if (images != null && !images.isEmpty()) {
+            image = images.pop();
+            if (images.isEmpty()) {
+                idleImages.remove(key);
+            }
+            idleBytes -= key.bytes;
+            hits++;
+        } else {
+            final CLResource<cl_mem> resource = CLResource.createImage(context, flags, imageFormat, width, height);
+            image = resource.get();
+            ownedImages.put(image, resource);
+            misses++;
+        }
+
+        imagesInUse.put(image, key);
+        bytesInUse += key.bytes;
+
+        return image;
+    }
+
+    public synchronized void release(cl_mem image) {
+        final ImageKey key = imagesInUse.remove(image);
+        if (key == null) {
+            throw new IllegalArgumentException("Image was not acquired from this pool");
+        }
+        bytesInUse -= key.bytes;
+
+        if (key.bytes > maxIdleBytes) {
+            releaseImage(image);
+            evictions++;
+            return;
+        }
+
+        ArrayDeque<cl_mem> images = idleImages.get(key);
+        if (images == null) {
+            images = new ArrayDeque<>();
+            idleImages.put(key, images);
+        }
+        images.push(image);
+        idleBytes += key.bytes;
+
+        evictUntilWithinBudget();
+    }
+
+    /**
+     * Releases all idle images. Images in use are released when they are returned to the pool.
+     */
+    public synchronized void clear() {
+        for (Map.Entry<ImageKey, ArrayDeque<cl_mem>> entry : idleImages.entrySet()) {
+            for (cl_mem image : entry.getValue()) {
+                releaseImage(image);
+            }
+        }
+        idleImages.clear();
+        idleBytes = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getIdleBytes() {
+        return idleBytes;
+    }
+
+    public synchronized long getBytesInUse() {
+        return bytesInUse;
+    }
+
+    public long getMaxIdleBytes() {
+        return maxIdleBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("ImagePool[hits=%d, misses=%d, evictions=%d, idleBytes=%d, bytesInUse=%d, maxIdleBytes=%d]",
+                hits, misses, evictions, idleBytes, bytesInUse, maxIdleBytes);
+    }
+
+    private void evictUntilWithinBudget() {
+        final Iterator<Map.Entry<ImageKey, ArrayDeque<cl_mem>>> iterator = idleImages.entrySet().iterator();
+        while (idleBytes > maxIdleBytes && iterator.hasNext()) {
+            final Map.Entry<ImageKey, ArrayDeque<cl_mem>> entry = iterator.next();
+            final ArrayDeque<cl_mem> images = entry.getValue();
+            while (idleBytes > maxIdleBytes && !images.isEmpty()) {
+                releaseImage(images.removeLast());
+                idleBytes -= entry.getKey().bytes;
+                evictions++;
+            }
+            if (images.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void releaseImage(cl_mem image) {
+        ownedImages.remove(image).close();
+    }
+
+    private static class ImageKey {
+        private final long width;
+        private final long height;
+        private final int channelOrder;
+        private final int channelDataType;
+        private final long flags;
+        private final long bytes;
+
+        private ImageKey(long width, long height, int channelOrder, int channelDataType, long flags) {
+            this.width = width;
+            this.height = height;
+            this.channelOrder = channelOrder;
+            this.channelDataType = channelDataType;
+            this.flags = flags;
+
+            final cl_image_format imageFormat = new cl_image_format();
+            imageFormat.image_channel_order = channelOrder;
+            imageFormat.image_channel_data_type = channelDataType;
+            this.bytes = width * height * getBytesPerPixel(imageFormat);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ImageKey)) return false;
+
+            final ImageKey other = (ImageKey) o;
+            return width == other.width && height == other.height && channelOrder == other.channelOrder
+                    && channelDataType == other.channelDataType && flags == other.flags;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (width ^ (width >>> 32));
+            result = 31 * result + (int) (height ^ (height >>> 32));
+            result = 31 * result + channelOrder;
+            result = 31 * result + channelDataType;
+            result = 31 * result + (int) (flags ^ (flags >>> 32));
+            return result;
+        }
+    }
+}
@@ -1,97 +1,276 @@
 package no.nixx.opencl;
 
-import no.nixx.opencl.util.ClasspathUtils;
+import no.nixx.opencl.Tiling.Tile;
+import no.nixx.opencl.util.CLResources;
 import org.jocl.*;
 
+import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
-import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
-import static no.nixx.opencl.util.OCLUtils.*;
-import static no.nixx.opencl.util.OCLUtils.createProgramFromSource;
 import static org.jocl.CL.*;
-import static org.jocl.CL.clReleaseKernel;
-import static org.jocl.CL.clReleaseMemObject;
 
 /**
  * Oddbjørn Kvalsund
  */
-public class ImageResizer {
+public class ImageResizer implements Resizer {
 
-    private final cl_platform_id platformId;
-    private final cl_device_id deviceId;
-    private final cl_context context;
-    private final cl_command_queue commandQueue;
-    private final cl_program program;
+    private static final String PROGRAM_RESOURCE = "resize.cl";
+
+    private final OCLDevice device;
+    private final ResizeFilter filter;
+    private final ImageKernelLauncher launcher;
+    private final ImageKernelLauncher tileLauncher;
+    private final SeparableResampler resampler;
+    private final PixelTransfer transfer;
+    private volatile int maxTileSize;
+    private SeparableResampler areaResampler;
 
     public ImageResizer() {
-        platformId = getFirstPlatformId();
-        deviceId = getFirstDeviceIdForPlatformId(platformId);
-        context = getContextForPlatformIdAndDeviceId(platformId, deviceId);
-        commandQueue = getCommandQueueForContextAndPlatformIdAndDeviceId(context, deviceId);
-        program = createProgramFromSource(context, ClasspathUtils.getClasspathResourceAsString("resize.cl"));
+        this(OCLRegistry.acquireDefaultDevice());
+    }
+
+    public ImageResizer(ResizeFilter filter) {
+        this(OCLRegistry.acquireDefaultDevice(), filter);
     }
 
     @SuppressWarnings("unused")
     public ImageResizer(cl_platform_id platformId, cl_device_id deviceId, cl_context context, cl_command_queue commandQueue, cl_program program) {
-        this.platformId = platformId;
-        this.deviceId = deviceId;
-        this.context = context;
-        this.commandQueue = commandQueue;
-        this.program = program;
+        final OCLDevice device = new OCLDevice(platformId, deviceId, context, commandQueue);
+        device.addProgram(PROGRAM_RESOURCE, program);
+        this.device = device;
+        this.filter = ResizeFilter.BILINEAR;
+        this.launcher = new ImageKernelLauncher(device, program, "resizeImage");
+        this.tileLauncher = new ImageKernelLauncher(device, program, "resizeTile");
+        this.resampler = null;
+        this.transfer = new PixelTransfer(device);
     }
 
-    public BufferedImage resize(BufferedImage inputImage, int newLongEdgeLength) {
-        final int inputImageWidth = inputImage.getWidth();
-        final int inputImageHeight = inputImage.getHeight();
+    /**
+     * Takes over one reference to the given device, which is released by {@link #dispose()}.
+     */
+    public ImageResizer(OCLDevice device) {
+        this(device, ResizeFilter.BILINEAR);
+    }
 
-        final int outputImageWidth;
-        final int outputImageHeight;
-        if(inputImageWidth > inputImageHeight) {
-            outputImageWidth = newLongEdgeLength;
-            outputImageHeight = inputImageHeight * (newLongEdgeLength / inputImageWidth);
+    /**
+     * Takes over one reference to the given device, which is released by {@link #dispose()}.
+     */
+    public ImageResizer(OCLDevice device, ResizeFilter filter) {
+        this.device = device;
+        this.filter = filter;
+        if (filter == ResizeFilter.BILINEAR) {
+            final cl_program program = device.getProgram(PROGRAM_RESOURCE);
+            this.launcher = new ImageKernelLauncher(device, program, "resizeImage");
+            this.tileLauncher = new ImageKernelLauncher(device, program, "resizeTile");
+            this.resampler = null;
         } else {
-            outputImageWidth = inputImageWidth * (newLongEdgeLength / inputImageHeight);
-            outputImageHeight = newLongEdgeLength;
+            this.launcher = null;
+            this.tileLauncher = null;
+            this.resampler = new SeparableResampler(device, filter);
         }
+        this.transfer = new PixelTransfer(device);
+    }
 
-        return resize(inputImage, outputImageWidth, outputImageHeight);
+    /**
+     * Limits the tile edge used for images too large to process in one go, below what the device allows.
+     */
+    public void setMaxTileSize(int maxTileSize) {
+        this.maxTileSize = maxTileSize;
     }
 
+    /**
+     * The output image has the same {@link PixelFormat} as the input if the device supports it. Other images, and
+     * images too large to process in one go, are resized to TYPE_INT_RGB.
+     */
+    @Override
     public BufferedImage resize(BufferedImage inputImage, int outputImageWidth, int outputImageHeight) {
-        final BufferedImage outputImage = new BufferedImage(outputImageWidth, outputImageHeight, BufferedImage.TYPE_INT_RGB);
+        if (!fitsInOneTile(inputImage, outputImageWidth, outputImageHeight)) {
+            final BufferedImage outputImage = PixelFormat.INT_RGB.createImage(outputImageWidth, outputImageHeight);
+            resize(TileSource.of(inputImage), outputImageWidth, outputImageHeight, TileSink.of(outputImage));
+            return outputImage;
+        }
+
+        final BufferedImage outputImage = transfer.createOutputImage(inputImage, outputImageWidth, outputImageHeight);
+
+        if (resampler != null) {
+            return resampler.run(inputImage, outputImage);
+        }
+
+        return launcher.run(inputImage, outputImage, new long[]{outputImageWidth, outputImageHeight}, kernel -> {});
+    }
+
+    @Override
+    public CompletableFuture<BufferedImage> resizeAsync(BufferedImage inputImage, int outputImageWidth, int outputImageHeight) {
+        if (resampler != null || !fitsInOneTile(inputImage, outputImageWidth, outputImageHeight)) {
+            // The separable filters and tiled images only have a blocking path
+            return Resizer.super.resizeAsync(inputImage, outputImageWidth, outputImageHeight);
+        }
+
+        final BufferedImage outputImage = transfer.createOutputImage(inputImage, outputImageWidth, outputImageHeight);
+
+        return launcher.runAsync(inputImage, outputImage, new long[]{outputImageWidth, outputImageHeight}, kernel -> {});
+    }
+
+    /**
+     * Uploads the input once and builds the sizes as a pyramid on the device, each level area-filtered from the next
+     * larger one regardless of this resizer's filter. All levels are read back without blocking, and waited for
+     * together. Images too large to process in one go are resized a level at a time.
+     */
+    @Override
+    public List<BufferedImage> resizeToSizes(BufferedImage inputImage, int... newLongEdgeLengths) {
+        final int inputImageWidth = inputImage.getWidth();
+        final int inputImageHeight = inputImage.getHeight();
+        final Integer order[] = Resizer.getLargestFirst(newLongEdgeLengths);
+        final Dimension largestSize = order.length > 0 ? Resizer.getOutputSize(inputImageWidth, inputImageHeight, newLongEdgeLengths[order[0]]) : null;
+        if (largestSize == null || !fitsInOneTile(inputImage, largestSize.width, largestSize.height)) {
+            return Resizer.super.resizeToSizes(inputImage, newLongEdgeLengths);
+        }
+
+        final SeparableResampler pyramidResampler = getAreaResampler();
+        final BufferedImage sourceImage = transfer.toSupportedFormat(inputImage);
+        final BufferedImage outputImages[] = new BufferedImage[order.length];
+        final ByteBuffer outputBuffers[] = new ByteBuffer[order.length];
+        final List<SeparableResampler.Passes> passes = new ArrayList<>();
+        final List<cl_event> readEvents = new ArrayList<>();
+
+        try (CLResources resources = new CLResources(device.getCommandQueue())) {
+            cl_mem previousRaster = transfer.acquire(sourceImage, CL_MEM_READ_ONLY, resources);
+            final cl_event writeEvent = new cl_event();
+            transfer.write(previousRaster, sourceImage, writeEvent);
+            resources.add(writeEvent);
+            Dimension previousSize = new Dimension(inputImageWidth, inputImageHeight);
+            cl_event previousEvent = writeEvent;
+
+            for (int index : order) {
+                // The sizes come from the input, so that rounding does not add up through the levels
+                final Dimension outputSize = Resizer.getOutputSize(inputImageWidth, inputImageHeight, newLongEdgeLengths[index]);
+                outputImages[index] = transfer.createOutputImage(sourceImage, outputSize.width, outputSize.height);
+                final cl_mem outputRaster = transfer.acquire(outputImages[index], CL_MEM_READ_WRITE, resources);
+
+                final SeparableResampler.Passes levelPasses = pyramidResampler.enqueue(previousRaster, previousSize.width, previousSize.height,
+                        outputRaster, outputSize.width, outputSize.height, previousEvent);
+                resources.onClose(levelPasses::release);
+                passes.add(levelPasses);
+
+                // Non-blocking reads cannot use Java arrays, which may be moved by the garbage collector
+                outputBuffers[index] = PixelTransfer.allocateDirect(outputImages[index]);
+                final cl_event readEvent = new cl_event();
+                transfer.read(outputRaster, outputImages[index], Pointer.to(outputBuffers[index]), false, levelPasses.columnsEvent, readEvent);
+                readEvents.add(resources.add(readEvent));
 
-        final cl_mem inputRaster = createReadOnlyImage(context, inputImage);
-        final cl_mem outputRaster = createWritableImage(context, outputImageWidth, outputImageHeight);
+                previousRaster = outputRaster;
+                previousSize = outputSize;
+                previousEvent = levelPasses.columnsEvent;
+            }
 
-        // Ref. http://www.khronos.org/registry/cl/sdk/1.1/docs/man/xhtml/clSetKernelArg.html:
-        // Rather than attempt to share cl_kernel objects among multiple host threads, applications are strongly
-        // encouraged to make additional cl_kernel objects for kernel functions for each host thread.
-        final cl_kernel kernel = clCreateKernel(program, "resizeImage", null);
-        final long globalWorkSize[] = new long[2];
-        globalWorkSize[0] = outputImageWidth;
-        globalWorkSize[1] = outputImageHeight;
-        clSetKernelArg(kernel, 0, Sizeof.cl_mem, Pointer.to(inputRaster));
-        clSetKernelArg(kernel, 1, Sizeof.cl_mem, Pointer.to(outputRaster));
+            // The one point where the host waits for the device; until then, closing the resources waits for whatever
+            // made it into the queue before handing the images back to the pool
+            clWaitForEvents(readEvents.size(), readEvents.toArray(new cl_event[readEvents.size()]));
+            resources.complete();
+            for (int index : order) {
+                PixelTransfer.copy(outputBuffers[index], outputImages[index]);
+            }
+            report(largestSize, writeEvent, passes, readEvents.get(readEvents.size() - 1));
+        }
+
+        return Arrays.asList(outputImages);
+    }
+
+    /**
+     * Resizes an image of any size a tile at a time. Only the tiles being processed are held in memory, on the heap
+     * as well as on the device, so the source and the sink can stream from and to disk.
+     */
+    public void resize(TileSource source, int outputImageWidth, int outputImageHeight, TileSink sink) {
+        final int inputImageWidth = source.getWidth();
+        final int inputImageHeight = source.getHeight();
+        final int maxTileSize = getMaxTileSize();
 
-        clEnqueueNDRangeKernel(commandQueue, kernel, 2, null, globalWorkSize, null, 0, null, null);
+        if (resampler != null) {
+            final ResampleWeights horizontal = ResampleWeights.create(filter, inputImageWidth, outputImageWidth);
+            final ResampleWeights vertical = ResampleWeights.create(filter, inputImageHeight, outputImageHeight);
+            final List<Tile> tiles = Tiling.combine(
+                    Tiling.split(inputImageWidth, outputImageWidth, maxTileSize, Tiling.filtered(horizontal)),
+                    Tiling.split(inputImageHeight, outputImageHeight, maxTileSize, Tiling.filtered(vertical)));
 
-        final int outputData[] = getDataBufferInt(outputImage);
-        clEnqueueReadImage(
-                commandQueue, outputRaster, true, new long[3],
-                new long[]{outputImageWidth, outputImageHeight, 1},
-                outputImageWidth * Sizeof.cl_uint, 0,
-                Pointer.to(outputData), 0, null, null);
+            Tiling.stream(tiles, source, sink, (tile, sourceTile) -> CompletableFuture.completedFuture(resampler.run(
+                    sourceTile, new BufferedImage(tile.target.width, tile.target.height, BufferedImage.TYPE_INT_RGB),
+                    horizontal.subRange(tile.target.x, tile.target.x + tile.target.width, tile.source.x),
+                    vertical.subRange(tile.target.y, tile.target.y + tile.target.height, tile.source.y))));
+        } else {
+            final List<Tile> tiles = Tiling.combine(
+                    Tiling.split(inputImageWidth, outputImageWidth, maxTileSize, Tiling.bilinear(inputImageWidth, outputImageWidth)),
+                    Tiling.split(inputImageHeight, outputImageHeight, maxTileSize, Tiling.bilinear(inputImageHeight, outputImageHeight)));
+            final int sizes[] = new int[]{inputImageWidth, inputImageHeight, outputImageWidth, outputImageHeight};
+
+            Tiling.stream(tiles, source, sink, (tile, sourceTile) -> tileLauncher.runAsync(
+                    sourceTile, new BufferedImage(tile.target.width, tile.target.height, BufferedImage.TYPE_INT_RGB),
+                    new long[]{tile.target.width, tile.target.height},
+                    kernel -> {
+                        final int origins[] = new int[]{tile.source.x, tile.source.y, tile.target.x, tile.target.y};
+                        clSetKernelArg(kernel, 2, Sizeof.cl_int4, Pointer.to(sizes));
+                        clSetKernelArg(kernel, 3, Sizeof.cl_int4, Pointer.to(origins));
+                    }));
+        }
+    }
 
-        clReleaseMemObject(outputRaster);
-        clReleaseMemObject(inputRaster);
-        clReleaseKernel(kernel);
+    /**
+     * Resizes between two mapped images of this resizer's device, without copying the pixels through the heap. The
+     * output image determines the output size.
+     */
+    public void resize(MappedImage inputImage, MappedImage outputImage) {
+        checkDevice(inputImage);
+        checkDevice(outputImage);
 
-        return outputImage;
+        if (resampler != null) {
+            resampler.run(inputImage, outputImage);
+        } else {
+            launcher.run(inputImage, outputImage, new long[]{outputImage.getWidth(), outputImage.getHeight()}, kernel -> {});
+        }
     }
 
+    @Override
     public void dispose() {
-        clReleaseProgram(program);
-        clReleaseCommandQueue(commandQueue);
-        clReleaseContext(context);
+        device.release();
+    }
+
+    private synchronized SeparableResampler getAreaResampler() {
+        if (areaResampler == null) {
+            areaResampler = new SeparableResampler(device, ResizeFilter.AREA);
+        }
+
+        return areaResampler;
+    }
+
+    private void report(Dimension largestSize, cl_event writeEvent, List<SeparableResampler.Passes> passes, cl_event lastReadEvent) {
+        if (device.isProfiling()) {
+            final cl_event kernelEvents[] = new cl_event[]{passes.get(0).rowsEvent, passes.get(passes.size() - 1).columnsEvent};
+            device.reportOperation("pyramid", largestSize.width, largestSize.height, writeEvent, kernelEvents, lastReadEvent);
+        }
+    }
+
+    private void checkDevice(MappedImage image) {
+        if (image.getDevice() != device) {
+            throw new IllegalArgumentException("Mapped image belongs to another device");
+        }
+    }
+
+    private boolean fitsInOneTile(BufferedImage inputImage, int outputImageWidth, int outputImageHeight) {
+        final int maxTileSize = getMaxTileSize();
+
+        return Math.max(inputImage.getWidth(), inputImage.getHeight()) <= maxTileSize
+                && Math.max(outputImageWidth, outputImageHeight) <= maxTileSize;
+    }
+
+    private int getMaxTileSize() {
+        if (maxTileSize == 0) {
+            maxTileSize = Tiling.getMaxTileSize(device);
+        }
+
+        return maxTileSize;
     }
-}
\ No newline at end of file
+}
@@ -1,18 +1,26 @@
 package no.nixx.opencl;
 
-import no.nixx.opencl.util.ClasspathUtils;
+import no.nixx.opencl.Tiling.Tile;
+import no.nixx.opencl.util.BuildOptions;
 import org.jocl.*;
 
+import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
-import static no.nixx.opencl.util.OCLUtils.*;
-import static org.jocl.CL.*;
+import static org.jocl.CL.clSetKernelArg;
 
 /**
+ * Rotates with rotate.cl, built once per rotation with the angle as a constant, so that the kernel of each rotation
+ * only holds the mapping of that rotation.
+ *
  * @author Oddbjørn Kvalsund
  */
-public class ImageRotator {
+public class ImageRotator implements Rotator {
 
     @SuppressWarnings("unused")
     public enum Rotation {
@@ -25,77 +33,177 @@ public class ImageRotator {
         private Rotation(int angle) {
             this.angle = angle;
         }
+
+        public boolean preservesOrientation() {
+            return angle == 0 || angle == 180;
+        }
     }
 
-    private final cl_platform_id platformId;
-    private final cl_device_id deviceId;
-    private final cl_context context;
-    private final cl_command_queue commandQueue;
-    private final cl_program program;
+    private static final String PROGRAM_RESOURCE = "rotate.cl";
+
+    private final OCLDevice device;
+    private final Map<Rotation, ImageKernelLauncher> launchers = new EnumMap<>(Rotation.class);
+    private final PixelTransfer transfer;
+    private volatile int maxTileSize;
 
     public ImageRotator() {
-        platformId = getFirstPlatformId();
-        deviceId = getFirstDeviceIdForPlatformId(platformId);
-        context = getContextForPlatformIdAndDeviceId(platformId, deviceId);
-        commandQueue = getCommandQueueForContextAndPlatformIdAndDeviceId(context, deviceId);
-        program = createProgramFromSource(context, ClasspathUtils.getClasspathResourceAsString("rotate.cl"));
+        this(OCLRegistry.acquireDefaultDevice());
     }
 
+    /**
+     * Uses the given program, built from rotate.cl, for all rotations.
+     */
     @SuppressWarnings("unused")
     public ImageRotator(cl_platform_id platformId, cl_device_id deviceId, cl_context context, cl_command_queue commandQueue, cl_program program) {
-        this.platformId = platformId;
-        this.deviceId = deviceId;
-        this.context = context;
-        this.commandQueue = commandQueue;
-        this.program = program;
+        final OCLDevice device = new OCLDevice(platformId, deviceId, context, commandQueue);
+        device.addProgram(PROGRAM_RESOURCE, program);
+        this.device = device;
+        final ImageKernelLauncher launcher = new ImageKernelLauncher(device, program, "rotateImage");
+        for (Rotation rotation : Rotation.values()) {
+            launchers.put(rotation, launcher);
+        }
+        this.transfer = new PixelTransfer(device);
+    }
+
+    /**
+     * Takes over one reference to the given device, which is released by {@link #dispose()}.
+     */
+    public ImageRotator(OCLDevice device) {
+        this.device = device;
+        this.transfer = new PixelTransfer(device);
+    }
+
+    /**
+     * Limits the tile edge used for images too large to process in one go, below what the device allows.
+     */
+    public void setMaxTileSize(int maxTileSize) {
+        this.maxTileSize = maxTileSize;
     }
 
+    /**
+     * The output image has the same {@link PixelFormat} as the input if the device supports it. Other images, and
+     * images too large to process in one go, are rotated to TYPE_INT_RGB.
+     */
+    @Override
     public BufferedImage rotate(BufferedImage inputImage, Rotation rotation) {
-        final int angle = rotation.angle;
-        final int outputImageWidth = (outputImageHasSameOrientation(angle)) ? inputImage.getWidth() : inputImage.getHeight();
-        final int outputImageHeight = (outputImageHasSameOrientation(angle)) ? inputImage.getHeight() : inputImage.getWidth();
-        final BufferedImage outputImage = new BufferedImage(outputImageWidth, outputImageHeight, BufferedImage.TYPE_INT_RGB);
+        if (!fitsInOneTile(inputImage)) {
+            final BufferedImage outputImage = createOutputImage(inputImage, rotation);
+            rotate(TileSource.of(inputImage), rotation, TileSink.of(outputImage));
+            return outputImage;
+        }
 
-        final cl_mem inputRaster = createReadOnlyImage(context, inputImage);
-        final cl_mem outputRaster = createWritableImage(context, outputImageWidth, outputImageHeight);
+        return getLauncher(rotation).run(inputImage, createOutputImage(inputImage, rotation, transfer), getGlobalWorkSize(inputImage), angleArgument(rotation));
+    }
 
-        // Ref. http://www.khronos.org/registry/cl/sdk/1.1/docs/man/xhtml/clSetKernelArg.html:
-        // Rather than attempt to share cl_kernel objects among multiple host threads, applications are strongly
-        // encouraged to make additional cl_kernel objects for kernel functions for each host thread.
-        final cl_kernel kernel = clCreateKernel(program, "rotateImage", null);
+    @Override
+    public CompletableFuture<BufferedImage> rotateAsync(BufferedImage inputImage, Rotation rotation) {
+        if (!fitsInOneTile(inputImage)) {
+            return Rotator.super.rotateAsync(inputImage, rotation);
+        }
 
-        // Set up the work size and arguments, and execute the kernel
-        long globalWorkSize[] = new long[2];
-        globalWorkSize[0] = inputImage.getWidth();
-        globalWorkSize[1] = inputImage.getHeight();
-        clSetKernelArg(kernel, 0, Sizeof.cl_mem, Pointer.to(inputRaster));
-        clSetKernelArg(kernel, 1, Sizeof.cl_mem, Pointer.to(outputRaster));
-        clSetKernelArg(kernel, 2, Sizeof.cl_int, Pointer.to(new int[]{angle}));
+        return getLauncher(rotation).runAsync(inputImage, createOutputImage(inputImage, rotation, transfer), getGlobalWorkSize(inputImage), angleArgument(rotation));
+    }
 
-        clEnqueueNDRangeKernel(commandQueue, kernel, 2, null, globalWorkSize, null, 0, null, null);
+    /**
+     * Rotates an image of any size a tile at a time. Every input tile is rotated on its own and written to the
+     * rotated position, so only the tiles being processed are held in memory.
+     */
+    public void rotate(TileSource source, Rotation rotation, TileSink sink) {
+        final int inputImageWidth = source.getWidth();
+        final int inputImageHeight = source.getHeight();
+        final int maxTileSize = getMaxTileSize();
+
+        final List<Tile> tiles = new ArrayList<>();
+        for (Tile tile : Tiling.combine(
+                Tiling.split(inputImageWidth, inputImageWidth, maxTileSize, Tiling.identity()),
+                Tiling.split(inputImageHeight, inputImageHeight, maxTileSize, Tiling.identity()))) {
+            tiles.add(new Tile(tile.source, getRotatedRegion(tile.source, inputImageWidth, inputImageHeight, rotation)));
+        }
 
-        // Read the pixel data into the output image
-        final int outputData[] = getDataBufferInt(outputImage);
-        clEnqueueReadImage(
-                commandQueue, outputRaster, true, new long[3],
-                new long[]{outputImageWidth, outputImageHeight, 1},
-                outputImageWidth * Sizeof.cl_uint, 0,
-                Pointer.to(outputData), 0, null, null);
+        final ImageKernelLauncher launcher = getLauncher(rotation);
+        Tiling.stream(tiles, source, sink, (tile, sourceTile) -> launcher.runAsync(
+                sourceTile, createOutputImage(sourceTile, rotation), getGlobalWorkSize(sourceTile), angleArgument(rotation)));
+    }
 
-        clReleaseMemObject(outputRaster);
-        clReleaseMemObject(inputRaster);
-        clReleaseKernel(kernel);
+    /**
+     * Rotates between two mapped images of this rotator's device, without copying the pixels through the heap.
+     */
+    public void rotate(MappedImage inputImage, Rotation rotation, MappedImage outputImage) {
+        if (inputImage.getDevice() != device || outputImage.getDevice() != device) {
+            throw new IllegalArgumentException("Mapped image belongs to another device");
+        }
+        final Rectangle outputRegion = getRotatedRegion(
+                new Rectangle(inputImage.getWidth(), inputImage.getHeight()), inputImage.getWidth(), inputImage.getHeight(), rotation);
+        if (outputImage.getWidth() != outputRegion.width || outputImage.getHeight() != outputRegion.height) {
+            throw new IllegalArgumentException("Output image must be " + outputRegion.width + "x" + outputRegion.height);
+        }
 
-        return outputImage;
+        getLauncher(rotation).run(inputImage, outputImage, new long[]{inputImage.getWidth(), inputImage.getHeight()}, angleArgument(rotation));
     }
 
+    @Override
     public void dispose() {
-        clReleaseProgram(program);
-        clReleaseCommandQueue(commandQueue);
-        clReleaseContext(context);
+        device.release();
+    }
+
+    /**
+     * Where a region of the input ends up in the output, following the mapping of rotate.cl.
+     */
+    static Rectangle getRotatedRegion(Rectangle region, int inputImageWidth, int inputImageHeight, Rotation rotation) {
+        switch (rotation) {
+            case CW_90:
+                return new Rectangle(inputImageHeight - (region.y + region.height), region.x, region.height, region.width);
+            case FLIP:
+                return new Rectangle(inputImageWidth - (region.x + region.width), inputImageHeight - (region.y + region.height), region.width, region.height);
+            case CCW_90:
+                return new Rectangle(region.y, inputImageWidth - (region.x + region.width), region.height, region.width);
+            default:
+                throw new IllegalArgumentException("Unknown rotation: " + rotation);
+        }
+    }
+
+    private ImageKernelLauncher getLauncher(Rotation rotation) {
+        synchronized (launchers) {
+            return launchers.computeIfAbsent(rotation, r -> {
+                final BuildOptions options = BuildOptions.builder().define("ANGLE", r.angle).build();
+                return new ImageKernelLauncher(device, device.getProgram(PROGRAM_RESOURCE, options), "rotateImage", options);
+            });
+        }
+    }
+
+    private boolean fitsInOneTile(BufferedImage inputImage) {
+        return Math.max(inputImage.getWidth(), inputImage.getHeight()) <= getMaxTileSize();
+    }
+
+    private int getMaxTileSize() {
+        if (maxTileSize == 0) {
+            maxTileSize = Tiling.getMaxTileSize(device);
+        }
+
+        return maxTileSize;
+    }
+
+    private static BufferedImage createOutputImage(BufferedImage inputImage, Rotation rotation) {
+        return createOutputImage(inputImage, rotation, null);
+    }
+
+    private static BufferedImage createOutputImage(BufferedImage inputImage, Rotation rotation, PixelTransfer transfer) {
+        final int outputImageWidth = (rotation.preservesOrientation()) ? inputImage.getWidth() : inputImage.getHeight();
+        final int outputImageHeight = (rotation.preservesOrientation()) ? inputImage.getHeight() : inputImage.getWidth();
+
+        if (transfer == null) {
+            return PixelFormat.INT_RGB.createImage(outputImageWidth, outputImageHeight);
+        }
+
+        return transfer.createOutputImage(inputImage, outputImageWidth, outputImageHeight);
+    }
+
+    private static long[] getGlobalWorkSize(BufferedImage inputImage) {
+        // One work item per input pixel
+        return new long[]{inputImage.getWidth(), inputImage.getHeight()};
     }
 
-    private boolean outputImageHasSameOrientation(int angle) {
-        return angle == 0 || angle == 180;
+    private static ImageKernelLauncher.KernelArguments angleArgument(Rotation rotation) {
+        return kernel -> clSetKernelArg(kernel, 2, Sizeof.cl_int, Pointer.to(new int[]{rotation.angle}));
     }
 }
\ No newline at end of file
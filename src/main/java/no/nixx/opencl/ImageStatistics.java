@@ -0,0 +1,122 @@
+package no.nixx.opencl;
+
+/**
+ * Histograms of an image's red, green, blue and luminance channels, quantized to 256 levels, and the statistics
+ * derived from them. Luminance uses the Rec. 601 weights, rounded to the nearest level. Gray images have the same
+ * histogram in every channel.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public final class ImageStatistics {
+
+    public static final int LEVELS = 256;
+
+    public enum Channel {
+        RED, GREEN, BLUE, LUMINANCE
+    }
+
+    private final int histograms[];
+    private final long pixels;
+
+    /**
+     * Takes over the histograms, laid out one channel after the other in the order of {@link Channel}.
+     */
+    public ImageStatistics(int histograms[]) {
+        if (histograms.length != LEVELS * Channel.values().length) {
+            throw new IllegalArgumentException("Expected " + LEVELS * Channel.values().length + " bins: " + histograms.length);
+        }
+        this.histograms = histograms;
+
+        long pixels = 0;
+        for (int level = 0; level < LEVELS; level++) {
+            pixels += histograms[level];
+        }
+        this.pixels = pixels;
+    }
+
+    /**
+     * The luminance of an 8-bit pixel, as the histograms count it.
+     */
+    public static int getLuminance(int red, int green, int blue) {
+        return (299 * red + 587 * green + 114 * blue + 500) / 1000;
+    }
+
+    public long getPixels() {
+        return pixels;
+    }
+
+    public int[] getHistogram(Channel channel) {
+        final int histogram[] = new int[LEVELS];
+        System.arraycopy(histograms, channel.ordinal() * LEVELS, histogram, 0, LEVELS);
+
+        return histogram;
+    }
+
+    public int getCount(Channel channel, int level) {
+        return histograms[channel.ordinal() * LEVELS + level];
+    }
+
+    public int getMin(Channel channel) {
+        return getPercentile(channel, 0);
+    }
+
+    public int getMax(Channel channel) {
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if (getCount(channel, level) > 0) {
+                return level;
+            }
+        }
+
+        return 0;
+    }
+
+    public double getMean(Channel channel) {
+        double sum = 0;
+        for (int level = 0; level < LEVELS; level++) {
+            sum += (double) level * getCount(channel, level);
+        }
+
+        return pixels == 0 ? 0 : sum / pixels;
+    }
+
+    public double getStandardDeviation(Channel channel) {
+        final double mean = getMean(channel);
+        double sum = 0;
+        for (int level = 0; level < LEVELS; level++) {
+            sum += (level - mean) * (level - mean) * getCount(channel, level);
+        }
+
+        return pixels == 0 ? 0 : Math.sqrt(sum / pixels);
+    }
+
+    /**
+     * The lowest level that at least the given fraction of the pixels are at or below, e.g. 0.5 for the median. Used to
+     * find the black and white points of auto-levels while ignoring a few outliers.
+     */
+    public int getPercentile(Channel channel, double fraction) {
+        final long target = Math.max(1, (long) Math.ceil(fraction * pixels));
+        long count = 0;
+        for (int level = 0; level < LEVELS; level++) {
+            count += getCount(channel, level);
+            if (count >= target) {
+                return level;
+            }
+        }
+
+        return LEVELS - 1;
+    }
+
+    /**
+     * True if the luminance barely varies, as in a blank scan: the standard deviation is at most the given number of
+     * levels.
+     */
+    public boolean isUniform(double maxStandardDeviation) {
+        return getStandardDeviation(Channel.LUMINANCE) <= maxStandardDeviation;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ImageStatistics[pixels=%d, luminance=%d..%d, mean=%.2f, stddev=%.2f]", pixels,
+                getMin(Channel.LUMINANCE), getMax(Channel.LUMINANCE), getMean(Channel.LUMINANCE), getStandardDeviation(Channel.LUMINANCE));
+    }
+}
@@ -0,0 +1,82 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.Warp.Interpolation;
+import org.jocl.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+
+import static org.jocl.CL.*;
+
+/**
+ * Applies a {@link Warp} with warp.cl. Both the input and the output must fit in a single device image.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class ImageWarper implements Warper {
+
+    private static final String PROGRAM_RESOURCE = "warp.cl";
+
+    private final OCLDevice device;
+    private final ImageKernelLauncher launcher;
+    private final PixelTransfer transfer;
+    private final cl_sampler nearestSampler;
+    private final cl_sampler bilinearSampler;
+
+    public ImageWarper() {
+        this(OCLRegistry.acquireDefaultDevice());
+    }
+
+    /**
+     * Takes over one reference to the given device, which is released by {@link #dispose()}.
+     */
+    public ImageWarper(OCLDevice device) {
+        this.device = device;
+        this.launcher = new ImageKernelLauncher(device, device.getProgram(PROGRAM_RESOURCE), "warpImage");
+        this.transfer = new PixelTransfer(device);
+        this.nearestSampler = clCreateSampler(device.getContext(), false, CL_ADDRESS_CLAMP, CL_FILTER_NEAREST, null);
+        try {
+            this.bilinearSampler = clCreateSampler(device.getContext(), false, CL_ADDRESS_CLAMP, CL_FILTER_LINEAR, null);
+        } catch (RuntimeException e) {
+            clReleaseSampler(nearestSampler);
+            throw e;
+        }
+    }
+
+    @Override
+    public BufferedImage warp(BufferedImage inputImage, Warp warp) {
+        final Rectangle outputBounds = warp.getOutputBounds(inputImage.getWidth(), inputImage.getHeight());
+        final BufferedImage outputImage = transfer.createOutputImage(inputImage, outputBounds.width, outputBounds.height);
+
+        return launcher.run(inputImage, outputImage, new long[]{outputBounds.width, outputBounds.height}, warpArguments(warp, outputBounds));
+    }
+
+    @Override
+    public CompletableFuture<BufferedImage> warpAsync(BufferedImage inputImage, Warp warp) {
+        final Rectangle outputBounds = warp.getOutputBounds(inputImage.getWidth(), inputImage.getHeight());
+        final BufferedImage outputImage = transfer.createOutputImage(inputImage, outputBounds.width, outputBounds.height);
+
+        return launcher.runAsync(inputImage, outputImage, new long[]{outputBounds.width, outputBounds.height}, warpArguments(warp, outputBounds));
+    }
+
+    @Override
+    public void dispose() {
+        clReleaseSampler(nearestSampler);
+        clReleaseSampler(bilinearSampler);
+        device.release();
+    }
+
+    private ImageKernelLauncher.KernelArguments warpArguments(Warp warp, Rectangle outputBounds) {
+        final double inverse[] = warp.getInverseMatrix(outputBounds);
+        final cl_sampler sampler = (warp.getInterpolation() == Interpolation.NEAREST) ? nearestSampler : bilinearSampler;
+
+        return kernel -> {
+            clSetKernelArg(kernel, 2, Sizeof.cl_sampler, Pointer.to(sampler));
+            for (int row = 0; row < 3; row++) {
+                final float elements[] = new float[]{(float) inverse[row * 3], (float) inverse[row * 3 + 1], (float) inverse[row * 3 + 2], 0};
+                clSetKernelArg(kernel, 3 + row, Sizeof.cl_float4, Pointer.to(elements));
+            }
+        };
+    }
+}
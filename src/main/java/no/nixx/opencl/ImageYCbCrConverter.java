@@ -0,0 +1,113 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.util.CLResources;
+import org.jocl.*;
+
+import java.awt.image.BufferedImage;
+
+import static org.jocl.CL.*;
+
+/**
+ * Converts between images and {@link YCbCrImage} planes with ycbcr.cl. Converting the output of a resize is cheaper
+ * with {@link ImagePipeline#processToYCbCr(BufferedImage, YCbCrImage.Subsampling)}, which converts the resized image
+ * before it leaves the device.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class ImageYCbCrConverter implements YCbCrConverter {
+
+    private static final String PROGRAM_RESOURCE = "ycbcr.cl";
+
+    private final OCLDevice device;
+    private final cl_program program;
+    private final YCbCrConversion conversion;
+    private final PixelTransfer transfer;
+
+    public ImageYCbCrConverter() {
+        this(OCLRegistry.acquireDefaultDevice());
+    }
+
+    /**
+     * Takes over one reference to the given device, which is released by {@link #dispose()}.
+     */
+    public ImageYCbCrConverter(OCLDevice device) {
+        this.device = device;
+        this.program = device.getProgram(PROGRAM_RESOURCE);
+        this.conversion = new YCbCrConversion(device);
+        this.transfer = new PixelTransfer(device);
+    }
+
+    @Override
+    public YCbCrImage toYCbCr(BufferedImage inputImage, YCbCrImage.Subsampling subsampling) {
+        inputImage = transfer.toSupportedFormat(inputImage);
+        try (CLResources resources = new CLResources(device.getCommandQueue())) {
+            final cl_mem inputRaster = transfer.acquire(inputImage, CL_MEM_READ_ONLY, resources);
+            final cl_event writeEvent = new cl_event();
+            transfer.write(inputRaster, inputImage, writeEvent);
+            resources.add(writeEvent);
+            final YCbCrConversion.Planes planes = conversion.enqueue(inputRaster, inputImage.getWidth(), inputImage.getHeight(),
+                    transfer.getFormat(inputImage).getChannels(), subsampling, writeEvent, resources);
+            final YCbCrImage outputImage = planes.read();
+
+            if (device.isProfiling()) {
+                device.reportOperation("rgbToYCbCr", inputImage.getWidth(), inputImage.getHeight(), writeEvent,
+                        new cl_event[]{planes.kernelEvent}, planes.readEvent);
+            }
+            resources.complete();
+
+            return outputImage;
+        }
+    }
+
+    @Override
+    public BufferedImage toRgb(YCbCrImage inputImage) {
+        final int width = inputImage.getWidth();
+        final int height = inputImage.getHeight();
+        final BufferedImage outputImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final cl_context context = device.getContext();
+        final cl_command_queue commandQueue = device.getCommandQueue();
+
+        try (CLResources resources = new CLResources(commandQueue)) {
+            final byte planes[][] = new byte[][]{inputImage.getY(), inputImage.getCb(), inputImage.getCr()};
+            final cl_mem buffers[] = new cl_mem[planes.length];
+            final cl_event writeEvents[] = new cl_event[planes.length];
+            for (int i = 0; i < planes.length; i++) {
+                buffers[i] = resources.createBuffer(context, CL_MEM_READ_ONLY, planes[i].length, null);
+                writeEvents[i] = new cl_event();
+                clEnqueueWriteBuffer(commandQueue, buffers[i], true, 0, planes[i].length, Pointer.to(planes[i]), 0, null, writeEvents[i]);
+                resources.add(writeEvents[i]);
+            }
+            final cl_mem outputRaster = transfer.acquire(outputImage, CL_MEM_WRITE_ONLY, resources);
+
+            final cl_kernel kernel = resources.createKernel(program, "yCbCrToRgb");
+            for (int i = 0; i < buffers.length; i++) {
+                clSetKernelArg(kernel, i, Sizeof.cl_mem, Pointer.to(buffers[i]));
+            }
+            clSetKernelArg(kernel, 3, Sizeof.cl_int, Pointer.to(new int[]{inputImage.getSubsampling().getFactor()}));
+            clSetKernelArg(kernel, 4, Sizeof.cl_mem, Pointer.to(outputRaster));
+
+            final long globalWorkSize[] = new long[]{width, height};
+            final long localWorkSize[] = device.getWorkGroupTuner().getLocalWorkSize("yCbCrToRgb", kernel, globalWorkSize);
+            final cl_event kernelEvent = new cl_event();
+            clEnqueueNDRangeKernel(commandQueue, kernel, 2, null, WorkGroupTuner.getGlobalWorkSize(globalWorkSize, localWorkSize), localWorkSize,
+                    writeEvents.length, writeEvents, kernelEvent);
+            resources.add(kernelEvent);
+            final cl_event readEvent = new cl_event();
+            transfer.read(outputRaster, outputImage, kernelEvent, readEvent);
+            resources.add(readEvent);
+
+            if (device.isProfiling()) {
+                // The luma plane is two thirds or more of the upload
+                device.reportOperation("yCbCrToRgb", width, height, writeEvents[0], new cl_event[]{kernelEvent}, readEvent);
+            }
+            resources.complete();
+        }
+
+        return outputImage;
+    }
+
+    @Override
+    public void dispose() {
+        device.release();
+    }
+}
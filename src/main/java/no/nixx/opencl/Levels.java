@@ -0,0 +1,83 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.ImageStatistics.Channel;
+
+/**
+ * A levels adjustment: each of red, green and blue is stretched from its black point to its white point and then
+ * gamma-corrected, as a table of 256 normalized output values per channel.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public final class Levels {
+
+    private static final Channel COLOR_CHANNELS[] = {Channel.RED, Channel.GREEN, Channel.BLUE};
+
+    private final float lut[];
+
+    private Levels(float lut[]) {
+        this.lut = lut;
+    }
+
+    /**
+     * The same adjustment of every channel. Levels at or below black become 0 and levels at or above white 255; a gamma
+     * above 1 brightens the midtones.
+     */
+    public static Levels of(int black, int white, double gamma) {
+        final float lut[] = new float[3 * ImageStatistics.LEVELS];
+        for (int channel = 0; channel < 3; channel++) {
+            fill(lut, channel, black, white, gamma);
+        }
+
+        return new Levels(lut);
+    }
+
+    /**
+     * Stretches each channel to the full range, clipping the given fraction of the pixels at either end, e.g. 0.001.
+     * Stretching the channels separately also removes a color cast.
+     */
+    public static Levels autoLevels(ImageStatistics statistics, double clipFraction, double gamma) {
+        final float lut[] = new float[3 * ImageStatistics.LEVELS];
+        for (int channel = 0; channel < 3; channel++) {
+            final int black = statistics.getPercentile(COLOR_CHANNELS[channel], clipFraction);
+            final int white = statistics.getPercentile(COLOR_CHANNELS[channel], 1 - clipFraction);
+            fill(lut, channel, black, white, gamma);
+        }
+
+        return new Levels(lut);
+    }
+
+    /**
+     * Stretches the luminance to the full range, clipping the given fraction of the pixels at either end, with the same
+     * adjustment of every channel so that the hues are kept.
+     */
+    public static Levels autoContrast(ImageStatistics statistics, double clipFraction, double gamma) {
+        return of(statistics.getPercentile(Channel.LUMINANCE, clipFraction),
+                statistics.getPercentile(Channel.LUMINANCE, 1 - clipFraction), gamma);
+    }
+
+    /**
+     * The tables of red, green and blue one after the other, as levels.cl takes them.
+     */
+    public float[] getLut() {
+        return lut.clone();
+    }
+
+    /**
+     * The output level of an 8-bit input level of the channel, 0 for red to 2 for blue.
+     */
+    public int apply(int channel, int level) {
+        return Math.round(lut[channel * ImageStatistics.LEVELS + level] * 255);
+    }
+
+    private static void fill(float lut[], int channel, int black, int white, double gamma) {
+        if (!(gamma > 0)) {
+            throw new IllegalArgumentException("Gamma must be positive: " + gamma);
+        }
+        // A flat channel is left as it is rather than turned into a step
+        final boolean flat = white <= black;
+        for (int level = 0; level < ImageStatistics.LEVELS; level++) {
+            final double value = flat ? level / 255.0 : Math.min(Math.max((level - black) / (double) (white - black), 0), 1);
+            lut[channel * ImageStatistics.LEVELS + level] = (float) Math.pow(value, 1 / gamma);
+        }
+    }
+}
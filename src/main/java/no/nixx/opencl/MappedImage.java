@@ -0,0 +1,286 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.util.CLResource;
+import org.jocl.cl_event;
+import org.jocl.cl_mem;
+
+import javax.imageio.ImageReader;
+import java.awt.image.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import static no.nixx.opencl.util.BufferedImageUtils.getPackedIntImage;
+import static no.nixx.opencl.util.OCLUtils.getPackedIntImageFormat;
+import static org.jocl.CL.*;
+
+/**
+ * A device image allocated in host-accessible memory (CL_MEM_ALLOC_HOST_PTR) and mapped into the address space of
+ * the JVM, so that the operators run on it without any transfers of their own.
+ * <p/>
+ * While mapped, the pixels are available as an {@link IntBuffer}, and can be copied in from and out to standard images
+ * a row at a time with {@link #copyFrom(BufferedImage)} and {@link #toBufferedImage()}. The operators unmap the image
+ * while a kernel uses it and map it again before returning. On devices that share memory with the host this moves no
+ * data at all, and on discrete GPUs the driver transfers directly from pinned memory.
+ * <p/>
+ * Mapped images are not thread-safe, and must be closed to release the device memory.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class MappedImage implements AutoCloseable {
+
+    private static final long ALL_PIXELS[] = new long[3];
+
+    private final OCLDevice device;
+    private final CLResource<cl_mem> image;
+    private final int width;
+    private final int height;
+
+    private ByteBuffer mapped;
+    private IntBuffer pixels;
+    private int scanlineStride;
+    private BufferedImage view;
+
+    private MappedImage(OCLDevice device, int width, int height) {
+        this.device = device;
+        this.width = width;
+        this.height = height;
+        try {
+            this.image = CLResource.createImage(
+                    device.getContext(), CL_MEM_READ_WRITE | CL_MEM_ALLOC_HOST_PTR, getPackedIntImageFormat(), width, height);
+        } catch (RuntimeException e) {
+            device.release();
+            throw e;
+        }
+        try {
+            clReleaseEvent(map(null));
+        } catch (RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+    /**
+     * Allocates a mapped image on the given device, retaining it until the image is closed.
+     */
+    public static MappedImage allocate(OCLDevice device, int width, int height) {
+        return new MappedImage(device.retain(), width, height);
+    }
+
+    /**
+     * Allocates a mapped image on the default device.
+     */
+    public static MappedImage allocate(int width, int height) {
+        return new MappedImage(OCLRegistry.acquireDefaultDevice(), width, height);
+    }
+
+    /**
+     * Decodes the first image of the reader, which must already have its input set, into mapped memory. The decoder
+     * writes to a standard image, which is copied in a row at a time; decoding into {@link #asBufferedImage()}
+     * directly would go through a virtual call per pixel, which is slower than the copy.
+     */
+    public static MappedImage read(OCLDevice device, ImageReader reader) {
+        final BufferedImage image;
+        try {
+            image = reader.read(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final MappedImage mappedImage = allocate(device, image.getWidth(), image.getHeight());
+        try {
+            mappedImage.copyFrom(image);
+        } catch (RuntimeException e) {
+            mappedImage.close();
+            throw e;
+        }
+
+        return mappedImage;
+    }
+
+    public OCLDevice getDevice() {
+        return device;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Number of pixels from the start of one row to the start of the next, which the driver may pad.
+     */
+    public int getScanlineStride() {
+        checkMapped();
+        return scanlineStride;
+    }
+
+    /**
+     * The pixels as packed RGB ints, row by row with {@link #getScanlineStride()} pixels per row. Only valid until
+     * the image is next passed to an operator.
+     */
+    public IntBuffer getPixels() {
+        checkMapped();
+        return pixels.duplicate();
+    }
+
+    /**
+     * Copies the pixels of an image of the same size into mapped memory, converting images that are not packed ints.
+     */
+    public void copyFrom(BufferedImage image) {
+        checkMapped();
+        if (image.getWidth() != width || image.getHeight() != height) {
+            throw new IllegalArgumentException("Image must be " + width + "x" + height);
+        }
+
+        // Rasters of packed ints copy rows with System.arraycopy, and int buffers with a bulk put
+        final Raster raster = getPackedIntImage(image).getRaster();
+        final IntBuffer target = pixels.duplicate();
+        final int row[] = new int[width];
+        for (int y = 0; y < height; y++) {
+            raster.getDataElements(0, y, width, 1, row);
+            target.position(y * scanlineStride);
+            target.put(row);
+        }
+    }
+
+    /**
+     * Copies the pixels into a new TYPE_INT_RGB image, e.g. to encode them.
+     */
+    public BufferedImage toBufferedImage() {
+        checkMapped();
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final WritableRaster raster = image.getRaster();
+        final IntBuffer source = pixels.duplicate();
+        final int row[] = new int[width];
+        for (int y = 0; y < height; y++) {
+            source.position(y * scanlineStride);
+            source.get(row);
+            raster.setDataElements(0, y, width, 1, row);
+        }
+
+        return image;
+    }
+
+    /**
+     * A view of the mapped pixels, for reading and writing individual pixels. The view stays valid, and follows the
+     * pixels, when operators remap the image.
+     * <p/>
+     * The view has a custom data buffer, so Java2D and ImageIO access it a pixel at a time through virtual calls,
+     * which is slower than copying the whole image. Use {@link #copyFrom(BufferedImage)}, {@link #toBufferedImage()}
+     * or {@link #getPixels()} to move all the pixels.
+     */
+    public BufferedImage asBufferedImage() {
+        checkMapped();
+        if (view == null) {
+            final DirectColorModel colorModel = new DirectColorModel(24, 0xff0000, 0x00ff00, 0x0000ff);
+            final SampleModel sampleModel = new SinglePixelPackedSampleModel(
+                    DataBuffer.TYPE_INT, width, height, scanlineStride, colorModel.getMasks());
+            final WritableRaster raster = Raster.createWritableRaster(sampleModel, new MappedDataBuffer(), null);
+            view = new BufferedImage(colorModel, raster, false, null);
+        }
+
+        return view;
+    }
+
+    /**
+     * Releases the device memory, also when unmapping fails. Closing more than once has no further effect.
+     */
+    @Override
+    public void close() {
+        if (image.isClosed()) {
+            return;
+        }
+
+        try {
+            if (mapped != null) {
+                clReleaseEvent(unmap());
+            }
+        } finally {
+            release();
+        }
+    }
+
+    cl_mem getMem() {
+        return image.get();
+    }
+
+    boolean isMapped() {
+        return mapped != null;
+    }
+
+    /**
+     * Hands the image over to the device. The returned event completes when the device can use it, and must be
+     * released by the caller.
+     */
+    cl_event unmap() {
+        checkMapped();
+        final cl_event event = new cl_event();
+        clEnqueueUnmapMemObject(device.getCommandQueue(), image.get(), mapped, 0, null, event);
+        mapped = null;
+        pixels = null;
+
+        return event;
+    }
+
+    /**
+     * Maps the image back into host memory once the given event, if any, has completed. Blocks until it is mapped,
+     * and returns the event of the map command, to be released by the caller.
+     */
+    cl_event map(cl_event waitFor) {
+        final long rowPitch[] = new long[1];
+        final cl_event event = new cl_event();
+        mapped = clEnqueueMapImage(
+                device.getCommandQueue(), image.get(), true, CL_MAP_READ | CL_MAP_WRITE,
+                ALL_PIXELS, new long[]{width, height, 1}, rowPitch, null,
+                waitFor == null ? 0 : 1, waitFor == null ? null : new cl_event[]{waitFor}, event, null);
+        mapped.order(ByteOrder.nativeOrder());
+        pixels = mapped.asIntBuffer();
+        if (view != null && scanlineStride != (int) (rowPitch[0] / 4)) {
+            // Drivers normally keep the pitch of an image, but a view laid out for another one would be wrong
+            view = null;
+        }
+        scanlineStride = (int) (rowPitch[0] / 4);
+
+        return event;
+    }
+
+    private void release() {
+        try {
+            image.close();
+        } finally {
+            device.release();
+        }
+    }
+
+    private void checkMapped() {
+        if (mapped == null) {
+            throw new IllegalStateException("Image is in use by the device");
+        }
+    }
+
+    /**
+     * Reads and writes whatever memory the image is currently mapped to.
+     */
+    private class MappedDataBuffer extends DataBuffer {
+
+        MappedDataBuffer() {
+            super(DataBuffer.TYPE_INT, scanlineStride * height);
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return pixels.get(i);
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            pixels.put(i, val);
+        }
+    }
+}
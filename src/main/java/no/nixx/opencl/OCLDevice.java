@@ -0,0 +1,270 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.metrics.CommandTiming;
+import no.nixx.opencl.metrics.MetricsListener;
+import no.nixx.opencl.metrics.OperationProfile;
+import no.nixx.opencl.util.BuildOptions;
+import no.nixx.opencl.util.CLResource;
+import no.nixx.opencl.util.CLResources;
+import no.nixx.opencl.util.KernelSourceLoader;
+import no.nixx.opencl.util.ProgramBinaryCache;
+import org.jocl.*;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static no.nixx.opencl.util.OCLUtils.*;
+import static org.jocl.CL.*;
+
+/**
+ * A device together with the context, command queue and compiled programs used to run kernels on it.
+ * <p/>
+ * Devices are reference counted: every operator that uses a device retains it, and the OpenCL objects are released
+ * when the last operator releases it. Programs are compiled once per classpath resource and shared by all users.
+ * <p/>
+ * Operators report the profiling timestamps of their commands to the registered {@link MetricsListener}s. The events
+ * are only queried while at least one listener is registered.
+ * <p/>
+ * The capabilities of the device are probed when it is opened, and devices without image support are rejected
+ * there, rather than by the first kernel that uses an image.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class OCLDevice {
+
+    private final cl_platform_id platformId;
+    private final cl_device_id deviceId;
+    private final CLResource<cl_context> context;
+    private final CLResource<cl_command_queue> commandQueue;
+    private final DeviceProfile profile;
+    private final Map<String, CLResource<cl_program>> programs = new HashMap<>();
+    private final Map<String, CLResource<cl_program>> generatedPrograms = new HashMap<>();
+    private final ImagePool imagePool;
+    private final List<MetricsListener> metricsListeners = new CopyOnWriteArrayList<>();
+    private Set<PixelFormat> supportedPixelFormats;
+    private WorkGroupTuner workGroupTuner;
+
+    private int references = 1;
+
+    public OCLDevice(cl_platform_id platformId, cl_device_id deviceId) {
+        this.platformId = platformId;
+        this.deviceId = deviceId;
+        this.profile = DeviceProfile.probe(deviceId);
+        profile.checkImageSupport();
+        this.context = CLResource.of(getContextForPlatformIdAndDeviceId(platformId, deviceId));
+        try {
+            this.commandQueue = CLResource.of(getCommandQueueForContextAndPlatformIdAndDeviceId(context.get(), deviceId));
+        } catch (RuntimeException e) {
+            context.close();
+            throw e;
+        }
+        this.imagePool = new ImagePool(context.get());
+    }
+
+    /**
+     * Takes over the given context and command queue, which are released together with the device.
+     */
+    public OCLDevice(cl_platform_id platformId, cl_device_id deviceId, cl_context context, cl_command_queue commandQueue) {
+        this.platformId = platformId;
+        this.deviceId = deviceId;
+        this.profile = DeviceProfile.probe(deviceId);
+        profile.checkImageSupport();
+        this.context = CLResource.of(context);
+        this.commandQueue = CLResource.of(commandQueue);
+        this.imagePool = new ImagePool(context);
+    }
+
+    public cl_platform_id getPlatformId() {
+        return platformId;
+    }
+
+    public cl_device_id getDeviceId() {
+        return deviceId;
+    }
+
+    public cl_context getContext() {
+        return context.get();
+    }
+
+    public cl_command_queue getCommandQueue() {
+        return commandQueue.get();
+    }
+
+    public ImagePool getImagePool() {
+        return imagePool;
+    }
+
+    public DeviceProfile getProfile() {
+        return profile;
+    }
+
+    public synchronized WorkGroupTuner getWorkGroupTuner() {
+        if (workGroupTuner == null) {
+            workGroupTuner = WorkGroupTuner.createDefault(this);
+        }
+
+        return workGroupTuner;
+    }
+
+    /**
+     * Whether images of the given format can be read and written by the kernels, without converting them to packed
+     * ints. The four channel formats are required by OpenCL; the gray ones are optional, but widely supported.
+     */
+    public synchronized boolean isSupported(PixelFormat pixelFormat) {
+        if (supportedPixelFormats == null) {
+            supportedPixelFormats = EnumSet.noneOf(PixelFormat.class);
+            final cl_image_format imageFormats[] = getSupportedImageFormats(context.get(), CL_MEM_READ_WRITE);
+            for (PixelFormat format : PixelFormat.values()) {
+                final cl_image_format required = format.getImageFormat();
+                for (cl_image_format imageFormat : imageFormats) {
+                    if (imageFormat.image_channel_order == required.image_channel_order
+                            && imageFormat.image_channel_data_type == required.image_channel_data_type) {
+                        supportedPixelFormats.add(format);
+                    }
+                }
+            }
+        }
+
+        return supportedPixelFormats.contains(pixelFormat);
+    }
+
+    public void addMetricsListener(MetricsListener listener) {
+        metricsListeners.add(listener);
+    }
+
+    public void removeMetricsListener(MetricsListener listener) {
+        metricsListeners.remove(listener);
+    }
+
+    boolean isProfiling() {
+        return !metricsListeners.isEmpty();
+    }
+
+    /**
+     * Reports the commands of a completed operation to the listeners. Consecutive kernels are reported as one command
+     * spanning all of them. The events must not have been released yet.
+     */
+    void reportOperation(String operation, int width, int height, cl_event upload, cl_event kernels[], cl_event download) {
+        final CommandTiming uploadTiming, kernelTiming, downloadTiming;
+        try {
+            uploadTiming = CommandTiming.of(upload);
+            kernelTiming = CommandTiming.span(CommandTiming.of(kernels[0]), CommandTiming.of(kernels[kernels.length - 1]));
+            downloadTiming = CommandTiming.of(download);
+        } catch (CLException e) {
+            // A command queue handed in by the caller may not have profiling enabled
+            return;
+        }
+        reportOperation(operation, width, height, uploadTiming, kernelTiming, downloadTiming);
+    }
+
+    void reportOperation(String operation, int width, int height, CommandTiming upload, CommandTiming kernel, CommandTiming download) {
+        final OperationProfile profile = new OperationProfile(operation, width, height, upload, kernel, download);
+        for (MetricsListener listener : metricsListeners) {
+            listener.operationCompleted(profile);
+        }
+    }
+
+    public cl_program getProgram(String resourceName) {
+        return getProgram(resourceName, BuildOptions.NONE);
+    }
+
+    /**
+     * Returns the program of a classpath resource, with its includes expanded, built with the given options. Each
+     * variant, e.g. with different constants, is built once and kept until the device is released.
+     */
+    public synchronized cl_program getProgram(String resourceName, BuildOptions options) {
+        final String key = options.isEmpty() ? resourceName : resourceName + " " + options;
+        CLResource<cl_program> program = programs.get(key);
+        if (program == null) {
+            try {
+                program = buildProgram(KernelSourceLoader.load(resourceName), options.isEmpty() ? null : options.toString());
+            } catch (CLException e) {
+                throw new CLException("Could not build " + key + ": " + e.getMessage(), e.getStatus());
+            }
+            programs.put(key, program);
+        }
+
+        return program.get();
+    }
+
+    /**
+     * Returns a program built from generated source, compiled once per distinct source.
+     */
+    public synchronized cl_program getProgramForSource(String source) {
+        CLResource<cl_program> program = generatedPrograms.get(source);
+        if (program == null) {
+            program = buildProgram(source, null);
+            generatedPrograms.put(source, program);
+        }
+
+        return program.get();
+    }
+
+    private CLResource<cl_program> buildProgram(String source, String options) {
+        final ProgramBinaryCache programBinaryCache = ProgramBinaryCache.getDefault();
+        if (programBinaryCache == null) {
+            return CLResource.of(createProgramFromSource(context.get(), source, options));
+        } else {
+            return CLResource.of(programBinaryCache.getProgram(platformId, deviceId, context.get(), source, options));
+        }
+    }
+
+    /**
+     * Hands an already built program over to the device, which releases it together with the context.
+     */
+    public synchronized void addProgram(String resourceName, cl_program program) {
+        final CLResource<cl_program> previous = programs.get(resourceName);
+        if (previous != null && previous.get() == program) {
+            return;
+        }
+        programs.put(resourceName, CLResource.of(program));
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    public synchronized OCLDevice retain() {
+        if (!tryRetain()) {
+            throw new IllegalStateException("Device has already been released");
+        }
+
+        return this;
+    }
+
+    synchronized boolean tryRetain() {
+        if (references == 0) {
+            return false;
+        }
+        references++;
+
+        return true;
+    }
+
+    public synchronized void release() {
+        if (references == 0) {
+            throw new IllegalStateException("Device has already been released");
+        }
+
+        if (--references == 0) {
+            // Let asynchronous operations that are still in flight finish before their resources are released. The
+            // context goes last, also when releasing one of the other objects fails
+            try (CLResources resources = new CLResources(commandQueue.get())) {
+                resources.add(context);
+                resources.add(commandQueue);
+                resources.onClose(imagePool::clear);
+                for (CLResource<cl_program> program : programs.values()) {
+                    resources.add(program);
+                }
+                for (CLResource<cl_program> program : generatedPrograms.values()) {
+                    resources.add(program);
+                }
+                programs.clear();
+                generatedPrograms.clear();
+            }
+        }
+    }
+}
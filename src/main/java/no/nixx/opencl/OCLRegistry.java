@@ -0,0 +1,29 @@
+package no.nixx.opencl;
+
+import org.jocl.cl_platform_id;
+
+import static no.nixx.opencl.util.OCLUtils.getFirstDeviceIdForPlatformId;
+import static no.nixx.opencl.util.OCLUtils.getFirstPlatformId;
+
+/**
+ * Process-wide holder of the default device, so that operators created with their no-argument constructors share
+ * one context, command queue and set of compiled programs.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class OCLRegistry {
+
+    private static OCLDevice defaultDevice;
+
+    /**
+     * Returns the default device, retained on behalf of the caller. Pair every call with {@link OCLDevice#release()}.
+     */
+    public static synchronized OCLDevice acquireDefaultDevice() {
+        if (defaultDevice == null || !defaultDevice.tryRetain()) {
+            final cl_platform_id platformId = getFirstPlatformId();
+            defaultDevice = new OCLDevice(platformId, getFirstDeviceIdForPlatformId(platformId));
+        }
+
+        return defaultDevice;
+    }
+}
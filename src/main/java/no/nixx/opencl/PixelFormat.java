@@ -0,0 +1,95 @@
+package no.nixx.opencl;
+
+import org.jocl.cl_image_format;
+
+import java.awt.image.BufferedImage;
+
+import static org.jocl.CL.*;
+
+/**
+ * The raster layouts the operators process without converting them to packed ints first.
+ * <p/>
+ * Every format is read by the kernels as four normalized float channels, so the kernels do not depend on it. Gray
+ * images keep a single channel on the device, and 16-bit gray keeps its precision. Byte-interleaved BGR has no
+ * matching OpenCL image format; it is transferred as three bytes per pixel and expanded to BGRA on the device.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public enum PixelFormat {
+    INT_RGB(CL_BGRA, CL_UNORM_INT8, 4, BufferedImage.TYPE_INT_RGB),
+    BYTE_BGR(CL_BGRA, CL_UNORM_INT8, 3, BufferedImage.TYPE_3BYTE_BGR),
+    BYTE_GRAY(CL_R, CL_UNORM_INT8, 1, BufferedImage.TYPE_BYTE_GRAY),
+    USHORT_GRAY(CL_R, CL_UNORM_INT16, 2, BufferedImage.TYPE_USHORT_GRAY);
+
+    private final int channelOrder;
+    private final int channelDataType;
+    private final int bytesPerPixel;
+    private final int imageType;
+
+    private PixelFormat(int channelOrder, int channelDataType, int bytesPerPixel, int imageType) {
+        this.channelOrder = channelOrder;
+        this.channelDataType = channelDataType;
+        this.bytesPerPixel = bytesPerPixel;
+        this.imageType = imageType;
+    }
+
+    /**
+     * The format of the given image, or null if it has to be converted to TYPE_INT_RGB. Alpha is carried through
+     * TYPE_INT_ARGB images by the kernels, but the output images of the operators are TYPE_INT_RGB as before.
+     */
+    public static PixelFormat of(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+                return INT_RGB;
+            case BufferedImage.TYPE_3BYTE_BGR:
+                return BYTE_BGR;
+            case BufferedImage.TYPE_BYTE_GRAY:
+                return BYTE_GRAY;
+            case BufferedImage.TYPE_USHORT_GRAY:
+                return USHORT_GRAY;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * The format of the device image: four channels in the byte order of a little-endian packed ARGB int, or one.
+     */
+    public cl_image_format getImageFormat() {
+        final cl_image_format imageFormat = new cl_image_format();
+        imageFormat.image_channel_order = channelOrder;
+        imageFormat.image_channel_data_type = channelDataType;
+
+        return imageFormat;
+    }
+
+    /**
+     * Bytes per pixel in host memory.
+     */
+    public int getBytesPerPixel() {
+        return bytesPerPixel;
+    }
+
+    public int getImageType() {
+        return imageType;
+    }
+
+    public BufferedImage createImage(int width, int height) {
+        return new BufferedImage(width, height, imageType);
+    }
+
+    /**
+     * The number of channels of the device image, 1 for the gray formats and 4 otherwise.
+     */
+    public int getChannels() {
+        return channelOrder == CL_R ? 1 : 4;
+    }
+
+    /**
+     * Whether the host layout differs from the device image, and has to be expanded and packed by a kernel.
+     */
+    boolean isPackedOnDevice() {
+        return this == BYTE_BGR;
+    }
+}
@@ -0,0 +1,191 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.util.CLResources;
+import org.jocl.*;
+
+import java.awt.image.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static no.nixx.opencl.util.BufferedImageUtils.getBufferedImageAsType;
+import static org.jocl.CL.*;
+
+/**
+ * Moves the pixels of images in any {@link PixelFormat} between the host and pooled device images. Images whose
+ * format the device cannot hold are converted to TYPE_INT_RGB on the way in; that is the only conversion done.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+class PixelTransfer {
+
+    private static final String PROGRAM_RESOURCE = "pixels.cl";
+
+    private final OCLDevice device;
+    private final cl_command_queue commandQueue;
+    private final ImagePool imagePool;
+
+    PixelTransfer(OCLDevice device) {
+        this.device = device;
+        this.commandQueue = device.getCommandQueue();
+        this.imagePool = device.getImagePool();
+    }
+
+    /**
+     * The format the image is processed in, or null if it has to be converted first.
+     */
+    PixelFormat getFormat(BufferedImage image) {
+        final PixelFormat format = PixelFormat.of(image);
+
+        return format != null && device.isSupported(format) ? format : null;
+    }
+
+    /**
+     * An output image of the same format as the input when the device can hold it, and TYPE_INT_RGB otherwise.
+     */
+    BufferedImage createOutputImage(BufferedImage inputImage, int width, int height) {
+        final PixelFormat format = getFormat(inputImage);
+
+        return (format == null ? PixelFormat.INT_RGB : format).createImage(width, height);
+    }
+
+    BufferedImage toSupportedFormat(BufferedImage image) {
+        if (getFormat(image) != null) {
+            return image;
+        }
+
+        return getBufferedImageAsType(image, BufferedImage.TYPE_INT_RGB);
+    }
+
+    cl_mem acquire(BufferedImage image, long flags) {
+        return imagePool.acquire(image.getWidth(), image.getHeight(), getFormat(image).getImageFormat(), flags);
+    }
+
+    /**
+     * Acquires an image that is handed back to the pool when the resources are closed.
+     */
+    cl_mem acquire(BufferedImage image, long flags, CLResources resources) {
+        final cl_mem mem = acquire(image, flags);
+        resources.onClose(() -> release(mem));
+
+        return mem;
+    }
+
+    void release(cl_mem image) {
+        imagePool.release(image);
+    }
+
+    /**
+     * Enqueues the upload of the pixels, which are either the image's own array or a direct buffer copied from it.
+     * Non-blocking uploads must keep the pixels reachable until the event has completed.
+     */
+    void write(cl_mem image, BufferedImage source, Pointer pixels, boolean blocking, cl_event event) {
+        final PixelFormat format = getFormat(source);
+        final int width = source.getWidth();
+        final int height = source.getHeight();
+
+        if (!format.isPackedOnDevice()) {
+            clEnqueueWriteImage(
+                    commandQueue, image, blocking, new long[3], new long[]{width, height, 1},
+                    (long) width * format.getBytesPerPixel(), 0, pixels, 0, null, event);
+            return;
+        }
+
+        // Released objects live on until the commands using them have completed
+        try (CLResources resources = new CLResources()) {
+            final cl_mem buffer = resources.createBuffer(device.getContext(), CL_MEM_READ_ONLY, (long) width * height * format.getBytesPerPixel(), null);
+            final cl_event writeEvent = new cl_event();
+            clEnqueueWriteBuffer(commandQueue, buffer, blocking, 0, (long) width * height * format.getBytesPerPixel(), pixels, 0, null, writeEvent);
+            resources.add(writeEvent);
+            final cl_kernel kernel = resources.createKernel(device.getProgram(PROGRAM_RESOURCE), "unpackBgr");
+            clSetKernelArg(kernel, 0, Sizeof.cl_mem, Pointer.to(buffer));
+            clSetKernelArg(kernel, 1, Sizeof.cl_mem, Pointer.to(image));
+            clEnqueueNDRangeKernel(commandQueue, kernel, 2, null, new long[]{width, height}, null, 1, new cl_event[]{writeEvent}, event);
+        }
+    }
+
+    /**
+     * Enqueues the download of the image into the pixels once the given event, if any, has completed.
+     */
+    void read(cl_mem image, BufferedImage target, Pointer pixels, boolean blocking, cl_event waitFor, cl_event event) {
+        final PixelFormat format = getFormat(target);
+        final int width = target.getWidth();
+        final int height = target.getHeight();
+        final int numEvents = waitFor == null ? 0 : 1;
+        final cl_event waitList[] = waitFor == null ? null : new cl_event[]{waitFor};
+
+        if (!format.isPackedOnDevice()) {
+            clEnqueueReadImage(
+                    commandQueue, image, blocking, new long[3], new long[]{width, height, 1},
+                    (long) width * format.getBytesPerPixel(), 0, pixels, numEvents, waitList, event);
+            return;
+        }
+
+        try (CLResources resources = new CLResources()) {
+            final cl_mem buffer = resources.createBuffer(device.getContext(), CL_MEM_WRITE_ONLY, (long) width * height * format.getBytesPerPixel(), null);
+            final cl_kernel kernel = resources.createKernel(device.getProgram(PROGRAM_RESOURCE), "packBgr");
+            clSetKernelArg(kernel, 0, Sizeof.cl_mem, Pointer.to(image));
+            clSetKernelArg(kernel, 1, Sizeof.cl_mem, Pointer.to(buffer));
+            final cl_event packEvent = new cl_event();
+            clEnqueueNDRangeKernel(commandQueue, kernel, 2, null, new long[]{width, height}, null, numEvents, waitList, packEvent);
+            resources.add(packEvent);
+            clEnqueueReadBuffer(commandQueue, buffer, blocking, 0, (long) width * height * format.getBytesPerPixel(), pixels, 1, new cl_event[]{packEvent}, event);
+        }
+    }
+
+    void write(cl_mem image, BufferedImage source, cl_event event) {
+        write(image, source, pointerTo(source), true, event);
+    }
+
+    void read(cl_mem image, BufferedImage target, cl_event waitFor, cl_event event) {
+        read(image, target, pointerTo(target), true, waitFor, event);
+    }
+
+    static Pointer pointerTo(BufferedImage image) {
+        final DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        switch (dataBuffer.getDataType()) {
+            case DataBuffer.TYPE_BYTE:
+                return Pointer.to(((DataBufferByte) dataBuffer).getData());
+            case DataBuffer.TYPE_USHORT:
+                return Pointer.to(((DataBufferUShort) dataBuffer).getData());
+            default:
+                return Pointer.to(((DataBufferInt) dataBuffer).getData());
+        }
+    }
+
+    /**
+     * A direct buffer for non-blocking transfers of the image, which Java arrays cannot be used for.
+     */
+    static ByteBuffer allocateDirect(BufferedImage image) {
+        final long bytes = (long) image.getWidth() * image.getHeight() * PixelFormat.of(image).getBytesPerPixel();
+
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+
+    static void copy(BufferedImage source, ByteBuffer target) {
+        final DataBuffer dataBuffer = source.getRaster().getDataBuffer();
+        switch (dataBuffer.getDataType()) {
+            case DataBuffer.TYPE_BYTE:
+                target.duplicate().put(((DataBufferByte) dataBuffer).getData());
+                break;
+            case DataBuffer.TYPE_USHORT:
+                target.asShortBuffer().put(((DataBufferUShort) dataBuffer).getData());
+                break;
+            default:
+                target.asIntBuffer().put(((DataBufferInt) dataBuffer).getData());
+        }
+    }
+
+    static void copy(ByteBuffer source, BufferedImage target) {
+        final DataBuffer dataBuffer = target.getRaster().getDataBuffer();
+        switch (dataBuffer.getDataType()) {
+            case DataBuffer.TYPE_BYTE:
+                source.duplicate().get(((DataBufferByte) dataBuffer).getData());
+                break;
+            case DataBuffer.TYPE_USHORT:
+                source.asShortBuffer().get(((DataBufferUShort) dataBuffer).getData());
+                break;
+            default:
+                source.asIntBuffer().get(((DataBufferInt) dataBuffer).getData());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package no.nixx.opencl;
+
+import java.util.Arrays;
+
+/**
+ * The contributions of source pixels to every output pixel along one axis: output pixel i is the weighted sum of the
+ * source pixels from {@code getStart(i)} to {@code getStart(i) + getTaps() - 1}. Starts may lie outside the source,
+ * in which case the edge pixel is repeated. Weights are normalized to sum to one.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class ResampleWeights {
+
+    private final int taps;
+    private final int starts[];
+    private final float weights[];
+
+    private ResampleWeights(int taps, int starts[], float weights[]) {
+        this.taps = taps;
+        this.starts = starts;
+        this.weights = weights;
+    }
+
+    public static ResampleWeights create(ResizeFilter filter, int inputLength, int outputLength) {
+        final double scale = inputLength / (double) outputLength;
+
+        return filter == ResizeFilter.AREA ? createArea(scale, outputLength) : createFiltered(filter, scale, outputLength);
+    }
+
+    public int getTaps() {
+        return taps;
+    }
+
+    public int getOutputLength() {
+        return starts.length;
+    }
+
+    public int getStart(int outputIndex) {
+        return starts[outputIndex];
+    }
+
+    public float getWeight(int outputIndex, int tap) {
+        return weights[outputIndex * taps + tap];
+    }
+
+    /**
+     * The starts of all output pixels, in output order.
+     */
+    public int[] getStarts() {
+        return starts;
+    }
+
+    /**
+     * The weights of all output pixels, {@link #getTaps()} per output pixel.
+     */
+    public float[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * The weights of output pixels targetFrom to targetTo - 1, with the starts relative to sourceOrigin. Used to
+     * resample one tile of a larger image.
+     */
+    public ResampleWeights subRange(int targetFrom, int targetTo, int sourceOrigin) {
+        final int subStarts[] = new int[targetTo - targetFrom];
+        for (int i = 0; i < subStarts.length; i++) {
+            subStarts[i] = starts[targetFrom + i] - sourceOrigin;
+        }
+
+        return new ResampleWeights(taps, subStarts, Arrays.copyOfRange(weights, targetFrom * taps, targetTo * taps));
+    }
+
+    private static ResampleWeights createFiltered(ResizeFilter filter, double scale, int outputLength) {
+        // Widening the filter when downscaling turns it into a low-pass filter at the output resolution
+        final double filterScale = Math.max(1, scale);
+        final double support = filter.getSupport() * filterScale;
+        final int taps = (int) Math.ceil(2 * support) + 1;
+        final int starts[] = new int[outputLength];
+        final float weights[] = new float[outputLength * taps];
+        final double tapWeights[] = new double[taps];
+
+        for (int i = 0; i < outputLength; i++) {
+            // Pixel centers are at +0.5, both in the source and in the output
+            final double center = (i + 0.5) * scale;
+            final int start = (int) Math.ceil(center - support - 0.5);
+            double sum = 0;
+            for (int k = 0; k < taps; k++) {
+                tapWeights[k] = filter.weight((start + k + 0.5 - center) / filterScale);
+                sum += tapWeights[k];
+            }
+
+            starts[i] = start;
+            for (int k = 0; k < taps; k++) {
+                weights[i * taps + k] = (float) (tapWeights[k] / sum);
+            }
+        }
+
+        return new ResampleWeights(taps, starts, weights);
+    }
+
+    private static ResampleWeights createArea(double scale, int outputLength) {
+        // The interval covered by one output pixel can overlap ceil(scale) + 1 source pixels
+        final int taps = (int) Math.ceil(scale) + 1;
+        final int starts[] = new int[outputLength];
+        final float weights[] = new float[outputLength * taps];
+
+        for (int i = 0; i < outputLength; i++) {
+            final double from = i * scale;
+            final double to = (i + 1) * scale;
+            final int start = (int) Math.floor(from);
+
+            starts[i] = start;
+            for (int k = 0; k < taps; k++) {
+                final double overlap = Math.min(to, start + k + 1) - Math.max(from, start + k);
+                weights[i * taps + k] = (float) (Math.max(0, overlap) / scale);
+            }
+        }
+
+        return new ResampleWeights(taps, starts, weights);
+    }
+}
@@ -0,0 +1,78 @@
+package no.nixx.opencl;
+
+/**
+ * The reconstruction filters available for resizing. BILINEAR is the single-pass sampler read of resize.cl; the
+ * others run as two separable passes (resample.cl), and are widened by the scale factor when downscaling so that
+ * every source pixel contributes.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public enum ResizeFilter {
+
+    BILINEAR(1) {
+        @Override
+        public double weight(double x) {
+            return Math.max(0, 1 - Math.abs(x));
+        }
+    },
+
+    /**
+     * Averages the source pixels covered by each output pixel, weighted by the covered area. Meant for downscaling.
+     */
+    AREA(0.5) {
+        @Override
+        public double weight(double x) {
+            return Math.abs(x) < 0.5 ? 1 : 0;
+        }
+    },
+
+    /**
+     * Catmull-Rom, the bicubic with a = -0.5.
+     */
+    BICUBIC(2) {
+        @Override
+        public double weight(double x) {
+            final double a = -0.5;
+            final double t = Math.abs(x);
+            if (t < 1) {
+                return ((a + 2) * t - (a + 3)) * t * t + 1;
+            } else if (t < 2) {
+                return ((a * t - 5 * a) * t + 8 * a) * t - 4 * a;
+            } else {
+                return 0;
+            }
+        }
+    },
+
+    LANCZOS3(3) {
+        @Override
+        public double weight(double x) {
+            final double t = Math.abs(x);
+            return t < 3 ? sinc(t) * sinc(t / 3) : 0;
+        }
+    };
+
+    private final double support;
+
+    ResizeFilter(double support) {
+        this.support = support;
+    }
+
+    /**
+     * Radius of the filter in source pixels, before widening.
+     */
+    public double getSupport() {
+        return support;
+    }
+
+    public abstract double weight(double x);
+
+    private static double sinc(double x) {
+        if (x == 0) {
+            return 1;
+        }
+        final double px = Math.PI * x;
+
+        return Math.sin(px) / px;
+    }
+}
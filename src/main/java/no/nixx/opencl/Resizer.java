@@ -0,0 +1,83 @@
+package no.nixx.opencl;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Common interface for the OpenCL and the pure-Java resize implementations.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public interface Resizer {
+
+    default BufferedImage resize(BufferedImage inputImage, int newLongEdgeLength) {
+        final Dimension outputSize = getOutputSize(inputImage.getWidth(), inputImage.getHeight(), newLongEdgeLength);
+
+        return resize(inputImage, outputSize.width, outputSize.height);
+    }
+
+    BufferedImage resize(BufferedImage inputImage, int outputImageWidth, int outputImageHeight);
+
+    /**
+     * Resizes without blocking the calling thread. Implementations without a native asynchronous path run
+     * {@link #resize(BufferedImage, int, int)} on the common ForkJoinPool.
+     */
+    default CompletableFuture<BufferedImage> resizeAsync(BufferedImage inputImage, int outputImageWidth, int outputImageHeight) {
+        return CompletableFuture.supplyAsync(() -> resize(inputImage, outputImageWidth, outputImageHeight));
+    }
+
+    /**
+     * Resizes to several long edge lengths at once, e.g. the thumbnail sizes of an upload, and returns the outputs in
+     * the order of the lengths. Every output is resized from the next larger one rather than from the input, which
+     * costs a fraction of resizing the input every time. Implementations that keep the images on a device upload the
+     * input once.
+     */
+    default List<BufferedImage> resizeToSizes(BufferedImage inputImage, int... newLongEdgeLengths) {
+        final BufferedImage outputImages[] = new BufferedImage[newLongEdgeLengths.length];
+        BufferedImage previousImage = inputImage;
+        for (int index : getLargestFirst(newLongEdgeLengths)) {
+            // The sizes come from the input, so that rounding does not add up through the levels
+            final Dimension outputSize = getOutputSize(inputImage.getWidth(), inputImage.getHeight(), newLongEdgeLengths[index]);
+            outputImages[index] = resize(previousImage, outputSize.width, outputSize.height);
+            previousImage = outputImages[index];
+        }
+
+        return Arrays.asList(outputImages);
+    }
+
+    void dispose();
+
+    /**
+     * The size with the given long edge and the aspect ratio of the input, with the short edge rounded to the nearest
+     * pixel.
+     */
+    static Dimension getOutputSize(int inputImageWidth, int inputImageHeight, int newLongEdgeLength) {
+        final int outputImageWidth;
+        final int outputImageHeight;
+        if(inputImageWidth > inputImageHeight) {
+            outputImageWidth = newLongEdgeLength;
+            outputImageHeight = (int) Math.max(1, Math.round((double) inputImageHeight * newLongEdgeLength / inputImageWidth));
+        } else {
+            outputImageWidth = (int) Math.max(1, Math.round((double) inputImageWidth * newLongEdgeLength / inputImageHeight));
+            outputImageHeight = newLongEdgeLength;
+        }
+
+        return new Dimension(outputImageWidth, outputImageHeight);
+    }
+
+    /**
+     * The indexes of the given long edge lengths, from the largest length to the smallest.
+     */
+    static Integer[] getLargestFirst(int newLongEdgeLengths[]) {
+        final Integer indexes[] = new Integer[newLongEdgeLengths.length];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = i;
+        }
+        Arrays.sort(indexes, (a, b) -> Integer.compare(newLongEdgeLengths[b], newLongEdgeLengths[a]));
+
+        return indexes;
+    }
+}
@@ -0,0 +1,26 @@
+package no.nixx.opencl;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+
+import no.nixx.opencl.ImageRotator.Rotation;
+
+/**
+ * Common interface for the OpenCL and the pure-Java rotate implementations.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public interface Rotator {
+
+    BufferedImage rotate(BufferedImage inputImage, Rotation rotation);
+
+    /**
+     * Rotates without blocking the calling thread. Implementations without a native asynchronous path run
+     * {@link #rotate(BufferedImage, Rotation)} on the common ForkJoinPool.
+     */
+    default CompletableFuture<BufferedImage> rotateAsync(BufferedImage inputImage, Rotation rotation) {
+        return CompletableFuture.supplyAsync(() -> rotate(inputImage, rotation));
+    }
+
+    void dispose();
+}
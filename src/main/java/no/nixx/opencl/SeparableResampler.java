@@ -0,0 +1,192 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.util.CLResources;
+import org.jocl.*;
+
+import java.awt.image.BufferedImage;
+
+import static no.nixx.opencl.util.OCLUtils.getKernelWorkGroupInfoLong;
+import static org.jocl.CL.*;
+
+/**
+ * Resizes with one of the separable filters of resample.cl: a horizontal pass into a float buffer, followed by a
+ * vertical pass into the output image.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+class SeparableResampler {
+
+    private static final String PROGRAM_RESOURCE = "resample.cl";
+
+    // Work-group size along the filtered axis, and the number of source pixels staged in local memory at a time
+    private static final int MAX_LOCAL_WORK_SIZE = 64;
+    private static final int TILE_SIZE = 256;
+
+    private final OCLDevice device;
+    private final cl_program program;
+    private final ResizeFilter filter;
+    private final PixelTransfer transfer;
+
+    SeparableResampler(OCLDevice device, ResizeFilter filter) {
+        this.device = device;
+        this.program = device.getProgram(PROGRAM_RESOURCE);
+        this.filter = filter;
+        this.transfer = new PixelTransfer(device);
+    }
+
+    BufferedImage run(BufferedImage inputImage, BufferedImage outputImage) {
+        return run(inputImage, outputImage,
+                ResampleWeights.create(filter, inputImage.getWidth(), outputImage.getWidth()),
+                ResampleWeights.create(filter, inputImage.getHeight(), outputImage.getHeight()));
+    }
+
+    /**
+     * Resamples with the given weights, which may belong to a tile of a larger image.
+     */
+    BufferedImage run(BufferedImage inputImage, BufferedImage outputImage, ResampleWeights horizontal, ResampleWeights vertical) {
+        inputImage = transfer.toSupportedFormat(inputImage);
+        try (CLResources resources = new CLResources(device.getCommandQueue())) {
+            final cl_mem inputRaster = transfer.acquire(inputImage, CL_MEM_READ_ONLY, resources);
+            final cl_mem outputRaster = transfer.acquire(outputImage, CL_MEM_WRITE_ONLY, resources);
+
+            final cl_event writeEvent = new cl_event();
+            transfer.write(inputRaster, inputImage, writeEvent);
+            resources.add(writeEvent);
+            final Passes passes = enqueue(inputRaster, outputRaster, inputImage.getHeight(), horizontal, vertical, writeEvent);
+            resources.onClose(passes::release);
+            final cl_event readEvent = new cl_event();
+            transfer.read(outputRaster, outputImage, passes.columnsEvent, readEvent);
+            resources.add(readEvent);
+
+            report(outputImage.getWidth(), outputImage.getHeight(), writeEvent, passes, readEvent);
+            resources.complete();
+        }
+
+        return outputImage;
+    }
+
+    /**
+     * Resamples mapped images in place of their host memory, without transfers.
+     */
+    void run(MappedImage inputImage, MappedImage outputImage) {
+        final ResampleWeights horizontal = ResampleWeights.create(filter, inputImage.getWidth(), outputImage.getWidth());
+        final ResampleWeights vertical = ResampleWeights.create(filter, inputImage.getHeight(), outputImage.getHeight());
+
+        try (CLResources resources = new CLResources()) {
+            final cl_event inputUnmapEvent = resources.add(inputImage.unmap());
+            final cl_event outputUnmapEvent = resources.add(outputImage.unmap());
+            Passes passes = null;
+            try {
+                passes = enqueue(inputImage.getMem(), outputImage.getMem(), inputImage.getHeight(), horizontal, vertical, inputUnmapEvent, outputUnmapEvent);
+                resources.onClose(passes::release);
+            } finally {
+                final cl_event waitFor = passes == null ? null : passes.columnsEvent;
+                resources.add(inputImage.map(waitFor));
+                final cl_event mapEvent = resources.add(outputImage.map(waitFor));
+                if (passes != null) {
+                    report(outputImage.getWidth(), outputImage.getHeight(), inputUnmapEvent, passes, mapEvent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Enqueues the resampling of one device image into another, of the given sizes, once the given events have
+     * completed. The returned passes have to be released once they are done with.
+     */
+    Passes enqueue(cl_mem inputRaster, int inputImageWidth, int inputImageHeight, cl_mem outputRaster, int outputImageWidth, int outputImageHeight, cl_event... waitFor) {
+        return enqueue(inputRaster, outputRaster, inputImageHeight,
+                ResampleWeights.create(filter, inputImageWidth, outputImageWidth),
+                ResampleWeights.create(filter, inputImageHeight, outputImageHeight), waitFor);
+    }
+
+    /**
+     * The two kernel passes of one resize, and the buffers they use until they complete.
+     */
+    static class Passes {
+        final CLResources resources = new CLResources();
+        final cl_event rowsEvent = new cl_event();
+        final cl_event columnsEvent = new cl_event();
+
+        void release() {
+            // Buffers in use by enqueued commands are only freed once the commands complete
+            resources.close();
+        }
+    }
+
+    private Passes enqueue(cl_mem inputRaster, cl_mem outputRaster, int inputImageHeight, ResampleWeights horizontal, ResampleWeights vertical, cl_event... waitFor) {
+        final int outputImageWidth = horizontal.getOutputLength();
+        final int outputImageHeight = vertical.getOutputLength();
+
+        final cl_context context = device.getContext();
+        final cl_command_queue commandQueue = device.getCommandQueue();
+        final Passes passes = new Passes();
+        final CLResources resources = passes.resources;
+        try {
+            final cl_mem intermediate = resources.createBuffer(
+                    context, CL_MEM_READ_WRITE, (long) outputImageWidth * inputImageHeight * Sizeof.cl_float4, null);
+            final cl_mem horizontalStarts = createBuffer(resources, context, horizontal.getStarts());
+            final cl_mem horizontalWeights = createBuffer(resources, context, horizontal.getWeights());
+            final cl_mem verticalStarts = createBuffer(resources, context, vertical.getStarts());
+            final cl_mem verticalWeights = createBuffer(resources, context, vertical.getWeights());
+
+            final cl_kernel rowsKernel = resources.createKernel(program, "resampleRows");
+            setArguments(rowsKernel, inputRaster, intermediate, horizontalStarts, horizontalWeights, horizontal.getTaps(), outputImageWidth);
+            final cl_kernel columnsKernel = resources.createKernel(program, "resampleColumns");
+            setArguments(columnsKernel, intermediate, outputRaster, verticalStarts, verticalWeights, vertical.getTaps(), inputImageHeight);
+
+            final long rowsLocalWorkSize = getLocalWorkSize(rowsKernel);
+            clEnqueueNDRangeKernel(commandQueue, rowsKernel, 2, null,
+                    new long[]{roundUp(outputImageWidth, rowsLocalWorkSize), inputImageHeight}, new long[]{rowsLocalWorkSize, 1},
+                    waitFor.length, waitFor, passes.rowsEvent);
+            resources.add(passes.rowsEvent);
+
+            final long columnsLocalWorkSize = getLocalWorkSize(columnsKernel);
+            clEnqueueNDRangeKernel(commandQueue, columnsKernel, 2, null,
+                    new long[]{roundUp(outputImageHeight, columnsLocalWorkSize), outputImageWidth}, new long[]{columnsLocalWorkSize, 1},
+                    1, new cl_event[]{passes.rowsEvent}, passes.columnsEvent);
+            resources.add(passes.columnsEvent);
+        } catch (RuntimeException e) {
+            passes.release();
+            throw e;
+        }
+
+        return passes;
+    }
+
+    private void report(int outputImageWidth, int outputImageHeight, cl_event uploadEvent, Passes passes, cl_event downloadEvent) {
+        if (device.isProfiling()) {
+            device.reportOperation("resample-" + filter.name().toLowerCase(), outputImageWidth, outputImageHeight,
+                    uploadEvent, new cl_event[]{passes.rowsEvent, passes.columnsEvent}, downloadEvent);
+        }
+    }
+
+    private static void setArguments(cl_kernel kernel, cl_mem source, cl_mem target, cl_mem starts, cl_mem weights, int taps, int length) {
+        clSetKernelArg(kernel, 0, Sizeof.cl_mem, Pointer.to(source));
+        clSetKernelArg(kernel, 1, Sizeof.cl_mem, Pointer.to(target));
+        clSetKernelArg(kernel, 2, Sizeof.cl_mem, Pointer.to(starts));
+        clSetKernelArg(kernel, 3, Sizeof.cl_mem, Pointer.to(weights));
+        clSetKernelArg(kernel, 4, Sizeof.cl_int, Pointer.to(new int[]{taps}));
+        clSetKernelArg(kernel, 5, Sizeof.cl_int, Pointer.to(new int[]{length}));
+        clSetKernelArg(kernel, 6, (long) TILE_SIZE * Sizeof.cl_float4, null);
+        clSetKernelArg(kernel, 7, Sizeof.cl_int, Pointer.to(new int[]{TILE_SIZE}));
+    }
+
+    private long getLocalWorkSize(cl_kernel kernel) {
+        final long maxWorkGroupSize = getKernelWorkGroupInfoLong(kernel, device.getDeviceId(), CL_KERNEL_WORK_GROUP_SIZE);
+
+        return Math.max(1, Math.min(MAX_LOCAL_WORK_SIZE, maxWorkGroupSize));
+    }
+
+    private static long roundUp(long value, long multiple) {
+        return (value + multiple - 1) / multiple * multiple;
+    }
+
+    private static cl_mem createBuffer(CLResources resources, cl_context context, int data[]) {
+        return resources.createBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, (long) data.length * Sizeof.cl_int, Pointer.to(data));
+    }
+
+    private static cl_mem createBuffer(CLResources resources, cl_context context, float data[]) {
+        return resources.createBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, (long) data.length * Sizeof.cl_float, Pointer.to(data));
+    }
+}
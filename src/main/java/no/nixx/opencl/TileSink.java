@@ -0,0 +1,30 @@
+package no.nixx.opencl;
+
+import java.awt.image.BufferedImage;
+
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+
+/**
+ * Receives the tiles of a processed image, each together with its position in the full output image.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public interface TileSink {
+
+    void write(int x, int y, BufferedImage tile);
+
+    /**
+     * Copies the tiles into a TYPE_INT_RGB image.
+     */
+    static TileSink of(BufferedImage image) {
+        final int target[] = getDataBufferInt(image);
+        final int width = image.getWidth();
+
+        return (x, y, tile) -> {
+            final int source[] = getDataBufferInt(tile);
+            for (int row = 0; row < tile.getHeight(); row++) {
+                System.arraycopy(source, row * tile.getWidth(), target, (y + row) * width + x, tile.getWidth());
+            }
+        };
+    }
+}
@@ -0,0 +1,97 @@
+package no.nixx.opencl;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+
+/**
+ * An image that is read a region at a time, so that images larger than the heap or the device can be processed in
+ * tiles. Regions are returned as TYPE_INT_RGB images of their own.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public interface TileSource {
+
+    int getWidth();
+
+    int getHeight();
+
+    BufferedImage read(Rectangle region);
+
+    static TileSource of(BufferedImage image) {
+        return new TileSource() {
+            @Override
+            public int getWidth() {
+                return image.getWidth();
+            }
+
+            @Override
+            public int getHeight() {
+                return image.getHeight();
+            }
+
+            @Override
+            public BufferedImage read(Rectangle region) {
+                final BufferedImage tile = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_RGB);
+                if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+                    final int source[] = getDataBufferInt(image);
+                    final int target[] = getDataBufferInt(tile);
+                    for (int y = 0; y < region.height; y++) {
+                        System.arraycopy(source, (region.y + y) * image.getWidth() + region.x, target, y * region.width, region.width);
+                    }
+                } else {
+                    final Graphics2D graphics = tile.createGraphics();
+                    graphics.drawImage(image, -region.x, -region.y, null);
+                    graphics.dispose();
+                }
+
+                return tile;
+            }
+        };
+    }
+
+    /**
+     * Decodes only the requested region of the first image of the reader, which must already have its input set.
+     */
+    static TileSource of(ImageReader reader) {
+        final int width;
+        final int height;
+        try {
+            width = reader.getWidth(0);
+            height = reader.getHeight(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return new TileSource() {
+            @Override
+            public int getWidth() {
+                return width;
+            }
+
+            @Override
+            public int getHeight() {
+                return height;
+            }
+
+            @Override
+            public BufferedImage read(Rectangle region) {
+                final ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(region);
+                final BufferedImage decoded;
+                try {
+                    decoded = reader.read(0, param);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                return decoded.getType() == BufferedImage.TYPE_INT_RGB ? decoded : of(decoded).read(new Rectangle(region.getSize()));
+            }
+        };
+    }
+}
@@ -0,0 +1,241 @@
+package no.nixx.opencl;
+
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Splits operations on images that are too large for the device into tiles. Every output tile comes with the source
+ * region it depends on: its footprint through the filter, plus a halo, so that stitched tiles have no seams.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+class Tiling {
+
+    /**
+     * Upper bound on the tile edge, in pixels. Lowering it bounds device and heap memory further.
+     */
+    static final String MAX_TILE_SIZE_PROPERTY = "no.nixx.opencl.maxTileSize";
+
+    private static final int DEFAULT_MAX_TILE_SIZE = 8192;
+
+    // Reading the next tile overlaps with the device working on the previous one, without holding more tiles than this
+    private static final int TILES_IN_FLIGHT = 2;
+
+    /**
+     * Maps target pixels along one axis to the source pixels they are computed from. Both ends must be
+     * non-decreasing in the target index; they may fall outside the source, and are clamped.
+     */
+    interface Footprint {
+        int getFirstSourceIndex(int targetIndex);
+
+        int getSourceEnd(int targetIndex);
+    }
+
+    /**
+     * A range of target pixels along one axis, and the source range it needs.
+     */
+    static class Span {
+        final int sourceFrom;
+        final int sourceTo;
+        final int targetFrom;
+        final int targetTo;
+
+        Span(int sourceFrom, int sourceTo, int targetFrom, int targetTo) {
+            this.sourceFrom = sourceFrom;
+            this.sourceTo = sourceTo;
+            this.targetFrom = targetFrom;
+            this.targetTo = targetTo;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + targetFrom + ", " + targetTo + ") <- [" + sourceFrom + ", " + sourceTo + ")";
+        }
+    }
+
+    static class Tile {
+        final Rectangle source;
+        final Rectangle target;
+
+        Tile(Rectangle source, Rectangle target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        Tile(Span x, Span y) {
+            this(new Rectangle(x.sourceFrom, y.sourceFrom, x.sourceTo - x.sourceFrom, y.sourceTo - y.sourceFrom),
+                    new Rectangle(x.targetFrom, y.targetFrom, x.targetTo - x.targetFrom, y.targetTo - y.targetFrom));
+        }
+    }
+
+    interface TileOperation {
+        CompletableFuture<BufferedImage> apply(Tile tile, BufferedImage sourceTile);
+    }
+
+    /**
+     * The largest tile edge the device can take: bounded by its image limits, by its largest allocation (which must
+     * hold the float4 intermediate of the separable filters), and by {@value #MAX_TILE_SIZE_PROPERTY}.
+     */
+    static int getMaxTileSize(OCLDevice device) {
+        final DeviceProfile profile = device.getProfile();
+        final long maxAllocationEdge = (long) Math.sqrt(profile.getMaxMemAllocSize() / 16.0);
+        long maxTileSize = Long.getLong(MAX_TILE_SIZE_PROPERTY, DEFAULT_MAX_TILE_SIZE);
+        maxTileSize = Math.min(maxTileSize, profile.getMaxImage2dWidth());
+        maxTileSize = Math.min(maxTileSize, profile.getMaxImage2dHeight());
+        maxTileSize = Math.min(maxTileSize, maxAllocationEdge);
+
+        return (int) Math.max(1, maxTileSize);
+    }
+
+    /**
+     * Splits the target axis into as few spans as possible whose source ranges are at most maxTileSize long.
+     */
+    static List<Span> split(int sourceLength, int targetLength, int maxTileSize, Footprint footprint) {
+        final List<Span> spans = new ArrayList<>();
+        int targetFrom = 0;
+        while (targetFrom < targetLength) {
+            final int sourceFrom = clamp(footprint.getFirstSourceIndex(targetFrom), sourceLength);
+            if (getSourceTo(footprint, targetFrom, sourceLength) - sourceFrom > maxTileSize) {
+                throw new IllegalArgumentException(
+                        "A single output pixel depends on more than " + maxTileSize + " source pixels; resize in several steps");
+            }
+
+            // Binary search for the longest span that still fits
+            int fits = targetFrom + 1;
+            int tooLong = Math.min(targetLength, targetFrom + maxTileSize) + 1;
+            while (tooLong - fits > 1) {
+                final int candidate = (fits + tooLong) >>> 1;
+                if (getSourceTo(footprint, candidate - 1, sourceLength) - sourceFrom <= maxTileSize) {
+                    fits = candidate;
+                } else {
+                    tooLong = candidate;
+                }
+            }
+
+            spans.add(new Span(sourceFrom, getSourceTo(footprint, fits - 1, sourceLength), targetFrom, fits));
+            targetFrom = fits;
+        }
+
+        return spans;
+    }
+
+    static List<Tile> combine(List<Span> columns, List<Span> rows) {
+        final List<Tile> tiles = new ArrayList<>(columns.size() * rows.size());
+        for (Span row : rows) {
+            for (Span column : columns) {
+                tiles.add(new Tile(column, row));
+            }
+        }
+
+        return tiles;
+    }
+
+    /**
+     * Reads, processes and writes the tiles in order, with at most {@value #TILES_IN_FLIGHT} tiles held at a time.
+     */
+    static void stream(List<Tile> tiles, TileSource source, TileSink sink, TileOperation operation) {
+        final Deque<Tile> pendingTiles = new ArrayDeque<>(TILES_IN_FLIGHT);
+        final Deque<CompletableFuture<BufferedImage>> pendingResults = new ArrayDeque<>(TILES_IN_FLIGHT);
+        try {
+            for (Tile tile : tiles) {
+                if (pendingTiles.size() == TILES_IN_FLIGHT) {
+                    writeFirst(pendingTiles, pendingResults, sink);
+                }
+                pendingTiles.add(tile);
+                pendingResults.add(operation.apply(tile, source.read(tile.source)));
+            }
+            while (!pendingTiles.isEmpty()) {
+                writeFirst(pendingTiles, pendingResults, sink);
+            }
+        } catch (RuntimeException e) {
+            // Tiles still on the device hold pooled images until they complete
+            for (CompletableFuture<BufferedImage> result : pendingResults) {
+                result.handle((image, throwable) -> null).join();
+            }
+            throw e;
+        }
+    }
+
+    private static void writeFirst(Deque<Tile> pendingTiles, Deque<CompletableFuture<BufferedImage>> pendingResults, TileSink sink) {
+        final Tile tile = pendingTiles.peek();
+        final BufferedImage result;
+        try {
+            result = pendingResults.peek().join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+        pendingTiles.remove();
+        pendingResults.remove();
+        sink.write(tile.target.x, tile.target.y, result);
+    }
+
+    /**
+     * Target pixel i is source pixel i, as for rotations, where the axes are only renamed.
+     */
+    static Footprint identity() {
+        return new Footprint() {
+            @Override
+            public int getFirstSourceIndex(int targetIndex) {
+                return targetIndex;
+            }
+
+            @Override
+            public int getSourceEnd(int targetIndex) {
+                return targetIndex + 1;
+            }
+        };
+    }
+
+    /**
+     * The two texels read by the linear sampler of resize.cl, with one pixel of margin on either side for rounding.
+     */
+    static Footprint bilinear(int sourceLength, int targetLength) {
+        return new Footprint() {
+            @Override
+            public int getFirstSourceIndex(int targetIndex) {
+                return (int) Math.floor(getSourceCoordinate(targetIndex) - 0.5f) - 1;
+            }
+
+            @Override
+            public int getSourceEnd(int targetIndex) {
+                return (int) Math.floor(getSourceCoordinate(targetIndex) - 0.5f) + 3;
+            }
+
+            private float getSourceCoordinate(int targetIndex) {
+                return (targetIndex / (float) targetLength) * sourceLength;
+            }
+        };
+    }
+
+    /**
+     * The taps of a separable filter.
+     */
+    static Footprint filtered(ResampleWeights weights) {
+        return new Footprint() {
+            @Override
+            public int getFirstSourceIndex(int targetIndex) {
+                return weights.getStart(targetIndex);
+            }
+
+            @Override
+            public int getSourceEnd(int targetIndex) {
+                return weights.getStart(targetIndex) + weights.getTaps();
+            }
+        };
+    }
+
+    private static int getSourceTo(Footprint footprint, int targetIndex, int sourceLength) {
+        return clamp(footprint.getSourceEnd(targetIndex) - 1, sourceLength) + 1;
+    }
+
+    private static int clamp(int index, int length) {
+        return Math.min(length - 1, Math.max(0, index));
+    }
+}
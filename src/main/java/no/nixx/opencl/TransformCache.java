@@ -0,0 +1,579 @@
+package no.nixx.opencl;
+
+import java.awt.image.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the results of transforms, keyed by the content of the input image, or a key chosen by the caller, and
+ * a description of the operation, so that repeated requests for the same output are not computed again.
+ * <p/>
+ * Results are held in memory up to a byte budget, evicting the least recently used first, and optionally in a
+ * directory, where they survive restarts and the memory budget. Concurrent requests for a result that is being
+ * computed wait for that computation instead of starting their own.
+ * <p/>
+ * Cached images are shared by every caller that gets them, and must not be modified.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class TransformCache {
+
+    public static final String MAX_BYTES_PROPERTY = "no.nixx.opencl.transformCacheBytes";
+
+    private static final long DEFAULT_MAX_BYTES = 128L * 1024 * 1024;
+    private static final String ENTRY_SUFFIX = ".img";
+    private static final int ENTRY_MAGIC = 0x54434931;
+    private static final int ENTRY_HEADER_BYTES = 16;
+
+    private final long maxBytes;
+    private final File directory;
+    private final long maxDiskBytes;
+
+    // Ordered by access, so the first key is the least recently used
+    private final LinkedHashMap<Key, BufferedImage> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<Key, CompletableFuture<BufferedImage>> pending = new ConcurrentHashMap<>();
+
+    private long bytes;
+    private long evictions;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong diskBytes = new AtomicLong(-1);
+    private final Object diskLock = new Object();
+
+    public TransformCache() {
+        this(Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES));
+    }
+
+    public TransformCache(long maxBytes) {
+        this(maxBytes, null, 0);
+    }
+
+    /**
+     * A cache that also keeps up to maxDiskBytes of results in the given directory.
+     */
+    public TransformCache(long maxBytes, File directory, long maxDiskBytes) {
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * Returns the cached result for the key, or computes it with the transform. If another thread is already
+     * computing it, waits for that thread instead. Exceptions thrown by the transform are passed on to every caller
+     * waiting for it, and nothing is cached.
+     */
+    public BufferedImage get(Key key, Supplier<BufferedImage> transform) {
+        BufferedImage result = getFromMemory(key);
+        if (result != null) {
+            memoryHits.incrementAndGet();
+            bytesSaved.addAndGet(getBytes(result));
+            return result;
+        }
+
+        final CompletableFuture<BufferedImage> future = new CompletableFuture<>();
+        final CompletableFuture<BufferedImage> running = pending.putIfAbsent(key, future);
+        if (running != null) {
+            collapsed.incrementAndGet();
+            result = join(running);
+            bytesSaved.addAndGet(getBytes(result));
+            return result;
+        }
+
+        boolean computed = false;
+        try {
+            // The result may have been stored by a computation that finished after the lookup above
+            result = getFromMemory(key);
+            if (result != null) {
+                memoryHits.incrementAndGet();
+                bytesSaved.addAndGet(getBytes(result));
+            } else if ((result = readFromDisk(key)) != null) {
+                diskHits.incrementAndGet();
+                bytesSaved.addAndGet(getBytes(result));
+                putInMemory(key, result);
+            } else {
+                misses.incrementAndGet();
+                result = transform.get();
+                if (result == null) {
+                    throw new NullPointerException("Transform returned no image for " + key);
+                }
+                putInMemory(key, result);
+                computed = true;
+            }
+            future.complete(result);
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            pending.remove(key);
+        }
+
+        if (computed) {
+            // Written after the waiting callers have been released, as they do not need it
+            writeToDisk(key, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes all results from memory. Results on disk are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * Requests that waited for a computation already in progress rather than starting their own.
+     */
+    public long getCollapsed() {
+        return collapsed.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * The fraction of requests that were answered without running the transform.
+     */
+    public double getHitRatio() {
+        final long hits = getMemoryHits() + getDiskHits() + getCollapsed();
+        final long requests = hits + getMisses();
+
+        return requests == 0 ? 0 : hits / (double) requests;
+    }
+
+    /**
+     * Total size of the results returned without running the transform.
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("TransformCache[memoryHits=%d, diskHits=%d, collapsed=%d, misses=%d, hitRatio=%.3f, bytesSaved=%d, bytes=%d, maxBytes=%d, evictions=%d]",
+                getMemoryHits(), getDiskHits(), getCollapsed(), getMisses(), getHitRatio(), getBytesSaved(), bytes, maxBytes, evictions);
+    }
+
+    private synchronized BufferedImage getFromMemory(Key key) {
+        return entries.get(key);
+    }
+
+    private synchronized void putInMemory(Key key, BufferedImage image) {
+        final long imageBytes = getBytes(image);
+        if (imageBytes > maxBytes) {
+            return;
+        }
+
+        final BufferedImage previous = entries.put(key, image);
+        if (previous != null) {
+            bytes -= getBytes(previous);
+        }
+        bytes += imageBytes;
+
+        final Iterator<Map.Entry<Key, BufferedImage>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= getBytes(iterator.next().getValue());
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private BufferedImage readFromDisk(Key key) {
+        if (directory == null) {
+            return null;
+        }
+
+        final File entry = new File(directory, key.getFileName());
+        if (!entry.isFile()) {
+            return null;
+        }
+
+        try {
+            final BufferedImage image = readEntry(Files.readAllBytes(entry.toPath()));
+            entry.setLastModified(System.currentTimeMillis());
+            return image;
+        } catch (IOException | RuntimeException e) {
+            // Unreadable or truncated entries are computed again
+            entry.delete();
+            return null;
+        }
+    }
+
+    private void writeToDisk(Key key, BufferedImage image) {
+        if (directory == null || !isStorable(image) || !(directory.isDirectory() || directory.mkdirs())) {
+            return;
+        }
+
+        final byte entry[] = writeEntry(image);
+        try {
+            // Write to a temporary file first, so that readers never see a partial entry
+            final File temporaryFile = File.createTempFile("result", ".tmp", directory);
+            Files.write(temporaryFile.toPath(), entry);
+            Files.move(temporaryFile.toPath(), new File(directory, key.getFileName()).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The disk tier is an optimization only
+            return;
+        }
+
+        if (diskBytes.get() < 0) {
+            diskBytes.compareAndSet(-1, getDirectorySize());
+        } else {
+            diskBytes.addAndGet(entry.length);
+        }
+        if (diskBytes.get() > maxDiskBytes) {
+            evictFromDisk();
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the directory is back below nine tenths of its budget, so that
+     * the directory is not listed again on every write. Runs under a lock of its own, as holding the lock of the
+     * memory tier while listing the directory would stall every lookup.
+     */
+    private void evictFromDisk() {
+        synchronized (diskLock) {
+            final File files[] = directory.listFiles((dir, name) -> name.endsWith(ENTRY_SUFFIX));
+            if (files == null) {
+                return;
+            }
+
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            long size = 0;
+            for (File file : files) {
+                size += file.length();
+            }
+            for (int i = 0; i < files.length && size > maxDiskBytes / 10 * 9; i++) {
+                final long length = files[i].length();
+                if (files[i].delete()) {
+                    size -= length;
+                }
+            }
+            diskBytes.set(size);
+        }
+    }
+
+    private long getDirectorySize() {
+        final File files[] = directory.listFiles((dir, name) -> name.endsWith(ENTRY_SUFFIX));
+        long size = 0;
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+
+        return size;
+    }
+
+    private static BufferedImage join(CompletableFuture<BufferedImage> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    static long getBytes(BufferedImage image) {
+        final DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+
+        return (long) dataBuffer.getSize() * dataBuffer.getNumBanks() * DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8;
+    }
+
+    /**
+     * Whether the raster of the image is all of its data buffer, so that the buffer can be hashed and stored as is.
+     * Sub-images share the buffer of their parent, and are read pixel by pixel instead.
+     */
+    private static boolean isWholeBuffer(BufferedImage image) {
+        final WritableRaster raster = image.getRaster();
+        final DataBuffer dataBuffer = raster.getDataBuffer();
+
+        return raster.getParent() == null
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && dataBuffer.getNumBanks() == 1 && dataBuffer.getOffset() == 0
+                && dataBuffer.getSize() == image.getWidth() * image.getHeight() * raster.getNumDataElements();
+    }
+
+    private static boolean isStorable(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_BYTE_GRAY:
+            case BufferedImage.TYPE_USHORT_GRAY:
+                return isWholeBuffer(image);
+            default:
+                return false;
+        }
+    }
+
+    private static byte[] writeEntry(BufferedImage image) {
+        final DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        final ByteBuffer buffer = ByteBuffer.allocate(ENTRY_HEADER_BYTES + (int) getBytes(image)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(ENTRY_MAGIC).putInt(image.getType()).putInt(image.getWidth()).putInt(image.getHeight());
+        if (dataBuffer instanceof DataBufferInt) {
+            buffer.asIntBuffer().put(((DataBufferInt) dataBuffer).getData());
+        } else if (dataBuffer instanceof DataBufferUShort) {
+            buffer.asShortBuffer().put(((DataBufferUShort) dataBuffer).getData());
+        } else {
+            buffer.put(((DataBufferByte) dataBuffer).getData());
+        }
+
+        return buffer.array();
+    }
+
+    private static BufferedImage readEntry(byte entry[]) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(entry).order(ByteOrder.LITTLE_ENDIAN);
+        if (entry.length < ENTRY_HEADER_BYTES || buffer.getInt() != ENTRY_MAGIC) {
+            throw new IOException("Not a cached image");
+        }
+
+        final BufferedImage image = new BufferedImage(buffer.getInt(8), buffer.getInt(12), buffer.getInt(4));
+        buffer.position(ENTRY_HEADER_BYTES);
+        if (buffer.remaining() != getBytes(image)) {
+            throw new IOException("Truncated cached image");
+        }
+
+        final DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        if (dataBuffer instanceof DataBufferInt) {
+            buffer.asIntBuffer().get(((DataBufferInt) dataBuffer).getData());
+        } else if (dataBuffer instanceof DataBufferUShort) {
+            buffer.asShortBuffer().get(((DataBufferUShort) dataBuffer).getData());
+        } else {
+            buffer.get(((DataBufferByte) dataBuffer).getData());
+        }
+
+        return image;
+    }
+
+    /**
+     * Hashes the size, type and pixels of the image with a non-cryptographic 64-bit hash. Four independent lanes let
+     * the multiplications of consecutive words overlap, which keeps hashing far cheaper than the transforms.
+     */
+    static long hash(BufferedImage image) {
+        final ContentHash hash = new ContentHash(image.getWidth(), image.getHeight(), image.getType());
+        final WritableRaster raster = image.getRaster();
+        // Sub-images are copied into an array of their own, laid out like the buffer of a whole image
+        final Object data;
+        if (isWholeBuffer(image)) {
+            final DataBuffer dataBuffer = raster.getDataBuffer();
+            if (dataBuffer instanceof DataBufferInt) {
+                data = ((DataBufferInt) dataBuffer).getData();
+            } else if (dataBuffer instanceof DataBufferByte) {
+                data = ((DataBufferByte) dataBuffer).getData();
+            } else if (dataBuffer instanceof DataBufferUShort) {
+                data = ((DataBufferUShort) dataBuffer).getData();
+            } else {
+                data = raster.getDataElements(0, 0, image.getWidth(), image.getHeight(), null);
+            }
+        } else {
+            data = raster.getDataElements(0, 0, image.getWidth(), image.getHeight(), null);
+        }
+
+        if (data instanceof int[]) {
+            hash.update((int[]) data);
+        } else if (data instanceof byte[]) {
+            hash.update((byte[]) data);
+        } else if (data instanceof short[]) {
+            hash.update((short[]) data);
+        } else {
+            final int pixels[] = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+            hash.update(pixels);
+        }
+
+        return hash.finish();
+    }
+
+    private static class ContentHash {
+        private static final long PRIME1 = 0x9E3779B185EBCA87L;
+        private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+
+        private final long lanes[] = new long[4];
+        private long length;
+
+        ContentHash(int width, int height, int type) {
+            for (int i = 0; i < lanes.length; i++) {
+                lanes[i] = PRIME1 * (i + 1) + ((long) width << 32 | height) * PRIME2 + type;
+            }
+        }
+
+        void update(int data[]) {
+            final long lanes[] = this.lanes;
+            int i = 0;
+            for (; i + 8 <= data.length; i += 8) {
+                lanes[0] = round(lanes[0], (long) data[i] << 32 | (data[i + 1] & 0xffffffffL));
+                lanes[1] = round(lanes[1], (long) data[i + 2] << 32 | (data[i + 3] & 0xffffffffL));
+                lanes[2] = round(lanes[2], (long) data[i + 4] << 32 | (data[i + 5] & 0xffffffffL));
+                lanes[3] = round(lanes[3], (long) data[i + 6] << 32 | (data[i + 7] & 0xffffffffL));
+            }
+            for (; i < data.length; i++) {
+                lanes[i & 3] = round(lanes[i & 3], data[i]);
+            }
+            length += data.length * 4L;
+        }
+
+        void update(byte data[]) {
+            final ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            final long lanes[] = this.lanes;
+            int i = 0;
+            for (; i + 32 <= data.length; i += 32) {
+                lanes[0] = round(lanes[0], buffer.getLong(i));
+                lanes[1] = round(lanes[1], buffer.getLong(i + 8));
+                lanes[2] = round(lanes[2], buffer.getLong(i + 16));
+                lanes[3] = round(lanes[3], buffer.getLong(i + 24));
+            }
+            for (; i < data.length; i++) {
+                lanes[i & 3] = round(lanes[i & 3], data[i]);
+            }
+            length += data.length;
+        }
+
+        void update(short data[]) {
+            final long lanes[] = this.lanes;
+            int i = 0;
+            for (; i + 4 <= data.length; i += 4) {
+                lanes[i >> 2 & 3] = round(lanes[i >> 2 & 3], (long) data[i] << 48 | (data[i + 1] & 0xffffL) << 32
+                        | (data[i + 2] & 0xffffL) << 16 | (data[i + 3] & 0xffffL));
+            }
+            for (; i < data.length; i++) {
+                lanes[i & 3] = round(lanes[i & 3], data[i]);
+            }
+            length += data.length * 2L;
+        }
+
+        long finish() {
+            long h = Long.rotateLeft(lanes[0], 1) + Long.rotateLeft(lanes[1], 7)
+                    + Long.rotateLeft(lanes[2], 12) + Long.rotateLeft(lanes[3], 18) + length;
+            h ^= h >>> 33;
+            h *= PRIME2;
+            h ^= h >>> 29;
+            h *= PRIME1;
+            h ^= h >>> 32;
+
+            return h;
+        }
+
+        private static long round(long lane, long value) {
+            return Long.rotateLeft(lane + value * PRIME2, 31) * PRIME1;
+        }
+    }
+
+    /**
+     * Identifies a result by its source, either the pixels of the input image or a key chosen by the caller, and
+     * the operation with its parameters, e.g. "resize lanczos3 320x200".
+     */
+    public static final class Key {
+        private final String source;
+        private final String operation;
+
+        private Key(String source, String operation) {
+            this.source = source;
+            this.operation = operation;
+        }
+
+        public static Key of(BufferedImage inputImage, String operation) {
+            return new Key(String.format("#%016x", hash(inputImage)), operation);
+        }
+
+        /**
+         * A key for a source the caller can already identify, e.g. by its path and modification time, which saves
+         * hashing the pixels.
+         */
+        public static Key of(String sourceKey, String operation) {
+            return new Key(sourceKey, operation);
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        private String getFileName() {
+            final MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("SHA-256 is not available", e);
+            }
+            digest.update(source.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(operation.getBytes(StandardCharsets.UTF_8));
+
+            final StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+
+            return sb.append(ENTRY_SUFFIX).toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            final Key other = (Key) o;
+            return source.equals(other.source) && operation.equals(other.operation);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * source.hashCode() + operation.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return source + " " + operation;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package no.nixx.opencl;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.util.Arrays;
+
+/**
+ * A projective transform of an image, given as a 3x3 matrix that maps input pixel coordinates to output pixel
+ * coordinates, together with the interpolation used to sample the input.
+ * <p/>
+ * Coordinates are continuous, with pixel (x, y) covering [x, x + 1) x [y, y + 1), as in Java2D. The output image
+ * covers the transformed input, and is translated so that its bounds start at (0, 0).
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public final class Warp {
+
+    public enum Interpolation {
+        NEAREST,
+        BILINEAR
+    }
+
+    private final double matrix[];
+    private final Interpolation interpolation;
+
+    private Warp(double matrix[], Interpolation interpolation) {
+        this.matrix = matrix;
+        this.interpolation = interpolation;
+    }
+
+    /**
+     * A perspective transform from nine matrix elements in row-major order.
+     */
+    public static Warp perspective(double matrix[], Interpolation interpolation) {
+        if (matrix.length != 9) {
+            throw new IllegalArgumentException("Expected 9 matrix elements, got " + matrix.length);
+        }
+        if (determinant(matrix) == 0) {
+            throw new IllegalArgumentException("Matrix is not invertible: " + Arrays.toString(matrix));
+        }
+
+        return new Warp(matrix.clone(), interpolation);
+    }
+
+    public static Warp affine(AffineTransform transform, Interpolation interpolation) {
+        return perspective(new double[]{
+                transform.getScaleX(), transform.getShearX(), transform.getTranslateX(),
+                transform.getShearY(), transform.getScaleY(), transform.getTranslateY(),
+                0, 0, 1}, interpolation);
+    }
+
+    /**
+     * A rotation by any angle, clockwise for positive angles as the image is displayed. Used for deskewing.
+     */
+    public static Warp rotation(double degrees, Interpolation interpolation) {
+        return affine(AffineTransform.getRotateInstance(Math.toRadians(degrees)), interpolation);
+    }
+
+    public Interpolation getInterpolation() {
+        return interpolation;
+    }
+
+    public double[] getMatrix() {
+        return matrix.clone();
+    }
+
+    /**
+     * The pixels covered by the transformed input, which become the output image.
+     */
+    public Rectangle getOutputBounds(int inputImageWidth, int inputImageHeight) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int corner = 0; corner < 4; corner++) {
+            final double x = (corner & 1) * inputImageWidth;
+            final double y = (corner >> 1) * inputImageHeight;
+            final double w = matrix[6] * x + matrix[7] * y + matrix[8];
+            if (w <= 0) {
+                throw new IllegalArgumentException("The transformed image extends to infinity");
+            }
+            final double outX = (matrix[0] * x + matrix[1] * y + matrix[2]) / w;
+            final double outY = (matrix[3] * x + matrix[4] * y + matrix[5]) / w;
+            minX = Math.min(minX, outX);
+            minY = Math.min(minY, outY);
+            maxX = Math.max(maxX, outX);
+            maxY = Math.max(maxY, outY);
+        }
+
+        // Rounding errors of transforms that should land on whole pixels must not add a row or column
+        final int x = (int) Math.floor(minX + 1e-9);
+        final int y = (int) Math.floor(minY + 1e-9);
+
+        return new Rectangle(x, y, (int) Math.ceil(maxX - 1e-9) - x, (int) Math.ceil(maxY - 1e-9) - y);
+    }
+
+    /**
+     * The matrix that maps output pixel coordinates, relative to the output bounds, back to input pixel coordinates.
+     */
+    public double[] getInverseMatrix(Rectangle outputBounds) {
+        final double m[] = matrix;
+        final double determinant = determinant(m);
+        final double inverse[] = new double[]{
+                (m[4] * m[8] - m[5] * m[7]) / determinant,
+                (m[2] * m[7] - m[1] * m[8]) / determinant,
+                (m[1] * m[5] - m[2] * m[4]) / determinant,
+                (m[5] * m[6] - m[3] * m[8]) / determinant,
+                (m[0] * m[8] - m[2] * m[6]) / determinant,
+                (m[2] * m[3] - m[0] * m[5]) / determinant,
+                (m[3] * m[7] - m[4] * m[6]) / determinant,
+                (m[1] * m[6] - m[0] * m[7]) / determinant,
+                (m[0] * m[4] - m[1] * m[3]) / determinant};
+
+        // Translate the output coordinates from the bounds to the whole output space first
+        for (int row = 0; row < 3; row++) {
+            inverse[row * 3 + 2] += inverse[row * 3] * outputBounds.x + inverse[row * 3 + 1] * outputBounds.y;
+        }
+
+        return inverse;
+    }
+
+    private static double determinant(double m[]) {
+        return m[0] * (m[4] * m[8] - m[5] * m[7]) - m[1] * (m[3] * m[8] - m[5] * m[6]) + m[2] * (m[3] * m[7] - m[4] * m[6]);
+    }
+}
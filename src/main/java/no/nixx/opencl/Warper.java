@@ -0,0 +1,28 @@
+package no.nixx.opencl;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Common interface for the OpenCL and the pure-Java warp implementations.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public interface Warper {
+
+    /**
+     * Returns an image of the size of {@link Warp#getOutputBounds(int, int)}. Output pixels that map to outside the
+     * input are black.
+     */
+    BufferedImage warp(BufferedImage inputImage, Warp warp);
+
+    /**
+     * Warps without blocking the calling thread. Implementations without a native asynchronous path run
+     * {@link #warp(BufferedImage, Warp)} on the common ForkJoinPool.
+     */
+    default CompletableFuture<BufferedImage> warpAsync(BufferedImage inputImage, Warp warp) {
+        return CompletableFuture.supplyAsync(() -> warp(inputImage, warp));
+    }
+
+    void dispose();
+}
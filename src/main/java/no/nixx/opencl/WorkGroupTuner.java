@@ -0,0 +1,273 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.metrics.CommandTiming;
+import no.nixx.opencl.util.BuildOptions;
+import no.nixx.opencl.util.CLResource;
+import org.jocl.CLException;
+import org.jocl.cl_command_queue;
+import org.jocl.cl_event;
+import org.jocl.cl_kernel;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static no.nixx.opencl.util.OCLUtils.getKernelWorkGroupInfoLong;
+import static org.jocl.CL.*;
+
+/**
+ * Chooses the local work size of each kernel by timing it with a set of candidate work-group shapes the first time
+ * it runs on a large enough image, and remembers the fastest one in a file per device and driver. Leaving the choice
+ * to the driver is one of the candidates, so a tuned kernel is never slower than an untuned one.
+ * <p/>
+ * The global work size of a kernel with a tuned local size has to be rounded up with
+ * {@link #getGlobalWorkSize(long[], long[])}, and the kernel has to skip the work-items outside the image.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class WorkGroupTuner {
+
+    public static final String DIRECTORY_PROPERTY = "no.nixx.opencl.workGroupCacheDir";
+    public static final String ENABLED_PROPERTY = "no.nixx.opencl.workGroupTuning";
+
+    // Smaller launches finish before the shape of the work-groups makes a measurable difference
+    private static final long MIN_TUNING_WORK_ITEMS = 512 * 512;
+    private static final int TIMED_RUNS = 3;
+    private static final String DRIVER_DEFAULT = "default";
+
+    private static final long CANDIDATES_2D[][] = {
+            {8, 8}, {16, 4}, {16, 8}, {16, 16}, {32, 2}, {32, 4}, {32, 8}, {32, 16}, {64, 1}, {64, 2}, {64, 4}, {128, 1}, {256, 1}
+    };
+    private static final long CANDIDATES_1D[][] = {{32}, {64}, {128}, {256}};
+
+    private final OCLDevice device;
+    private final File file;
+    private final boolean enabled;
+    private final Map<String, long[]> localWorkSizes = new HashMap<>();
+    private boolean loaded;
+
+    WorkGroupTuner(OCLDevice device, File file, boolean enabled) {
+        this.device = device;
+        this.file = file;
+        this.enabled = enabled;
+    }
+
+    static WorkGroupTuner createDefault(OCLDevice device) {
+        final DeviceProfile profile = device.getProfile();
+        final String defaultDirectory = new File(System.getProperty("java.io.tmpdir"), "opencl-img-workgroups").getPath();
+        final String deviceKey = profile.getName() + "|" + profile.getVendor() + "|" + profile.getDriverVersion();
+        final File file = new File(System.getProperty(DIRECTORY_PROPERTY, defaultDirectory), String.format("%08x.properties", deviceKey.hashCode()));
+
+        return new WorkGroupTuner(device, file, Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true")));
+    }
+
+    /**
+     * Returns the local work size to launch the kernel with, or null to leave it to the driver. If the kernel has not
+     * been tuned yet and the launch is large enough, times the candidates first, once the given events have completed.
+     * The kernel must have all its arguments set, and running it more than once must give the same result.
+     */
+    public synchronized long[] getLocalWorkSize(String kernelName, cl_kernel kernel, long globalWorkSize[], cl_event... waitFor) {
+        if (!enabled) {
+            return null;
+        }
+        load();
+
+        if (localWorkSizes.containsKey(kernelName) || getWorkItems(globalWorkSize) < MIN_TUNING_WORK_ITEMS) {
+            return localWorkSizes.get(kernelName);
+        }
+
+        if (waitFor.length > 0) {
+            clWaitForEvents(waitFor.length, waitFor);
+        }
+        final long localWorkSize[] = tune(kernel, globalWorkSize);
+        localWorkSizes.put(kernelName, localWorkSize);
+        store();
+
+        return localWorkSize;
+    }
+
+    /**
+     * Returns the tuned local work size of the kernel without tuning it, for callers that must not block.
+     */
+    public synchronized long[] getKnownLocalWorkSize(String kernelName) {
+        if (!enabled) {
+            return null;
+        }
+        load();
+
+        return localWorkSizes.get(kernelName);
+    }
+
+    /**
+     * The name a kernel is tuned under. Variants of a program built with different options are tuned separately,
+     * since constants folded into one variant may make another work-group shape the fastest.
+     */
+    public static String getTuningKey(String kernelName, BuildOptions options) {
+        return options.isEmpty() ? kernelName : kernelName + " " + options;
+    }
+
+    /**
+     * Rounds the global work size up to a multiple of the local work size, as OpenCL 1.x requires.
+     */
+    public static long[] getGlobalWorkSize(long globalWorkSize[], long localWorkSize[]) {
+        if (localWorkSize == null) {
+            return globalWorkSize;
+        }
+
+        final long padded[] = new long[globalWorkSize.length];
+        for (int i = 0; i < padded.length; i++) {
+            padded[i] = (globalWorkSize[i] + localWorkSize[i] - 1) / localWorkSize[i] * localWorkSize[i];
+        }
+
+        return padded;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private long[] tune(cl_kernel kernel, long globalWorkSize[]) {
+        long best[] = null;
+        long bestNanos = time(kernel, globalWorkSize, null);
+        for (long candidate[] : getCandidates(kernel, globalWorkSize.length)) {
+            final long nanos = time(kernel, globalWorkSize, candidate);
+            if (nanos < bestNanos) {
+                best = candidate;
+                bestNanos = nanos;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * The shortest of a few runs after a warm-up, or Long.MAX_VALUE if the device cannot launch the shape.
+     */
+    private long time(cl_kernel kernel, long globalWorkSize[], long localWorkSize[]) {
+        final cl_command_queue commandQueue = device.getCommandQueue();
+        final long paddedGlobalWorkSize[] = getGlobalWorkSize(globalWorkSize, localWorkSize);
+        long shortest = Long.MAX_VALUE;
+        for (int run = 0; run <= TIMED_RUNS; run++) {
+            // E.g. CL_OUT_OF_RESOURCES for work-groups using too many registers, either when enqueued or when run
+            final cl_event event = new cl_event();
+            try {
+                clEnqueueNDRangeKernel(commandQueue, kernel, globalWorkSize.length, null, paddedGlobalWorkSize, localWorkSize, 0, null, event);
+            } catch (CLException e) {
+                return Long.MAX_VALUE;
+            }
+            try (CLResource<cl_event> resource = CLResource.of(event)) {
+                clWaitForEvents(1, new cl_event[]{resource.get()});
+                final CommandTiming timing = CommandTiming.of(event);
+                if (run > 0) {
+                    shortest = Math.min(shortest, timing.getEnded() - timing.getStarted());
+                }
+            } catch (CLException e) {
+                return Long.MAX_VALUE;
+            }
+        }
+
+        return shortest;
+    }
+
+    private List<long[]> getCandidates(cl_kernel kernel, int dimensions) {
+        final DeviceProfile profile = device.getProfile();
+        final long maxWorkGroupSize = getKernelWorkGroupInfoLong(kernel, device.getDeviceId(), CL_KERNEL_WORK_GROUP_SIZE);
+        final long preferredMultiple = DeviceProfile.getPreferredWorkGroupSizeMultiple(kernel, device.getDeviceId());
+        final long maxWorkItemSizes[] = profile.getMaxWorkItemSizes();
+
+        final List<long[]> candidates = new ArrayList<>();
+        for (long candidate[] : (dimensions == 1) ? CANDIDATES_1D : CANDIDATES_2D) {
+            long size = 1;
+            boolean fits = candidate.length == dimensions;
+            for (int i = 0; fits && i < candidate.length; i++) {
+                size *= candidate[i];
+                fits = i < maxWorkItemSizes.length && candidate[i] <= maxWorkItemSizes[i];
+            }
+            // Work-groups that are not a multiple of the SIMD width leave lanes idle
+            if (fits && size <= maxWorkGroupSize && (preferredMultiple <= 1 || size % preferredMultiple == 0)) {
+                candidates.add(candidate);
+            }
+        }
+
+        return candidates;
+    }
+
+    private static long getWorkItems(long globalWorkSize[]) {
+        long workItems = 1;
+        for (long size : globalWorkSize) {
+            workItems *= size;
+        }
+
+        return workItems;
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        if (!file.isFile()) {
+            return;
+        }
+        final Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream(file)) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            // Tuned again on first use
+            return;
+        }
+        for (String kernelName : properties.stringPropertyNames()) {
+            final String value = properties.getProperty(kernelName);
+            if (DRIVER_DEFAULT.equals(value)) {
+                localWorkSizes.put(kernelName, null);
+                continue;
+            }
+            try {
+                final String sizes[] = value.split("x");
+                final long localWorkSize[] = new long[sizes.length];
+                for (int i = 0; i < sizes.length; i++) {
+                    localWorkSize[i] = Long.parseLong(sizes[i]);
+                }
+                localWorkSizes.put(kernelName, localWorkSize);
+            } catch (NumberFormatException e) {
+                // Ignore entries written by someone else
+            }
+        }
+    }
+
+    private void store() {
+        final Properties properties = new Properties();
+        for (Map.Entry<String, long[]> entry : localWorkSizes.entrySet()) {
+            final StringBuilder sb = new StringBuilder();
+            if (entry.getValue() == null) {
+                sb.append(DRIVER_DEFAULT);
+            } else {
+                for (long size : entry.getValue()) {
+                    sb.append(sb.length() == 0 ? "" : "x").append(size);
+                }
+            }
+            properties.setProperty(entry.getKey(), sb.toString());
+        }
+
+        final File directory = file.getParentFile();
+        if (!(directory.isDirectory() || directory.mkdirs())) {
+            return;
+        }
+        try {
+            // Write to a temporary file first, so that concurrent processes never read a partial file
+            final File temporaryFile = File.createTempFile("workgroups", ".tmp", directory);
+            try (OutputStream outputStream = new FileOutputStream(temporaryFile)) {
+                properties.store(outputStream, "Tuned local work sizes for " + device.getProfile().getName());
+            }
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The kernels are tuned again by the next process
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.util.BuildOptions;
+import no.nixx.opencl.util.CLResources;
+import org.jocl.*;
+
+import static org.jocl.CL.*;
+
+/**
+ * Enqueues the conversion of a device image to YCbCr planes with ycbcr.cl, so that the planes are all that is read
+ * back.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+class YCbCrConversion {
+
+    private static final String PROGRAM_RESOURCE = "ycbcr.cl";
+
+    private final OCLDevice device;
+
+    YCbCrConversion(OCLDevice device) {
+        this.device = device;
+    }
+
+    /**
+     * Enqueues the kernel once the given event has completed. The planes have to be collected with
+     * {@link Planes#read()}; the kernel, buffers and events are added to the given resources.
+     */
+    Planes enqueue(cl_mem image, int width, int height, int channels, YCbCrImage.Subsampling subsampling, cl_event waitFor, CLResources resources) {
+        final cl_context context = device.getContext();
+        final int chromaWidth = YCbCrImage.getChromaWidth(width, subsampling);
+        final int chromaHeight = YCbCrImage.getChromaHeight(height, subsampling);
+        final cl_mem buffers[] = new cl_mem[]{
+                resources.createBuffer(context, CL_MEM_WRITE_ONLY, (long) width * height, null),
+                resources.createBuffer(context, CL_MEM_WRITE_ONLY, (long) chromaWidth * chromaHeight, null),
+                resources.createBuffer(context, CL_MEM_WRITE_ONLY, (long) chromaWidth * chromaHeight, null)};
+
+        final BuildOptions options = BuildOptions.builder().define("CHANNELS", channels).build();
+        final cl_program program = device.getProgram(PROGRAM_RESOURCE, options);
+        final cl_kernel kernel = resources.createKernel(program, "rgbToYCbCr");
+        clSetKernelArg(kernel, 0, Sizeof.cl_mem, Pointer.to(image));
+        for (int i = 0; i < buffers.length; i++) {
+            clSetKernelArg(kernel, 1 + i, Sizeof.cl_mem, Pointer.to(buffers[i]));
+        }
+        clSetKernelArg(kernel, 4, Sizeof.cl_int, Pointer.to(new int[]{channels}));
+        clSetKernelArg(kernel, 5, Sizeof.cl_int, Pointer.to(new int[]{subsampling.getFactor()}));
+
+        final Planes planes = new Planes(width, height, subsampling, buffers, resources);
+        final long globalWorkSize[] = new long[]{chromaWidth, chromaHeight};
+        final long localWorkSize[] = device.getWorkGroupTuner().getLocalWorkSize(WorkGroupTuner.getTuningKey("rgbToYCbCr", options), kernel, globalWorkSize, waitFor);
+        clEnqueueNDRangeKernel(device.getCommandQueue(), kernel, 2, null, WorkGroupTuner.getGlobalWorkSize(globalWorkSize, localWorkSize), localWorkSize,
+                1, new cl_event[]{waitFor}, planes.kernelEvent);
+        resources.add(planes.kernelEvent);
+
+        return planes;
+    }
+
+    /**
+     * The enqueued conversion of one image, and the buffers it writes.
+     */
+    class Planes {
+        final int width;
+        final int height;
+        final YCbCrImage.Subsampling subsampling;
+        final cl_mem buffers[];
+        final CLResources resources;
+        final cl_event kernelEvent = new cl_event();
+        final cl_event readEvent = new cl_event();
+
+        private Planes(int width, int height, YCbCrImage.Subsampling subsampling, cl_mem buffers[], CLResources resources) {
+            this.width = width;
+            this.height = height;
+            this.subsampling = subsampling;
+            this.buffers = buffers;
+            this.resources = resources;
+        }
+
+        /**
+         * Blocks until the planes have been read back. The read event, that of the last plane, is added to the
+         * resources.
+         */
+        YCbCrImage read() {
+            final int chromaLength = YCbCrImage.getChromaWidth(width, subsampling) * YCbCrImage.getChromaHeight(height, subsampling);
+            final byte planes[][] = new byte[][]{new byte[width * height], new byte[chromaLength], new byte[chromaLength]};
+            for (int i = 0; i < planes.length; i++) {
+                clEnqueueReadBuffer(device.getCommandQueue(), buffers[i], true, 0, planes[i].length, Pointer.to(planes[i]),
+                        1, new cl_event[]{kernelEvent}, i == planes.length - 1 ? readEvent : null);
+            }
+            resources.add(readEvent);
+
+            return new YCbCrImage(width, height, subsampling, planes[0], planes[1], planes[2]);
+        }
+    }
+}
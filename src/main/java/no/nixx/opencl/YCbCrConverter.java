@@ -0,0 +1,20 @@
+package no.nixx.opencl;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Common interface for the OpenCL and the pure-Java YCbCr conversions.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public interface YCbCrConverter {
+
+    YCbCrImage toYCbCr(BufferedImage inputImage, YCbCrImage.Subsampling subsampling);
+
+    /**
+     * Returns a TYPE_INT_RGB image.
+     */
+    BufferedImage toRgb(YCbCrImage inputImage);
+
+    void dispose();
+}
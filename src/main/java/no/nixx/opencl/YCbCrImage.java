@@ -0,0 +1,156 @@
+package no.nixx.opencl;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * An image as three 8-bit planes of JFIF YCbCr: full resolution luma, and chroma that is either full resolution or
+ * subsampled by two in both directions. The chroma planes of odd-sized images are rounded up.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public final class YCbCrImage {
+
+    public enum Subsampling {
+        YCBCR_444(1), YCBCR_420(2);
+
+        private final int factor;
+
+        Subsampling(int factor) {
+            this.factor = factor;
+        }
+
+        /**
+         * The width and height in pixels of the block that shares one chroma sample.
+         */
+        public int getFactor() {
+            return factor;
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final Subsampling subsampling;
+    private final byte y[];
+    private final byte cb[];
+    private final byte cr[];
+
+    /**
+     * Takes over the planes, which are stored row by row without padding.
+     */
+    public YCbCrImage(int width, int height, Subsampling subsampling, byte y[], byte cb[], byte cr[]) {
+        final int chromaLength = getChromaWidth(width, subsampling) * getChromaHeight(height, subsampling);
+        if (y.length != width * height || cb.length != chromaLength || cr.length != chromaLength) {
+            throw new IllegalArgumentException(String.format("Planes of %d, %d and %d bytes do not fit a %dx%d %s image",
+                    y.length, cb.length, cr.length, width, height, subsampling));
+        }
+        this.width = width;
+        this.height = height;
+        this.subsampling = subsampling;
+        this.y = y;
+        this.cb = cb;
+        this.cr = cr;
+    }
+
+    /**
+     * Wraps the bands of a three-band raster as full resolution planes, e.g. the raster the JPEG reader of ImageIO
+     * returns from readRaster, which it leaves in YCbCr.
+     */
+    public static YCbCrImage of(Raster raster) {
+        if (raster.getNumBands() != 3) {
+            throw new IllegalArgumentException("Expected three bands: " + raster.getNumBands());
+        }
+        final int width = raster.getWidth();
+        final int height = raster.getHeight();
+        final byte planes[][] = new byte[3][width * height];
+        final int samples[] = new int[width * height];
+        for (int band = 0; band < 3; band++) {
+            raster.getSamples(raster.getMinX(), raster.getMinY(), width, height, band, samples);
+            for (int i = 0; i < samples.length; i++) {
+                planes[band][i] = (byte) samples[i];
+            }
+        }
+
+        return new YCbCrImage(width, height, Subsampling.YCBCR_444, planes[0], planes[1], planes[2]);
+    }
+
+    public static int getChromaWidth(int width, Subsampling subsampling) {
+        return (width + subsampling.getFactor() - 1) / subsampling.getFactor();
+    }
+
+    public static int getChromaHeight(int height, Subsampling subsampling) {
+        return (height + subsampling.getFactor() - 1) / subsampling.getFactor();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Subsampling getSubsampling() {
+        return subsampling;
+    }
+
+    public int getChromaWidth() {
+        return getChromaWidth(width, subsampling);
+    }
+
+    public int getChromaHeight() {
+        return getChromaHeight(height, subsampling);
+    }
+
+    public byte[] getY() {
+        return y;
+    }
+
+    public byte[] getCb() {
+        return cb;
+    }
+
+    public byte[] getCr() {
+        return cr;
+    }
+
+    /**
+     * The size of the three planes, e.g. 1.5 bytes per pixel for 4:2:0 against 4 for packed ints.
+     */
+    public long getBytes() {
+        return (long) y.length + cb.length + cr.length;
+    }
+
+    /**
+     * A three-band raster at full resolution, with the chroma repeated over each block. The JPEG writer of ImageIO
+     * writes three-band rasters as YCbCr as they are, so this skips its color conversion.
+     */
+    public WritableRaster toRaster() {
+        final byte upsampledCb[] = upsample(cb);
+        final byte upsampledCr[] = upsample(cr);
+        final DataBuffer dataBuffer = new DataBufferByte(new byte[][]{y, upsampledCb, upsampledCr}, width * height);
+
+        return Raster.createWritableRaster(
+                new BandedSampleModel(DataBuffer.TYPE_BYTE, width, height, width, new int[]{0, 1, 2}, new int[]{0, 0, 0}), dataBuffer, null);
+    }
+
+    private byte[] upsample(byte plane[]) {
+        if (subsampling == Subsampling.YCBCR_444) {
+            return plane;
+        }
+
+        final int factor = subsampling.getFactor();
+        final int chromaWidth = getChromaWidth();
+        final byte upsampled[] = new byte[width * height];
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                upsampled[row * width + column] = plane[(row / factor) * chromaWidth + column / factor];
+            }
+        }
+
+        return upsampled;
+    }
+}
@@ -0,0 +1,116 @@
+package no.nixx.opencl.cpu;
+
+import no.nixx.opencl.Analyzer;
+import no.nixx.opencl.ImageStatistics;
+import no.nixx.opencl.Levels;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.util.concurrent.ForkJoinPool;
+
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static no.nixx.opencl.util.BufferedImageUtils.getPackedIntImage;
+
+/**
+ * Pure-Java implementation of histogram.cl and levels.cl, used when no OpenCL device is present.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class CpuImageAnalyzer implements Analyzer {
+
+    private static final int LEVELS = ImageStatistics.LEVELS;
+
+    private final ForkJoinPool pool;
+
+    public CpuImageAnalyzer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public CpuImageAnalyzer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public ImageStatistics analyze(BufferedImage inputImage) {
+        final int histograms[] = new int[4 * LEVELS];
+        final int width = inputImage.getWidth();
+
+        if (inputImage.getType() == BufferedImage.TYPE_BYTE_GRAY || inputImage.getType() == BufferedImage.TYPE_USHORT_GRAY) {
+            // Read as samples, as converting to RGB would map the levels through the gray color space
+            final Raster raster = inputImage.getRaster();
+            final int maxSample = (1 << raster.getSampleModel().getSampleSize(0)) - 1;
+            RowBands.forEachBand(pool, inputImage.getHeight(), (fromRow, toRow) -> {
+                final int band[] = new int[4 * LEVELS];
+                final int samples[] = new int[width];
+                for (int y = fromRow; y < toRow; y++) {
+                    raster.getSamples(0, y, width, 1, 0, samples);
+                    for (int sample : samples) {
+                        final int level = Math.round(sample * 255f / maxSample);
+                        band[level]++;
+                        band[LEVELS + level]++;
+                        band[2 * LEVELS + level]++;
+                        band[3 * LEVELS + level]++;
+                    }
+                }
+                merge(band, histograms);
+            });
+        } else {
+            final BufferedImage image = getPackedIntImage(inputImage);
+            final int data[] = getDataBufferInt(image);
+            // Like the work-groups of the kernel, each band counts into its own histograms, which are merged at the end
+            RowBands.forEachBand(pool, image.getHeight(), (fromRow, toRow) -> {
+                final int band[] = new int[4 * LEVELS];
+                for (int i = fromRow * width; i < toRow * width; i++) {
+                    final int red = (data[i] >> 16) & 0xff;
+                    final int green = (data[i] >> 8) & 0xff;
+                    final int blue = data[i] & 0xff;
+                    band[red]++;
+                    band[LEVELS + green]++;
+                    band[2 * LEVELS + blue]++;
+                    band[3 * LEVELS + ImageStatistics.getLuminance(red, green, blue)]++;
+                }
+                merge(band, histograms);
+            });
+        }
+
+        return new ImageStatistics(histograms);
+    }
+
+    @Override
+    public BufferedImage applyLevels(BufferedImage inputImage, Levels levels) {
+        // Works on packed ints only; the other pixel formats are converted, and come out as TYPE_INT_RGB
+        inputImage = getPackedIntImage(inputImage);
+        final int width = inputImage.getWidth();
+        final BufferedImage outputImage = new BufferedImage(width, inputImage.getHeight(), BufferedImage.TYPE_INT_RGB);
+        final int inputData[] = getDataBufferInt(inputImage);
+        final int outputData[] = getDataBufferInt(outputImage);
+
+        final int lut[] = new int[3 * LEVELS];
+        for (int channel = 0; channel < 3; channel++) {
+            for (int level = 0; level < LEVELS; level++) {
+                lut[channel * LEVELS + level] = levels.apply(channel, level);
+            }
+        }
+
+        RowBands.forEachBand(pool, inputImage.getHeight(), (fromRow, toRow) -> {
+            for (int i = fromRow * width; i < toRow * width; i++) {
+                final int pixel = inputData[i];
+                outputData[i] = lut[(pixel >> 16) & 0xff] << 16 | lut[LEVELS + ((pixel >> 8) & 0xff)] << 8 | lut[2 * LEVELS + (pixel & 0xff)];
+            }
+        });
+
+        return outputImage;
+    }
+
+    @Override
+    public void dispose() {
+    }
+
+    private static void merge(int band[], int histograms[]) {
+        synchronized (histograms) {
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] += band[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package no.nixx.opencl.cpu;
+
+import no.nixx.opencl.Convolution;
+import no.nixx.opencl.Convolver;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static no.nixx.opencl.util.BufferedImageUtils.getPackedIntImage;
+
+/**
+ * Pure-Java implementation of convolve.cl, used when no OpenCL device is present.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class CpuImageConvolver implements Convolver {
+
+    private final ForkJoinPool pool;
+
+    public CpuImageConvolver() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public CpuImageConvolver(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public BufferedImage convolve(BufferedImage inputImage, Convolution convolution) {
+        // Works on packed ints only; the other pixel formats are converted, and come out as TYPE_INT_RGB
+        inputImage = getPackedIntImage(inputImage);
+        final int width = inputImage.getWidth();
+        final int height = inputImage.getHeight();
+        final BufferedImage outputImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final int inputData[] = getDataBufferInt(inputImage);
+        final int outputData[] = getDataBufferInt(outputImage);
+
+        if (convolution.isSeparable()) {
+            convolveSeparable(inputData, outputData, width, height, convolution);
+        } else {
+            convolve2d(inputData, outputData, width, height, convolution);
+        }
+
+        return outputImage;
+    }
+
+    @Override
+    public CompletableFuture<BufferedImage> convolveAsync(BufferedImage inputImage, Convolution convolution) {
+        return CompletableFuture.supplyAsync(() -> convolve(inputImage, convolution), pool);
+    }
+
+    @Override
+    public void dispose() {
+    }
+
+    private void convolveSeparable(int inputData[], int outputData[], int width, int height, Convolution convolution) {
+        final float horizontal[] = convolution.getHorizontal();
+        final float vertical[] = convolution.getVertical();
+        final int horizontalRadius = horizontal.length / 2;
+        final int verticalRadius = vertical.length / 2;
+        final float sharpening = convolution.getSharpening();
+
+        // Three floats per pixel, unrounded like the float image between the two passes of the kernel
+        final float rows[] = new float[width * height * 3];
+        RowBands.forEachBand(pool, height, (fromRow, toRow) -> {
+            for (int y = fromRow; y < toRow; y++) {
+                for (int x = 0; x < width; x++) {
+                    float r = 0, g = 0, b = 0;
+                    for (int k = 0; k < horizontal.length; k++) {
+                        final int pixel = inputData[y * width + clamp(x - horizontalRadius + k, width)];
+                        r += horizontal[k] * ((pixel >> 16) & 0xff);
+                        g += horizontal[k] * ((pixel >> 8) & 0xff);
+                        b += horizontal[k] * (pixel & 0xff);
+                    }
+                    final int offset = (y * width + x) * 3;
+                    rows[offset] = r;
+                    rows[offset + 1] = g;
+                    rows[offset + 2] = b;
+                }
+            }
+        });
+
+        RowBands.forEachBand(pool, height, (fromRow, toRow) -> {
+            for (int y = fromRow; y < toRow; y++) {
+                for (int x = 0; x < width; x++) {
+                    float r = 0, g = 0, b = 0;
+                    for (int k = 0; k < vertical.length; k++) {
+                        final int offset = (clamp(y - verticalRadius + k, height) * width + x) * 3;
+                        r += vertical[k] * rows[offset];
+                        g += vertical[k] * rows[offset + 1];
+                        b += vertical[k] * rows[offset + 2];
+                    }
+                    final int pixel = inputData[y * width + x];
+                    outputData[y * width + x] =
+                            toChannel(r + sharpening * (((pixel >> 16) & 0xff) - r)) << 16 |
+                            toChannel(g + sharpening * (((pixel >> 8) & 0xff) - g)) << 8 |
+                            toChannel(b + sharpening * ((pixel & 0xff) - b));
+                }
+            }
+        });
+    }
+
+    private void convolve2d(int inputData[], int outputData[], int width, int height, Convolution convolution) {
+        final float weights[] = convolution.getWeights();
+        final int kernelWidth = convolution.getWidth();
+        final int kernelHeight = convolution.getHeight();
+        final int originX = convolution.getOriginX();
+        final int originY = convolution.getOriginY();
+
+        RowBands.forEachBand(pool, height, (fromRow, toRow) -> {
+            for (int y = fromRow; y < toRow; y++) {
+                for (int x = 0; x < width; x++) {
+                    float r = 0, g = 0, b = 0;
+                    for (int j = 0; j < kernelHeight; j++) {
+                        final int rowOffset = clamp(y - originY + j, height) * width;
+                        for (int i = 0; i < kernelWidth; i++) {
+                            final float weight = weights[j * kernelWidth + i];
+                            final int pixel = inputData[rowOffset + clamp(x - originX + i, width)];
+                            r += weight * ((pixel >> 16) & 0xff);
+                            g += weight * ((pixel >> 8) & 0xff);
+                            b += weight * (pixel & 0xff);
+                        }
+                    }
+                    outputData[y * width + x] = toChannel(r) << 16 | toChannel(g) << 8 | toChannel(b);
+                }
+            }
+        });
+    }
+
+    private static int clamp(int position, int length) {
+        return Math.min(Math.max(position, 0), length - 1);
+    }
+
+    private static int toChannel(float value) {
+        return Math.min(Math.max(Math.round(value), 0), 255);
+    }
+}
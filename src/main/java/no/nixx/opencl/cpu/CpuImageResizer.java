@@ -0,0 +1,128 @@
+package no.nixx.opencl.cpu;
+
+import no.nixx.opencl.ResizeFilter;
+import no.nixx.opencl.Resizer;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static no.nixx.opencl.util.BufferedImageUtils.getPackedIntImage;
+
+/**
+ * Pure-Java implementation of resize.cl, used when no OpenCL device is present.
+ * <p/>
+ * The sampling follows the OpenCL definition of a CLK_FILTER_LINEAR read with normalized coordinates and
+ * CLK_ADDRESS_CLAMP, so texels outside the source image contribute the (0, 0, 0, 0) border color. The other filters
+ * follow resample.cl.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class CpuImageResizer implements Resizer {
+
+    private final ForkJoinPool pool;
+    private final ResizeFilter filter;
+
+    public CpuImageResizer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public CpuImageResizer(ResizeFilter filter) {
+        this(ForkJoinPool.commonPool(), filter);
+    }
+
+    public CpuImageResizer(ForkJoinPool pool) {
+        this(pool, ResizeFilter.BILINEAR);
+    }
+
+    public CpuImageResizer(ForkJoinPool pool, ResizeFilter filter) {
+        this.pool = pool;
+        this.filter = filter;
+    }
+
+    @Override
+    public BufferedImage resize(BufferedImage inputImage, final int outputImageWidth, final int outputImageHeight) {
+        // Works on packed ints only; the other pixel formats are converted, and come out as TYPE_INT_RGB
+        inputImage = getPackedIntImage(inputImage);
+        final BufferedImage outputImage = new BufferedImage(outputImageWidth, outputImageHeight, BufferedImage.TYPE_INT_RGB);
+        if (filter != ResizeFilter.BILINEAR) {
+            CpuResampler.resample(pool, filter, inputImage, outputImage);
+            return outputImage;
+        }
+
+        final int inputData[] = getDataBufferInt(inputImage);
+        final int outputData[] = getDataBufferInt(outputImage);
+        final int inputImageWidth = inputImage.getWidth();
+        final int inputImageHeight = inputImage.getHeight();
+
+        // The horizontal sample positions are the same for every row
+        final int x0[] = new int[outputImageWidth];
+        final float xWeights[] = new float[outputImageWidth];
+        for (int outX = 0; outX < outputImageWidth; outX++) {
+            final float u = (outX / (float) outputImageWidth) * inputImageWidth - 0.5f;
+            x0[outX] = (int) Math.floor(u);
+            xWeights[outX] = u - x0[outX];
+        }
+
+        RowBands.forEachBand(pool, outputImageHeight, (fromRow, toRow) -> {
+            for (int outY = fromRow; outY < toRow; outY++) {
+                final float v = (outY / (float) outputImageHeight) * inputImageHeight - 0.5f;
+                final int y0 = (int) Math.floor(v);
+                final float b = v - y0;
+                final int outputOffset = outY * outputImageWidth;
+
+                for (int outX = 0; outX < outputImageWidth; outX++) {
+                    final int i0 = x0[outX];
+                    final float a = xWeights[outX];
+                    final int t00 = texel(inputData, inputImageWidth, inputImageHeight, i0, y0);
+                    final int t10 = texel(inputData, inputImageWidth, inputImageHeight, i0 + 1, y0);
+                    final int t01 = texel(inputData, inputImageWidth, inputImageHeight, i0, y0 + 1);
+                    final int t11 = texel(inputData, inputImageWidth, inputImageHeight, i0 + 1, y0 + 1);
+
+                    outputData[outputOffset + outX] = interpolate(t00, t10, t01, t11, a, b);
+                }
+            }
+        });
+
+        return outputImage;
+    }
+
+    @Override
+    public CompletableFuture<BufferedImage> resizeAsync(BufferedImage inputImage, int outputImageWidth, int outputImageHeight) {
+        return CompletableFuture.supplyAsync(() -> resize(inputImage, outputImageWidth, outputImageHeight), pool);
+    }
+
+    @Override
+    public void dispose() {
+    }
+
+    static int texel(int data[], int width, int height, int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return 0;
+        } else {
+            return data[y * width + x];
+        }
+    }
+
+    static int interpolate(int t00, int t10, int t01, int t11, float a, float b) {
+        final float w00 = (1 - a) * (1 - b);
+        final float w10 = a * (1 - b);
+        final float w01 = (1 - a) * b;
+        final float w11 = a * b;
+
+        // Each byte of the packed int is one (unsigned normalized) channel of the CL_BGRA image
+        int pixel = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            final float value =
+                    w00 * ((t00 >>> shift) & 0xff) / 255f +
+                    w10 * ((t10 >>> shift) & 0xff) / 255f +
+                    w01 * ((t01 >>> shift) & 0xff) / 255f +
+                    w11 * ((t11 >>> shift) & 0xff) / 255f;
+            final int channel = Math.min(255, Math.max(0, (int) Math.rint(value * 255f)));
+            pixel |= channel << shift;
+        }
+
+        return pixel;
+    }
+}
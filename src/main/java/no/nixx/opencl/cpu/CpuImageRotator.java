@@ -0,0 +1,79 @@
+package no.nixx.opencl.cpu;
+
+import no.nixx.opencl.ImageRotator.Rotation;
+import no.nixx.opencl.Rotator;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static no.nixx.opencl.util.BufferedImageUtils.getPackedIntImage;
+
+/**
+ * Pure-Java implementation of rotate.cl, used when no OpenCL device is present.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class CpuImageRotator implements Rotator {
+
+    private final ForkJoinPool pool;
+
+    public CpuImageRotator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public CpuImageRotator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public BufferedImage rotate(BufferedImage inputImage, Rotation rotation) {
+        // Works on packed ints only; the other pixel formats are converted, and come out as TYPE_INT_RGB
+        inputImage = getPackedIntImage(inputImage);
+        final int angle = rotation.angle;
+        final int inputImageWidth = inputImage.getWidth();
+        final int outputImageWidth = (rotation.preservesOrientation()) ? inputImage.getWidth() : inputImage.getHeight();
+        final int outputImageHeight = (rotation.preservesOrientation()) ? inputImage.getHeight() : inputImage.getWidth();
+        final BufferedImage outputImage = new BufferedImage(outputImageWidth, outputImageHeight, BufferedImage.TYPE_INT_RGB);
+        final int inputData[] = getDataBufferInt(inputImage);
+        final int outputData[] = getDataBufferInt(outputImage);
+
+        // Walks the output row by row and looks up the source pixel, which is the inverse of the mapping in rotate.cl
+        RowBands.forEachBand(pool, outputImageHeight, (fromRow, toRow) -> {
+            for (int outY = fromRow; outY < toRow; outY++) {
+                final int outputOffset = outY * outputImageWidth;
+                for (int outX = 0; outX < outputImageWidth; outX++) {
+                    final int inX;
+                    final int inY;
+                    if (angle == 90) {
+                        inX = outY;
+                        inY = outputImageWidth - 1 - outX;
+                    } else if (angle == 180) {
+                        inX = outputImageWidth - 1 - outX;
+                        inY = outputImageHeight - 1 - outY;
+                    } else if (angle == 270) {
+                        inX = outputImageHeight - 1 - outY;
+                        inY = outX;
+                    } else {
+                        inX = outX;
+                        inY = outY;
+                    }
+
+                    outputData[outputOffset + outX] = inputData[inY * inputImageWidth + inX];
+                }
+            }
+        });
+
+        return outputImage;
+    }
+
+    @Override
+    public CompletableFuture<BufferedImage> rotateAsync(BufferedImage inputImage, Rotation rotation) {
+        return CompletableFuture.supplyAsync(() -> rotate(inputImage, rotation), pool);
+    }
+
+    @Override
+    public void dispose() {
+    }
+}
@@ -0,0 +1,92 @@
+package no.nixx.opencl.cpu;
+
+import no.nixx.opencl.Warp;
+import no.nixx.opencl.Warp.Interpolation;
+import no.nixx.opencl.Warper;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import static no.nixx.opencl.cpu.CpuImageResizer.interpolate;
+import static no.nixx.opencl.cpu.CpuImageResizer.texel;
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static no.nixx.opencl.util.BufferedImageUtils.getPackedIntImage;
+
+/**
+ * Pure-Java implementation of warp.cl, used when no OpenCL device is present.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class CpuImageWarper implements Warper {
+
+    private final ForkJoinPool pool;
+
+    public CpuImageWarper() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public CpuImageWarper(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public BufferedImage warp(BufferedImage inputImage, Warp warp) {
+        // Works on packed ints only; the other pixel formats are converted, and come out as TYPE_INT_RGB
+        inputImage = getPackedIntImage(inputImage);
+        final int inputImageWidth = inputImage.getWidth();
+        final int inputImageHeight = inputImage.getHeight();
+        final Rectangle outputBounds = warp.getOutputBounds(inputImageWidth, inputImageHeight);
+        final BufferedImage outputImage = new BufferedImage(outputBounds.width, outputBounds.height, BufferedImage.TYPE_INT_RGB);
+        final int inputData[] = getDataBufferInt(inputImage);
+        final int outputData[] = getDataBufferInt(outputImage);
+
+        // Same single precision as the kernel
+        final double inverse[] = warp.getInverseMatrix(outputBounds);
+        final float m[] = new float[9];
+        for (int i = 0; i < 9; i++) {
+            m[i] = (float) inverse[i];
+        }
+        final boolean nearest = warp.getInterpolation() == Interpolation.NEAREST;
+
+        RowBands.forEachBand(pool, outputBounds.height, (fromRow, toRow) -> {
+            for (int outY = fromRow; outY < toRow; outY++) {
+                final float y = outY + 0.5f;
+                final int outputOffset = outY * outputBounds.width;
+                for (int outX = 0; outX < outputBounds.width; outX++) {
+                    final float x = outX + 0.5f;
+                    final float w = m[6] * x + m[7] * y + m[8];
+                    final float u = (m[0] * x + m[1] * y + m[2]) / w;
+                    final float v = (m[3] * x + m[4] * y + m[5]) / w;
+
+                    if (nearest) {
+                        outputData[outputOffset + outX] = texel(inputData, inputImageWidth, inputImageHeight, (int) Math.floor(u), (int) Math.floor(v));
+                    } else {
+                        final int x0 = (int) Math.floor(u - 0.5f);
+                        final int y0 = (int) Math.floor(v - 0.5f);
+                        final float a = u - 0.5f - x0;
+                        final float b = v - 0.5f - y0;
+                        outputData[outputOffset + outX] = interpolate(
+                                texel(inputData, inputImageWidth, inputImageHeight, x0, y0),
+                                texel(inputData, inputImageWidth, inputImageHeight, x0 + 1, y0),
+                                texel(inputData, inputImageWidth, inputImageHeight, x0, y0 + 1),
+                                texel(inputData, inputImageWidth, inputImageHeight, x0 + 1, y0 + 1),
+                                a, b);
+                    }
+                }
+            }
+        });
+
+        return outputImage;
+    }
+
+    @Override
+    public CompletableFuture<BufferedImage> warpAsync(BufferedImage inputImage, Warp warp) {
+        return CompletableFuture.supplyAsync(() -> warp(inputImage, warp), pool);
+    }
+
+    @Override
+    public void dispose() {
+    }
+}
@@ -0,0 +1,84 @@
+package no.nixx.opencl.cpu;
+
+import no.nixx.opencl.ResampleWeights;
+import no.nixx.opencl.ResizeFilter;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+
+/**
+ * Pure-Java implementation of resample.cl, and the reference its output is tested against. Like the kernels, it
+ * filters the rows into a transposed float buffer and then filters that buffer's rows, accumulating the taps in the
+ * same order.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+class CpuResampler {
+
+    private static final int CHANNELS = 4;
+
+    static void resample(ForkJoinPool pool, ResizeFilter filter, BufferedImage inputImage, BufferedImage outputImage) {
+        final int inputImageWidth = inputImage.getWidth();
+        final int inputImageHeight = inputImage.getHeight();
+        final int outputImageWidth = outputImage.getWidth();
+        final int outputImageHeight = outputImage.getHeight();
+        final ResampleWeights horizontal = ResampleWeights.create(filter, inputImageWidth, outputImageWidth);
+        final ResampleWeights vertical = ResampleWeights.create(filter, inputImageHeight, outputImageHeight);
+        final int inputData[] = getDataBufferInt(inputImage);
+        final int outputData[] = getDataBufferInt(outputImage);
+
+        // outputImageWidth rows of inputImageHeight pixels
+        final float intermediate[] = new float[outputImageWidth * inputImageHeight * CHANNELS];
+
+        RowBands.forEachBand(pool, inputImageHeight, (fromRow, toRow) -> {
+            final float sum[] = new float[CHANNELS];
+            for (int y = fromRow; y < toRow; y++) {
+                final int rowOffset = y * inputImageWidth;
+                for (int outX = 0; outX < outputImageWidth; outX++) {
+                    final int start = horizontal.getStart(outX);
+                    Arrays.fill(sum, 0);
+                    for (int k = 0; k < horizontal.getTaps(); k++) {
+                        final int pixel = inputData[rowOffset + clamp(start + k, inputImageWidth)];
+                        final float weight = horizontal.getWeight(outX, k);
+                        for (int c = 0; c < CHANNELS; c++) {
+                            sum[c] += weight * ((pixel >>> (c * 8)) & 0xff);
+                        }
+                    }
+                    System.arraycopy(sum, 0, intermediate, (outX * inputImageHeight + y) * CHANNELS, CHANNELS);
+                }
+            }
+        });
+
+        RowBands.forEachBand(pool, outputImageWidth, (fromRow, toRow) -> {
+            final float sum[] = new float[CHANNELS];
+            for (int x = fromRow; x < toRow; x++) {
+                final int rowOffset = x * inputImageHeight;
+                for (int outY = 0; outY < outputImageHeight; outY++) {
+                    final int start = vertical.getStart(outY);
+                    Arrays.fill(sum, 0);
+                    for (int k = 0; k < vertical.getTaps(); k++) {
+                        final int offset = (rowOffset + clamp(start + k, inputImageHeight)) * CHANNELS;
+                        final float weight = vertical.getWeight(outY, k);
+                        for (int c = 0; c < CHANNELS; c++) {
+                            sum[c] += weight * intermediate[offset + c];
+                        }
+                    }
+
+                    int pixel = 0;
+                    for (int c = 0; c < CHANNELS; c++) {
+                        final int channel = (int) Math.min(255, Math.max(0, Math.rint(sum[c])));
+                        pixel |= channel << (c * 8);
+                    }
+                    outputData[outY * outputImageWidth + x] = pixel;
+                }
+            }
+        });
+    }
+
+    private static int clamp(int index, int length) {
+        return Math.min(length - 1, Math.max(0, index));
+    }
+}
@@ -0,0 +1,114 @@
+package no.nixx.opencl.cpu;
+
+import no.nixx.opencl.YCbCrConverter;
+import no.nixx.opencl.YCbCrImage;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static no.nixx.opencl.util.BufferedImageUtils.getPackedIntImage;
+
+/**
+ * Pure-Java implementation of ycbcr.cl, used when no OpenCL device is present.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class CpuYCbCrConverter implements YCbCrConverter {
+
+    private final ForkJoinPool pool;
+
+    public CpuYCbCrConverter() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public CpuYCbCrConverter(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public YCbCrImage toYCbCr(BufferedImage inputImage, YCbCrImage.Subsampling subsampling) {
+        // Works on packed ints only; the other pixel formats are converted first
+        inputImage = getPackedIntImage(inputImage);
+        final int width = inputImage.getWidth();
+        final int height = inputImage.getHeight();
+        final int factor = subsampling.getFactor();
+        final int chromaWidth = YCbCrImage.getChromaWidth(width, subsampling);
+        final int chromaHeight = YCbCrImage.getChromaHeight(height, subsampling);
+        final int data[] = getDataBufferInt(inputImage);
+        final byte y[] = new byte[width * height];
+        final byte cb[] = new byte[chromaWidth * chromaHeight];
+        final byte cr[] = new byte[chromaWidth * chromaHeight];
+
+        // One band of chroma rows at a time, each covering factor rows of luma
+        RowBands.forEachBand(pool, chromaHeight, (fromRow, toRow) -> {
+            for (int chromaY = fromRow; chromaY < toRow; chromaY++) {
+                for (int chromaX = 0; chromaX < chromaWidth; chromaX++) {
+                    float red = 0, green = 0, blue = 0;
+                    int pixels = 0;
+                    for (int row = chromaY * factor; row < Math.min((chromaY + 1) * factor, height); row++) {
+                        for (int column = chromaX * factor; column < Math.min((chromaX + 1) * factor, width); column++) {
+                            final int pixel = data[row * width + column];
+                            final int r = (pixel >> 16) & 0xff;
+                            final int g = (pixel >> 8) & 0xff;
+                            final int b = pixel & 0xff;
+                            y[row * width + column] = toByte(0.299f * r + 0.587f * g + 0.114f * b);
+                            red += r;
+                            green += g;
+                            blue += b;
+                            pixels++;
+                        }
+                    }
+                    red /= pixels;
+                    green /= pixels;
+                    blue /= pixels;
+                    cb[chromaY * chromaWidth + chromaX] = toByte(128 - 0.168736f * red - 0.331264f * green + 0.5f * blue);
+                    cr[chromaY * chromaWidth + chromaX] = toByte(128 + 0.5f * red - 0.418688f * green - 0.081312f * blue);
+                }
+            }
+        });
+
+        return new YCbCrImage(width, height, subsampling, y, cb, cr);
+    }
+
+    @Override
+    public BufferedImage toRgb(YCbCrImage inputImage) {
+        final int width = inputImage.getWidth();
+        final int factor = inputImage.getSubsampling().getFactor();
+        final int chromaWidth = inputImage.getChromaWidth();
+        final byte y[] = inputImage.getY();
+        final byte cb[] = inputImage.getCb();
+        final byte cr[] = inputImage.getCr();
+        final BufferedImage outputImage = new BufferedImage(width, inputImage.getHeight(), BufferedImage.TYPE_INT_RGB);
+        final int data[] = getDataBufferInt(outputImage);
+
+        RowBands.forEachBand(pool, inputImage.getHeight(), (fromRow, toRow) -> {
+            for (int row = fromRow; row < toRow; row++) {
+                for (int column = 0; column < width; column++) {
+                    final int chroma = (row / factor) * chromaWidth + column / factor;
+                    final float luma = y[row * width + column] & 0xff;
+                    final float blue = (cb[chroma] & 0xff) - 128f;
+                    final float red = (cr[chroma] & 0xff) - 128f;
+                    data[row * width + column] =
+                            toChannel(luma + 1.402f * red) << 16 |
+                            toChannel(luma - 0.344136f * blue - 0.714136f * red) << 8 |
+                            toChannel(luma + 1.772f * blue);
+                }
+            }
+        });
+
+        return outputImage;
+    }
+
+    @Override
+    public void dispose() {
+    }
+
+    private static byte toByte(float value) {
+        return (byte) toChannel(value);
+    }
+
+    private static int toChannel(float value) {
+        return Math.min(Math.max(Math.round(value), 0), 255);
+    }
+}
@@ -0,0 +1,53 @@
+package no.nixx.opencl.cpu;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits an image into bands of rows and processes the bands in parallel on a ForkJoinPool.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class RowBands {
+
+    private static final int MIN_ROWS_PER_BAND = 16;
+
+    public interface RowOperation {
+        void processRows(int fromRow, int toRow);
+    }
+
+    public static void forEachBand(ForkJoinPool pool, int numberOfRows, RowOperation operation) {
+        // A few bands per worker keeps the pool busy when some bands finish early
+        final int rowsPerBand = Math.max(MIN_ROWS_PER_BAND, numberOfRows / (pool.getParallelism() * 4));
+        pool.invoke(new RowBandTask(operation, 0, numberOfRows, rowsPerBand));
+    }
+
+    private static class RowBandTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RowOperation operation;
+        private final int fromRow;
+        private final int toRow;
+        private final int rowsPerBand;
+
+        private RowBandTask(RowOperation operation, int fromRow, int toRow, int rowsPerBand) {
+            this.operation = operation;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.rowsPerBand = rowsPerBand;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow <= rowsPerBand) {
+                operation.processRows(fromRow, toRow);
+            } else {
+                final int middleRow = (fromRow + toRow) >>> 1;
+                invokeAll(
+                        new RowBandTask(operation, fromRow, middleRow, rowsPerBand),
+                        new RowBandTask(operation, middleRow, toRow, rowsPerBand));
+            }
+        }
+    }
+}
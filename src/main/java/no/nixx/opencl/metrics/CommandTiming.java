@@ -0,0 +1,95 @@
+package no.nixx.opencl.metrics;
+
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_event;
+
+import static org.jocl.CL.*;
+
+/**
+ * The device timestamps of one enqueued command, in nanoseconds: when it was queued by the host, submitted to the
+ * device, and when it started and ended executing.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class CommandTiming {
+
+    private final long queued;
+    private final long submitted;
+    private final long started;
+    private final long ended;
+
+    public CommandTiming(long queued, long submitted, long started, long ended) {
+        this.queued = queued;
+        this.submitted = submitted;
+        this.started = started;
+        this.ended = ended;
+    }
+
+    /**
+     * Reads the timestamps of a completed command. The queue must have been created with CL_QUEUE_PROFILING_ENABLE.
+     */
+    public static CommandTiming of(cl_event event) {
+        return new CommandTiming(
+                getProfilingInfo(event, CL_PROFILING_COMMAND_QUEUED),
+                getProfilingInfo(event, CL_PROFILING_COMMAND_SUBMIT),
+                getProfilingInfo(event, CL_PROFILING_COMMAND_START),
+                getProfilingInfo(event, CL_PROFILING_COMMAND_END));
+    }
+
+    /**
+     * Combines consecutive commands into one, from the first being queued to the last one ending.
+     */
+    public static CommandTiming span(CommandTiming first, CommandTiming last) {
+        return new CommandTiming(first.queued, first.submitted, first.started, last.ended);
+    }
+
+    public long getQueued() {
+        return queued;
+    }
+
+    public long getSubmitted() {
+        return submitted;
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    public long getEnded() {
+        return ended;
+    }
+
+    /**
+     * Time spent in the host driver's queue.
+     */
+    public long getQueuedNanos() {
+        return submitted - queued;
+    }
+
+    /**
+     * Time between submission and the device starting the command.
+     */
+    public long getSubmittedNanos() {
+        return started - submitted;
+    }
+
+    /**
+     * Time the device spent executing the command.
+     */
+    public long getRunningNanos() {
+        return ended - started;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("queued %dns, submitted %dns, running %dns", getQueuedNanos(), getSubmittedNanos(), getRunningNanos());
+    }
+
+    private static long getProfilingInfo(cl_event event, int paramName) {
+        final long value[] = new long[1];
+        clGetEventProfilingInfo(event, paramName, Sizeof.cl_ulong, Pointer.to(value), null);
+
+        return value[0];
+    }
+}
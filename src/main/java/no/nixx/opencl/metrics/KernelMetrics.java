@@ -0,0 +1,138 @@
+package no.nixx.opencl.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Aggregates operation profiles into one histogram per operation, size bucket, command and stage, e.g.
+ * "operation=resizeImage,size=1024,command=kernel,stage=running". Size buckets are the output's long edge rounded up
+ * to a power of two. When created with an MBean server, every histogram is registered as an MXBean named
+ * "no.nixx.opencl:type=KernelMetrics," followed by its key.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class KernelMetrics implements MetricsListener {
+
+    public static final String JMX_DOMAIN = "no.nixx.opencl";
+
+    private static final int MIN_SIZE_BUCKET = 64;
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final MBeanServer mBeanServer;
+
+    public KernelMetrics() {
+        this(null);
+    }
+
+    public KernelMetrics(MBeanServer mBeanServer) {
+        this.mBeanServer = mBeanServer;
+    }
+
+    public static KernelMetrics withPlatformMBeanServer() {
+        return new KernelMetrics(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    @Override
+    public void operationCompleted(OperationProfile profile) {
+        final String prefix = "operation=" + profile.getOperation() + ",size=" + getSizeBucket(profile.getWidth(), profile.getHeight());
+        record(prefix + ",command=upload", profile.getUpload());
+        record(prefix + ",command=kernel", profile.getKernel());
+        record(prefix + ",command=download", profile.getDownload());
+        getHistogram(prefix + ",command=total,stage=elapsed").record(profile.getElapsedNanos());
+    }
+
+    /**
+     * Returns the histogram with the given key, or null if nothing has been recorded for it.
+     */
+    public LatencyHistogram get(String key) {
+        return histograms.get(key);
+    }
+
+    public Map<String, LatencyHistogram> getHistograms() {
+        return Collections.unmodifiableMap(new TreeMap<>(histograms));
+    }
+
+    public void reset() {
+        histograms.values().forEach(LatencyHistogram::reset);
+    }
+
+    /**
+     * Unregisters all histograms from the MBean server, if any.
+     */
+    public void unregister() {
+        if (mBeanServer == null) {
+            return;
+        }
+
+        for (String key : histograms.keySet()) {
+            try {
+                final ObjectName name = getObjectName(key);
+                if (mBeanServer.isRegistered(name)) {
+                    mBeanServer.unregisterMBean(name);
+                }
+            } catch (JMException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        getHistograms().forEach((key, histogram) -> builder.append(key).append(": ").append(histogram).append('\n'));
+
+        return builder.toString();
+    }
+
+    static int getSizeBucket(int width, int height) {
+        final int longEdge = Math.max(MIN_SIZE_BUCKET, Math.max(width, height));
+
+        return Integer.highestOneBit(longEdge - 1) << 1;
+    }
+
+    private void record(String prefix, CommandTiming timing) {
+        getHistogram(prefix + ",stage=queued").record(timing.getQueuedNanos());
+        getHistogram(prefix + ",stage=submitted").record(timing.getSubmittedNanos());
+        getHistogram(prefix + ",stage=running").record(timing.getRunningNanos());
+    }
+
+    private LatencyHistogram getHistogram(String key) {
+        final LatencyHistogram histogram = histograms.get(key);
+        if (histogram != null) {
+            return histogram;
+        }
+
+        return histograms.computeIfAbsent(key, k -> {
+            final LatencyHistogram created = new LatencyHistogram();
+            register(k, created);
+            return created;
+        });
+    }
+
+    private void register(String key, LatencyHistogram histogram) {
+        if (mBeanServer == null) {
+            return;
+        }
+
+        try {
+            final ObjectName name = getObjectName(key);
+            if (mBeanServer.isRegistered(name)) {
+                mBeanServer.unregisterMBean(name);
+            }
+            mBeanServer.registerMBean(histogram, name);
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static ObjectName getObjectName(String key) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=KernelMetrics," + key);
+    }
+}
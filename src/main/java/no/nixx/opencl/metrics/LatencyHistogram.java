@@ -0,0 +1,130 @@
+package no.nixx.opencl.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds. Every power of two is split into eight linear buckets, so
+ * percentiles are accurate to within 12.5%.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class LatencyHistogram implements LatencyHistogramMXBean {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = getBucketIndex(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        final long value = Math.max(0, nanos);
+        counts.incrementAndGet(getBucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSumNanos() {
+        return sum.get();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /**
+     * Returns the midpoint of the bucket holding the given percentile (0-100), or 0 if nothing has been recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        final long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                final long lower = getBucketLowerBound(i);
+                final long upper = i + 1 < BUCKETS ? getBucketLowerBound(i + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(lower + (upper - lower) / 2, max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        final long total = count.get();
+        return total == 0 ? 0 : sum.get() / (total * 1000.0);
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return max.get() / 1000.0;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return getPercentileNanos(50) / 1000.0;
+    }
+
+    @Override
+    public double getP90Micros() {
+        return getPercentileNanos(90) / 1000.0;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return getPercentileNanos(99) / 1000.0;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.1fus, p50=%.1fus, p99=%.1fus, max=%.1fus",
+                getCount(), getMeanMicros(), getP50Micros(), getP99Micros(), getMaxMicros());
+    }
+
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long getBucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final int subBucket = index % SUB_BUCKETS;
+
+        return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+}
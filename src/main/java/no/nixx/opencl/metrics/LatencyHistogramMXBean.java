@@ -0,0 +1,21 @@
+package no.nixx.opencl.metrics;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public interface LatencyHistogramMXBean {
+
+    long getCount();
+
+    double getMeanMicros();
+
+    double getMaxMicros();
+
+    double getP50Micros();
+
+    double getP90Micros();
+
+    double getP99Micros();
+
+    void reset();
+}
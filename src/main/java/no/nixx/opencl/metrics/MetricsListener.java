@@ -0,0 +1,12 @@
+package no.nixx.opencl.metrics;
+
+/**
+ * Receives the profile of every operation completed on a device. Called on the thread that completed the operation,
+ * so implementations should return quickly.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public interface MetricsListener {
+
+    void operationCompleted(OperationProfile profile);
+}
@@ -0,0 +1,67 @@
+package no.nixx.opencl.metrics;
+
+/**
+ * Timings of the upload, kernel and download commands of one completed operation.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class OperationProfile {
+
+    private final String operation;
+    private final int width;
+    private final int height;
+    private final CommandTiming upload;
+    private final CommandTiming kernel;
+    private final CommandTiming download;
+
+    public OperationProfile(String operation, int width, int height, CommandTiming upload, CommandTiming kernel, CommandTiming download) {
+        this.operation = operation;
+        this.width = width;
+        this.height = height;
+        this.upload = upload;
+        this.kernel = kernel;
+        this.download = download;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * Width of the output image.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Height of the output image.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    public CommandTiming getUpload() {
+        return upload;
+    }
+
+    public CommandTiming getKernel() {
+        return kernel;
+    }
+
+    public CommandTiming getDownload() {
+        return download;
+    }
+
+    /**
+     * Time from the upload being queued until the download ended.
+     */
+    public long getElapsedNanos() {
+        return download.getEnded() - upload.getQueued();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %dx%d: upload [%s], kernel [%s], download [%s]", operation, width, height, upload, kernel, download);
+    }
+}
@@ -0,0 +1,315 @@
+package no.nixx.opencl.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import no.nixx.opencl.ImageBatchResizer;
+import no.nixx.opencl.ImageOperators;
+import no.nixx.opencl.ImageRotator.Rotation;
+import no.nixx.opencl.metrics.LatencyHistogram;
+import no.nixx.opencl.util.DeviceProbe;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static no.nixx.opencl.util.BufferedImageUtils.getBufferedImageAsType;
+
+/**
+ * A local HTTP front-end for an {@link ImageService}, built on the HTTP server of the JDK.
+ * <ul>
+ * <li>POST /resize?width=W&amp;height=H or /resize?size=L resizes the image in the request body, the latter to a long
+ * edge of L pixels</li>
+ * <li>POST /rotate?rotation=CW_90, CCW_90 or FLIP rotates it</li>
+ * <li>GET /stats returns the throughput and latency percentiles as text</li>
+ * </ul>
+ * The result has the format of the request body unless a format parameter names another ImageIO format. Sizes that
+ * are not positive, or larger than the maximum edge length, are answered with 400, and a full queue with 503 and a
+ * Retry-After header.
+ * <p/>
+ * The handler threads decode the request and encode the response, and do not wait for the device in between.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class ImageServer {
+
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_MAX_EDGE_LENGTH = 16384;
+
+    private final ImageService service;
+    private final int maxEdgeLength;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final LatencyHistogram requestLatency = new LatencyHistogram();
+
+    /**
+     * Binds to the given address, port 0 picking a free one. The threads decode and encode images, so there is
+     * little point in more of them than there are cores.
+     */
+    public ImageServer(ImageService service, InetSocketAddress address, int threads) {
+        this(service, address, threads, DEFAULT_MAX_EDGE_LENGTH);
+    }
+
+    /**
+     * Also limits the width, height and long edge requested for resized images, so that a single request cannot
+     * allocate an arbitrarily large image.
+     */
+    public ImageServer(ImageService service, InetSocketAddress address, int threads, int maxEdgeLength) {
+        this.service = service;
+        this.maxEdgeLength = maxEdgeLength;
+        try {
+            this.server = HttpServer.create(address, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/resize", this::handleTransform);
+        server.createContext("/rotate", this::handleTransform);
+        server.createContext("/stats", this::handleStatistics);
+    }
+
+    /**
+     * Serves the operators of {@link ImageOperators} on the given port, or 8080.
+     */
+    public static void main(String args[]) {
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        final ImageService service = ImageService.builder()
+                .resizer(ImageOperators.createResizer())
+                .rotator(ImageOperators.createRotator())
+                .batchResizer(DeviceProbe.isDeviceAvailable() ? new ImageBatchResizer() : null)
+                .build();
+        final ImageServer server = new ImageServer(service, new InetSocketAddress(port), Runtime.getRuntime().availableProcessors());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            service.dispose();
+        }));
+        server.start();
+        System.out.println("Listening on " + server.getAddress());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, and waits up to a second for the responses in progress. The service is left running.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public ImageService getService() {
+        return service;
+    }
+
+    /**
+     * Time from the start of reading a transform request to the end of writing its response.
+     */
+    public LatencyHistogram getRequestLatency() {
+        return requestLatency;
+    }
+
+    private void handleTransform(HttpExchange exchange) throws IOException {
+        final long start = System.nanoTime();
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "Transforms are posted");
+            return;
+        }
+
+        final Map<String, String> parameters = getParameters(exchange.getRequestURI());
+        final Transform transform;
+        final Decoded decoded;
+        try {
+            transform = getTransform(exchange.getRequestURI().getPath(), parameters, maxEdgeLength);
+            decoded = decode(exchange);
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, e.getMessage());
+            return;
+        }
+        final String format = parameters.getOrDefault("format", decoded.format);
+        if (!ImageIO.getImageWritersByFormatName(format).hasNext()) {
+            respond(exchange, 400, "No encoder for " + format);
+            return;
+        }
+
+        final CompletableFuture<BufferedImage> result;
+        try {
+            result = service.submit(transform, decoded.image);
+        } catch (RejectedExecutionException e) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            respond(exchange, 503, e.getMessage());
+            return;
+        }
+
+        // Encoding is left to the handler threads rather than the dispatcher of the service
+        result.whenCompleteAsync((outputImage, throwable) -> {
+            try {
+                if (throwable != null) {
+                    respond(exchange, 500, String.valueOf(throwable.getCause() != null ? throwable.getCause() : throwable));
+                } else {
+                    respond(exchange, 200, getMimeType(format), encode(outputImage, format));
+                    requestLatency.record(System.nanoTime() - start);
+                }
+            } catch (IOException | RuntimeException e) {
+                // The client has most likely gone away
+                exchange.close();
+            }
+        }, executor);
+    }
+
+    private void handleStatistics(HttpExchange exchange) throws IOException {
+        final String statistics = String.format("service: %s%nrequests: %s%n", service, requestLatency);
+        respond(exchange, 200, statistics);
+    }
+
+    static Transform getTransform(String path, Map<String, String> parameters, int maxEdgeLength) {
+        if (path.startsWith("/rotate")) {
+            final String rotation = parameters.get("rotation");
+            if (rotation == null) {
+                throw new IllegalArgumentException("Missing rotation");
+            }
+            return Transform.rotate(Rotation.valueOf(rotation.toUpperCase()));
+        } else if (parameters.containsKey("size")) {
+            return Transform.resizeLongEdge(getEdgeLength(parameters, "size", maxEdgeLength));
+        } else if (parameters.containsKey("width") && parameters.containsKey("height")) {
+            return Transform.resize(getEdgeLength(parameters, "width", maxEdgeLength), getEdgeLength(parameters, "height", maxEdgeLength));
+        } else {
+            throw new IllegalArgumentException("Expected a size, or a width and a height");
+        }
+    }
+
+    private static int getEdgeLength(Map<String, String> parameters, String name, int maxEdgeLength) {
+        final int length;
+        try {
+            length = Integer.parseInt(parameters.get(name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + name + "=" + parameters.get(name));
+        }
+        if (length < 1 || length > maxEdgeLength) {
+            throw new IllegalArgumentException(String.format("%s must be between 1 and %d", name, maxEdgeLength));
+        }
+
+        return length;
+    }
+
+    static Map<String, String> getParameters(URI uri) {
+        final Map<String, String> parameters = new HashMap<>();
+        final String query = uri.getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+
+        for (String parameter : query.split("&")) {
+            final int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                try {
+                    parameters.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8.name()),
+                            URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8.name()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        return parameters;
+    }
+
+    private static Decoded decode(HttpExchange exchange) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(exchange.getRequestBody())) {
+            final Iterator<ImageReader> readers = stream == null ? null : ImageIO.getImageReaders(stream);
+            if (readers == null || !readers.hasNext()) {
+                throw new IllegalArgumentException("No decoder for the request body");
+            }
+
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                return new Decoded(reader.read(0), reader.getFormatName().toLowerCase());
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Unreadable image: " + e.getMessage(), e);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static byte[] encode(BufferedImage image, String format) throws IOException {
+        if (image.getColorModel().hasAlpha() && isJpeg(format)) {
+            // The JPEG writer would take the alpha channel for a fourth color component
+            image = getBufferedImageAsType(image, BufferedImage.TYPE_INT_RGB);
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, format, bytes)) {
+            throw new IOException("No encoder for " + format + " images of type " + image.getType());
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static boolean isJpeg(String format) {
+        return format.equalsIgnoreCase("jpeg") || format.equalsIgnoreCase("jpg");
+    }
+
+    private static String getMimeType(String format) {
+        final Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        final String mimeTypes[] = writers.next().getOriginatingProvider().getMIMETypes();
+
+        return (mimeTypes == null || mimeTypes.length == 0) ? "application/octet-stream" : mimeTypes[0];
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        respond(exchange, status, "text/plain; charset=utf-8", (message + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, byte body[]) throws IOException {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static class Decoded {
+
+        final BufferedImage image;
+        final String format;
+
+        Decoded(BufferedImage image, String format) {
+            this.image = image;
+            this.format = format;
+        }
+    }
+}
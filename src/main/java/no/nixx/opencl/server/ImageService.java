@@ -0,0 +1,419 @@
+package no.nixx.opencl.server;
+
+import no.nixx.opencl.ImageBatchResizer;
+import no.nixx.opencl.Resizer;
+import no.nixx.opencl.Rotator;
+import no.nixx.opencl.metrics.LatencyHistogram;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static no.nixx.opencl.util.BufferedImageUtils.getPackedIntImage;
+
+/**
+ * Runs transform requests from any number of threads on one set of operators, coalescing the requests that arrive
+ * close together into micro-batches.
+ * <p/>
+ * A single dispatcher thread drives the operators. It takes the oldest request, waits up to the batch window after
+ * that request arrived for more to come, and starts the batch once it is full, the window has passed, or the queue
+ * is empty. One batch is in flight at a time, so while the device is busy, the requests that arrive form the next
+ * batch; under load the batches grow without the window adding any latency. With a batch resizer, the resizes of a
+ * batch go to the device as one kernel launch.
+ * <p/>
+ * Requests wait in a bounded queue. When it is full, {@link #submit(Transform, BufferedImage)} rejects the request
+ * right away instead of letting the latency of every request grow, and the caller can retry later.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class ImageService {
+
+    // How often an idle dispatcher checks whether the service has been shut down
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final Resizer resizer;
+    private final Rotator rotator;
+    private final ImageBatchResizer batchResizer;
+    private final int maxBatchSize;
+    private final long maxBatchPixels;
+    private final long batchWindowNanos;
+    private final int maxQueueDepth;
+
+    private final BlockingQueue<Job> queue;
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram queueTime = new LatencyHistogram();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedRequests = new LongAdder();
+    private volatile long statisticsStart = System.nanoTime();
+
+    private ImageService(Builder builder) {
+        this.resizer = builder.resizer;
+        this.rotator = builder.rotator;
+        this.batchResizer = builder.batchResizer;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.maxBatchPixels = builder.maxBatchPixels;
+        this.batchWindowNanos = builder.batchWindowNanos;
+        this.maxQueueDepth = builder.maxQueueDepth;
+        this.queue = new LinkedBlockingQueue<>(maxQueueDepth);
+
+        this.dispatcher = new Thread(this::dispatch, "image-service-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Queues the request and returns a future for its result.
+     *
+     * @throws RejectedExecutionException if the queue is full or the service has been shut down
+     */
+    public CompletableFuture<BufferedImage> submit(Transform transform, BufferedImage inputImage) {
+        if (!running) {
+            throw new RejectedExecutionException("The image service has been shut down");
+        }
+
+        final Job job = new Job(transform, inputImage);
+        if (!queue.offer(job)) {
+            rejected.increment();
+            throw new RejectedExecutionException(String.format("%d requests are already waiting", maxQueueDepth));
+        }
+        // Shutting down at the same time may already have drained the queue
+        if (!running && queue.remove(job)) {
+            throw new RejectedExecutionException("The image service has been shut down");
+        }
+
+        return job.future;
+    }
+
+    /**
+     * Stops taking requests, completes the batch in flight and fails the requests still waiting.
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Job job;
+        while ((job = queue.poll()) != null) {
+            job.future.completeExceptionally(new RejectedExecutionException("The image service has been shut down"));
+        }
+    }
+
+    /**
+     * Shuts down, and disposes the operators the service was built with.
+     */
+    public void dispose() {
+        shutdown();
+        resizer.dispose();
+        rotator.dispose();
+        if (batchResizer != null) {
+            batchResizer.dispose();
+        }
+    }
+
+    /**
+     * Time from submission to completion of the requests that succeeded.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Time the requests spent waiting for a batch, including the batch window.
+     */
+    public LatencyHistogram getQueueTime() {
+        return queueTime;
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public double getMeanBatchSize() {
+        final long batchCount = batches.sum();
+        return batchCount == 0 ? 0 : batchedRequests.sum() / (double) batchCount;
+    }
+
+    /**
+     * Completed requests per second since the service was built or the statistics were last reset.
+     */
+    public double getRequestsPerSecond() {
+        final long elapsedNanos = System.nanoTime() - statisticsStart;
+        return elapsedNanos <= 0 ? 0 : completed.sum() / (elapsedNanos / 1e9);
+    }
+
+    public void resetStatistics() {
+        latency.reset();
+        queueTime.reset();
+        completed.reset();
+        failed.reset();
+        rejected.reset();
+        batches.reset();
+        batchedRequests.reset();
+        statisticsStart = System.nanoTime();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d completed, %d failed, %d rejected, %d queued, %d batches of %.1f, %.1f requests/s, latency: %s, queued: %s",
+                getCompleted(), getFailed(), getRejected(), getQueueDepth(), getBatches(), getMeanBatchSize(), getRequestsPerSecond(),
+                latency, queueTime);
+    }
+
+    private void dispatch() {
+        final List<Job> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (running) {
+                final Job first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    collect(first, batch);
+                    try {
+                        execute(batch);
+                    } catch (Throwable t) {
+                        // The dispatcher has to outlive any failure, or every later request would wait forever
+                        for (Job job : batch) {
+                            complete(job, null, t);
+                        }
+                    }
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void collect(Job first, List<Job> batch) throws InterruptedException {
+        batch.add(first);
+        long pixels = first.pixels;
+
+        // The window starts when the first request arrived, so a request that has waited for the previous batch
+        // does not wait again
+        final long deadline = first.submitted + batchWindowNanos;
+        while (batch.size() < maxBatchSize && pixels < maxBatchPixels) {
+            final long remaining = deadline - System.nanoTime();
+            final Job job = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+            if (job == null) {
+                break;
+            }
+            batch.add(job);
+            pixels += job.pixels;
+        }
+    }
+
+    private void execute(List<Job> batch) {
+        final long dispatched = System.nanoTime();
+        batches.increment();
+        batchedRequests.add(batch.size());
+
+        final List<Job> resizes = new ArrayList<>();
+        final List<CompletableFuture<?>> results = new ArrayList<>(batch.size());
+        for (Job job : batch) {
+            queueTime.record(dispatched - job.submitted);
+            if (batchResizer != null && job.transform.getType() == Transform.Type.RESIZE) {
+                resizes.add(job);
+            } else {
+                results.add(start(job).handle((image, throwable) -> complete(job, image, throwable)));
+            }
+        }
+
+        if (resizes.size() == 1) {
+            results.add(start(resizes.get(0)).handle((image, throwable) -> complete(resizes.get(0), image, throwable)));
+        } else if (!resizes.isEmpty()) {
+            resizeBatch(resizes, results);
+        }
+
+        // Requests that arrive until the batch has completed make up the next one
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    private CompletableFuture<BufferedImage> start(Job job) {
+        try {
+            if (job.transform.getType() == Transform.Type.ROTATE) {
+                return rotator.rotateAsync(job.inputImage, job.transform.getRotation());
+            } else {
+                final Dimension outputSize = job.transform.getOutputSize(job.inputImage);
+                return resizer.resizeAsync(job.inputImage, outputSize.width, outputSize.height);
+            }
+        } catch (Throwable t) {
+            final CompletableFuture<BufferedImage> future = new CompletableFuture<>();
+            future.completeExceptionally(t);
+            return future;
+        }
+    }
+
+    /**
+     * Resizes the jobs with one launch of the batch resizer. If the batch fails, the jobs are started one by one, so
+     * that a single bad request does not fail the others.
+     */
+    private void resizeBatch(List<Job> resizes, List<CompletableFuture<?>> results) {
+        final List<BufferedImage> outputImages;
+        try {
+            final List<BufferedImage> inputImages = new ArrayList<>(resizes.size());
+            final List<Dimension> outputSizes = new ArrayList<>(resizes.size());
+            for (Job job : resizes) {
+                // The batch kernel reads packed ints only
+                inputImages.add(getPackedIntImage(job.inputImage));
+                outputSizes.add(job.transform.getOutputSize(job.inputImage));
+            }
+            outputImages = batchResizer.resize(inputImages, outputSizes).getImages();
+        } catch (Throwable t) {
+            for (Job job : resizes) {
+                results.add(start(job).handle((image, throwable) -> complete(job, image, throwable)));
+            }
+            return;
+        }
+
+        for (int i = 0; i < resizes.size(); i++) {
+            complete(resizes.get(i), outputImages.get(i), null);
+        }
+    }
+
+    /**
+     * Completes the job unless it already has been, e.g. by a failure of its batch. The statistics are updated first,
+     * so that they include the job by the time its caller sees the result.
+     */
+    private Void complete(Job job, BufferedImage outputImage, Throwable throwable) {
+        if (!job.finished.compareAndSet(false, true)) {
+            return null;
+        }
+
+        if (throwable == null) {
+            latency.record(System.nanoTime() - job.submitted);
+            completed.increment();
+            job.future.complete(outputImage);
+        } else {
+            failed.increment();
+            job.future.completeExceptionally(throwable);
+        }
+
+        return null;
+    }
+
+    private static class Job {
+
+        final Transform transform;
+        final BufferedImage inputImage;
+        final long pixels;
+        final long submitted = System.nanoTime();
+        final CompletableFuture<BufferedImage> future = new CompletableFuture<>();
+        final AtomicBoolean finished = new AtomicBoolean();
+
+        Job(Transform transform, BufferedImage inputImage) {
+            this.transform = transform;
+            this.inputImage = inputImage;
+            this.pixels = transform.getPixels(inputImage);
+        }
+    }
+
+    public static class Builder {
+
+        private Resizer resizer;
+        private Rotator rotator;
+        private ImageBatchResizer batchResizer;
+        private int maxBatchSize = 32;
+        private long maxBatchPixels = 16 * 1024 * 1024;
+        private long batchWindowNanos = TimeUnit.MILLISECONDS.toNanos(2);
+        private int maxQueueDepth = 256;
+
+        public Builder resizer(Resizer resizer) {
+            this.resizer = resizer;
+            return this;
+        }
+
+        public Builder rotator(Rotator rotator) {
+            this.rotator = rotator;
+            return this;
+        }
+
+        /**
+         * Runs the resizes of each batch as one kernel launch. Without it, every resize of a batch is started with
+         * {@link Resizer#resizeAsync(BufferedImage, int, int)}.
+         */
+        public Builder batchResizer(ImageBatchResizer batchResizer) {
+            this.batchResizer = batchResizer;
+            return this;
+        }
+
+        public Builder maxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * The pixels read and written by a batch, beyond which it is started without waiting for more requests.
+         */
+        public Builder maxBatchPixels(long maxBatchPixels) {
+            this.maxBatchPixels = maxBatchPixels;
+            return this;
+        }
+
+        /**
+         * How long the first request of a batch may wait for others to join it. Zero coalesces only the requests that
+         * are already waiting.
+         */
+        public Builder batchWindow(long duration, TimeUnit unit) {
+            this.batchWindowNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * The number of requests that may wait for a batch before new ones are rejected.
+         */
+        public Builder maxQueueDepth(int maxQueueDepth) {
+            this.maxQueueDepth = maxQueueDepth;
+            return this;
+        }
+
+        public ImageService build() {
+            if (resizer == null || rotator == null) {
+                throw new IllegalStateException("An image service needs a resizer and a rotator");
+            }
+            if (maxBatchSize < 1 || maxBatchPixels < 1 || batchWindowNanos < 0 || maxQueueDepth < 1) {
+                throw new IllegalArgumentException("Batch and queue limits must be positive");
+            }
+
+            return new ImageService(this);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package no.nixx.opencl.server;
+
+import no.nixx.opencl.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Posts the same image to an {@link ImageServer} from a number of concurrent clients, each sending its next request
+ * as soon as the previous one has been answered, and reports the throughput and latency seen by the clients.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class LoadGenerator {
+
+    private final URL url;
+    private final byte payload[];
+    private final int clients;
+
+    public LoadGenerator(URL url, byte payload[], int clients) {
+        this.url = url;
+        this.payload = payload;
+        this.clients = clients;
+    }
+
+    /**
+     * Usage: LoadGenerator url image-file [clients] [requests], e.g.
+     * LoadGenerator "http://localhost:8080/resize?size=256" photo.jpg 16 2000
+     */
+    public static void main(String args[]) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: LoadGenerator url image-file [clients] [requests]");
+            System.exit(1);
+        }
+        final int clients = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        final int requests = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+        final LoadGenerator generator = new LoadGenerator(new URL(args[0]), Files.readAllBytes(Paths.get(args[1])), clients);
+        System.out.println(generator.run(requests));
+    }
+
+    /**
+     * Sends the given number of requests in total, and returns once all of them have been answered.
+     */
+    public Report run(int requests) {
+        final Report report = new Report(clients);
+        final AtomicInteger remaining = new AtomicInteger(requests);
+        final ExecutorService executor = Executors.newFixedThreadPool(clients);
+        final List<Future<?>> futures = new ArrayList<>();
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < clients; i++) {
+            futures.add(executor.submit(() -> {
+                while (remaining.getAndDecrement() > 0) {
+                    send(report);
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the clients", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Client failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+
+        return report;
+    }
+
+    private void send(Report report) {
+        final long started = System.nanoTime();
+        int status;
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(payload.length);
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(payload);
+            }
+
+            status = connection.getResponseCode();
+            // Reading the whole response lets the connection be reused by the next request
+            try (InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (input != null) {
+                    final byte buffer[] = new byte[8192];
+                    while (input.read(buffer) >= 0) {
+                        // Discard the body
+                    }
+                }
+            }
+        } catch (IOException e) {
+            status = -1;
+        }
+
+        if (status == 200) {
+            report.latency.record(System.nanoTime() - started);
+            report.succeeded.increment();
+        } else if (status == 503) {
+            report.rejected.increment();
+        } else {
+            report.failed.increment();
+        }
+    }
+
+    public static class Report {
+
+        private final int clients;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private long elapsedNanos;
+
+        Report(int clients) {
+            this.clients = clients;
+        }
+
+        /**
+         * Round trips of the requests that succeeded, as seen by the clients.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getSucceeded() {
+            return succeeded.sum();
+        }
+
+        /**
+         * Requests answered with 503 because the queue of the server was full.
+         */
+        public long getRejected() {
+            return rejected.sum();
+        }
+
+        /**
+         * Requests answered with any other error, or not answered at all.
+         */
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getRequestsPerSecond() {
+            return elapsedNanos == 0 ? 0 : getSucceeded() / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d clients: %d succeeded, %d rejected, %d failed in %.2f s, %.1f requests/s, latency: %s",
+                    clients, getSucceeded(), getRejected(), getFailed(), elapsedNanos / 1e9, getRequestsPerSecond(), latency);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package no.nixx.opencl.server;
+
+import no.nixx.opencl.ImageRotator.Rotation;
+import no.nixx.opencl.Resizer;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * What a request asks the {@link ImageService} to do with its image: a resize to a given size or long edge, or a
+ * rotation.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public final class Transform {
+
+    public enum Type {
+        RESIZE, ROTATE
+    }
+
+    private final Type type;
+    private final int width;
+    private final int height;
+    private final int longEdgeLength;
+    private final Rotation rotation;
+
+    private Transform(Type type, int width, int height, int longEdgeLength, Rotation rotation) {
+        this.type = type;
+        this.width = width;
+        this.height = height;
+        this.longEdgeLength = longEdgeLength;
+        this.rotation = rotation;
+    }
+
+    public static Transform resize(int width, int height) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException(String.format("Invalid output size %dx%d", width, height));
+        }
+
+        return new Transform(Type.RESIZE, width, height, 0, null);
+    }
+
+    /**
+     * A resize that keeps the aspect ratio of the input, as {@link Resizer#resize(BufferedImage, int)}.
+     */
+    public static Transform resizeLongEdge(int longEdgeLength) {
+        if (longEdgeLength < 1) {
+            throw new IllegalArgumentException("Invalid long edge length " + longEdgeLength);
+        }
+
+        return new Transform(Type.RESIZE, 0, 0, longEdgeLength, null);
+    }
+
+    public static Transform rotate(Rotation rotation) {
+        if (rotation == null) {
+            throw new IllegalArgumentException("A rotation is required");
+        }
+
+        return new Transform(Type.ROTATE, 0, 0, 0, rotation);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Rotation getRotation() {
+        return rotation;
+    }
+
+    public Dimension getOutputSize(BufferedImage inputImage) {
+        if (type == Type.ROTATE) {
+            return rotation.preservesOrientation()
+                    ? new Dimension(inputImage.getWidth(), inputImage.getHeight())
+                    : new Dimension(inputImage.getHeight(), inputImage.getWidth());
+        } else if (longEdgeLength > 0) {
+            return Resizer.getOutputSize(inputImage.getWidth(), inputImage.getHeight(), longEdgeLength);
+        } else {
+            return new Dimension(width, height);
+        }
+    }
+
+    /**
+     * The pixels read and written, which is what the size of a micro-batch is measured in.
+     */
+    long getPixels(BufferedImage inputImage) {
+        final Dimension outputSize = getOutputSize(inputImage);
+
+        return (long) inputImage.getWidth() * inputImage.getHeight() + (long) outputSize.width * outputSize.height;
+    }
+
+    @Override
+    public String toString() {
+        if (type == Type.ROTATE) {
+            return "rotate " + rotation;
+        } else if (longEdgeLength > 0) {
+            return "resize to long edge " + longEdgeLength;
+        } else {
+            return "resize to " + width + "x" + height;
+        }
+    }
+}
@@ -39,6 +39,25 @@ public class BufferedImageUtils {
         return getBufferedImageAsType(type, image, image.getWidth(), image.getHeight());
     }
 
+    /**
+     * Returns the image itself if it already has the given type, and a redrawn copy otherwise.
+     */
+    public static BufferedImage getBufferedImageAsType(BufferedImage image, int type) {
+        return getBufferedImageAsType(type, image, image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * Returns TYPE_INT_RGB and TYPE_INT_ARGB images as they are, and converts others to TYPE_INT_RGB.
+     */
+    public static BufferedImage getPackedIntImage(BufferedImage image) {
+        final int type = image.getType();
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+            return image;
+        }
+
+        return getBufferedImageAsType(image, BufferedImage.TYPE_INT_RGB);
+    }
+
     private static BufferedImage getBufferedImageAsType(int type, BufferedImage image, int sizeX, int sizeY) {
         if (image.getType() == type) {
             return image;
@@ -0,0 +1,127 @@
+package no.nixx.opencl.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The options a program is built with: preprocessor constants, passed as -D options, and any other compiler options.
+ * Constants let one source be compiled into variants whose branches on them are folded away by the compiler.
+ * <p/>
+ * Options that are equal build the same program, so they can be used as cache keys; the constants and options are
+ * kept in the order they were given.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public final class BuildOptions {
+
+    public static final BuildOptions NONE = builder().build();
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private final Map<String, String> definitions;
+    private final List<String> options;
+
+    private BuildOptions(Builder builder) {
+        this.definitions = Collections.unmodifiableMap(new LinkedHashMap<>(builder.definitions));
+        this.options = Collections.unmodifiableList(new ArrayList<>(builder.options));
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The constants by name; constants defined without a value map to null.
+     */
+    public Map<String, String> getDefinitions() {
+        return definitions;
+    }
+
+    public List<String> getOptions() {
+        return options;
+    }
+
+    public boolean isEmpty() {
+        return definitions.isEmpty() && options.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof BuildOptions)) return false;
+
+        final BuildOptions other = (BuildOptions) o;
+        return definitions.equals(other.definitions) && options.equals(other.options);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * definitions.hashCode() + options.hashCode();
+    }
+
+    /**
+     * The options as passed to clBuildProgram.
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> definition : definitions.entrySet()) {
+            sb.append(sb.length() == 0 ? "" : " ").append("-D ").append(definition.getKey());
+            if (definition.getValue() != null) {
+                sb.append('=').append(definition.getValue());
+            }
+        }
+        for (String option : options) {
+            sb.append(sb.length() == 0 ? "" : " ").append(option);
+        }
+
+        return sb.toString();
+    }
+
+    public static final class Builder {
+
+        private final Map<String, String> definitions = new LinkedHashMap<>();
+        private final List<String> options = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        public Builder define(String name) {
+            return define(name, null);
+        }
+
+        /**
+         * Defines a constant whose value is the string form of the given value, e.g. a number or another identifier.
+         */
+        public Builder define(String name, Object value) {
+            if (!IDENTIFIER.matcher(name).matches()) {
+                throw new IllegalArgumentException("Not an identifier: " + name);
+            }
+            final String valueString = value == null ? null : value.toString();
+            if (valueString != null && (valueString.isEmpty() || valueString.matches(".*\\s.*"))) {
+                throw new IllegalArgumentException("Values of constants must be non-empty and without whitespace: " + name + "=" + valueString);
+            }
+            definitions.put(name, valueString);
+            return this;
+        }
+
+        /**
+         * Adds a compiler option, e.g. -cl-fast-relaxed-math.
+         */
+        public Builder option(String option) {
+            if (!option.startsWith("-") || option.matches(".*\\s.*")) {
+                throw new IllegalArgumentException("Not a single compiler option: " + option);
+            }
+            options.add(option);
+            return this;
+        }
+
+        public BuildOptions build() {
+            return new BuildOptions(this);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package no.nixx.opencl.util;
+
+import org.jocl.*;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static org.jocl.CL.*;
+
+/**
+ * An OpenCL object that is released when closed, for use with try-with-resources. Closing more than once has no
+ * further effect. Objects that are still used by enqueued commands are released by the driver once those commands
+ * have completed, so a handle may be closed as soon as its object has been handed to the last command.
+ * <p/>
+ * Every open handle is counted by the {@link ResourceTracker}.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public final class CLResource<T extends NativePointerObject> implements AutoCloseable {
+
+    public enum Type {
+        CONTEXT, COMMAND_QUEUE, PROGRAM, KERNEL, MEM, EVENT
+    }
+
+    private final T object;
+    private final Consumer<T> release;
+    private final ResourceTracker.Allocation allocation;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    CLResource(T object, Type type, long bytes, Consumer<T> release) {
+        this.object = object;
+        this.release = release;
+        this.allocation = ResourceTracker.allocated(type, bytes);
+    }
+
+    public static CLResource<cl_context> of(cl_context context) {
+        return new CLResource<>(context, Type.CONTEXT, 0, CL::clReleaseContext);
+    }
+
+    public static CLResource<cl_command_queue> of(cl_command_queue commandQueue) {
+        return new CLResource<>(commandQueue, Type.COMMAND_QUEUE, 0, CL::clReleaseCommandQueue);
+    }
+
+    public static CLResource<cl_program> of(cl_program program) {
+        return new CLResource<>(program, Type.PROGRAM, 0, CL::clReleaseProgram);
+    }
+
+    public static CLResource<cl_kernel> of(cl_kernel kernel) {
+        return new CLResource<>(kernel, Type.KERNEL, 0, CL::clReleaseKernel);
+    }
+
+    /**
+     * Wraps a buffer or image of the given size in bytes, which is only used for the counts of the tracker.
+     */
+    public static CLResource<cl_mem> of(cl_mem mem, long bytes) {
+        return new CLResource<>(mem, Type.MEM, bytes, CL::clReleaseMemObject);
+    }
+
+    /**
+     * Wraps an event that has been filled in by an enqueued command.
+     */
+    public static CLResource<cl_event> of(cl_event event) {
+        return new CLResource<>(event, Type.EVENT, 0, CL::clReleaseEvent);
+    }
+
+    public static CLResource<cl_command_queue> createCommandQueue(cl_context context, cl_device_id deviceId, long properties) {
+        return of(clCreateCommandQueue(context, deviceId, properties, null));
+    }
+
+    public static CLResource<cl_kernel> createKernel(cl_program program, String kernelName) {
+        return of(clCreateKernel(program, kernelName, null));
+    }
+
+    public static CLResource<cl_mem> createBuffer(cl_context context, long flags, long size, Pointer hostPointer) {
+        return of(clCreateBuffer(context, flags, size, hostPointer, null), size);
+    }
+
+    public static CLResource<cl_mem> createImage(cl_context context, long flags, cl_image_format imageFormat, long width, long height) {
+        return of(OCLUtils.createImage(context, flags, imageFormat, width, height), width * height * OCLUtils.getBytesPerPixel(imageFormat));
+    }
+
+    public T get() {
+        return object;
+    }
+
+    public Type getType() {
+        return allocation.getType();
+    }
+
+    public long getBytes() {
+        return allocation.getBytes();
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            // Counted as released also if the driver fails, since the handle cannot be used again either way
+            ResourceTracker.released(allocation);
+            release.accept(object);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return allocation + (isClosed() ? ", closed" : "");
+    }
+}
@@ -0,0 +1,117 @@
+package no.nixx.opencl.util;
+
+import org.jocl.*;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static org.jocl.CL.clFinish;
+
+/**
+ * The OpenCL objects used by one operation, released together in the reverse order they were added, for use with
+ * try-with-resources. Besides objects owned by the operation, it can hand objects back to their owner, e.g. images
+ * back to a pool.
+ * <p/>
+ * Released kernels and buffers live on until the commands using them have completed, but an image handed back to a
+ * pool may be handed out again right away. When created with a command queue, closing the resources before
+ * {@link #complete()} has been called, as happens when an exception is thrown, therefore first waits for the queue to
+ * finish, so that no command enqueued before the failure is left using them.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public final class CLResources implements AutoCloseable {
+
+    private final cl_command_queue commandQueue;
+    private final Deque<AutoCloseable> resources = new ArrayDeque<>();
+    private boolean completed;
+    private boolean closed;
+
+    public CLResources() {
+        this(null);
+    }
+
+    public CLResources(cl_command_queue commandQueue) {
+        this.commandQueue = commandQueue;
+    }
+
+    public synchronized <T extends NativePointerObject> T add(CLResource<T> resource) {
+        if (closed) {
+            resource.close();
+            throw new IllegalStateException("The resources have already been released");
+        }
+        resources.push(resource);
+        return resource.get();
+    }
+
+    /**
+     * Adds an event that has been filled in by an enqueued command.
+     */
+    public cl_event add(cl_event event) {
+        return add(CLResource.of(event));
+    }
+
+    /**
+     * Runs the action when the resources are closed, e.g. to hand an image back to a pool.
+     */
+    public synchronized void onClose(Runnable action) {
+        if (closed) {
+            action.run();
+            throw new IllegalStateException("The resources have already been released");
+        }
+        resources.push(action::run);
+    }
+
+    public cl_kernel createKernel(cl_program program, String kernelName) {
+        return add(CLResource.createKernel(program, kernelName));
+    }
+
+    public cl_mem createBuffer(cl_context context, long flags, long size, Pointer hostPointer) {
+        return add(CLResource.createBuffer(context, flags, size, hostPointer));
+    }
+
+    /**
+     * Marks the commands using the resources as completed, or as still running but no longer in need of any of the
+     * resources handed back to their owners.
+     */
+    public synchronized void complete() {
+        completed = true;
+    }
+
+    /**
+     * Releases everything, also when releasing one of the objects fails; the first failure is thrown once all have
+     * been released, with the others suppressed.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        RuntimeException failure = null;
+        if (!completed && commandQueue != null) {
+            try {
+                clFinish(commandQueue);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+
+        while (!resources.isEmpty()) {
+            try {
+                resources.pop().close();
+            } catch (Exception e) {
+                final RuntimeException exception = e instanceof RuntimeException ? (RuntimeException) e : new IllegalStateException(e);
+                if (failure == null) {
+                    failure = exception;
+                } else {
+                    failure.addSuppressed(exception);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
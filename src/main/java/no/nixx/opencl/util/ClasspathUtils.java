@@ -4,20 +4,28 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Oddbjørn Kvalsund
  */
 public class ClasspathUtils {
+
+    /**
+     * The resource with its line structure intact, every line ending in a newline, so that preprocessor directives and
+     * line comments in kernel sources keep working and build logs point at the right lines.
+     */
     public static String getClasspathResourceAsString(String resourceName) {
         final InputStream inputStream = ClasspathUtils.class.getClassLoader().getResourceAsStream(resourceName);
-        final BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-        final StringBuilder sb = new StringBuilder();
+        if (inputStream == null) {
+            throw new IllegalArgumentException("No such resource on the classpath: " + resourceName);
+        }
 
-        String line;
-        try {
+        final StringBuilder sb = new StringBuilder();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            String line;
             while ((line = br.readLine()) != null) {
-                sb.append(line);
+                sb.append(line).append('\n');
             }
         } catch (IOException e) {
             throw new RuntimeException("Could not load resource from classpath:" + resourceName, e);
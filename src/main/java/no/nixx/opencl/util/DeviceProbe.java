@@ -0,0 +1,28 @@
+package no.nixx.opencl.util;
+
+/**
+ * Tells whether the OpenCL operators can run, without loading JOCL when this class is initialized. {@link OCLUtils}
+ * loads the native library as soon as it is used, so on a machine without OpenCL its first use throws
+ * UnsatisfiedLinkError, and every later one NoClassDefFoundError.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class DeviceProbe {
+
+    private DeviceProbe() {
+    }
+
+    /**
+     * Whether the default device exists and supports images, which all the operators need.
+     */
+    public static boolean isDeviceAvailable() {
+        try {
+            return OCLUtils.hasImage2dSupport(OCLUtils.getFirstDeviceIdForPlatformId(OCLUtils.getFirstPlatformId()));
+        } catch (RuntimeException e) {
+            return false;
+        } catch (LinkageError e) {
+            // The JOCL native library or OpenCL itself could not be loaded
+            return false;
+        }
+    }
+}
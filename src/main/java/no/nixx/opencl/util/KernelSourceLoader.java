@@ -0,0 +1,71 @@
+package no.nixx.opencl.util;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads kernel sources from the classpath and expands their <code>#include "name"</code> lines, since the OpenCL
+ * compiler only sees the source string and cannot read classpath resources itself. Names are resolved relative to
+ * the directory of the including resource.
+ * <p/>
+ * Every resource is included once per program, so shared definitions need no include guards and circular includes
+ * terminate. Included text is framed by #line directives, so that the compiler's build log names the resource and
+ * line an error is in.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public final class KernelSourceLoader {
+
+    private static final Pattern INCLUDE = Pattern.compile("^\\s*#\\s*include\\s+(\\S.*?)\\s*$");
+    private static final Pattern QUOTED_NAME = Pattern.compile("\"([^\"]+)\"");
+
+    private KernelSourceLoader() {
+    }
+
+    public static String load(String resourceName) {
+        final StringBuilder sb = new StringBuilder();
+        append(resourceName, new HashSet<>(), sb);
+
+        return sb.toString();
+    }
+
+    private static void append(String resourceName, Set<String> included, StringBuilder sb) {
+        included.add(resourceName);
+
+        final String lines[] = ClasspathUtils.getClasspathResourceAsString(resourceName).split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            final Matcher include = INCLUDE.matcher(lines[i]);
+            if (!include.matches()) {
+                sb.append(lines[i]).append('\n');
+                continue;
+            }
+
+            final Matcher name = QUOTED_NAME.matcher(include.group(1));
+            if (!name.matches()) {
+                throw new IllegalArgumentException(
+                        "Only quoted includes can be resolved, in " + resourceName + " line " + (i + 1) + ": " + lines[i]);
+            }
+
+            final String includedName = resolve(resourceName, name.group(1));
+            if (included.contains(includedName)) {
+                // Keeps the line numbers of the including resource
+                sb.append('\n');
+                continue;
+            }
+
+            sb.append("#line 1 \"").append(includedName).append("\"\n");
+            append(includedName, included, sb);
+            sb.append("#line ").append(i + 2).append(" \"").append(resourceName).append("\"\n");
+        }
+    }
+
+    private static String resolve(String resourceName, String includedName) {
+        if (includedName.startsWith("/")) {
+            return includedName.substring(1);
+        }
+
+        return resourceName.substring(0, resourceName.lastIndexOf('/') + 1) + includedName;
+    }
+}
@@ -4,6 +4,7 @@ import org.jocl.*;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
+import java.nio.charset.StandardCharsets;
 
 import static org.jocl.CL.*;
 
@@ -12,6 +13,11 @@ import static org.jocl.CL.*;
  */
 public class OCLUtils {
 
+    /**
+     * One of gpu, cpu, accelerator or all. Selects the devices used by default, e.g. a CPU-only OpenCL runtime.
+     */
+    public static final String DEVICE_TYPE_PROPERTY = "no.nixx.opencl.deviceType";
+
     static {
         CL.setExceptionsEnabled(true);
     }
@@ -37,23 +43,39 @@ public class OCLUtils {
         return contextProperties;
     }
 
+    public static long getDefaultDeviceType() {
+        final String deviceType = System.getProperty(DEVICE_TYPE_PROPERTY, "gpu");
+        switch (deviceType.toLowerCase()) {
+            case "gpu":
+                return CL_DEVICE_TYPE_GPU;
+            case "cpu":
+                return CL_DEVICE_TYPE_CPU;
+            case "accelerator":
+                return CL_DEVICE_TYPE_ACCELERATOR;
+            case "all":
+                return CL_DEVICE_TYPE_ALL;
+            default:
+                throw new IllegalArgumentException("Unknown device type: " + deviceType);
+        }
+    }
+
     public static int getNumberOfDevicesForPlatformId(cl_platform_id platformId) {
+        return getNumberOfDevicesForPlatformIdAndType(platformId, getDefaultDeviceType());
+    }
+
+    public static int getNumberOfDevicesForPlatformIdAndType(cl_platform_id platformId, long type) {
         int numDevicesArray[] = new int[1];
-        clGetDeviceIDs(platformId, CL_DEVICE_TYPE_GPU, 0, null, numDevicesArray);
+        clGetDeviceIDs(platformId, type, 0, null, numDevicesArray);
 
         return numDevicesArray[0];
     }
 
     public static cl_device_id[] getDeviceIdsForPlatformId(cl_platform_id platformId) {
-        final int numDevices = getNumberOfDevicesForPlatformId(platformId);
-        final cl_device_id devices[] = new cl_device_id[numDevices];
-        clGetDeviceIDs(platformId, CL_DEVICE_TYPE_GPU, numDevices, devices, null);
-
-        return devices;
+        return getDeviceIdsForPlatformIdAndType(platformId, getDefaultDeviceType());
     }
 
     public static cl_device_id[] getDeviceIdsForPlatformIdAndType(cl_platform_id platformId, long type) {
-        final int numDevices = getNumberOfDevicesForPlatformId(platformId);
+        final int numDevices = getNumberOfDevicesForPlatformIdAndType(platformId, type);
         final cl_device_id devices[] = new cl_device_id[numDevices];
         clGetDeviceIDs(platformId, type, numDevices, devices, null); // type can be one of CL_DEVICE_TYPE_* defined in org.jocl.CL
 
@@ -92,71 +114,306 @@ public class OCLUtils {
     }
 
     public static cl_program createProgramFromSource(cl_context context, String source) {
+        return createProgramFromSource(context, source, null);
+    }
+
+    /**
+     * Builds the program for all devices of the context. When the build fails, the compiler's log is appended to the
+     * message of the exception.
+     */
+    public static cl_program createProgramFromSource(cl_context context, String source, String options) {
         final cl_program program = clCreateProgramWithSource(context, 1, new String[]{source}, null, null);
-        clBuildProgram(program, 0, null, null, null, null);
+        try {
+            clBuildProgram(program, 0, null, options, null, null);
+        } catch (CLException e) {
+            final String buildLog = getBuildLogQuietly(program);
+            clReleaseProgram(program);
+            if (buildLog.isEmpty()) {
+                throw e;
+            }
+            throw new CLException(e.getMessage() + ", build log:\n" + buildLog, e.getStatus());
+        }
+
+        return program;
+    }
+
+    /**
+     * The compiler output of the last build of the program, for all its devices.
+     */
+    public static String getBuildLog(cl_program program) {
+        final int numDevices[] = new int[1];
+        clGetProgramInfo(program, CL_PROGRAM_NUM_DEVICES, Sizeof.cl_uint, Pointer.to(numDevices), null);
+        final cl_device_id devices[] = new cl_device_id[numDevices[0]];
+        clGetProgramInfo(program, CL_PROGRAM_DEVICES, (long) devices.length * Sizeof.cl_device_id, Pointer.to(devices), null);
+
+        final StringBuilder sb = new StringBuilder();
+        for (cl_device_id deviceId : devices) {
+            final long size[] = new long[1];
+            clGetProgramBuildInfo(program, deviceId, CL_PROGRAM_BUILD_LOG, 0, null, size);
+            final byte log[] = new byte[(int) size[0]];
+            clGetProgramBuildInfo(program, deviceId, CL_PROGRAM_BUILD_LOG, log.length, Pointer.to(log), null);
+            // Without the terminating zero
+            final String deviceLog = new String(log, 0, Math.max(0, log.length - 1), StandardCharsets.US_ASCII).trim();
+            if (!deviceLog.isEmpty()) {
+                sb.append(sb.length() == 0 ? "" : "\n").append(deviceLog);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static String getBuildLogQuietly(cl_program program) {
+        try {
+            return getBuildLog(program);
+        } catch (CLException e) {
+            return "";
+        }
+    }
+
+    public static cl_program createProgramFromBinary(cl_context context, cl_device_id deviceId, byte binary[], String options) {
+        final cl_program program = clCreateProgramWithBinary(
+                context, 1, new cl_device_id[]{deviceId}, new long[]{binary.length}, new byte[][]{binary}, null, null);
+        try {
+            clBuildProgram(program, 1, new cl_device_id[]{deviceId}, options, null, null);
+        } catch (CLException e) {
+            clReleaseProgram(program);
+            throw e;
+        }
 
         return program;
     }
 
+    public static byte[] getProgramBinary(cl_program program) {
+        // The programs built here are always for a single device
+        final long binarySizes[] = new long[1];
+        clGetProgramInfo(program, CL_PROGRAM_BINARY_SIZES, Sizeof.size_t, Pointer.to(binarySizes), null);
+
+        final byte binary[] = new byte[(int) binarySizes[0]];
+        clGetProgramInfo(program, CL_PROGRAM_BINARIES, Sizeof.POINTER, Pointer.to(Pointer.to(binary)), null);
+
+        return binary;
+    }
+
+    /**
+     * Creates a kernel of a program of its own. The kernel keeps the program alive, and releasing the kernel releases
+     * the program too.
+     */
     public static cl_kernel createKernelFromSource(cl_context context, String source, String kernelName) {
         final cl_program program = createProgramFromSource(context, source);
-
-        return clCreateKernel(program, kernelName, null);
+        try {
+            return clCreateKernel(program, kernelName, null);
+        } finally {
+            clReleaseProgram(program);
+        }
     }
 
     public static cl_kernel createKernelFromClasspathResource(cl_context context, String resourceName, String kernelName) {
-        return createKernelFromSource(context, ClasspathUtils.getClasspathResourceAsString(resourceName), kernelName);
+        return createKernelFromSource(context, KernelSourceLoader.load(resourceName), kernelName);
+    }
+
+    /**
+     * The format matching TYPE_INT_RGB and TYPE_INT_ARGB rasters: a little-endian packed ARGB int holds the bytes
+     * B, G, R and A. Normalized, so that kernels can use the linear sampler and read all formats as floats.
+     */
+    public static cl_image_format getPackedIntImageFormat() {
+        final cl_image_format imageFormat = new cl_image_format();
+        imageFormat.image_channel_order = CL_BGRA;
+        imageFormat.image_channel_data_type = CL_UNORM_INT8;
+
+        return imageFormat;
+    }
+
+    public static cl_image_format[] getSupportedImageFormats(cl_context context, long flags) {
+        final int numImageFormats[] = new int[1];
+        clGetSupportedImageFormats(context, flags, CL_MEM_OBJECT_IMAGE2D, 0, null, numImageFormats);
+        final cl_image_format imageFormats[] = new cl_image_format[numImageFormats[0]];
+        for (int i = 0; i < imageFormats.length; i++) {
+            imageFormats[i] = new cl_image_format();
+        }
+        clGetSupportedImageFormats(context, flags, CL_MEM_OBJECT_IMAGE2D, imageFormats.length, imageFormats, null);
+
+        return imageFormats;
+    }
+
+    public static long getBytesPerPixel(cl_image_format imageFormat) {
+        final int channels;
+        switch (imageFormat.image_channel_order) {
+            case CL_R:
+            case CL_A:
+            case CL_INTENSITY:
+            case CL_LUMINANCE:
+                channels = 1;
+                break;
+            case CL_RG:
+            case CL_RA:
+                channels = 2;
+                break;
+            case CL_RGB:
+                // Only valid with the packed data types, which are handled below
+                channels = 1;
+                break;
+            default:
+                channels = 4;
+        }
+
+        switch (imageFormat.image_channel_data_type) {
+            case CL_SNORM_INT8:
+            case CL_UNORM_INT8:
+            case CL_SIGNED_INT8:
+            case CL_UNSIGNED_INT8:
+                return channels;
+            case CL_SNORM_INT16:
+            case CL_UNORM_INT16:
+            case CL_SIGNED_INT16:
+            case CL_UNSIGNED_INT16:
+            case CL_HALF_FLOAT:
+                return channels * 2;
+            case CL_UNORM_SHORT_565:
+            case CL_UNORM_SHORT_555:
+                return 2;
+            default:
+                return channels * 4;
+        }
+    }
+
+    public static cl_mem createImage(cl_context context, long flags, cl_image_format imageFormat, long imageSizeX, long imageSizeY) {
+        return clCreateImage2D(
+                context, flags,
+                new cl_image_format[]{imageFormat}, imageSizeX, imageSizeY,
+                0, null, null);
     }
 
     public static cl_mem createReadOnlyImage(cl_context context, BufferedImage image) {
         final DataBufferInt dataBufferSrc = (DataBufferInt) image.getRaster().getDataBuffer();
         final int dataSrc[] = dataBufferSrc.getData();
 
-        final cl_image_format imageFormat = new cl_image_format();
-        imageFormat.image_channel_order = CL_RGBA;
-        imageFormat.image_channel_data_type = CL_UNSIGNED_INT8;
-
         final long imageSizeX = image.getWidth();
         final long imageSizeY = image.getHeight();
 
         return clCreateImage2D(
                 context, CL_MEM_READ_ONLY | CL_MEM_USE_HOST_PTR,
-                new cl_image_format[]{imageFormat}, imageSizeX, imageSizeY,
+                new cl_image_format[]{getPackedIntImageFormat()}, imageSizeX, imageSizeY,
                 imageSizeX * Sizeof.cl_uint, Pointer.to(dataSrc), null);
     }
 
     public static cl_mem createWritableImage(cl_context context, long imageSizeX, long imageSizeY) {
-        final cl_image_format imageFormat = new cl_image_format();
-        imageFormat.image_channel_order = CL_RGBA;
-        imageFormat.image_channel_data_type = CL_UNSIGNED_INT8;
+        return createImage(context, CL_MEM_WRITE_ONLY, getPackedIntImageFormat(), imageSizeX, imageSizeY);
+    }
 
-        return clCreateImage2D(
-                context, CL_MEM_WRITE_ONLY,
-                new cl_image_format[]{imageFormat}, imageSizeX, imageSizeY,
-                0, null, null);
+    public static void writeImage(cl_command_queue commandQueue, cl_mem image, BufferedImage source) {
+        writeImage(commandQueue, image, source, null);
     }
 
+    public static void writeImage(cl_command_queue commandQueue, cl_mem image, BufferedImage source, cl_event event) {
+        final int width = source.getWidth();
+        final int height = source.getHeight();
+        clEnqueueWriteImage(
+                commandQueue, image, true, new long[3],
+                new long[]{width, height, 1},
+                width * Sizeof.cl_uint, 0,
+                Pointer.to(BufferedImageUtils.getDataBufferInt(source)), 0, null, event);
+    }
+
+    public static void readImage(cl_command_queue commandQueue, cl_mem image, BufferedImage target, cl_event waitFor) {
+        readImage(commandQueue, image, target, waitFor, null);
+    }
+
+    public static void readImage(cl_command_queue commandQueue, cl_mem image, BufferedImage target, cl_event waitFor, cl_event event) {
+        final int width = target.getWidth();
+        final int height = target.getHeight();
+        clEnqueueReadImage(
+                commandQueue, image, true, new long[3],
+                new long[]{width, height, 1},
+                width * Sizeof.cl_uint, 0,
+                Pointer.to(BufferedImageUtils.getDataBufferInt(target)),
+                waitFor == null ? 0 : 1, waitFor == null ? null : new cl_event[]{waitFor}, event);
+    }
 
     // Device information
 
-    public boolean hasImage2dSupport(cl_device_id deviceId) {
+    public static String getPlatformInfoString(cl_platform_id platformId, int paramName) {
+        final long size[] = new long[1];
+        clGetPlatformInfo(platformId, paramName, 0, null, size);
+        final byte buffer[] = new byte[(int) size[0]];
+        clGetPlatformInfo(platformId, paramName, buffer.length, Pointer.to(buffer), null);
+
+        return asString(buffer);
+    }
+
+    public static String getDeviceInfoString(cl_device_id deviceId, int paramName) {
+        final long size[] = new long[1];
+        clGetDeviceInfo(deviceId, paramName, 0, null, size);
+        final byte buffer[] = new byte[(int) size[0]];
+        clGetDeviceInfo(deviceId, paramName, buffer.length, Pointer.to(buffer), null);
+
+        return asString(buffer);
+    }
+
+    private static String asString(byte nullTerminated[]) {
+        int length = 0;
+        while (length < nullTerminated.length && nullTerminated[length] != 0) {
+            length++;
+        }
+
+        return new String(nullTerminated, 0, length);
+    }
+
+    /**
+     * Reads a size_t or cl_ulong parameter. Use {@link #getDeviceInfoInt} for cl_uint and cl_bool ones.
+     */
+    public static long getDeviceInfoLong(cl_device_id deviceId, int paramName) {
+        final long val[] = new long[1];
+        clGetDeviceInfo(deviceId, paramName, Sizeof.cl_ulong, Pointer.to(val), null);
+
+        return val[0];
+    }
+
+    public static int getDeviceInfoInt(cl_device_id deviceId, int paramName) {
+        final int val[] = new int[1];
+        clGetDeviceInfo(deviceId, paramName, Sizeof.cl_uint, Pointer.to(val), null);
+
+        return val[0];
+    }
+
+    public static long[] getMaxWorkItemSizes(cl_device_id deviceId) {
+        final long sizes[] = new long[getDeviceInfoInt(deviceId, CL_DEVICE_MAX_WORK_ITEM_DIMENSIONS)];
+        clGetDeviceInfo(deviceId, CL_DEVICE_MAX_WORK_ITEM_SIZES, (long) sizes.length * Sizeof.size_t, Pointer.to(sizes), null);
+
+        return sizes;
+    }
+
+    public static long getKernelWorkGroupInfoLong(cl_kernel kernel, cl_device_id deviceId, int paramName) {
+        final long val[] = new long[1];
+        clGetKernelWorkGroupInfo(kernel, deviceId, paramName, Sizeof.size_t, Pointer.to(val), null);
+
+        return val[0];
+    }
+
+    public static boolean hasImage2dSupport(cl_device_id deviceId) {
         int imageSupport[] = new int[1];
         clGetDeviceInfo(deviceId, CL.CL_DEVICE_IMAGE_SUPPORT, Sizeof.cl_int, Pointer.to(imageSupport), null);
 
         return imageSupport[0] != 0;
     }
 
-    public long getMaxImage2DWidth(cl_device_id deviceId) {
+    public static long getMaxImage2DWidth(cl_device_id deviceId) {
         final long val[] = new long[1];
         clGetDeviceInfo(deviceId, CL.CL_DEVICE_IMAGE2D_MAX_WIDTH, Sizeof.size_t, Pointer.to(val), null);
 
         return val[0];
     }
 
-    public long getMaxImage2dHeight(cl_device_id deviceId) {
+    public static long getMaxImage2dHeight(cl_device_id deviceId) {
         final long val[] = new long[1];
         clGetDeviceInfo(deviceId, CL.CL_DEVICE_IMAGE2D_MAX_HEIGHT, Sizeof.size_t, Pointer.to(val), null);
 
         return val[0];
     }
-}
\ No newline at end of file
+
+    public static long getMaxMemAllocSize(cl_device_id deviceId) {
+        final long val[] = new long[1];
+        clGetDeviceInfo(deviceId, CL.CL_DEVICE_MAX_MEM_ALLOC_SIZE, Sizeof.cl_ulong, Pointer.to(val), null);
+
+        return val[0];
+    }
+}
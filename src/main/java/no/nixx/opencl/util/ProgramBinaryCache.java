@@ -0,0 +1,186 @@
+package no.nixx.opencl.util;
+
+import org.jocl.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static no.nixx.opencl.util.OCLUtils.*;
+import static org.jocl.CL.*;
+
+/**
+ * Keeps compiled program binaries on disk so that only the first start on a given device and driver pays for the
+ * compilation of the kernel sources.
+ * <p/>
+ * Entries are keyed by a hash of the source, the build options and the platform, device and driver versions. An entry
+ * that the driver rejects is deleted and the program is built from source instead. When the number of entries exceeds
+ * the limit, the least recently used entries are deleted.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class ProgramBinaryCache {
+
+    public static final String DIRECTORY_PROPERTY = "no.nixx.opencl.programCacheDir";
+    public static final String ENABLED_PROPERTY = "no.nixx.opencl.programCache";
+
+    private static final String BINARY_SUFFIX = ".bin";
+    private static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private static ProgramBinaryCache defaultCache;
+
+    private final File directory;
+    private final int maxEntries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong hitNanos = new AtomicLong();
+    private final AtomicLong missNanos = new AtomicLong();
+
+    public ProgramBinaryCache(File directory) {
+        this(directory, DEFAULT_MAX_ENTRIES);
+    }
+
+    public ProgramBinaryCache(File directory, int maxEntries) {
+        this.directory = directory;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the cache used by the shared devices, or null if it has been disabled with the
+     * {@value #ENABLED_PROPERTY} system property.
+     */
+    public static synchronized ProgramBinaryCache getDefault() {
+        if (defaultCache == null && Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"))) {
+            final String defaultDirectory = new File(System.getProperty("java.io.tmpdir"), "opencl-img-programs").getPath();
+            defaultCache = new ProgramBinaryCache(new File(System.getProperty(DIRECTORY_PROPERTY, defaultDirectory)));
+        }
+
+        return defaultCache;
+    }
+
+    public cl_program getProgram(cl_platform_id platformId, cl_device_id deviceId, cl_context context, String source, String options) {
+        final long startTime = System.nanoTime();
+        final File entry = new File(directory, getKey(platformId, deviceId, source, options) + BINARY_SUFFIX);
+
+        if (entry.isFile()) {
+            try {
+                final cl_program program = createProgramFromBinary(context, deviceId, Files.readAllBytes(entry.toPath()), options);
+                entry.setLastModified(System.currentTimeMillis());
+                hits.incrementAndGet();
+                hitNanos.addAndGet(System.nanoTime() - startTime);
+
+                return program;
+            } catch (IOException | CLException e) {
+                // Unreadable, or compiled for a driver that no longer accepts it
+                rejections.incrementAndGet();
+                entry.delete();
+            }
+        }
+
+        final cl_program program = createProgramFromSource(context, source, options);
+        store(entry, getProgramBinary(program));
+        misses.incrementAndGet();
+        missNanos.addAndGet(System.nanoTime() - startTime);
+
+        return program;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    /**
+     * Total time spent loading programs from cached binaries.
+     */
+    public long getHitNanos() {
+        return hitNanos.get();
+    }
+
+    /**
+     * Total time spent building programs from source.
+     */
+    public long getMissNanos() {
+        return missNanos.get();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    private void store(File entry, byte binary[]) {
+        if (binary.length == 0 || !(directory.isDirectory() || directory.mkdirs())) {
+            return;
+        }
+
+        try {
+            // Write to a temporary file first, so that concurrent processes never read a partial binary
+            final File temporaryFile = File.createTempFile("program", ".tmp", directory);
+            Files.write(temporaryFile.toPath(), binary);
+            Files.move(temporaryFile.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The cache is an optimization only; the program has been built successfully
+            return;
+        }
+
+        evictLeastRecentlyUsed();
+    }
+
+    private void evictLeastRecentlyUsed() {
+        final File entries[] = directory.listFiles((dir, name) -> name.endsWith(BINARY_SUFFIX));
+        if (entries == null || entries.length <= maxEntries) {
+            return;
+        }
+
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < entries.length - maxEntries; i++) {
+            entries[i].delete();
+        }
+    }
+
+    private static String getKey(cl_platform_id platformId, cl_device_id deviceId, String source, String options) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+
+        final String keyParts[] = {
+                source,
+                options == null ? "" : options,
+                getPlatformInfoString(platformId, CL_PLATFORM_NAME),
+                getPlatformInfoString(platformId, CL_PLATFORM_VERSION),
+                getDeviceInfoString(deviceId, CL_DEVICE_NAME),
+                getDeviceInfoString(deviceId, CL_DEVICE_VERSION),
+                getDeviceInfoString(deviceId, CL_DRIVER_VERSION)
+        };
+        for (String keyPart : keyParts) {
+            digest.update(keyPart.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+
+        return sb.toString();
+    }
+}
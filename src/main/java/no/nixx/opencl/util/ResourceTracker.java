@@ -0,0 +1,205 @@
+package no.nixx.opencl.util;
+
+import no.nixx.opencl.util.CLResource.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the OpenCL objects, and the bytes of the memory objects, that are held by {@link CLResource}s that have not
+ * been closed yet.
+ * <p/>
+ * The counts are always kept. In tracking mode, which is enabled with the {@value #TRACKING_PROPERTY} system
+ * property or {@link #setTracking(boolean)}, every object also records the stack it was allocated from, so that the
+ * objects still alive at a point where there should be none can be reported with their allocation sites. Recording
+ * the stacks is too slow to leave on in production.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public final class ResourceTracker {
+
+    public static final String TRACKING_PROPERTY = "no.nixx.opencl.trackResources";
+
+    // Frames of the leak report shown per allocation
+    private static final int MAX_FRAMES = 12;
+
+    private static final AtomicLongArray liveCounts = new AtomicLongArray(Type.values().length);
+    private static final AtomicLong liveBytes = new AtomicLong();
+    private static final Set<Allocation> trackedAllocations = ConcurrentHashMap.newKeySet();
+    private static volatile boolean tracking = Boolean.getBoolean(TRACKING_PROPERTY);
+
+    private ResourceTracker() {
+    }
+
+    /**
+     * Objects allocated while tracking is enabled keep their allocation site until they are released, also after
+     * tracking has been disabled again.
+     */
+    public static void setTracking(boolean tracking) {
+        ResourceTracker.tracking = tracking;
+    }
+
+    public static boolean isTracking() {
+        return tracking;
+    }
+
+    public static long getLiveCount(Type type) {
+        return liveCounts.get(type.ordinal());
+    }
+
+    public static long getLiveCount() {
+        long count = 0;
+        for (Type type : Type.values()) {
+            count += getLiveCount(type);
+        }
+
+        return count;
+    }
+
+    /**
+     * The bytes of the buffers and images alive, as requested from the driver.
+     */
+    public static long getLiveBytes() {
+        return liveBytes.get();
+    }
+
+    /**
+     * The live objects that were allocated in tracking mode, oldest first.
+     */
+    public static List<Allocation> getTrackedAllocations() {
+        final List<Allocation> allocations = new ArrayList<>(trackedAllocations);
+        allocations.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+
+        return allocations;
+    }
+
+    /**
+     * The live objects allocated in tracking mode after the given number of allocations, e.g. the leaks of a piece of
+     * code that should release everything it allocates, when given {@link #getAllocationCount()} from before it ran.
+     */
+    public static List<Allocation> getTrackedAllocationsSince(long allocationCount) {
+        final List<Allocation> allocations = new ArrayList<>();
+        for (Allocation allocation : getTrackedAllocations()) {
+            if (allocation.sequence >= allocationCount) {
+                allocations.add(allocation);
+            }
+        }
+
+        return allocations;
+    }
+
+    /**
+     * The number of objects allocated so far, alive or not.
+     */
+    public static long getAllocationCount() {
+        return Allocation.allocations.get();
+    }
+
+    /**
+     * The live counts by type, followed by the allocation site of every tracked object still alive.
+     */
+    public static String getReport() {
+        return getReport(getTrackedAllocations());
+    }
+
+    public static String getReport(List<Allocation> allocations) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d live OpenCL objects, %d bytes:", getLiveCount(), getLiveBytes()));
+        for (Type type : Type.values()) {
+            sb.append(String.format(" %s=%d", type.name().toLowerCase(), getLiveCount(type)));
+        }
+        sb.append(String.format("%n"));
+        for (Allocation allocation : allocations) {
+            sb.append(allocation).append(String.format("%n"));
+            final StackTraceElement frames[] = allocation.getSite();
+            for (int i = 0; i < Math.min(MAX_FRAMES, frames.length); i++) {
+                sb.append(String.format("\tat %s%n", frames[i]));
+            }
+        }
+
+        return sb.toString();
+    }
+
+    static Allocation allocated(Type type, long bytes) {
+        liveCounts.incrementAndGet(type.ordinal());
+        liveBytes.addAndGet(bytes);
+
+        final Allocation allocation = new Allocation(type, bytes, tracking ? new Throwable() : null);
+        if (allocation.site != null) {
+            trackedAllocations.add(allocation);
+        }
+
+        return allocation;
+    }
+
+    static void released(Allocation allocation) {
+        liveCounts.decrementAndGet(allocation.type.ordinal());
+        liveBytes.addAndGet(-allocation.bytes);
+        if (allocation.site != null) {
+            trackedAllocations.remove(allocation);
+        }
+    }
+
+    /**
+     * One object held by a {@link CLResource}.
+     */
+    public static final class Allocation {
+
+        private static final AtomicLong allocations = new AtomicLong();
+
+        private final Type type;
+        private final long bytes;
+        private final long sequence = allocations.getAndIncrement();
+        private final Throwable site;
+
+        private Allocation(Type type, long bytes, Throwable site) {
+            this.type = type;
+            this.bytes = bytes;
+            this.site = site;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * The stack the object was allocated from, starting at the caller of the wrappers, or an empty stack if it was
+         * not allocated in tracking mode.
+         */
+        public StackTraceElement[] getSite() {
+            if (site == null) {
+                return new StackTraceElement[0];
+            }
+
+            final StackTraceElement frames[] = site.getStackTrace();
+            int first = 0;
+            while (first < frames.length && isInternal(frames[first])) {
+                first++;
+            }
+
+            final StackTraceElement callerFrames[] = new StackTraceElement[frames.length - first];
+            System.arraycopy(frames, first, callerFrames, 0, callerFrames.length);
+
+            return callerFrames;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s #%d, %d bytes", type.name().toLowerCase(), sequence, bytes);
+        }
+
+        private static boolean isInternal(StackTraceElement frame) {
+            return frame.getClassName().equals(ResourceTracker.class.getName())
+                    || frame.getClassName().equals(CLResource.class.getName())
+                    || frame.getClassName().equals(CLResources.class.getName());
+        }
+    }
+}
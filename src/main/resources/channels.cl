@@ -0,0 +1,16 @@
+/*
+ * Reading the color of pixels of images with one or more channels; single channel images are read as gray. Built
+ * with -D CHANNELS=<count> the channel count is a compile-time constant and the choice is folded away; otherwise the
+ * count is passed in at run time.
+ */
+
+#ifdef CHANNELS
+#define CHANNEL_COUNT(channels) CHANNELS
+#else
+#define CHANNEL_COUNT(channels) (channels)
+#endif
+
+float3 getColor(float4 pixel, int channels)
+{
+    return (CHANNEL_COUNT(channels) == 1) ? (float3) (pixel.x) : pixel.xyz;
+}
@@ -0,0 +1,119 @@
+/*
+ * Convolutions with the weights in constant memory and the pixels staged in local memory tiles, so that each pixel
+ * is read from the image once per work-group rather than once per weight. Pixels outside the image repeat the
+ * nearest edge pixel.
+ *
+ * Separable convolutions run as a row pass into a float image, followed by a column pass that also blends with the
+ * source for unsharp masking: the output is sum + sharpening * (source - sum), so that a sharpening of 0 gives the
+ * plain convolution. Both passes use work-groups along the filtered axis, which stage the pixels of the work-group
+ * plus radius pixels on either side.
+ */
+
+const sampler_t samplerClamp =
+    CLK_NORMALIZED_COORDS_FALSE |
+    CLK_ADDRESS_CLAMP_TO_EDGE |
+    CLK_FILTER_NEAREST;
+
+__kernel void convolveRows(
+    __read_only  image2d_t sourceImage,
+    __write_only image2d_t targetImage,
+    __constant float *weights,
+    int radius,
+    __local float4 *tile)
+{
+    int x = get_global_id(0);
+    int y = get_global_id(1);
+    int localX = get_local_id(0);
+    int localSize = get_local_size(0);
+    int first = get_group_id(0) * localSize - radius;
+
+    /* Work-items past the end of the row take part in loading the tile, but write nothing */
+    for (int i = localX; i < localSize + 2 * radius; i += localSize) {
+        tile[i] = read_imagef(sourceImage, samplerClamp, (int2) (first + i, y));
+    }
+    barrier(CLK_LOCAL_MEM_FENCE);
+
+    if (x >= get_image_width(targetImage) || y >= get_image_height(targetImage)) {
+        return;
+    }
+
+    float4 sum = (float4) (0.0f);
+    for (int k = 0; k <= 2 * radius; k++) {
+        sum += weights[k] * tile[localX + k];
+    }
+    write_imagef(targetImage, (int2) (x, y), sum);
+}
+
+__kernel void convolveColumns(
+    __read_only  image2d_t rowsImage,
+    __read_only  image2d_t sourceImage,
+    __write_only image2d_t targetImage,
+    __constant float *weights,
+    int radius,
+    float sharpening,
+    __local float4 *tile)
+{
+    int y = get_global_id(0);
+    int x = get_global_id(1);
+    int localY = get_local_id(0);
+    int localSize = get_local_size(0);
+    int first = get_group_id(0) * localSize - radius;
+
+    for (int i = localY; i < localSize + 2 * radius; i += localSize) {
+        tile[i] = read_imagef(rowsImage, samplerClamp, (int2) (x, first + i));
+    }
+    barrier(CLK_LOCAL_MEM_FENCE);
+
+    if (x >= get_image_width(targetImage) || y >= get_image_height(targetImage)) {
+        return;
+    }
+
+    float4 sum = (float4) (0.0f);
+    for (int k = 0; k <= 2 * radius; k++) {
+        sum += weights[k] * tile[localY + k];
+    }
+    float4 source = read_imagef(sourceImage, samplerClamp, (int2) (x, y));
+    write_imagef(targetImage, (int2) (x, y), clamp(sum + sharpening * (source - sum), 0.0f, 1.0f));
+}
+
+/*
+ * A two-dimensional convolution. size holds the width and height of the weights and the position of the output
+ * pixel within them; each work-group stages its own pixels plus the footprint of the weights around them.
+ */
+__kernel void convolve2d(
+    __read_only  image2d_t sourceImage,
+    __write_only image2d_t targetImage,
+    __constant float *weights,
+    int4 size,
+    __local float4 *tile)
+{
+    int x = get_global_id(0);
+    int y = get_global_id(1);
+    int localX = get_local_id(0);
+    int localY = get_local_id(1);
+    int localWidth = get_local_size(0);
+    int localHeight = get_local_size(1);
+    int tileWidth = localWidth + size.x - 1;
+    int tileHeight = localHeight + size.y - 1;
+    int firstX = get_group_id(0) * localWidth - size.z;
+    int firstY = get_group_id(1) * localHeight - size.w;
+
+    for (int j = localY; j < tileHeight; j += localHeight) {
+        for (int i = localX; i < tileWidth; i += localWidth) {
+            tile[j * tileWidth + i] = read_imagef(sourceImage, samplerClamp, (int2) (firstX + i, firstY + j));
+        }
+    }
+    barrier(CLK_LOCAL_MEM_FENCE);
+
+    if (x >= get_image_width(targetImage) || y >= get_image_height(targetImage)) {
+        return;
+    }
+
+    float4 sum = (float4) (0.0f);
+    for (int j = 0; j < size.y; j++) {
+        for (int i = 0; i < size.x; i++) {
+            sum += weights[j * size.x + i] * tile[(localY + j) * tileWidth + localX + i];
+        }
+    }
+    write_imagef(targetImage, (int2) (x, y), clamp(sum, 0.0f, 1.0f));
+}
@@ -0,0 +1,69 @@
+/*
+ * Histograms of the red, green, blue and luminance channels, 256 bins each, in two steps: every work-group counts the
+ * pixels it visits in local memory with local atomics and writes its partial histograms out, and a merge kernel adds
+ * up the partial histograms bin by bin. The work-items stride over the image, so the number of work-groups, and of
+ * partial histograms, does not grow with the image.
+ *
+ * Channels are quantized to 8 bits. Luminance uses the integer Rec. 601 weights, so that it matches the Java code
+ * exactly. Single channel images count their channel as red, green, blue and luminance. The histograms are laid out
+ * one after the other, 4 x 256 bins.
+ */
+
+#include "channels.cl"
+
+const sampler_t samplerIn =
+    CLK_NORMALIZED_COORDS_FALSE |
+    CLK_ADDRESS_CLAMP_TO_EDGE |
+    CLK_FILTER_NEAREST;
+
+__kernel void histogramPartial(
+    __read_only image2d_t sourceImage,
+    int channels,
+    __global uint *partials,
+    __local uint *bins)
+{
+    int localId = get_local_id(0);
+    int localSize = get_local_size(0);
+    int width = get_image_width(sourceImage);
+    int pixels = width * get_image_height(sourceImage);
+
+    for (int i = localId; i < 1024; i += localSize) {
+        bins[i] = 0;
+    }
+    barrier(CLK_LOCAL_MEM_FENCE);
+
+    for (int i = get_global_id(0); i < pixels; i += get_global_size(0)) {
+        float3 color = getColor(read_imagef(sourceImage, samplerIn, (int2) (i % width, i / width)), channels);
+        uint r = convert_uint_sat_rte(color.x * 255.0f);
+        uint g = convert_uint_sat_rte(color.y * 255.0f);
+        uint b = convert_uint_sat_rte(color.z * 255.0f);
+        uint luminance = (299 * r + 587 * g + 114 * b + 500) / 1000;
+        atomic_inc(&bins[r]);
+        atomic_inc(&bins[256 + g]);
+        atomic_inc(&bins[512 + b]);
+        atomic_inc(&bins[768 + luminance]);
+    }
+    barrier(CLK_LOCAL_MEM_FENCE);
+
+    __global uint *partial = partials + get_group_id(0) * 1024;
+    for (int i = localId; i < 1024; i += localSize) {
+        partial[i] = bins[i];
+    }
+}
+
+__kernel void histogramMerge(
+    __global const uint *partials,
+    int numPartials,
+    __global uint *histograms)
+{
+    int bin = get_global_id(0);
+    if (bin >= 1024) {
+        return;
+    }
+
+    uint sum = 0;
+    for (int i = 0; i < numPartials; i++) {
+        sum += partials[i * 1024 + bin];
+    }
+    histograms[bin] = sum;
+}
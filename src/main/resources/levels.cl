@@ -0,0 +1,36 @@
+/*
+ * Maps every channel through a table of 256 normalized output values per channel, red, green and blue one after the
+ * other. Values between the entries, i.e. of 16-bit images, are interpolated. Single channel images use the red
+ * table. Alpha is passed through.
+ */
+
+const sampler_t samplerIn =
+    CLK_NORMALIZED_COORDS_FALSE |
+    CLK_ADDRESS_CLAMP_TO_EDGE |
+    CLK_FILTER_NEAREST;
+
+float lookUp(__constant float *table, float value)
+{
+    float position = clamp(value, 0.0f, 1.0f) * 255.0f;
+    int index = min((int) position, 254);
+    return mix(table[index], table[index + 1], position - index);
+}
+
+__kernel void applyLevels(
+    __read_only  image2d_t sourceImage,
+    __write_only image2d_t targetImage,
+    __constant float *lut)
+{
+    int x = get_global_id(0);
+    int y = get_global_id(1);
+    if (x >= get_image_width(targetImage) || y >= get_image_height(targetImage)) {
+        return;
+    }
+    int2 pos = {x, y};
+
+    float4 pixel = read_imagef(sourceImage, samplerIn, pos);
+    pixel.x = lookUp(lut, pixel.x);
+    pixel.y = lookUp(lut + 256, pixel.y);
+    pixel.z = lookUp(lut + 512, pixel.z);
+    write_imagef(targetImage, pos, pixel);
+}
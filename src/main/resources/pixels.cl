@@ -0,0 +1,35 @@
+/*
+ * Expands byte-interleaved BGR rasters, which have no OpenCL image format, into four channel images and packs them
+ * back, so that only three bytes per pixel cross the bus.
+ */
+
+const sampler_t samplerIn =
+    CLK_NORMALIZED_COORDS_FALSE |
+    CLK_ADDRESS_CLAMP |
+    CLK_FILTER_NEAREST;
+
+__kernel void unpackBgr(
+    __global const uchar *source,
+    __write_only image2d_t targetImage)
+{
+    int x = get_global_id(0);
+    int y = get_global_id(1);
+    int i = (y * get_image_width(targetImage) + x) * 3;
+
+    uchar4 pixel = (uchar4) (source[i + 2], source[i + 1], source[i], 255);
+    write_imagef(targetImage, (int2) (x, y), convert_float4(pixel) / 255.0f);
+}
+
+__kernel void packBgr(
+    __read_only image2d_t sourceImage,
+    __global uchar *target)
+{
+    int x = get_global_id(0);
+    int y = get_global_id(1);
+    int i = (y * get_image_width(sourceImage) + x) * 3;
+
+    uchar4 pixel = convert_uchar4_sat_rte(read_imagef(sourceImage, samplerIn, (int2) (x, y)) * 255.0f);
+    target[i] = pixel.z;
+    target[i + 1] = pixel.y;
+    target[i + 2] = pixel.x;
+}
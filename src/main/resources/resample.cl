@@ -0,0 +1,96 @@
+/*
+ * Separable resampling with precomputed weights (see ResampleWeights). Each pass filters along rows and writes its
+ * result transposed, so the second pass filters the columns of the source as rows of the intermediate buffer.
+ *
+ * The source pixels needed by a work-group are staged in local memory one tile at a time. Every source pixel is
+ * therefore read from global memory once per work-group, however many taps the filter has.
+ */
+
+const sampler_t samplerEdge =
+    CLK_NORMALIZED_COORDS_FALSE |
+    CLK_ADDRESS_CLAMP_TO_EDGE |
+    CLK_FILTER_NEAREST;
+
+__kernel void resampleRows(
+    __read_only image2d_t sourceImage,
+    __global float4 *target,
+    __global const int *starts,
+    __global const float *weights,
+    int taps,
+    int outputLength,
+    __local float4 *tile,
+    int tileSize)
+{
+    int inputHeight = get_image_height(sourceImage);
+    int y = get_global_id(1);
+    int outX = min((int) get_global_id(0), outputLength - 1);
+
+    /* Work-items past the end of the row take part in loading the tiles, but write nothing */
+    int first = get_group_id(0) * get_local_size(0);
+    int last = min(first + (int) get_local_size(0), outputLength) - 1;
+    int spanStart = starts[first];
+    int spanEnd = starts[last] + taps;
+    int start = starts[outX];
+    float4 sum = (float4) (0.0f);
+
+    for (int chunk = spanStart; chunk < spanEnd; chunk += tileSize) {
+        int chunkLength = min(tileSize, spanEnd - chunk);
+        barrier(CLK_LOCAL_MEM_FENCE);
+        for (int i = get_local_id(0); i < chunkLength; i += get_local_size(0)) {
+            tile[i] = read_imagef(sourceImage, samplerEdge, (int2) (chunk + i, y));
+        }
+        barrier(CLK_LOCAL_MEM_FENCE);
+
+        int from = max(start, chunk);
+        int to = min(start + taps, chunk + chunkLength);
+        for (int s = from; s < to; s++) {
+            sum += weights[outX * taps + s - start] * tile[s - chunk];
+        }
+    }
+
+    if ((int) get_global_id(0) < outputLength) {
+        target[get_global_id(0) * inputHeight + y] = sum;
+    }
+}
+
+__kernel void resampleColumns(
+    __global const float4 *source,
+    __write_only image2d_t targetImage,
+    __global const int *starts,
+    __global const float *weights,
+    int taps,
+    int inputLength,
+    __local float4 *tile,
+    int tileSize)
+{
+    int outputLength = get_image_height(targetImage);
+    int x = get_global_id(1);
+    int outY = min((int) get_global_id(0), outputLength - 1);
+
+    int first = get_group_id(0) * get_local_size(0);
+    int last = min(first + (int) get_local_size(0), outputLength) - 1;
+    int spanStart = starts[first];
+    int spanEnd = starts[last] + taps;
+    int start = starts[outY];
+    float4 sum = (float4) (0.0f);
+
+    for (int chunk = spanStart; chunk < spanEnd; chunk += tileSize) {
+        int chunkLength = min(tileSize, spanEnd - chunk);
+        barrier(CLK_LOCAL_MEM_FENCE);
+        for (int i = get_local_id(0); i < chunkLength; i += get_local_size(0)) {
+            tile[i] = source[x * inputLength + clamp(chunk + i, 0, inputLength - 1)];
+        }
+        barrier(CLK_LOCAL_MEM_FENCE);
+
+        int from = max(start, chunk);
+        int to = min(start + taps, chunk + chunkLength);
+        for (int s = from; s < to; s++) {
+            sum += weights[outY * taps + s - start] * tile[s - chunk];
+        }
+    }
+
+    if ((int) get_global_id(0) < outputLength) {
+        /* Negative lobes can overshoot in either direction */
+        write_imagef(targetImage, (int2) (x, (int) get_global_id(0)), clamp(sum, 0.0f, 1.0f));
+    }
+}
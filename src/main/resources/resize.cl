@@ -17,6 +17,9 @@ __kernel void resizeImage(
 
     int outX = get_global_id(0);
     int outY = get_global_id(1);
+    if (outX >= w || outY >= h) {
+        return;
+    }
     int2 posOut = {outX, outY};
 
     float inX = outX / (float) w;
@@ -25,4 +28,34 @@ __kernel void resizeImage(
 
     float4 pixel = read_imagef(sourceImage, samplerIn, posIn);
     write_imagef(targetImage, posOut, pixel);
-}
\ No newline at end of file
+}
+
+const sampler_t samplerTile =
+    CLK_NORMALIZED_COORDS_FALSE |
+    CLK_ADDRESS_CLAMP |
+    CLK_FILTER_LINEAR;
+
+/*
+ * Resizes one tile of a larger image. The sample positions are computed from the sizes of the whole images, so
+ * neighbouring tiles line up without seams; the source tile includes the texels next to its footprint as a halo.
+ * sizes holds the source width and height and the target width and height of the whole images, origins the
+ * positions of the source and the target tile within them.
+ */
+__kernel void resizeTile(
+    __read_only  image2d_t sourceTile,
+    __write_only image2d_t targetTile,
+    int4 sizes,
+    int4 origins)
+{
+    int outX = get_global_id(0);
+    int outY = get_global_id(1);
+    if (outX >= get_image_width(targetTile) || outY >= get_image_height(targetTile)) {
+        return;
+    }
+
+    float inX = ((origins.z + outX) / (float) sizes.z) * sizes.x - origins.x;
+    float inY = ((origins.w + outY) / (float) sizes.w) * sizes.y - origins.y;
+
+    float4 pixel = read_imagef(sourceTile, samplerTile, (float2) (inX, inY));
+    write_imagef(targetTile, (int2) (outX, outY), pixel);
+}
@@ -0,0 +1,59 @@
+/* Descriptors hold six ints per image: input offset, width and height, then output offset, width and height. */
+/* Offsets are in pixels into the packed source and target buffers, and the output offsets are ascending. */
+
+float4 readTexel(__global const uint *source, int width, int height, int x, int y)
+{
+    if (x < 0 || y < 0 || x >= width || y >= height) {
+        return (float4) (0.0f);
+    }
+
+    return convert_float4(as_uchar4(source[y * width + x]));
+}
+
+__kernel void resizeBatch(
+    __global const uint *source,
+    __global uint *target,
+    __global const int *descriptors,
+    int imageCount,
+    int totalPixels)
+{
+    int gid = get_global_id(0);
+    if (gid >= totalPixels) {
+        return;
+    }
+
+    int first = 0;
+    int last = imageCount - 1;
+    while (first < last) {
+        int middle = (first + last + 1) >> 1;
+        if (descriptors[middle * 6 + 3] <= gid) {
+            first = middle;
+        } else {
+            last = middle - 1;
+        }
+    }
+
+    __global const int *descriptor = descriptors + first * 6;
+    __global const uint *image = source + descriptor[0];
+    int inW = descriptor[1];
+    int inH = descriptor[2];
+    int outW = descriptor[4];
+    int outH = descriptor[5];
+
+    int outPixel = gid - descriptor[3];
+    int outX = outPixel % outW;
+    int outY = outPixel / outW;
+
+    /* Same sampling as resize.cl: linear filter, normalized coordinates and a transparent black border */
+    float u = (outX / (float) outW) * inW - 0.5f;
+    float v = (outY / (float) outH) * inH - 0.5f;
+    int x0 = (int) floor(u);
+    int y0 = (int) floor(v);
+    float a = u - x0;
+    float b = v - y0;
+
+    float4 top = mix(readTexel(image, inW, inH, x0, y0), readTexel(image, inW, inH, x0 + 1, y0), a);
+    float4 bottom = mix(readTexel(image, inW, inH, x0, y0 + 1), readTexel(image, inW, inH, x0 + 1, y0 + 1), a);
+
+    target[gid] = as_uint(convert_uchar4_sat_rte(mix(top, bottom, b)));
+}
@@ -1,9 +1,16 @@
-const sampler_t samplerIn =
-    CLK_NORMALIZED_COORDS_FALSE |
-    CLK_ADDRESS_CLAMP |
-    CLK_FILTER_NEAREST;
+/*
+ * Rotates by 0, 90, 180 or 270 degrees, one work-item per input pixel. Built with -D ANGLE=<degrees> the angle is a
+ * compile-time constant, the choice of mapping is folded away and the angle argument is ignored; otherwise the angle
+ * argument chooses the mapping.
+ */
 
-const sampler_t samplerOut =
+#ifdef ANGLE
+#define ROTATION_ANGLE ANGLE
+#else
+#define ROTATION_ANGLE angle
+#endif
+
+const sampler_t samplerIn =
     CLK_NORMALIZED_COORDS_FALSE |
     CLK_ADDRESS_CLAMP |
     CLK_FILTER_NEAREST;
@@ -15,34 +22,27 @@ __kernel void rotateImage(
 {
     int inX = get_global_id(0);
     int inY = get_global_id(1);
+    if (inX >= get_image_width(sourceImage) || inY >= get_image_height(sourceImage)) {
+        return;
+    }
     int2 posIn = {inX, inY};
 
     int w = get_image_width(targetImage);
     int h = get_image_height(targetImage);
 
-    if(angle == 0) {
-        int outX = inX;
-        int outY = inY;
-        int2 posOut = {outX, outY};
-        uint4 pixel = read_imageui(sourceImage, samplerIn, posIn);
-        write_imageui(targetImage, posOut, pixel);
-    } else if(angle == 90) {
-        int outX = w - 1 - inY;
-        int outY = inX;
-        int2 posOut = {outX, outY};
-        uint4 pixel = read_imageui(sourceImage, samplerIn, posIn);
-        write_imageui(targetImage, posOut, pixel);
-    } else if(angle == 180) {
-        int outX = w - 1 - inX;
-        int outY = h - 1 - inY;
-        int2 posOut = {outX, outY};
-        uint4 pixel = read_imageui(sourceImage, samplerIn, posIn);
-        write_imageui(targetImage, posOut, pixel);
-    } else if(angle == 270) {
-        int outX = inY;
-        int outY = h - 1 - inX;
-        int2 posOut = {outX, outY};
-        uint4 pixel = read_imageui(sourceImage, samplerIn, posIn);
-        write_imageui(targetImage, posOut, pixel);
+    int2 posOut;
+    if (ROTATION_ANGLE == 0) {
+        posOut = (int2) (inX, inY);
+    } else if (ROTATION_ANGLE == 90) {
+        posOut = (int2) (w - 1 - inY, inX);
+    } else if (ROTATION_ANGLE == 180) {
+        posOut = (int2) (w - 1 - inX, h - 1 - inY);
+    } else if (ROTATION_ANGLE == 270) {
+        posOut = (int2) (inY, h - 1 - inX);
+    } else {
+        return;
     }
-};
\ No newline at end of file
+
+    float4 pixel = read_imagef(sourceImage, samplerIn, posIn);
+    write_imagef(targetImage, posOut, pixel);
+}
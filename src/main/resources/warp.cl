@@ -0,0 +1,28 @@
+/*
+ * Samples the input at the inverse projection of every output pixel center. The interpolation is chosen by the
+ * sampler passed in, so there are no branches besides the bounds check; pixels that map outside the input get the
+ * border color of CLK_ADDRESS_CLAMP. The rows of the inverse matrix are passed in the xyz components of m0, m1 and
+ * m2.
+ */
+
+__kernel void warpImage(
+    __read_only  image2d_t sourceImage,
+    __write_only image2d_t targetImage,
+    sampler_t sampler,
+    float4 m0,
+    float4 m1,
+    float4 m2)
+{
+    int outX = get_global_id(0);
+    int outY = get_global_id(1);
+    if (outX >= get_image_width(targetImage) || outY >= get_image_height(targetImage)) {
+        return;
+    }
+    float4 p = (float4) (outX + 0.5f, outY + 0.5f, 1.0f, 0.0f);
+
+    float w = dot(m2, p);
+    float2 posIn = (float2) (dot(m0, p), dot(m1, p)) / w;
+
+    float4 pixel = read_imagef(sourceImage, sampler, posIn);
+    write_imagef(targetImage, (int2) (outX, outY), pixel);
+}
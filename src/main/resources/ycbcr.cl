@@ -0,0 +1,74 @@
+/*
+ * Conversions between images and planar JFIF YCbCr, with chroma at full resolution or subsampled by two in both
+ * directions. The forward conversion runs one work-item per chroma sample: it writes the luma of every pixel of its
+ * block, and the chroma of the block's average color. Blocks at the right and bottom edges of odd-sized images
+ * average the pixels they have. The inverse conversion repeats each chroma sample over its block.
+ *
+ * Single channel images are read as gray, with chroma 128.
+ */
+
+#include "channels.cl"
+
+const sampler_t samplerIn =
+    CLK_NORMALIZED_COORDS_FALSE |
+    CLK_ADDRESS_CLAMP_TO_EDGE |
+    CLK_FILTER_NEAREST;
+
+__kernel void rgbToYCbCr(
+    __read_only image2d_t sourceImage,
+    __global uchar *luma,
+    __global uchar *cb,
+    __global uchar *cr,
+    int channels,
+    int subsampling)
+{
+    int chromaX = get_global_id(0);
+    int chromaY = get_global_id(1);
+    int width = get_image_width(sourceImage);
+    int height = get_image_height(sourceImage);
+    int chromaWidth = (width + subsampling - 1) / subsampling;
+    if (chromaX >= chromaWidth || chromaY * subsampling >= height) {
+        return;
+    }
+
+    float3 sum = (float3) (0.0f);
+    int pixels = 0;
+    for (int j = 0; j < subsampling; j++) {
+        for (int i = 0; i < subsampling; i++) {
+            int x = chromaX * subsampling + i;
+            int y = chromaY * subsampling + j;
+            if (x < width && y < height) {
+                float3 rgb = getColor(read_imagef(sourceImage, samplerIn, (int2) (x, y)), channels) * 255.0f;
+                luma[y * width + x] = convert_uchar_sat_rte(dot(rgb, (float3) (0.299f, 0.587f, 0.114f)));
+                sum += rgb;
+                pixels++;
+            }
+        }
+    }
+
+    float3 average = sum / pixels;
+    cb[chromaY * chromaWidth + chromaX] = convert_uchar_sat_rte(128.0f + dot(average, (float3) (-0.168736f, -0.331264f, 0.5f)));
+    cr[chromaY * chromaWidth + chromaX] = convert_uchar_sat_rte(128.0f + dot(average, (float3) (0.5f, -0.418688f, -0.081312f)));
+}
+
+__kernel void yCbCrToRgb(
+    __global const uchar *luma,
+    __global const uchar *cb,
+    __global const uchar *cr,
+    int subsampling,
+    __write_only image2d_t targetImage)
+{
+    int x = get_global_id(0);
+    int y = get_global_id(1);
+    int width = get_image_width(targetImage);
+    if (x >= width || y >= get_image_height(targetImage)) {
+        return;
+    }
+
+    int chroma = (y / subsampling) * ((width + subsampling - 1) / subsampling) + x / subsampling;
+    float l = luma[y * width + x];
+    float blue = cb[chroma] - 128.0f;
+    float red = cr[chroma] - 128.0f;
+    float4 pixel = (float4) (l + 1.402f * red, l - 0.344136f * blue - 0.714136f * red, l + 1.772f * blue, 255.0f);
+    write_imagef(targetImage, (int2) (x, y), pixel / 255.0f);
+}
@@ -0,0 +1,154 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.DeviceScheduler.Lane;
+import no.nixx.opencl.ImageRotator.Rotation;
+import no.nixx.opencl.cpu.CpuImageResizer;
+import no.nixx.opencl.cpu.CpuImageRotator;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.TestImages.createRandomImage;
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class DeviceSchedulerTest {
+
+    @Test
+    public void testResultsMatchSingleDevice() {
+        final DeviceScheduler scheduler = new DeviceScheduler(Arrays.asList(createCpuLane("a"), createCpuLane("b")));
+        final BufferedImage image = createRandomImage(300, 200);
+        try {
+            final BufferedImage expectedResize = new CpuImageResizer().resize(image, 150, 100);
+            final BufferedImage expectedRotation = new CpuImageRotator().rotate(image, Rotation.CW_90);
+
+            assertArrayEquals(getDataBufferInt(expectedResize), getDataBufferInt(scheduler.resize(image, 150, 100)));
+            assertArrayEquals(getDataBufferInt(expectedResize), getDataBufferInt(scheduler.resizeAsync(image, 150, 100).join()));
+            assertArrayEquals(getDataBufferInt(expectedRotation), getDataBufferInt(scheduler.rotate(image, Rotation.CW_90)));
+            assertArrayEquals(getDataBufferInt(expectedRotation), getDataBufferInt(scheduler.rotateAsync(image, Rotation.CW_90).join()));
+        } finally {
+            scheduler.dispose();
+        }
+
+        long completed = 0;
+        for (Lane lane : scheduler.getLanes()) {
+            assertEquals(0, lane.getInFlightJobs());
+            completed += lane.getCompletedJobs();
+        }
+        assertEquals(4, completed);
+    }
+
+    @Test
+    public void testJobsAreSpreadByInFlightWork() {
+        final Lane a = createCpuLane("a");
+        final Lane b = createCpuLane("b");
+        final DeviceScheduler scheduler = new DeviceScheduler(Arrays.asList(a, b));
+
+        // Nothing has been measured yet, so the lane without work is preferred
+        assertSame(a, scheduler.selectLane(1000));
+        assertSame(b, scheduler.selectLane(1000));
+        assertSame(a, scheduler.selectLane(10));
+        assertSame(b, scheduler.selectLane(10));
+        assertEquals(2, a.getInFlightJobs());
+        assertEquals(2, b.getInFlightJobs());
+    }
+
+    @Test
+    public void testFasterLaneGetsMoreWork() throws Exception {
+        final Lane fast = new Lane("fast", new SimulatedResizer(1), new CpuImageRotator());
+        final Lane slow = new Lane("slow", new SimulatedResizer(8), new CpuImageRotator());
+        final DeviceScheduler scheduler = new DeviceScheduler(Arrays.asList(fast, slow));
+        final BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<CompletableFuture<BufferedImage>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                futures.add(CompletableFuture.supplyAsync(() -> scheduler.resize(image, 100, 100), executor));
+            }
+            for (CompletableFuture<BufferedImage> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(200, fast.getCompletedJobs() + slow.getCompletedJobs());
+        assertTrue(fast + " / " + slow, fast.getCompletedJobs() > 2 * slow.getCompletedJobs());
+        assertTrue(fast.getPixelsPerSecond() > slow.getPixelsPerSecond());
+    }
+
+    @Test
+    public void testFailingLaneIsBackedOff() {
+        final Lane failing = new Lane("failing", new Resizer() {
+            @Override
+            public BufferedImage resize(BufferedImage inputImage, int outputImageWidth, int outputImageHeight) {
+                throw new IllegalStateException("Device lost");
+            }
+
+            @Override
+            public void dispose() {
+            }
+        }, new CpuImageRotator());
+        final Lane working = new Lane("working", new SimulatedResizer(1), new CpuImageRotator());
+        final DeviceScheduler scheduler = new DeviceScheduler(Arrays.asList(failing, working));
+        final BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+
+        for (int i = 0; i < 100; i++) {
+            try {
+                scheduler.resize(image, 100, 100);
+            } catch (IllegalStateException e) {
+                // Expected from the failing lane
+            }
+        }
+
+        assertEquals(0, failing.getCompletedJobs());
+        assertEquals(0.0, failing.getPixelsPerSecond());
+        assertEquals(0, failing.getInFlightJobs());
+        assertTrue(failing + " / " + working, failing.getFailedJobs() < 20);
+        assertEquals(100, failing.getFailedJobs() + working.getCompletedJobs());
+    }
+
+    private static Lane createCpuLane(String name) {
+        return new Lane(name, new CpuImageResizer(), new CpuImageRotator());
+    }
+
+    /**
+     * Stands in for a device that handles one job at a time, taking the given number of milliseconds per job.
+     */
+    private static class SimulatedResizer implements Resizer {
+
+        private final long millisPerJob;
+
+        SimulatedResizer(long millisPerJob) {
+            this.millisPerJob = millisPerJob;
+        }
+
+        @Override
+        public synchronized BufferedImage resize(BufferedImage inputImage, int outputImageWidth, int outputImageHeight) {
+            try {
+                Thread.sleep(millisPerJob);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return new BufferedImage(outputImageWidth, outputImageHeight, BufferedImage.TYPE_INT_RGB);
+        }
+
+        @Override
+        public void dispose() {
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.cpu.CpuImageResizer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.TestImages.createRandomImage;
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class FilePipelineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testProcessesEveryFileInDirectory() throws Exception {
+        final File inputDirectory = folder.newFolder("input");
+        for (int i = 0; i < 12; i++) {
+            ImageIO.write(createRandomImage(100 + i, 80), "png", new File(inputDirectory, "image" + i + ".png"));
+        }
+        Files.write(new File(inputDirectory, "broken.png").toPath(), new byte[]{1, 2, 3});
+        Files.write(new File(inputDirectory, "notes.txt").toPath(), new byte[]{1, 2, 3});
+
+        final Path outputDirectory = folder.getRoot().toPath().resolve("output");
+        final Resizer resizer = new CpuImageResizer();
+        final FilePipeline pipeline = FilePipeline.builder()
+                .operation(image -> resizer.resize(image, 50, 40))
+                .outputDirectory(outputDirectory)
+                .outputFormat("bmp")
+                .decodeThreads(3)
+                .encodeThreads(2)
+                .queueCapacity(2)
+                .build();
+
+        final FilePipeline.Report report = pipeline.run(inputDirectory.toPath());
+
+        assertEquals(13, report.getFiles());
+        assertEquals(1, report.getFailures().size());
+        assertTrue(report.getFailures().containsKey(inputDirectory.toPath().resolve("broken.png")));
+        for (String stage : new String[]{"decode", "process", "encode"}) {
+            assertEquals(stage, 12, report.getStage(stage).getItems());
+        }
+        for (int i = 0; i < 12; i++) {
+            final BufferedImage image = ImageIO.read(outputDirectory.resolve("image" + i + ".bmp").toFile());
+            assertEquals(50, image.getWidth());
+            assertEquals(40, image.getHeight());
+        }
+    }
+
+    @Test
+    public void testFailingOperationDoesNotStopOtherFiles() throws Exception {
+        final File inputDirectory = folder.newFolder("input");
+        for (int i = 0; i < 5; i++) {
+            ImageIO.write(createRandomImage(20, 10 + i), "png", new File(inputDirectory, "image" + i + ".png"));
+        }
+
+        final Path outputDirectory = folder.getRoot().toPath().resolve("output");
+        final FilePipeline.Report report = FilePipeline.builder()
+                .operation(image -> {
+                    if (image.getHeight() == 12) {
+                        throw new IllegalArgumentException("Unsupported");
+                    }
+                    return image;
+                })
+                .outputDirectory(outputDirectory)
+                .queueCapacity(1)
+                .build()
+                .run(inputDirectory.toPath());
+
+        assertEquals(1, report.getFailures().size());
+        assertEquals(4, report.getStage("encode").getItems());
+        assertTrue(Files.exists(outputDirectory.resolve("image4.png")));
+        assertTrue(report.toString().contains("process"));
+    }
+
+    @Test
+    public void testOutputCollisionsFailInsteadOfOverwriting() throws Exception {
+        final File directory = folder.newFolder("images");
+        ImageIO.write(createRandomImage(20, 10), "png", new File(directory, "image.png"));
+        ImageIO.write(createRandomImage(30, 10), "jpg", new File(directory, "image.jpg"));
+        ImageIO.write(createRandomImage(40, 10), "png", new File(directory, "other.png"));
+        ImageIO.write(createRandomImage(50, 10), "bmp", new File(directory, "other.bmp"));
+
+        final List<Path> paths = new ArrayList<>();
+        for (String fileName : new String[]{"image.png", "image.jpg", "other.png", "other.bmp"}) {
+            paths.add(directory.toPath().resolve(fileName));
+        }
+        final FilePipeline.Report report = FilePipeline.builder()
+                .operation(image -> image)
+                .outputDirectory(directory.toPath())
+                .outputFormat("bmp")
+                .build()
+                .run(paths);
+
+        assertEquals(4, report.getFiles());
+        assertEquals(3, report.getFailures().size());
+        for (Path path : paths.subList(1, 4)) {
+            assertTrue(report.getFailures().get(path) instanceof FileAlreadyExistsException);
+        }
+        assertEquals(1, report.getStage("encode").getItems());
+        assertEquals(20, ImageIO.read(new File(directory, "image.bmp")).getWidth());
+        assertEquals(50, ImageIO.read(new File(directory, "other.bmp")).getWidth());
+    }
+
+    @Test
+    public void testLargeFilesAreDecodedFromTheMapping() throws Exception {
+        // Random pixels do not compress, so both files are larger than the files read onto the heap
+        final BufferedImage image = createRandomImage(1024, 600);
+        for (String format : new String[]{"png", "bmp"}) {
+            final File file = folder.newFile("large." + format);
+            ImageIO.write(image, format, file);
+            assertTrue(file.length() >= 1024 * 1024);
+
+            final BufferedImage decoded = FilePipeline.decode(file.toPath());
+            assertArrayEquals(format, image.getRGB(0, 0, 1024, 600, null, 0, 1024), decoded.getRGB(0, 0, 1024, 600, null, 0, 1024));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.cpu.CpuImageAnalyzer;
+import no.nixx.opencl.util.DeviceProbe;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.TestImages.createRandomImage;
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class ImageAnalyzerTest {
+
+    @Test
+    public void testHistogramsMatchJavaImplementation() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final BufferedImage gray = new BufferedImage(333, 222, BufferedImage.TYPE_BYTE_GRAY);
+        gray.getGraphics().drawImage(createRandomImage(333, 222), 0, 0, null);
+        final BufferedImage images[] = new BufferedImage[]{createRandomImage(1031, 769), createRandomImage(3, 2), gray};
+
+        final ImageAnalyzer analyzer = new ImageAnalyzer();
+        try {
+            for (BufferedImage image : images) {
+                final ImageStatistics expected = new CpuImageAnalyzer().analyze(image);
+                final ImageStatistics actual = analyzer.analyze(image);
+                for (ImageStatistics.Channel channel : ImageStatistics.Channel.values()) {
+                    assertArrayEquals(channel.name(), expected.getHistogram(channel), actual.getHistogram(channel));
+                }
+            }
+        } finally {
+            analyzer.dispose();
+        }
+    }
+
+    @Test
+    public void testLevelsMatchJavaImplementation() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final BufferedImage image = createRandomImage(257, 129);
+        final Levels levels = Levels.of(30, 220, 1.8);
+        final ImageAnalyzer analyzer = new ImageAnalyzer();
+        try {
+            final int expected[] = getDataBufferInt(new CpuImageAnalyzer().applyLevels(image, levels));
+            final int actual[] = getDataBufferInt(analyzer.applyLevels(image, levels));
+            for (int i = 0; i < expected.length; i++) {
+                for (int shift = 0; shift < 24; shift += 8) {
+                    assertTrue("Pixel " + i, Math.abs(((expected[i] >> shift) & 0xff) - ((actual[i] >> shift) & 0xff)) <= 1);
+                }
+            }
+        } finally {
+            analyzer.dispose();
+        }
+    }
+
+    @Test
+    public void testPipelineComputesStatisticsOfInput() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final BufferedImage image = createRandomImage(800, 600);
+        final ImagePipeline pipeline = ImagePipeline.builder().resize(200).build();
+        try {
+            final ImagePipeline.Result result = pipeline.processWithStatistics(image);
+            assertArrayEquals(getDataBufferInt(pipeline.process(image)), getDataBufferInt(result.getImage()));
+            final ImageStatistics expected = new CpuImageAnalyzer().analyze(image);
+            for (ImageStatistics.Channel channel : ImageStatistics.Channel.values()) {
+                assertArrayEquals(channel.name(), expected.getHistogram(channel), result.getStatistics().getHistogram(channel));
+            }
+        } finally {
+            pipeline.dispose();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.cpu.CpuImageResizer;
+import no.nixx.opencl.util.DeviceProbe;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class ImageBatchResizerTest {
+
+    @Test
+    public void testPartitionRespectsImageAndPixelLimits() {
+        final List<BufferedImage> inputImages = new ArrayList<>();
+        final List<BufferedImage> outputImages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            inputImages.add(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB));
+            outputImages.add(new BufferedImage(5, 5, BufferedImage.TYPE_INT_RGB));
+        }
+
+        assertEquals(4, ImageBatchResizer.partition(inputImages, outputImages, 3, 1000).size());
+        assertEquals(5, ImageBatchResizer.partition(inputImages, outputImages, 100, 200).size());
+
+        // An image larger than the pixel limit gets a batch of its own
+        inputImages.add(5, new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB));
+        outputImages.add(5, new BufferedImage(5, 5, BufferedImage.TYPE_INT_RGB));
+        final List<ImageBatchResizer.Batch> batches = ImageBatchResizer.partition(inputImages, outputImages, 100, 1000);
+        assertEquals(3, batches.size());
+        assertEquals(1, batches.get(1).size());
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final ImageBatchResizer batchResizer = new ImageBatchResizer();
+        try {
+            assertEquals(0, batchResizer.resize(Collections.<BufferedImage>emptyList(), Collections.<Dimension>emptyList()).getImages().size());
+        } finally {
+            batchResizer.dispose();
+        }
+    }
+
+    @Test
+    public void testBatchMatchesSingleImageResize() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final Random random = new Random(42);
+        final List<BufferedImage> inputImages = new ArrayList<>();
+        final List<Dimension> outputSizes = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            final BufferedImage image = new BufferedImage(20 + random.nextInt(100), 20 + random.nextInt(100), BufferedImage.TYPE_INT_RGB);
+            final int data[] = getDataBufferInt(image);
+            for (int j = 0; j < data.length; j++) {
+                data[j] = random.nextInt() & 0xffffff;
+            }
+            inputImages.add(image);
+            outputSizes.add(new Dimension(10 + random.nextInt(150), 10 + random.nextInt(150)));
+        }
+
+        // Small batches, so that both buffer sets are reused several times
+        final ImageBatchResizer batchResizer = new ImageBatchResizer(OCLRegistry.acquireDefaultDevice(), 4, 1024 * 1024);
+        final CpuImageResizer referenceResizer = new CpuImageResizer();
+        try {
+            final ImageBatchResizer.BatchResult result = batchResizer.resize(inputImages, outputSizes);
+            assertEquals(7, result.getBatches());
+            assertTrue(result.getImagesPerSecond() > 0);
+
+            for (int i = 0; i < inputImages.size(); i++) {
+                final BufferedImage expected = referenceResizer.resize(inputImages.get(i), outputSizes.get(i).width, outputSizes.get(i).height);
+                assertSimilar(expected, result.getImages().get(i));
+            }
+        } finally {
+            batchResizer.dispose();
+        }
+    }
+
+    private static void assertSimilar(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+
+        final int expectedData[] = getDataBufferInt(expected);
+        final int actualData[] = getDataBufferInt(actual);
+        for (int i = 0; i < expectedData.length; i++) {
+            for (int shift = 0; shift < 24; shift += 8) {
+                final int difference = ((expectedData[i] >>> shift) & 0xff) - ((actualData[i] >>> shift) & 0xff);
+                assertTrue("Pixel " + i + " differs by " + difference, Math.abs(difference) <= 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.cpu.CpuImageConvolver;
+import no.nixx.opencl.util.DeviceProbe;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Kernel;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.TestImages.createRandomImage;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class ImageConvolverTest {
+
+    @Test
+    public void testKernelOfConvolveOpIsMirrored() {
+        final Convolution convolution = Convolution.of(new Kernel(3, 2, new float[]{1, 2, 3, 4, 5, 6}));
+        assertEquals(6f, convolution.getWeights()[0]);
+        assertEquals(1f, convolution.getWeights()[5]);
+        assertEquals(1, convolution.getOriginX());
+        assertEquals(1, convolution.getOriginY());
+    }
+
+    @Test
+    public void testConvolutionMatchesJavaImplementation() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        // Sizes that no work-group divides, and a radius wider than some work-groups
+        final BufferedImage image = createRandomImage(301, 203);
+        final Convolution convolutions[] = new Convolution[]{
+                Convolution.gaussian(0.8),
+                Convolution.gaussian(30),
+                Convolution.unsharpMask(1.2, 0.8),
+                Convolution.separable(new float[]{0.25f, 0.5f, 0.25f}, new float[]{1}),
+                Convolution.of(new Kernel(4, 3, new float[]{0.05f, 0.1f, 0, 0.15f, 0, 0.2f, 0, 0.1f, 0.25f, 0, 0.05f, 0.1f})),
+                Convolution.of(new Kernel(15, 15, createBoxKernelData(15)))};
+
+        final ImageConvolver convolver = new ImageConvolver();
+        try {
+            for (Convolution convolution : convolutions) {
+                final BufferedImage expected = new CpuImageConvolver().convolve(image, convolution);
+                final BufferedImage actual = convolver.convolve(image, convolution);
+                assertEquals(BufferedImage.TYPE_INT_RGB, actual.getType());
+                // Single precision sums in another order may round the other way
+                for (int y = 0; y < image.getHeight(); y++) {
+                    for (int x = 0; x < image.getWidth(); x++) {
+                        for (int shift = 0; shift < 24; shift += 8) {
+                            final int difference = ((expected.getRGB(x, y) >> shift) & 0xff) - ((actual.getRGB(x, y) >> shift) & 0xff);
+                            assertTrue("Pixel " + x + "," + y, Math.abs(difference) <= 1);
+                        }
+                    }
+                }
+            }
+        } finally {
+            convolver.dispose();
+        }
+    }
+
+    private static float[] createBoxKernelData(int size) {
+        final float data[] = new float[size * size];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 1f / data.length;
+        }
+
+        return data;
+    }
+}
@@ -0,0 +1,133 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.ImageRotator.Rotation;
+import no.nixx.opencl.util.BufferedImageUtils;
+import no.nixx.opencl.util.DeviceProbe;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class ImagePipelineTest {
+
+    @Test
+    public void testRotationsAndOneResizeAreFusedIntoOneKernel() {
+        final List<ImagePipeline.Segment> segments = ImagePipeline.builder()
+                .rotate(Rotation.CW_90)
+                .resize(300, 200)
+                .rotate(Rotation.FLIP)
+                .plan(640, 480);
+
+        assertEquals(1, segments.size());
+        assertEquals(300, segments.get(0).getOutputSize().width);
+        assertEquals(200, segments.get(0).getOutputSize().height);
+    }
+
+    @Test
+    public void testSecondResizeStartsANewKernel() {
+        final List<ImagePipeline.Segment> segments = ImagePipeline.builder()
+                .resize(320, 240)
+                .rotate(Rotation.CCW_90)
+                .resize(120)
+                .plan(640, 480);
+
+        assertEquals(2, segments.size());
+        assertEquals(240, segments.get(0).getOutputSize().width);
+        assertEquals(320, segments.get(0).getOutputSize().height);
+        assertTrue(segments.get(1).resamples());
+    }
+
+    @Test
+    public void testSourceDoesNotDependOnImageSize() {
+        final ImagePipeline.Builder builder = ImagePipeline.builder().rotate(Rotation.CW_90).resize(100, 100);
+        final String source = builder.plan(640, 480).get(0).getSource();
+
+        assertEquals(source, builder.plan(1920, 1080).get(0).getSource());
+        assertFalse(ImagePipeline.builder().rotate(Rotation.CW_90).plan(640, 480).get(0).resamples());
+    }
+
+    @Test
+    public void testRotationsMatchImageRotator() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final BufferedImage image = BufferedImageUtils.loadBufferedImageFromClasspath("Car_128x128.jpg", BufferedImage.TYPE_INT_RGB);
+        final ImageRotator imageRotator = new ImageRotator();
+        final ImagePipeline pipeline = ImagePipeline.builder().rotate(Rotation.CW_90).rotate(Rotation.FLIP).build();
+        try {
+            final BufferedImage expected = imageRotator.rotate(imageRotator.rotate(image, Rotation.CW_90), Rotation.FLIP);
+            assertTrue(Arrays.equals(getDataBufferInt(expected), getDataBufferInt(pipeline.process(image))));
+        } finally {
+            pipeline.dispose();
+            imageRotator.dispose();
+        }
+    }
+
+    @Test
+    public void testByteImagesKeepTheirFormat() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final ImageRotator imageRotator = new ImageRotator();
+        final ImagePipeline pipeline = ImagePipeline.builder().rotate(Rotation.CW_90).build();
+        try {
+            for (int type : new int[]{BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY}) {
+                final BufferedImage image = BufferedImageUtils.loadBufferedImageFromClasspath("Car_128x128.jpg", type);
+                final ImagePipeline.Result result = pipeline.processWithStatistics(image);
+
+                assertEquals(type, result.getImage().getType());
+                assertEquals((long) image.getWidth() * image.getHeight(), result.getStatistics().getPixels());
+                final BufferedImage expected = imageRotator.rotate(image, Rotation.CW_90);
+                assertTrue(Arrays.equals(getRGB(expected), getRGB(result.getImage())));
+            }
+        } finally {
+            pipeline.dispose();
+            imageRotator.dispose();
+        }
+    }
+
+    @Test
+    public void testFusedRotateAndResizeMatchesSeparateOperators() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final BufferedImage image = BufferedImageUtils.loadBufferedImageFromClasspath("Car_128x128.jpg", BufferedImage.TYPE_INT_RGB);
+        final ImageRotator imageRotator = new ImageRotator();
+        final ImageResizer imageResizer = new ImageResizer();
+        final ImagePipeline pipeline = ImagePipeline.builder().rotate(Rotation.CCW_90).resize(200, 150).rotate(Rotation.CW_90).build();
+        try {
+            final BufferedImage expected = imageRotator.rotate(imageResizer.resize(imageRotator.rotate(image, Rotation.CCW_90), 200, 150), Rotation.CW_90);
+            assertSimilar(expected, pipeline.process(image));
+        } finally {
+            pipeline.dispose();
+            imageResizer.dispose();
+            imageRotator.dispose();
+        }
+    }
+
+    private static int[] getRGB(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static void assertSimilar(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+
+        final int expectedData[] = getDataBufferInt(expected);
+        final int actualData[] = getDataBufferInt(actual);
+        for (int i = 0; i < expectedData.length; i++) {
+            for (int shift = 0; shift < 24; shift += 8) {
+                // The fused kernel computes the sample position differently, which may round differently
+                final int difference = ((expectedData[i] >>> shift) & 0xff) - ((actualData[i] >>> shift) & 0xff);
+                assertTrue("Pixel " + i + " differs by " + difference, Math.abs(difference) <= 1);
+            }
+        }
+    }
+}
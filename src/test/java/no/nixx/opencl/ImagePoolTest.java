@@ -0,0 +1,82 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.util.DeviceProbe;
+import org.jocl.cl_image_format;
+import org.jocl.cl_mem;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static no.nixx.opencl.util.OCLUtils.getPackedIntImageFormat;
+import static org.jocl.CL.CL_MEM_READ_ONLY;
+import static org.jocl.CL.CL_MEM_WRITE_ONLY;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class ImagePoolTest {
+
+    private static OCLDevice device;
+
+    @BeforeClass
+    public static void setup() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+        device = OCLRegistry.acquireDefaultDevice();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        if (device != null) {
+            device.release();
+        }
+    }
+
+    @Test
+    public void testReleasedImageIsReused() {
+        final cl_image_format imageFormat = getPackedIntImageFormat();
+        final ImagePool imagePool = new ImagePool(device.getContext(), 1024 * 1024);
+        final cl_mem first = imagePool.acquire(64, 64, imageFormat, CL_MEM_READ_ONLY);
+        imagePool.release(first);
+
+        final cl_mem second = imagePool.acquire(64, 64, imageFormat, CL_MEM_READ_ONLY);
+        assertSame(first, second);
+        assertEquals(1, imagePool.getHits());
+        assertEquals(1, imagePool.getMisses());
+
+        final cl_mem differentFlags = imagePool.acquire(64, 64, imageFormat, CL_MEM_WRITE_ONLY);
+        assertNotSame(second, differentFlags);
+        assertEquals(2, imagePool.getMisses());
+
+        imagePool.release(second);
+        imagePool.release(differentFlags);
+        assertEquals(2 * 64 * 64 * 4, imagePool.getIdleBytes());
+        imagePool.clear();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedImagesAreEvictedWhenOverBudget() {
+        final cl_image_format imageFormat = getPackedIntImageFormat();
+        final ImagePool imagePool = new ImagePool(device.getContext(), 2 * 64 * 64 * 4);
+        final cl_mem first = imagePool.acquire(64, 64, imageFormat, CL_MEM_READ_ONLY);
+        final cl_mem second = imagePool.acquire(64, 64, imageFormat, CL_MEM_WRITE_ONLY);
+        final cl_mem third = imagePool.acquire(32, 128, imageFormat, CL_MEM_READ_ONLY);
+        imagePool.release(first);
+        imagePool.release(second);
+        imagePool.release(third);
+
+        assertEquals(1, imagePool.getEvictions());
+        assertEquals(2 * 64 * 64 * 4, imagePool.getIdleBytes());
+
+        // The first image was the least recently used one, so it is gone
+        final cl_mem fourth = imagePool.acquire(64, 64, imageFormat, CL_MEM_READ_ONLY);
+        assertNotSame(first, fourth);
+        assertEquals(64 * 64 * 4, imagePool.getBytesInUse());
+
+        imagePool.release(fourth);
+        imagePool.clear();
+    }
+}
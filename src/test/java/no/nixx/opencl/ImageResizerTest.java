@@ -7,8 +7,14 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
 
 /**
  * Oddbjørn Kvalsund
@@ -49,6 +55,22 @@ public class ImageResizerTest {
         assertEquals(2048, resizedImage.getHeight());
     }
 
+    @Test
+    public void testResizeAsyncMatchesResize() throws Exception {
+        final BufferedImage image = BufferedImageUtils.loadBufferedImageFromClasspath("Car_128x128.jpg", BufferedImage.TYPE_INT_RGB);
+
+        final List<CompletableFuture<BufferedImage>> futures = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            futures.add(imageResizer.resizeAsync(image, 200 + i, 100 + i));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            final BufferedImage expected = imageResizer.resize(image, 200 + i, 100 + i);
+            final BufferedImage actual = futures.get(i).get();
+            assertTrue(Arrays.equals(getDataBufferInt(expected), getDataBufferInt(actual)));
+        }
+    }
+
     /* To test visual performance of the resizer */
     /*
     public static void main(String[] args) {
@@ -1,12 +1,19 @@
 package no.nixx.opencl;
 
+import no.nixx.opencl.util.BufferedImageUtils;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
 
 /**
  * Oddbjørn Kvalsund
@@ -43,4 +50,20 @@ public class ImageRotatorTest {
         assertEquals(rotatedFlipped.getWidth(), longEdgeLength);
         assertEquals(rotatedFlipped.getHeight(), shortEdgeLength);
     }
+
+    @Test
+    public void testRotateAsyncMatchesRotate() throws Exception {
+        final BufferedImage image = BufferedImageUtils.loadBufferedImageFromClasspath("Car_128x128.jpg", BufferedImage.TYPE_INT_RGB);
+
+        final Map<ImageRotator.Rotation, CompletableFuture<BufferedImage>> futures = new EnumMap<>(ImageRotator.Rotation.class);
+        for (ImageRotator.Rotation rotation : ImageRotator.Rotation.values()) {
+            futures.put(rotation, imageRotator.rotateAsync(image, rotation));
+        }
+
+        for (ImageRotator.Rotation rotation : ImageRotator.Rotation.values()) {
+            final BufferedImage expected = imageRotator.rotate(image, rotation);
+            final BufferedImage actual = futures.get(rotation).get();
+            assertTrue(Arrays.equals(getDataBufferInt(expected), getDataBufferInt(actual)));
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,83 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.Warp.Interpolation;
+import no.nixx.opencl.cpu.CpuImageWarper;
+import no.nixx.opencl.util.DeviceProbe;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.TestImages.createRandomImage;
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class ImageWarperTest {
+
+    @Test
+    public void testOutputBoundsOfRotation() {
+        assertEquals(new Rectangle(0, 0, 100, 50), Warp.rotation(0, Interpolation.NEAREST).getOutputBounds(100, 50));
+        assertEquals(new Rectangle(-50, 0, 50, 100), Warp.rotation(90, Interpolation.NEAREST).getOutputBounds(100, 50));
+
+        // A 45 degree turn of a square fits in a square whose edge is the diagonal
+        final Rectangle bounds = Warp.rotation(45, Interpolation.BILINEAR).getOutputBounds(100, 100);
+        assertEquals(142, bounds.width);
+        assertEquals(142, bounds.height);
+    }
+
+    @Test
+    public void testInverseMatrixMapsOutputBackToInput() {
+        final Warp warp = Warp.perspective(new double[]{1.2, 0.1, 5, -0.2, 0.9, 3, 0.001, 0.002, 1}, Interpolation.BILINEAR);
+        final Rectangle bounds = warp.getOutputBounds(300, 200);
+        final double m[] = warp.getMatrix();
+        final double inverse[] = warp.getInverseMatrix(bounds);
+
+        for (double point[] : new double[][]{{0, 0}, {300, 0}, {17.5, 133.25}, {300, 200}}) {
+            final double w = m[6] * point[0] + m[7] * point[1] + m[8];
+            final double x = (m[0] * point[0] + m[1] * point[1] + m[2]) / w - bounds.x;
+            final double y = (m[3] * point[0] + m[4] * point[1] + m[5]) / w - bounds.y;
+            final double inverseW = inverse[6] * x + inverse[7] * y + inverse[8];
+            assertEquals(point[0], (inverse[0] * x + inverse[1] * y + inverse[2]) / inverseW, 1e-9);
+            assertEquals(point[1], (inverse[3] * x + inverse[4] * y + inverse[5]) / inverseW, 1e-9);
+        }
+    }
+
+    @Test
+    public void testWarpMatchesJavaImplementation() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final BufferedImage image = createRandomImage(211, 150);
+        final Warp warps[] = new Warp[]{
+                Warp.rotation(1.5, Interpolation.NEAREST),
+                Warp.rotation(-20, Interpolation.BILINEAR),
+                Warp.perspective(new double[]{1, 0.1, 0, 0, 1, 0, 0.001, -0.002, 1}, Interpolation.BILINEAR)};
+
+        final ImageWarper warper = new ImageWarper();
+        try {
+            for (Warp warp : warps) {
+                final int expected[] = getDataBufferInt(new CpuImageWarper().warp(image, warp));
+                final int actual[] = getDataBufferInt(warper.warp(image, warp));
+                assertEquals(expected.length, actual.length);
+
+                // Sample positions on a pixel edge may round either way, and devices interpolate with fewer bits
+                int mismatches = 0;
+                for (int i = 0; i < expected.length; i++) {
+                    for (int shift = 0; shift < 24; shift += 8) {
+                        if (Math.abs(((expected[i] >>> shift) & 0xff) - ((actual[i] >>> shift) & 0xff)) > 2) {
+                            mismatches++;
+                            break;
+                        }
+                    }
+                }
+                assertTrue(mismatches + " pixels differ", mismatches <= expected.length / 1000);
+            }
+        } finally {
+            warper.dispose();
+        }
+    }
+}
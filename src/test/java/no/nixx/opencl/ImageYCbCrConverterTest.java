@@ -0,0 +1,79 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.YCbCrImage.Subsampling;
+import no.nixx.opencl.cpu.CpuYCbCrConverter;
+import no.nixx.opencl.util.DeviceProbe;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.TestImages.createRandomImage;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class ImageYCbCrConverterTest {
+
+    @Test
+    public void testConversionsMatchJavaImplementation() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final BufferedImage image = createRandomImage(301, 199);
+        final CpuYCbCrConverter cpuConverter = new CpuYCbCrConverter();
+        final ImageYCbCrConverter converter = new ImageYCbCrConverter();
+        try {
+            for (Subsampling subsampling : Subsampling.values()) {
+                final YCbCrImage expected = cpuConverter.toYCbCr(image, subsampling);
+                final YCbCrImage actual = converter.toYCbCr(image, subsampling);
+                assertSimilar(expected, actual);
+
+                final BufferedImage expectedRgb = cpuConverter.toRgb(expected);
+                final BufferedImage actualRgb = converter.toRgb(expected);
+                for (int y = 0; y < image.getHeight(); y++) {
+                    for (int x = 0; x < image.getWidth(); x++) {
+                        for (int shift = 0; shift < 24; shift += 8) {
+                            assertTrue(Math.abs(((expectedRgb.getRGB(x, y) >> shift) & 0xff) - ((actualRgb.getRGB(x, y) >> shift) & 0xff)) <= 1);
+                        }
+                    }
+                }
+            }
+        } finally {
+            converter.dispose();
+        }
+    }
+
+    @Test
+    public void testPipelineConvertsResizedImage() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final BufferedImage image = createRandomImage(1000, 750);
+        final ImagePipeline pipeline = ImagePipeline.builder().resize(333, 250).build();
+        try {
+            final YCbCrImage actual = pipeline.processToYCbCr(image, Subsampling.YCBCR_420);
+            assertEquals(333, actual.getWidth());
+            assertEquals(250, actual.getHeight());
+            // 1.5 bytes per pixel instead of the 4 of packed ints
+            assertEquals(333 * 250 + 2 * 167 * 125, actual.getBytes());
+            assertSimilar(new CpuYCbCrConverter().toYCbCr(pipeline.process(image), Subsampling.YCBCR_420), actual);
+        } finally {
+            pipeline.dispose();
+        }
+    }
+
+    private static void assertSimilar(YCbCrImage expected, YCbCrImage actual) {
+        assertSimilar(expected.getY(), actual.getY());
+        assertSimilar(expected.getCb(), actual.getCb());
+        assertSimilar(expected.getCr(), actual.getCr());
+    }
+
+    private static void assertSimilar(byte expected[], byte actual[]) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            // Single precision sums in another order may round the other way
+            assertTrue("Sample " + i, Math.abs((expected[i] & 0xff) - (actual[i] & 0xff)) <= 1);
+        }
+    }
+}
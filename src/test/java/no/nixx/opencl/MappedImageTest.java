@@ -0,0 +1,86 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.ImageRotator.Rotation;
+import no.nixx.opencl.util.DeviceProbe;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static junit.framework.Assert.assertEquals;
+import static no.nixx.opencl.TestImages.createRandomImage;
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class MappedImageTest {
+
+    @Test
+    public void testMappedOperatorsMatchCopyingOperators() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final BufferedImage image = createRandomImage(301, 217);
+        final OCLDevice device = OCLRegistry.acquireDefaultDevice();
+        try {
+            for (ResizeFilter filter : ResizeFilter.values()) {
+                final ImageResizer resizer = new ImageResizer(device.retain(), filter);
+                try (MappedImage input = copyOf(device, image);
+                     MappedImage output = MappedImage.allocate(device, 150, 400)) {
+                    resizer.resize(input, output);
+                    assertArrayEquals(filter.name(), getDataBufferInt(resizer.resize(image, 150, 400)), toArray(output));
+                } finally {
+                    resizer.dispose();
+                }
+            }
+
+            final ImageRotator rotator = new ImageRotator(device.retain());
+            try {
+                for (Rotation rotation : Rotation.values()) {
+                    final BufferedImage expected = rotator.rotate(image, rotation);
+                    try (MappedImage input = copyOf(device, image);
+                         MappedImage output = MappedImage.allocate(device, expected.getWidth(), expected.getHeight())) {
+                        rotator.rotate(input, rotation, output);
+                        assertArrayEquals(rotation.name(), getDataBufferInt(expected), toArray(output));
+                        // The input is handed back unchanged
+                        assertArrayEquals(getDataBufferInt(image), toArray(input));
+                    }
+                }
+            } finally {
+                rotator.dispose();
+            }
+        } finally {
+            device.release();
+        }
+    }
+
+    @Test
+    public void testViewFollowsRemappedPixels() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final ImageRotator rotator = new ImageRotator();
+        try (MappedImage input = MappedImage.allocate(4, 2);
+             MappedImage output = MappedImage.allocate(4, 2)) {
+            final BufferedImage view = output.asBufferedImage();
+            input.asBufferedImage().setRGB(0, 0, 0x123456);
+            rotator.rotate(input, Rotation.FLIP, output);
+
+            assertEquals(0x123456, view.getRGB(3, 1) & 0xffffff);
+            assertEquals(0x123456, output.toBufferedImage().getRGB(3, 1) & 0xffffff);
+        } finally {
+            rotator.dispose();
+        }
+    }
+
+    private static MappedImage copyOf(OCLDevice device, BufferedImage image) {
+        final MappedImage mappedImage = MappedImage.allocate(device, image.getWidth(), image.getHeight());
+        mappedImage.copyFrom(image);
+
+        return mappedImage;
+    }
+
+    private static int[] toArray(MappedImage image) {
+        return getDataBufferInt(image.toBufferedImage());
+    }
+}
@@ -0,0 +1,55 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.util.DeviceProbe;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static junit.framework.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class OCLRegistryTest {
+
+    @BeforeClass
+    public static void setup() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+    }
+
+    @Test
+    public void testOperatorsShareTheDefaultDevice() {
+        final OCLDevice first = OCLRegistry.acquireDefaultDevice();
+        final OCLDevice second = OCLRegistry.acquireDefaultDevice();
+        assertSame(first, second);
+        assertSame(first.getProgram("resize.cl"), second.getProgram("resize.cl"));
+        second.release();
+        first.release();
+    }
+
+    @Test
+    public void testDeviceOutlivesDisposedOperators() {
+        final ImageResizer imageResizer = new ImageResizer();
+        final ImageRotator imageRotator = new ImageRotator();
+        imageResizer.dispose();
+
+        final BufferedImage image = new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB);
+        final BufferedImage rotatedImage = imageRotator.rotate(image, ImageRotator.Rotation.CW_90);
+        assertEquals(32, rotatedImage.getWidth());
+        imageRotator.dispose();
+    }
+
+    @Test
+    public void testDeviceIsRecreatedAfterLastRelease() {
+        final OCLDevice first = OCLRegistry.acquireDefaultDevice();
+        first.release();
+
+        final OCLDevice second = OCLRegistry.acquireDefaultDevice();
+        assertNotSame(first, second);
+        second.release();
+    }
+}
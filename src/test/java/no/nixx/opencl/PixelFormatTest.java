@@ -0,0 +1,141 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.ImageRotator.Rotation;
+import no.nixx.opencl.util.DeviceProbe;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class PixelFormatTest {
+
+    @Test
+    public void testFormatOfImageTypes() {
+        assertEquals(PixelFormat.INT_RGB, PixelFormat.of(new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB)));
+        assertEquals(PixelFormat.BYTE_BGR, PixelFormat.of(new BufferedImage(1, 1, BufferedImage.TYPE_3BYTE_BGR)));
+        assertEquals(PixelFormat.BYTE_GRAY, PixelFormat.of(new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY)));
+        assertEquals(PixelFormat.USHORT_GRAY, PixelFormat.of(new BufferedImage(1, 1, BufferedImage.TYPE_USHORT_GRAY)));
+        assertNull(PixelFormat.of(new BufferedImage(1, 1, BufferedImage.TYPE_4BYTE_ABGR)));
+        for (PixelFormat format : PixelFormat.values()) {
+            assertEquals(format, PixelFormat.of(format.createImage(1, 1)));
+        }
+    }
+
+    @Test
+    public void testRotationKeepsFormatAndSamples() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final ImageRotator rotator = new ImageRotator();
+        try {
+            for (PixelFormat format : PixelFormat.values()) {
+                final BufferedImage image = createRandomImage(format, 123, 77);
+                for (Rotation rotation : Rotation.values()) {
+                    final BufferedImage rotatedImage = rotator.rotate(image, rotation);
+                    assertEquals(format.getImageType(), rotatedImage.getType());
+                    assertSamplesEqual(format + " " + rotation, rotate(image, rotation), rotatedImage, 0);
+                }
+            }
+        } finally {
+            rotator.dispose();
+        }
+    }
+
+    @Test
+    public void testResizeMatchesPackedInts() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        // A gray or BGR image resized natively gives the same samples as its TYPE_INT_RGB version
+        for (ResizeFilter filter : ResizeFilter.values()) {
+            final ImageResizer resizer = new ImageResizer(filter);
+            try {
+                for (PixelFormat format : new PixelFormat[]{PixelFormat.BYTE_BGR, PixelFormat.BYTE_GRAY}) {
+                    final BufferedImage image = createRandomImage(format, 150, 90);
+                    final BufferedImage resizedImage = resizer.resize(image, 61, 200);
+                    assertEquals(format.getImageType(), resizedImage.getType());
+
+                    final BufferedImage expected = resizer.resize(toPackedInts(image), 61, 200);
+                    assertSamplesEqual(filter + " " + format, expected, resizedImage, 1);
+                }
+            } finally {
+                resizer.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage createRandomImage(PixelFormat format, int width, int height) {
+        final BufferedImage image = format.createImage(width, height);
+        final WritableRaster raster = image.getRaster();
+        final int maxSample = (1 << raster.getSampleModel().getSampleSize(0)) - 1;
+        final Random random = new Random(format.ordinal());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int band = 0; band < raster.getNumBands(); band++) {
+                    raster.setSample(x, y, band, random.nextInt(maxSample + 1));
+                }
+            }
+        }
+
+        return image;
+    }
+
+    private static BufferedImage toPackedInts(BufferedImage image) {
+        // Copies the samples band by band, without the color conversion of Graphics.drawImage
+        final BufferedImage packed = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                for (int band = 0; band < 3; band++) {
+                    packed.getRaster().setSample(x, y, band, image.getRaster().getSample(x, y, Math.min(band, image.getRaster().getNumBands() - 1)));
+                }
+            }
+        }
+
+        return packed;
+    }
+
+    private static BufferedImage rotate(BufferedImage image, Rotation rotation) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final BufferedImage rotatedImage = rotation.preservesOrientation()
+                ? PixelFormat.of(image).createImage(width, height) : PixelFormat.of(image).createImage(height, width);
+        final int pixel[] = new int[image.getRaster().getNumBands()];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.getRaster().getPixel(x, y, pixel);
+                switch (rotation) {
+                    case CW_90:
+                        rotatedImage.getRaster().setPixel(height - 1 - y, x, pixel);
+                        break;
+                    case FLIP:
+                        rotatedImage.getRaster().setPixel(width - 1 - x, height - 1 - y, pixel);
+                        break;
+                    case CCW_90:
+                        rotatedImage.getRaster().setPixel(y, width - 1 - x, pixel);
+                        break;
+                }
+            }
+        }
+
+        return rotatedImage;
+    }
+
+    private static void assertSamplesEqual(String message, BufferedImage expected, BufferedImage actual, int tolerance) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                // Gray images are compared with the red channel of their packed int version
+                for (int band = 0; band < actual.getRaster().getNumBands(); band++) {
+                    final int difference = expected.getRaster().getSample(x, y, band) - actual.getRaster().getSample(x, y, band);
+                    assertTrue(message + " differs by " + difference + " at " + x + "," + y, Math.abs(difference) <= tolerance);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package no.nixx.opencl;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class ResampleWeightsTest {
+
+    @Test
+    public void testWeightsAreNormalized() {
+        for (ResizeFilter filter : ResizeFilter.values()) {
+            for (int outputLength : new int[]{1, 7, 100, 333, 1000}) {
+                final ResampleWeights weights = ResampleWeights.create(filter, 333, outputLength);
+                for (int i = 0; i < outputLength; i++) {
+                    float sum = 0;
+                    for (int k = 0; k < weights.getTaps(); k++) {
+                        sum += weights.getWeight(i, k);
+                    }
+                    assertEquals(filter + " " + outputLength + " " + i, 1f, sum, 1e-5f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSameSizeIsIdentity() {
+        for (ResizeFilter filter : ResizeFilter.values()) {
+            final ResampleWeights weights = ResampleWeights.create(filter, 50, 50);
+            for (int i = 0; i < 50; i++) {
+                for (int k = 0; k < weights.getTaps(); k++) {
+                    final float expected = weights.getStart(i) + k == i ? 1f : 0f;
+                    assertEquals(filter + " " + i, expected, weights.getWeight(i, k), 1e-6f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFiltersWidenWhenDownscaling() {
+        assertEquals(7, ResampleWeights.create(ResizeFilter.LANCZOS3, 100, 100).getTaps());
+        assertEquals(25, ResampleWeights.create(ResizeFilter.LANCZOS3, 400, 100).getTaps());
+        assertEquals(5, ResampleWeights.create(ResizeFilter.AREA, 400, 100).getTaps());
+
+        final ResampleWeights area = ResampleWeights.create(ResizeFilter.AREA, 400, 100);
+        assertEquals(8, area.getStart(2));
+        assertEquals(0.25f, area.getWeight(2, 0));
+        assertEquals(0f, area.getWeight(2, 4));
+    }
+}
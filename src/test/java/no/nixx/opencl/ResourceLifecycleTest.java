@@ -0,0 +1,138 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.ImageRotator.Rotation;
+import no.nixx.opencl.util.CLResource.Type;
+import no.nixx.opencl.util.DeviceProbe;
+import no.nixx.opencl.util.ResourceTracker;
+import org.jocl.CLException;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_kernel;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutionException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static no.nixx.opencl.TestImages.createRandomImage;
+import static org.jocl.CL.clSetKernelArg;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that device objects are released on every path, the failing ones included. The number of rounds of the
+ * soak test is read from the {@value #SOAK_ITERATIONS_PROPERTY} property, e.g. 100000 for a long run.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class ResourceLifecycleTest {
+
+    private static final String SOAK_ITERATIONS_PROPERTY = "no.nixx.opencl.soakIterations";
+
+    private static OCLDevice device;
+    private static boolean tracking;
+
+    @BeforeClass
+    public static void setup() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+        device = OCLRegistry.acquireDefaultDevice();
+        tracking = ResourceTracker.isTracking();
+        ResourceTracker.setTracking(true);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        if (device != null) {
+            ResourceTracker.setTracking(tracking);
+            device.release();
+        }
+    }
+
+    @Test
+    public void testFailedLaunchReleasesEverything() throws InterruptedException {
+        final ImageKernelLauncher launcher = new ImageKernelLauncher(device, device.getProgram("rotate.cl"), "rotateImage");
+        final BufferedImage inputImage = createRandomImage(64, 48);
+        final BufferedImage outputImage = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+
+        // Once to let the pool create the images, which then stay in it
+        runFailing(launcher, inputImage, outputImage);
+        final long kernels = ResourceTracker.getLiveCount(Type.KERNEL);
+        final long events = ResourceTracker.getLiveCount(Type.EVENT);
+        final long bytes = ResourceTracker.getLiveBytes();
+        final long bytesInUse = device.getImagePool().getBytesInUse();
+
+        runFailing(launcher, inputImage, outputImage);
+        try {
+            launcher.runAsync(inputImage, outputImage, new long[]{64, 48}, ResourceLifecycleTest::setInvalidArgument).get();
+            fail("Expected the launch to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CLException);
+        }
+
+        assertEquals(kernels, ResourceTracker.getLiveCount(Type.KERNEL));
+        assertEquals(events, ResourceTracker.getLiveCount(Type.EVENT));
+        assertEquals(bytes, ResourceTracker.getLiveBytes());
+        assertEquals(bytesInUse, device.getImagePool().getBytesInUse());
+    }
+
+    @Test
+    public void testDeviceMemoryStaysFlat() throws Exception {
+        final int iterations = Integer.getInteger(SOAK_ITERATIONS_PROPERTY, 20);
+        final ImageResizer resizer = new ImageResizer(device.retain());
+        final ImageRotator rotator = new ImageRotator(device.retain());
+        final ImageConvolver convolver = new ImageConvolver(device.retain());
+        final ImageAnalyzer analyzer = new ImageAnalyzer(device.retain());
+        final ImageKernelLauncher launcher = new ImageKernelLauncher(device, device.getProgram("rotate.cl"), "rotateImage");
+        final BufferedImage image = createRandomImage(320, 240);
+
+        try {
+            // The first round builds the programs, tunes the kernels and fills the pool
+            runRound(resizer, rotator, convolver, analyzer, launcher, image);
+            final long count = ResourceTracker.getLiveCount();
+            final long bytes = ResourceTracker.getLiveBytes();
+            final long allocationCount = ResourceTracker.getAllocationCount();
+
+            for (int i = 0; i < iterations; i++) {
+                runRound(resizer, rotator, convolver, analyzer, launcher, image);
+                if (ResourceTracker.getLiveCount() != count || ResourceTracker.getLiveBytes() != bytes) {
+                    fail("Leaked in round " + i + ": " + ResourceTracker.getReport(ResourceTracker.getTrackedAllocationsSince(allocationCount)));
+                }
+            }
+        } finally {
+            resizer.dispose();
+            rotator.dispose();
+            convolver.dispose();
+            analyzer.dispose();
+        }
+    }
+
+    private static void runRound(ImageResizer resizer, ImageRotator rotator, ImageConvolver convolver, ImageAnalyzer analyzer,
+                                 ImageKernelLauncher launcher, BufferedImage image) throws Exception {
+        resizer.resize(image, 160, 120);
+        resizer.resizeAsync(image, 100, 75).get();
+        resizer.resizeToSizes(image, 200, 100, 50);
+        rotator.rotate(image, Rotation.CW_90);
+        rotator.rotateAsync(image, Rotation.CCW_90).get();
+        convolver.convolve(image, Convolution.gaussian(1.5));
+        analyzer.applyLevels(image, Levels.autoLevels(analyzer.analyze(image), 0.01, 1.0));
+        runFailing(launcher, image, new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB));
+    }
+
+    private static void runFailing(ImageKernelLauncher launcher, BufferedImage inputImage, BufferedImage outputImage) {
+        try {
+            launcher.run(inputImage, outputImage, new long[]{outputImage.getWidth(), outputImage.getHeight()},
+                    ResourceLifecycleTest::setInvalidArgument);
+            fail("Expected the launch to fail");
+        } catch (CLException e) {
+            // Expected
+        }
+    }
+
+    private static void setInvalidArgument(cl_kernel kernel) {
+        // No kernel has this many arguments
+        clSetKernelArg(kernel, 99, Sizeof.cl_int, Pointer.to(new int[]{0}));
+    }
+}
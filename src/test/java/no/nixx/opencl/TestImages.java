@@ -0,0 +1,26 @@
+package no.nixx.opencl;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public final class TestImages {
+
+    private TestImages() {
+    }
+
+    public static BufferedImage createRandomImage(int width, int height) {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Random random = new Random(width * 31 + height);
+        final int data[] = getDataBufferInt(image);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = random.nextInt() & 0xffffff;
+        }
+
+        return image;
+    }
+}
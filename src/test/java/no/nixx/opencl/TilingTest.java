@@ -0,0 +1,160 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.ImageRotator.Rotation;
+import no.nixx.opencl.Tiling.Footprint;
+import no.nixx.opencl.Tiling.Span;
+import no.nixx.opencl.Tiling.Tile;
+import no.nixx.opencl.cpu.CpuImageRotator;
+import no.nixx.opencl.util.DeviceProbe;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.TestImages.createRandomImage;
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class TilingTest {
+
+    @Test
+    public void testSpansCoverTargetAndFootprints() {
+        final int lengths[][] = {{10000, 1000}, {1000, 10000}, {5000, 4999}, {300, 20}};
+        for (int length[] : lengths) {
+            final int sourceLength = length[0];
+            final int targetLength = length[1];
+            assertCovers(sourceLength, targetLength, 256, Tiling.bilinear(sourceLength, targetLength));
+            for (ResizeFilter filter : new ResizeFilter[]{ResizeFilter.AREA, ResizeFilter.BICUBIC, ResizeFilter.LANCZOS3}) {
+                assertCovers(sourceLength, targetLength, 256, Tiling.filtered(ResampleWeights.create(filter, sourceLength, targetLength)));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFootprintLargerThanTileIsRejected() {
+        Tiling.split(100000, 10, 4096, Tiling.filtered(ResampleWeights.create(ResizeFilter.LANCZOS3, 100000, 10)));
+    }
+
+    @Test
+    public void testTiledWeightsMatchFullWeights() {
+        // Resampling one row tile by tile, with the weights of each tile, gives the same result as the whole row
+        final int sourceLength = 1000;
+        final float source[] = new float[sourceLength];
+        final Random random = new Random(42);
+        for (int i = 0; i < sourceLength; i++) {
+            source[i] = random.nextInt(256);
+        }
+
+        for (ResizeFilter filter : new ResizeFilter[]{ResizeFilter.AREA, ResizeFilter.BICUBIC, ResizeFilter.LANCZOS3}) {
+            for (int targetLength : new int[]{97, 1000, 2311}) {
+                final ResampleWeights weights = ResampleWeights.create(filter, sourceLength, targetLength);
+                final float expected[] = resample(source, weights);
+
+                for (Span span : Tiling.split(sourceLength, targetLength, 128, Tiling.filtered(weights))) {
+                    final float tile[] = new float[span.sourceTo - span.sourceFrom];
+                    System.arraycopy(source, span.sourceFrom, tile, 0, tile.length);
+                    final float actual[] = resample(tile, weights.subRange(span.targetFrom, span.targetTo, span.sourceFrom));
+                    for (int i = 0; i < actual.length; i++) {
+                        assertEquals(filter + " " + targetLength + " " + span, expected[span.targetFrom + i], actual[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRotatedTilesStitchIntoRotatedImage() {
+        final BufferedImage image = createRandomImage(250, 170);
+        final CpuImageRotator rotator = new CpuImageRotator();
+
+        for (Rotation rotation : Rotation.values()) {
+            final BufferedImage expected = rotator.rotate(image, rotation);
+            final BufferedImage actual = new BufferedImage(expected.getWidth(), expected.getHeight(), BufferedImage.TYPE_INT_RGB);
+            final TileSource source = TileSource.of(image);
+            final TileSink sink = TileSink.of(actual);
+
+            for (Tile tile : Tiling.combine(Tiling.split(250, 250, 64, Tiling.identity()), Tiling.split(170, 170, 64, Tiling.identity()))) {
+                final Rectangle target = ImageRotator.getRotatedRegion(tile.source, 250, 170, rotation);
+                sink.write(target.x, target.y, rotator.rotate(source.read(tile.source), rotation));
+            }
+
+            assertArrayEquals(rotation.name(), getDataBufferInt(expected), getDataBufferInt(actual));
+        }
+    }
+
+    @Test
+    public void testTiledOperatorsMatchUntiled() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final BufferedImage image = createRandomImage(700, 500);
+        for (ResizeFilter filter : ResizeFilter.values()) {
+            final ImageResizer untiled = new ImageResizer(OCLRegistry.acquireDefaultDevice(), filter);
+            final ImageResizer tiled = new ImageResizer(OCLRegistry.acquireDefaultDevice(), filter);
+            tiled.setMaxTileSize(128);
+            try {
+                for (int size[] : new int[][]{{233, 167}, {1400, 1000}}) {
+                    final int expected[] = getDataBufferInt(untiled.resize(image, size[0], size[1]));
+                    final int actual[] = getDataBufferInt(tiled.resize(image, size[0], size[1]));
+                    for (int i = 0; i < expected.length; i++) {
+                        for (int shift = 0; shift < 24; shift += 8) {
+                            // The tile kernel computes the sample positions slightly differently
+                            final int difference = ((expected[i] >>> shift) & 0xff) - ((actual[i] >>> shift) & 0xff);
+                            assertTrue(filter + ": pixel " + i + " differs by " + difference, Math.abs(difference) <= 1);
+                        }
+                    }
+                }
+            } finally {
+                untiled.dispose();
+                tiled.dispose();
+            }
+        }
+
+        final ImageRotator untiled = new ImageRotator();
+        final ImageRotator tiled = new ImageRotator();
+        tiled.setMaxTileSize(128);
+        try {
+            for (Rotation rotation : Rotation.values()) {
+                assertArrayEquals(getDataBufferInt(untiled.rotate(image, rotation)), getDataBufferInt(tiled.rotate(image, rotation)));
+            }
+        } finally {
+            untiled.dispose();
+            tiled.dispose();
+        }
+    }
+
+    private static void assertCovers(int sourceLength, int targetLength, int maxTileSize, Footprint footprint) {
+        final List<Span> spans = Tiling.split(sourceLength, targetLength, maxTileSize, footprint);
+        int next = 0;
+        for (Span span : spans) {
+            assertEquals(next, span.targetFrom);
+            assertTrue(span.toString(), span.sourceTo - span.sourceFrom <= maxTileSize);
+            assertTrue(span.toString(), span.targetTo - span.targetFrom <= maxTileSize);
+            for (int i = span.targetFrom; i < span.targetTo; i++) {
+                assertTrue(span + " " + i, Math.max(0, footprint.getFirstSourceIndex(i)) >= span.sourceFrom);
+                assertTrue(span + " " + i, Math.min(sourceLength, footprint.getSourceEnd(i)) <= span.sourceTo);
+            }
+            next = span.targetTo;
+        }
+        assertEquals(targetLength, next);
+    }
+
+    private static float[] resample(float source[], ResampleWeights weights) {
+        final float target[] = new float[weights.getOutputLength()];
+        for (int i = 0; i < target.length; i++) {
+            for (int k = 0; k < weights.getTaps(); k++) {
+                final int index = Math.min(source.length - 1, Math.max(0, weights.getStart(i) + k));
+                target[i] += weights.getWeight(i, k) * source[index];
+            }
+        }
+
+        return target;
+    }
+}
@@ -0,0 +1,178 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.cpu.CpuImageResizer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.TestImages.createRandomImage;
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class TransformCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRepeatedResizeIsServedFromMemory() {
+        final AtomicInteger resizes = new AtomicInteger();
+        final CpuImageResizer cpuResizer = new CpuImageResizer();
+        final CachingResizer resizer = new CachingResizer(new Resizer() {
+            @Override
+            public BufferedImage resize(BufferedImage inputImage, int outputImageWidth, int outputImageHeight) {
+                resizes.incrementAndGet();
+                return cpuResizer.resize(inputImage, outputImageWidth, outputImageHeight);
+            }
+
+            @Override
+            public void dispose() {
+            }
+        }, "bilinear", new TransformCache(1024 * 1024));
+
+        final BufferedImage image = createRandomImage(200, 100);
+        final BufferedImage first = resizer.resize(image, 50, 25);
+        assertSame(first, resizer.resize(image, 50, 25));
+        // An equal image is a hit as well, as the key is the content and not the instance
+        assertSame(first, resizer.resize(copy(image), 50, 25));
+        assertNotSame(first, resizer.resize(image, 60, 30));
+
+        final TransformCache cache = resizer.getCache();
+        assertEquals(2, resizes.get());
+        assertEquals(2, cache.getMemoryHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0.5, cache.getHitRatio(), 1e-9);
+        assertEquals(2 * 50 * 25 * 4, cache.getBytesSaved());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvictedOverBudget() {
+        // Room for two 32x32 INT_RGB results
+        final TransformCache cache = new TransformCache(2 * 32 * 32 * 4);
+        final BufferedImage results[] = {createRandomImage(32, 32), createRandomImage(32, 32), createRandomImage(32, 32)};
+
+        cache.get(TransformCache.Key.of("a", "op"), () -> results[0]);
+        cache.get(TransformCache.Key.of("b", "op"), () -> results[1]);
+        cache.get(TransformCache.Key.of("a", "op"), () -> results[2]);
+        cache.get(TransformCache.Key.of("c", "op"), () -> results[2]);
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2 * 32 * 32 * 4, cache.getBytes());
+        assertSame(results[0], cache.get(TransformCache.Key.of("a", "op"), () -> results[2]));
+        assertSame(results[2], cache.get(TransformCache.Key.of("c", "op"), () -> results[0]));
+        assertEquals(3, cache.getMisses());
+        assertSame(results[0], cache.get(TransformCache.Key.of("b", "op"), () -> results[0]));
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void testConcurrentRequestsAreCollapsed() throws Exception {
+        final TransformCache cache = new TransformCache(1024 * 1024);
+        final TransformCache.Key key = TransformCache.Key.of("source", "op");
+        final BufferedImage result = createRandomImage(16, 16);
+        final AtomicInteger computations = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            final List<Future<BufferedImage>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> cache.get(key, () -> {
+                computations.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return result;
+            })));
+            started.await();
+
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> cache.get(key, () -> {
+                    computations.incrementAndGet();
+                    return createRandomImage(16, 16);
+                })));
+            }
+            while (cache.getCollapsed() < 4) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            for (Future<BufferedImage> future : futures) {
+                assertSame(result, future.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, computations.get());
+            assertEquals(1, cache.getMisses());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailureIsNotCached() {
+        final TransformCache cache = new TransformCache(1024 * 1024);
+        final TransformCache.Key key = TransformCache.Key.of("source", "op");
+        try {
+            cache.get(key, () -> {
+                throw new IllegalStateException("Device lost");
+            });
+        } catch (IllegalStateException e) {
+            assertEquals("Device lost", e.getMessage());
+        }
+
+        final BufferedImage result = createRandomImage(8, 8);
+        assertSame(result, cache.get(key, () -> result));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testResultsSurviveOnDisk() throws Exception {
+        final BufferedImage image = createRandomImage(120, 80);
+        final TransformCache first = new TransformCache(1024 * 1024, folder.getRoot(), 1024 * 1024);
+        final BufferedImage expected = new CachingResizer(new CpuImageResizer(), "bilinear", first).resize(image, 30, 20);
+
+        final TransformCache second = new TransformCache(1024 * 1024, folder.getRoot(), 1024 * 1024);
+        final BufferedImage actual = new CachingResizer(new CpuImageResizer(), "bilinear", second).resize(image, 30, 20);
+
+        assertEquals(1, second.getDiskHits());
+        assertEquals(0, second.getMisses());
+        assertEquals(expected.getType(), actual.getType());
+        assertArrayEquals(getDataBufferInt(expected), getDataBufferInt(actual));
+    }
+
+    @Test
+    public void testHashCoversPixelsOfSubimages() {
+        final BufferedImage image = createRandomImage(64, 64);
+        final long left = TransformCache.hash(image.getSubimage(0, 0, 32, 64));
+        final long right = TransformCache.hash(image.getSubimage(32, 0, 32, 64));
+        assertFalse(left == right);
+        assertEquals(left, TransformCache.hash(copy(image.getSubimage(0, 0, 32, 64))));
+
+        final BufferedImage changed = copy(image);
+        changed.setRGB(63, 63, ~image.getRGB(63, 63));
+        assertTrue(TransformCache.hash(image) != TransformCache.hash(changed));
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        final BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+        copy.getGraphics().drawImage(image, 0, 0, null);
+
+        return copy;
+    }
+}
@@ -0,0 +1,141 @@
+package no.nixx.opencl;
+
+import no.nixx.opencl.cpu.CpuImageRotator;
+import no.nixx.opencl.util.BuildOptions;
+import no.nixx.opencl.util.DeviceProbe;
+import no.nixx.opencl.util.OCLUtils;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_event;
+import org.jocl.cl_kernel;
+import org.jocl.cl_mem;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.TestImages.createRandomImage;
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static no.nixx.opencl.util.OCLUtils.getPackedIntImageFormat;
+import static org.jocl.CL.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class WorkGroupTunerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGlobalWorkSizeIsPaddedToLocalWorkSize() {
+        assertArrayEquals(new long[]{1008, 1000}, WorkGroupTuner.getGlobalWorkSize(new long[]{1001, 999}, new long[]{16, 8}));
+        assertArrayEquals(new long[]{256, 3}, WorkGroupTuner.getGlobalWorkSize(new long[]{256, 3}, new long[]{64, 1}));
+        final long unpadded[] = {1001, 999};
+        assertTrue(unpadded == WorkGroupTuner.getGlobalWorkSize(unpadded, null));
+    }
+
+    @Test
+    public void testVariantsAreTunedSeparately() {
+        final BuildOptions cw = BuildOptions.builder().define("ANGLE", 90).build();
+        final BuildOptions ccw = BuildOptions.builder().define("ANGLE", 270).build();
+
+        assertEquals("rotateImage", WorkGroupTuner.getTuningKey("rotateImage", BuildOptions.NONE));
+        assertFalse(WorkGroupTuner.getTuningKey("rotateImage", cw).equals(WorkGroupTuner.getTuningKey("rotateImage", ccw)));
+        assertFalse(WorkGroupTuner.getTuningKey("rotateImage", cw).equals("rotateImage"));
+    }
+
+    @Test
+    public void testProfileRejectsDevicesWithoutImages() {
+        final DeviceProfile profile = new DeviceProfile("test", "vendor", "1.0", CL_DEVICE_TYPE_GPU, false,
+                0, 0, 1 << 20, 1 << 30, 1 << 15, 8, 256, new long[]{256, 256, 64});
+        try {
+            profile.checkImageSupport();
+            throw new AssertionError("Expected the device to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("test"));
+        }
+    }
+
+    @Test
+    public void testTunedSizeIsPersisted() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final OCLDevice device = OCLRegistry.acquireDefaultDevice();
+        final File file = new File(folder.getRoot(), "workgroups.properties");
+        final cl_mem source = OCLUtils.createImage(device.getContext(), CL_MEM_READ_ONLY, getPackedIntImageFormat(), 1024, 1024);
+        final cl_mem target = OCLUtils.createImage(device.getContext(), CL_MEM_WRITE_ONLY, getPackedIntImageFormat(), 1001, 999);
+        final cl_kernel kernel = clCreateKernel(device.getProgram("resize.cl"), "resizeImage", null);
+        try {
+            clSetKernelArg(kernel, 0, Sizeof.cl_mem, Pointer.to(source));
+            clSetKernelArg(kernel, 1, Sizeof.cl_mem, Pointer.to(target));
+
+            final long tuned[] = new WorkGroupTuner(device, file, true).getLocalWorkSize("resizeImage", kernel, new long[]{1001, 999});
+            assertTrue(file.isFile());
+
+            // A new tuner, as in the next process, reads the result instead of tuning again
+            final WorkGroupTuner reloaded = new WorkGroupTuner(device, file, true);
+            assertArrayEquals(tuned, reloaded.getKnownLocalWorkSize("resizeImage"));
+            assertArrayEquals(tuned, reloaded.getLocalWorkSize("resizeImage", kernel, new long[]{1001, 999}, new cl_event[0]));
+        } finally {
+            clReleaseKernel(kernel);
+            clReleaseMemObject(source);
+            clReleaseMemObject(target);
+            device.release();
+        }
+    }
+
+    @Test
+    public void testPaddedLaunchesMatchExactOnes() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        // Sizes that no work-group shape divides, so the kernels see work-items outside the images
+        final BufferedImage image = createRandomImage(1021, 769);
+        final OCLDevice device = OCLRegistry.acquireDefaultDevice();
+        final ImageResizer resizer = new ImageResizer();
+        final ImageRotator rotator = new ImageRotator();
+        try {
+            final BufferedImage exact = resize(device, image, 1009, 997, null);
+            assertArrayEquals(getDataBufferInt(exact), getDataBufferInt(resize(device, image, 1009, 997, new long[]{8, 8})));
+            assertArrayEquals(getDataBufferInt(exact), getDataBufferInt(resizer.resize(image, 1009, 997)));
+            for (ImageRotator.Rotation rotation : ImageRotator.Rotation.values()) {
+                assertArrayEquals(rotation.name(),
+                        getDataBufferInt(new CpuImageRotator().rotate(image, rotation)),
+                        getDataBufferInt(rotator.rotate(image, rotation)));
+            }
+        } finally {
+            resizer.dispose();
+            rotator.dispose();
+            device.release();
+        }
+    }
+
+    private static BufferedImage resize(OCLDevice device, BufferedImage image, int width, int height, long localWorkSize[]) {
+        final BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final cl_mem source = OCLUtils.createReadOnlyImage(device.getContext(), image);
+        final cl_mem target = OCLUtils.createWritableImage(device.getContext(), width, height);
+        final cl_kernel kernel = clCreateKernel(device.getProgram("resize.cl"), "resizeImage", null);
+        final cl_event kernelEvent = new cl_event();
+        try {
+            clSetKernelArg(kernel, 0, Sizeof.cl_mem, Pointer.to(source));
+            clSetKernelArg(kernel, 1, Sizeof.cl_mem, Pointer.to(target));
+            final long globalWorkSize[] = WorkGroupTuner.getGlobalWorkSize(new long[]{width, height}, localWorkSize);
+            clEnqueueNDRangeKernel(device.getCommandQueue(), kernel, 2, null, globalWorkSize, localWorkSize, 0, null, kernelEvent);
+            OCLUtils.readImage(device.getCommandQueue(), target, resized, kernelEvent);
+        } finally {
+            clReleaseEvent(kernelEvent);
+            clReleaseKernel(kernel);
+            clReleaseMemObject(source);
+            clReleaseMemObject(target);
+        }
+
+        return resized;
+    }
+}
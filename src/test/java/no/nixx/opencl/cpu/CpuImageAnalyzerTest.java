@@ -0,0 +1,99 @@
+package no.nixx.opencl.cpu;
+
+import no.nixx.opencl.ImageStatistics;
+import no.nixx.opencl.ImageStatistics.Channel;
+import no.nixx.opencl.Levels;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.TestImages.createRandomImage;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class CpuImageAnalyzerTest {
+
+    private final CpuImageAnalyzer analyzer = new CpuImageAnalyzer();
+
+    @Test
+    public void testStatisticsMatchPixels() {
+        final BufferedImage image = createRandomImage(123, 77);
+        final ImageStatistics statistics = analyzer.analyze(image);
+        assertEquals(123 * 77, statistics.getPixels());
+
+        int min = 255, max = 0;
+        double sum = 0;
+        int luminance[] = new int[ImageStatistics.LEVELS];
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                final int rgb = image.getRGB(x, y);
+                final int green = (rgb >> 8) & 0xff;
+                min = Math.min(min, green);
+                max = Math.max(max, green);
+                sum += green;
+                luminance[ImageStatistics.getLuminance((rgb >> 16) & 0xff, green, rgb & 0xff)]++;
+            }
+        }
+        assertEquals(min, statistics.getMin(Channel.GREEN));
+        assertEquals(max, statistics.getMax(Channel.GREEN));
+        assertEquals(sum / (123 * 77), statistics.getMean(Channel.GREEN), 1e-9);
+        for (int level = 0; level < ImageStatistics.LEVELS; level++) {
+            assertEquals(luminance[level], statistics.getCount(Channel.LUMINANCE, level));
+        }
+    }
+
+    @Test
+    public void testGrayLevelsAreCountedInEveryChannel() {
+        final BufferedImage image = new BufferedImage(40, 10, BufferedImage.TYPE_BYTE_GRAY);
+        for (int x = 0; x < 40; x++) {
+            for (int y = 0; y < 10; y++) {
+                image.getRaster().setSample(x, y, 0, x < 30 ? 17 : 200);
+            }
+        }
+
+        final ImageStatistics statistics = analyzer.analyze(image);
+        for (Channel channel : Channel.values()) {
+            assertEquals(300, statistics.getCount(channel, 17));
+            assertEquals(100, statistics.getCount(channel, 200));
+            assertEquals(17, statistics.getPercentile(channel, 0.75));
+            assertEquals(200, statistics.getPercentile(channel, 0.76));
+        }
+    }
+
+    @Test
+    public void testBlankImageIsUniform() {
+        final BufferedImage blank = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        final Graphics graphics = blank.getGraphics();
+        graphics.setColor(new Color(250, 250, 245));
+        graphics.fillRect(0, 0, 64, 64);
+
+        assertTrue(analyzer.analyze(blank).isUniform(2));
+        assertFalse(analyzer.analyze(createRandomImage(64, 64)).isUniform(2));
+    }
+
+    @Test
+    public void testAutoLevelsStretchesToFullRange() {
+        final BufferedImage image = new BufferedImage(100, 1, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 100; x++) {
+            // A dull ramp with a red cast
+            final int level = 60 + x;
+            image.setRGB(x, 0, new Color(level + 20, level, level).getRGB());
+        }
+
+        final Levels levels = Levels.autoLevels(analyzer.analyze(image), 0, 1);
+        final BufferedImage adjusted = analyzer.applyLevels(image, levels);
+        assertEquals(0, adjusted.getRGB(0, 0) & 0xffffff);
+        assertEquals(0xffffff, adjusted.getRGB(99, 0) & 0xffffff);
+        // Each channel is stretched on its own, which removes the cast
+        final int middle = adjusted.getRGB(50, 0);
+        assertEquals(middle & 0xff, (middle >> 16) & 0xff);
+
+        assertEquals(128, Levels.of(0, 255, 1).apply(1, 128));
+        assertTrue(Levels.of(0, 255, 2.2).apply(1, 128) > 128);
+    }
+}
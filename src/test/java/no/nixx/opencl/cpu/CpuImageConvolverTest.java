@@ -0,0 +1,96 @@
+package no.nixx.opencl.cpu;
+
+import no.nixx.opencl.Convolution;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.Kernel;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.TestImages.createRandomImage;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class CpuImageConvolverTest {
+
+    private final CpuImageConvolver convolver = new CpuImageConvolver();
+
+    @Test
+    public void testGaussianMatchesConvolveOp() {
+        final BufferedImage image = createRandomImage(97, 61);
+        final Convolution gaussian = Convolution.gaussian(1.5);
+        final float weights[] = gaussian.getHorizontal();
+        final float kernelData[] = new float[weights.length * weights.length];
+        for (int j = 0; j < weights.length; j++) {
+            for (int i = 0; i < weights.length; i++) {
+                kernelData[j * weights.length + i] = weights[j] * weights[i];
+            }
+        }
+        final Kernel kernel = new Kernel(weights.length, weights.length, kernelData);
+
+        assertMatchesConvolveOp(image, kernel, convolver.convolve(image, gaussian));
+    }
+
+    @Test
+    public void testAsymmetricKernelMatchesConvolveOp() {
+        final BufferedImage image = createRandomImage(64, 48);
+        // Even sizes put the origin off center, and the weights differ on every side
+        final Kernel kernels[] = new Kernel[]{
+                new Kernel(3, 3, new float[]{0, 0.1f, 0.2f, 0, 0.3f, 0, 0.4f, 0, 0}),
+                new Kernel(4, 3, new float[]{0.05f, 0.1f, 0, 0.15f, 0, 0.2f, 0, 0.1f, 0.25f, 0, 0.05f, 0.1f}),
+                new Kernel(3, 3, new float[]{0, -1, 0, -1, 5, -1, 0, -1, 0})};
+
+        for (Kernel kernel : kernels) {
+            assertMatchesConvolveOp(image, kernel, convolver.convolve(image, Convolution.of(kernel)));
+        }
+    }
+
+    @Test
+    public void testUnsharpMaskSteepensEdges() {
+        final BufferedImage image = new BufferedImage(32, 8, BufferedImage.TYPE_INT_RGB);
+        final Graphics graphics = image.getGraphics();
+        graphics.setColor(new Color(64, 64, 64));
+        graphics.fillRect(0, 0, 16, 8);
+        graphics.setColor(new Color(192, 192, 192));
+        graphics.fillRect(16, 0, 16, 8);
+
+        final BufferedImage sharpened = convolver.convolve(image, Convolution.unsharpMask(1, 1));
+        // Flat areas are left alone, while either side of the edge is pushed away from the other
+        assertEquals(image.getRGB(2, 4), sharpened.getRGB(2, 4));
+        assertEquals(image.getRGB(29, 4), sharpened.getRGB(29, 4));
+        assertTrue((sharpened.getRGB(15, 4) & 0xff) < 64);
+        assertTrue((sharpened.getRGB(16, 4) & 0xff) > 192);
+    }
+
+    /**
+     * Compares the pixels ConvolveOp computes, those whose kernel footprint lies within the image. ConvolveOp truncates
+     * where the convolver rounds, so the channels may differ by one.
+     */
+    static void assertMatchesConvolveOp(BufferedImage image, Kernel kernel, BufferedImage actual) {
+        final BufferedImage expected = new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, null).filter(image, null);
+        // The kernel is mirrored, so the footprint reaches width - 1 - xOrigin pixels to the left. For even sizes
+        // ConvolveOp leaves out the pixels where that and the unmirrored footprint disagree.
+        final int xOrigin = kernel.getXOrigin();
+        final int yOrigin = kernel.getYOrigin();
+        final int fromX = Math.max(xOrigin, kernel.getWidth() - 1 - xOrigin);
+        final int fromY = Math.max(yOrigin, kernel.getHeight() - 1 - yOrigin);
+        final int toX = Math.min(image.getWidth() - kernel.getWidth() + 1 + xOrigin, image.getWidth() - xOrigin);
+        final int toY = Math.min(image.getHeight() - kernel.getHeight() + 1 + yOrigin, image.getHeight() - yOrigin);
+
+        for (int y = fromY; y < toY; y++) {
+            for (int x = fromX; x < toX; x++) {
+                final int expectedPixel = expected.getRGB(x, y);
+                final int actualPixel = actual.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    final int difference = ((expectedPixel >> shift) & 0xff) - ((actualPixel >> shift) & 0xff);
+                    assertTrue("Pixel " + x + "," + y + " of " + kernel.getWidth() + "x" + kernel.getHeight() + ": "
+                            + Integer.toHexString(expectedPixel) + " != " + Integer.toHexString(actualPixel), Math.abs(difference) <= 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package no.nixx.opencl.cpu;
+
+import no.nixx.opencl.ImageResizer;
+import no.nixx.opencl.OCLRegistry;
+import no.nixx.opencl.ResizeFilter;
+import no.nixx.opencl.Resizer;
+import no.nixx.opencl.util.DeviceProbe;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.TestImages.createRandomImage;
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class CpuImageResizerTest {
+
+    private static CpuImageResizer imageResizer;
+
+    @BeforeClass
+    public static void setup() {
+        imageResizer = new CpuImageResizer();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        imageResizer.dispose();
+    }
+
+    @Test
+    public void testResizeSpecifyingBothEdges() {
+        final int width = 512;
+        final int height = 1024;
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        final BufferedImage resizedImage = imageResizer.resize(image, image.getWidth() * 4, image.getHeight() * 4);
+
+        assertEquals(width * 4, resizedImage.getWidth());
+        assertEquals(height * 4, resizedImage.getHeight());
+    }
+
+    @Test
+    public void testResizeSpecifyingOnlyLongEdge() {
+        final int width = 512;
+        final int height = 1024;
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        final BufferedImage resizedImage = imageResizer.resize(image, 2048);
+
+        assertEquals(1024, resizedImage.getWidth());
+        assertEquals(2048, resizedImage.getHeight());
+    }
+
+    @Test
+    public void testUniformImageStaysUniformAwayFromTheBorder() {
+        final BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        Arrays.fill(getDataBufferInt(image), 0x336699);
+
+        final BufferedImage resizedImage = imageResizer.resize(image, 100, 100);
+        for (int y = 2; y < 100; y++) {
+            for (int x = 2; x < 100; x++) {
+                assertEquals(0x336699, resizedImage.getRGB(x, y) & 0xffffff);
+            }
+        }
+
+        // Three of the four texels sampled for the top-left pixel are the transparent black border of CLK_ADDRESS_CLAMP
+        assertEquals(0x0d1a26, resizedImage.getRGB(0, 0) & 0xffffff);
+    }
+
+    @Test
+    public void testResizeAsyncMatchesResize() throws Exception {
+        final BufferedImage image = createRandomImage(90, 60);
+        final int expected[] = getDataBufferInt(imageResizer.resize(image, 45, 30));
+        final int actual[] = getDataBufferInt(imageResizer.resizeAsync(image, 45, 30).get());
+        assertTrue(Arrays.equals(expected, actual));
+    }
+
+    @Test
+    public void testMatchesOpenCL() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final BufferedImage image = createRandomImage(200, 120);
+        final ImageResizer openclResizer = new ImageResizer();
+        try {
+            final int expected[] = getDataBufferInt(openclResizer.resize(image, 333, 97));
+            final int actual[] = getDataBufferInt(imageResizer.resize(image, 333, 97));
+            for (int i = 0; i < expected.length; i++) {
+                for (int shift = 0; shift < 24; shift += 8) {
+                    // Allow for the reduced precision some devices use for the filter weights
+                    final int difference = ((expected[i] >>> shift) & 0xff) - ((actual[i] >>> shift) & 0xff);
+                    assertTrue("Pixel " + i + " differs by " + difference, Math.abs(difference) <= 1);
+                }
+            }
+        } finally {
+            openclResizer.dispose();
+        }
+    }
+
+    @Test
+    public void testFiltersKeepUniformImagesUniform() {
+        final BufferedImage image = new BufferedImage(97, 61, BufferedImage.TYPE_INT_RGB);
+        Arrays.fill(getDataBufferInt(image), 0x336699);
+
+        for (ResizeFilter filter : new ResizeFilter[]{ResizeFilter.AREA, ResizeFilter.BICUBIC, ResizeFilter.LANCZOS3}) {
+            for (int size : new int[]{13, 97, 250}) {
+                // Unlike the bilinear sampler, the separable filters repeat the edge pixels
+                final int pixels[] = getDataBufferInt(new CpuImageResizer(filter).resize(image, size, size));
+                for (int pixel : pixels) {
+                    assertEquals(filter + " to " + size, 0x336699, pixel);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAreaAveragesBlocks() {
+        final BufferedImage image = createRandomImage(64, 48);
+        final BufferedImage resizedImage = new CpuImageResizer(ResizeFilter.AREA).resize(image, 16, 12);
+
+        for (int outY = 0; outY < 12; outY++) {
+            for (int outX = 0; outX < 16; outX++) {
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int sum = 0;
+                    for (int y = outY * 4; y < outY * 4 + 4; y++) {
+                        for (int x = outX * 4; x < outX * 4 + 4; x++) {
+                            sum += (image.getRGB(x, y) >>> shift) & 0xff;
+                        }
+                    }
+                    assertEquals((int) Math.rint(sum / 16.0), (resizedImage.getRGB(outX, outY) >>> shift) & 0xff);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFiltersReproduceSmoothImages() {
+        // A smooth signal downscaled by four should come out as the same signal sampled at the output pixel centers
+        final BufferedImage image = createSmoothImage(256, 256, 1);
+        final BufferedImage expected = createSmoothImage(64, 64, 4);
+
+        for (ResizeFilter filter : new ResizeFilter[]{ResizeFilter.AREA, ResizeFilter.BICUBIC, ResizeFilter.LANCZOS3}) {
+            final BufferedImage resizedImage = new CpuImageResizer(filter).resize(image, 64, 64);
+            for (int y = 2; y < 62; y++) {
+                for (int x = 2; x < 62; x++) {
+                    final int difference = (resizedImage.getRGB(x, y) & 0xff) - (expected.getRGB(x, y) & 0xff);
+                    assertTrue(filter + " differs by " + difference + " at " + x + "," + y, Math.abs(difference) <= 3);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFiltersSuppressAliasing() {
+        // A one pixel checkerboard has nothing below the Nyquist frequency of the output, so it should average out
+        final BufferedImage image = new BufferedImage(512, 512, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 512; y++) {
+            for (int x = 0; x < 512; x++) {
+                image.setRGB(x, y, ((x + y) & 1) == 0 ? 0xffffff : 0);
+            }
+        }
+
+        for (ResizeFilter filter : new ResizeFilter[]{ResizeFilter.AREA, ResizeFilter.BICUBIC, ResizeFilter.LANCZOS3}) {
+            for (int pixel : getDataBufferInt(new CpuImageResizer(filter).resize(image, 61, 61))) {
+                final int value = pixel & 0xff;
+                assertTrue(filter + " produced " + value, Math.abs(value - 128) <= 8);
+            }
+        }
+    }
+
+    @Test
+    public void testFiltersMatchOpenCL() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final BufferedImage image = createRandomImage(211, 150);
+        for (ResizeFilter filter : new ResizeFilter[]{ResizeFilter.AREA, ResizeFilter.BICUBIC, ResizeFilter.LANCZOS3}) {
+            final ImageResizer openclResizer = new ImageResizer(OCLRegistry.acquireDefaultDevice(), filter);
+            try {
+                for (int size[] : new int[][]{{53, 37}, {211, 150}, {400, 321}}) {
+                    final int expected[] = getDataBufferInt(new CpuImageResizer(filter).resize(image, size[0], size[1]));
+                    final int actual[] = getDataBufferInt(openclResizer.resize(image, size[0], size[1]));
+                    for (int i = 0; i < expected.length; i++) {
+                        for (int shift = 0; shift < 24; shift += 8) {
+                            // Devices may fuse the multiply-adds, which changes the rounding slightly
+                            final int difference = ((expected[i] >>> shift) & 0xff) - ((actual[i] >>> shift) & 0xff);
+                            assertTrue(filter + ": pixel " + i + " differs by " + difference, Math.abs(difference) <= 1);
+                        }
+                    }
+                }
+            } finally {
+                openclResizer.dispose();
+            }
+        }
+    }
+
+    @Test
+    public void testOutputSizeRoundsTheShortEdge() {
+        assertEquals(new Dimension(333, 250), Resizer.getOutputSize(1000, 750, 333));
+        assertEquals(new Dimension(1024, 683), Resizer.getOutputSize(3000, 2000, 1024));
+        assertEquals(new Dimension(171, 256), Resizer.getOutputSize(2000, 3000, 256));
+        assertEquals(new Dimension(100, 1), Resizer.getOutputSize(1000, 3, 100));
+    }
+
+    @Test
+    public void testResizeToSizesCascadesFromTheLargest() {
+        final BufferedImage image = createRandomImage(640, 480);
+        final CpuImageResizer areaResizer = new CpuImageResizer(ResizeFilter.AREA);
+        final List<BufferedImage> resizedImages = areaResizer.resizeToSizes(image, 80, 320, 160);
+
+        assertEquals(3, resizedImages.size());
+        assertEquals(new Dimension(80, 60), new Dimension(resizedImages.get(0).getWidth(), resizedImages.get(0).getHeight()));
+        assertEquals(new Dimension(320, 240), new Dimension(resizedImages.get(1).getWidth(), resizedImages.get(1).getHeight()));
+        assertEquals(new Dimension(160, 120), new Dimension(resizedImages.get(2).getWidth(), resizedImages.get(2).getHeight()));
+
+        final BufferedImage largest = areaResizer.resize(image, 320, 240);
+        assertTrue(Arrays.equals(getDataBufferInt(largest), getDataBufferInt(resizedImages.get(1))));
+        final BufferedImage middle = areaResizer.resize(largest, 160, 120);
+        assertTrue(Arrays.equals(getDataBufferInt(middle), getDataBufferInt(resizedImages.get(2))));
+        assertTrue(Arrays.equals(getDataBufferInt(areaResizer.resize(middle, 80, 60)), getDataBufferInt(resizedImages.get(0))));
+    }
+
+    @Test
+    public void testPyramidMatchesOpenCL() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final BufferedImage image = createRandomImage(500, 375);
+        final ImageResizer openclResizer = new ImageResizer();
+        try {
+            final List<BufferedImage> expected = new CpuImageResizer(ResizeFilter.AREA).resizeToSizes(image, 333, 64, 128);
+            final List<BufferedImage> actual = openclResizer.resizeToSizes(image, 333, 64, 128);
+            for (int level = 0; level < expected.size(); level++) {
+                final int expectedPixels[] = getDataBufferInt(expected.get(level));
+                final int actualPixels[] = getDataBufferInt(actual.get(level));
+                assertEquals(expectedPixels.length, actualPixels.length);
+                for (int i = 0; i < expectedPixels.length; i++) {
+                    for (int shift = 0; shift < 24; shift += 8) {
+                        // Rounding differences of the device can carry over from one level to the next
+                        final int difference = ((expectedPixels[i] >>> shift) & 0xff) - ((actualPixels[i] >>> shift) & 0xff);
+                        assertTrue("Level " + level + ": pixel " + i + " differs by " + difference, Math.abs(difference) <= 2);
+                    }
+                }
+            }
+        } finally {
+            openclResizer.dispose();
+        }
+    }
+
+    private static BufferedImage createSmoothImage(int width, int height, int scale) {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final double sourceX = (x + 0.5) * scale;
+                final double sourceY = (y + 0.5) * scale;
+                final int value = (int) Math.rint(128 + 100 * Math.sin(2 * Math.PI * sourceX / 128) * Math.cos(2 * Math.PI * sourceY / 256));
+                image.setRGB(x, y, value << 16 | value << 8 | value);
+            }
+        }
+
+        return image;
+    }
+}
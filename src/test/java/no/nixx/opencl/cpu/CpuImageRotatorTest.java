@@ -0,0 +1,76 @@
+package no.nixx.opencl.cpu;
+
+import no.nixx.opencl.ImageRotator;
+import no.nixx.opencl.ImageRotator.Rotation;
+import no.nixx.opencl.util.DeviceProbe;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static junit.framework.Assert.assertEquals;
+import static no.nixx.opencl.TestImages.createRandomImage;
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class CpuImageRotatorTest {
+
+    private static CpuImageRotator imageRotator;
+
+    @BeforeClass
+    public static void setup() {
+        imageRotator = new CpuImageRotator();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        imageRotator.dispose();
+    }
+
+    @Test
+    public void testRotation() {
+        final int width = 300;
+        final int height = 200;
+        final BufferedImage image = createRandomImage(width, height);
+
+        final BufferedImage rotatedCW90 = imageRotator.rotate(image, Rotation.CW_90);
+        assertEquals(height, rotatedCW90.getWidth());
+        assertEquals(width, rotatedCW90.getHeight());
+        assertEquals(image.getRGB(0, height - 1), rotatedCW90.getRGB(0, 0));
+        assertEquals(image.getRGB(width - 1, 0), rotatedCW90.getRGB(height - 1, width - 1));
+
+        final BufferedImage rotatedCCW90 = imageRotator.rotate(image, Rotation.CCW_90);
+        assertEquals(height, rotatedCCW90.getWidth());
+        assertEquals(width, rotatedCCW90.getHeight());
+        assertEquals(image.getRGB(width - 1, 0), rotatedCCW90.getRGB(0, 0));
+        assertEquals(image.getRGB(0, height - 1), rotatedCCW90.getRGB(height - 1, width - 1));
+
+        final BufferedImage rotatedFlipped = imageRotator.rotate(image, Rotation.FLIP);
+        assertEquals(width, rotatedFlipped.getWidth());
+        assertEquals(height, rotatedFlipped.getHeight());
+        assertEquals(image.getRGB(width - 1, height - 1), rotatedFlipped.getRGB(0, 0));
+        assertEquals(image.getRGB(10, 20), rotatedFlipped.getRGB(width - 11, height - 21));
+    }
+
+    @Test
+    public void testMatchesOpenCL() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final BufferedImage image = createRandomImage(257, 129);
+        final ImageRotator openclRotator = new ImageRotator();
+        try {
+            for (Rotation rotation : Rotation.values()) {
+                assertArrayEquals(rotation.name(),
+                        getDataBufferInt(openclRotator.rotate(image, rotation)),
+                        getDataBufferInt(imageRotator.rotate(image, rotation)));
+            }
+        } finally {
+            openclRotator.dispose();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package no.nixx.opencl.cpu;
+
+import no.nixx.opencl.Warp;
+import no.nixx.opencl.Warp.Interpolation;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.TestImages.createRandomImage;
+import static no.nixx.opencl.util.BufferedImageUtils.getDataBufferInt;
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class CpuImageWarperTest {
+
+    private final CpuImageWarper warper = new CpuImageWarper();
+
+    @Test
+    public void testQuarterTurnMatchesRotator() {
+        final BufferedImage image = createRandomImage(37, 21);
+        final BufferedImage expected = new CpuImageRotator().rotate(image, no.nixx.opencl.ImageRotator.Rotation.CW_90);
+
+        for (Interpolation interpolation : Interpolation.values()) {
+            // Pixel centers map onto pixel centers, so both interpolations copy pixels
+            final BufferedImage warpedImage = warper.warp(image, Warp.rotation(90, interpolation));
+            assertEquals(21, warpedImage.getWidth());
+            assertEquals(37, warpedImage.getHeight());
+            assertArrayEquals(interpolation.name(), getDataBufferInt(expected), getDataBufferInt(warpedImage));
+        }
+    }
+
+    @Test
+    public void testNearestMatchesJava2D() {
+        final BufferedImage image = createRandomImage(160, 120);
+        for (AffineTransform transform : getTransforms()) {
+            final Warp warp = Warp.affine(transform, Interpolation.NEAREST);
+            final Rectangle bounds = warp.getOutputBounds(160, 120);
+            final BufferedImage expected = transformWithJava2D(image, warp, transform, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
+            final BufferedImage actual = warper.warp(image, warp);
+            final double inverse[] = warp.getInverseMatrix(bounds);
+
+            for (int y = 0; y < bounds.height; y++) {
+                for (int x = 0; x < bounds.width; x++) {
+                    // Java2D steps through the positions in fixed point, so positions close to a pixel edge may round either way
+                    final double u = inverse[0] * (x + 0.5) + inverse[1] * (y + 0.5) + inverse[2];
+                    final double v = inverse[3] * (x + 0.5) + inverse[4] * (y + 0.5) + inverse[5];
+                    if (isNearEdge(u) || isNearEdge(v)) {
+                        continue;
+                    }
+                    assertEquals(transform + " at " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBilinearMatchesJava2D() {
+        final BufferedImage image = createRandomImage(160, 120);
+        for (AffineTransform transform : getTransforms()) {
+            final Warp warp = Warp.affine(transform, Interpolation.BILINEAR);
+            final Rectangle bounds = warp.getOutputBounds(160, 120);
+            final BufferedImage expected = transformWithJava2D(image, warp, transform, AffineTransformOp.TYPE_BILINEAR);
+            final BufferedImage actual = warper.warp(image, warp);
+            final double inverse[] = warp.getInverseMatrix(bounds);
+
+            for (int y = 0; y < bounds.height; y++) {
+                for (int x = 0; x < bounds.width; x++) {
+                    // Java2D treats the edges differently, so only pixels interpolated from four input pixels are compared
+                    final double u = inverse[0] * (x + 0.5) + inverse[1] * (y + 0.5) + inverse[2];
+                    final double v = inverse[3] * (x + 0.5) + inverse[4] * (y + 0.5) + inverse[5];
+                    if (u < 1 || v < 1 || u > 159 || v > 119) {
+                        continue;
+                    }
+                    for (int shift = 0; shift < 24; shift += 8) {
+                        final int difference = ((expected.getRGB(x, y) >>> shift) & 0xff) - ((actual.getRGB(x, y) >>> shift) & 0xff);
+                        assertTrue(transform + " differs by " + difference + " at " + x + "," + y, Math.abs(difference) <= 2);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPerspectiveMapsCornersToBounds() {
+        final BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0xff0000);
+        image.setRGB(99, 99, 0x00ff00);
+
+        // Keystone: the bottom edge is twice as wide as the top edge
+        final Warp warp = Warp.perspective(new double[]{1, 0, 0, 0, 1, 0, 0, -0.005, 1}, Interpolation.NEAREST);
+        final Rectangle bounds = warp.getOutputBounds(100, 100);
+        assertEquals(new Rectangle(0, 0, 200, 200), bounds);
+
+        final BufferedImage warpedImage = warper.warp(image, warp);
+        assertEquals(0xff0000, warpedImage.getRGB(0, 0) & 0xffffff);
+        assertEquals(0x00ff00, warpedImage.getRGB(199, 199) & 0xffffff);
+    }
+
+    private static boolean isNearEdge(double coordinate) {
+        return Math.abs(coordinate - Math.rint(coordinate)) < 1e-2;
+    }
+
+    private static AffineTransform[] getTransforms() {
+        final AffineTransform skewed = AffineTransform.getShearInstance(0.2, -0.1);
+        skewed.scale(1.3, 0.8);
+
+        return new AffineTransform[]{
+                AffineTransform.getRotateInstance(Math.toRadians(2.5)),
+                AffineTransform.getRotateInstance(Math.toRadians(-33)),
+                AffineTransform.getScaleInstance(1.7, 0.6),
+                skewed};
+    }
+
+    private static BufferedImage transformWithJava2D(BufferedImage image, Warp warp, AffineTransform transform, int interpolationType) {
+        final Rectangle bounds = warp.getOutputBounds(image.getWidth(), image.getHeight());
+        final AffineTransform translated = AffineTransform.getTranslateInstance(-bounds.x, -bounds.y);
+        translated.concatenate(transform);
+
+        final BufferedImage outputImage = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_RGB);
+        new AffineTransformOp(translated, interpolationType).filter(image, outputImage);
+
+        return outputImage;
+    }
+}
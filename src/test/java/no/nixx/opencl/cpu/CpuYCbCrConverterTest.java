@@ -0,0 +1,112 @@
+package no.nixx.opencl.cpu;
+
+import no.nixx.opencl.YCbCrImage;
+import no.nixx.opencl.YCbCrImage.Subsampling;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.TestImages.createRandomImage;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class CpuYCbCrConverterTest {
+
+    private final CpuYCbCrConverter converter = new CpuYCbCrConverter();
+
+    @Test
+    public void testPrimariesMatchJfif() {
+        final BufferedImage image = new BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0xffffff);
+        image.setRGB(1, 0, 0xff0000);
+        image.setRGB(0, 1, 0x00ff00);
+        image.setRGB(1, 1, 0x0000ff);
+
+        final YCbCrImage planes = converter.toYCbCr(image, Subsampling.YCBCR_444);
+        assertEquals(255, planes.getY()[0] & 0xff);
+        assertEquals(128, planes.getCb()[0] & 0xff);
+        assertEquals(128, planes.getCr()[0] & 0xff);
+        assertEquals(76, planes.getY()[1] & 0xff);
+        assertEquals(85, planes.getCb()[1] & 0xff);
+        assertEquals(255, planes.getCr()[1] & 0xff);
+        assertEquals(29, planes.getY()[3] & 0xff);
+        assertEquals(255, planes.getCb()[3] & 0xff);
+        assertEquals(107, planes.getCr()[3] & 0xff);
+    }
+
+    @Test
+    public void testChromaIsAveragedOverBlocks() {
+        // 2x2 blocks of one color each, and odd edges with blocks of fewer pixels
+        final BufferedImage image = new BufferedImage(7, 5, BufferedImage.TYPE_INT_RGB);
+        final Graphics graphics = image.getGraphics();
+        final Color colors[] = new Color[]{Color.ORANGE, Color.CYAN, Color.MAGENTA, Color.GRAY};
+        for (int blockY = 0; blockY < 3; blockY++) {
+            for (int blockX = 0; blockX < 4; blockX++) {
+                graphics.setColor(colors[(blockX + blockY) % colors.length]);
+                graphics.fillRect(blockX * 2, blockY * 2, 2, 2);
+            }
+        }
+
+        final YCbCrImage full = converter.toYCbCr(image, Subsampling.YCBCR_444);
+        final YCbCrImage subsampled = converter.toYCbCr(image, Subsampling.YCBCR_420);
+        assertEquals(4, subsampled.getChromaWidth());
+        assertEquals(3, subsampled.getChromaHeight());
+        assertEquals(7 * 5 + 2 * 4 * 3, subsampled.getBytes());
+        for (int y = 0; y < 5; y++) {
+            for (int x = 0; x < 7; x++) {
+                assertEquals(full.getY()[y * 7 + x], subsampled.getY()[y * 7 + x]);
+                assertEquals(full.getCb()[y * 7 + x], subsampled.getCb()[(y / 2) * 4 + x / 2]);
+                assertEquals(full.getCr()[y * 7 + x], subsampled.getCr()[(y / 2) * 4 + x / 2]);
+            }
+        }
+    }
+
+    @Test
+    public void testInverseMatchesJdkJpegDecoder() throws IOException {
+        final BufferedImage image = createRandomImage(96, 64);
+        final ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", jpeg);
+
+        // The JPEG reader returns rasters in YCbCr, and converts to RGB when reading images
+        final ImageReader reader = ImageIO.getImageReadersByFormatName("jpeg").next();
+        try {
+            reader.setInput(ImageIO.createImageInputStream(new ByteArrayInputStream(jpeg.toByteArray())));
+            final Raster raster = reader.readRaster(0, null);
+            final BufferedImage expected = reader.read(0);
+            final BufferedImage actual = converter.toRgb(YCbCrImage.of(raster));
+            assertSimilar(expected, actual, 1);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testRoundTripOfFullChroma() {
+        final BufferedImage image = createRandomImage(33, 17);
+        final YCbCrImage planes = converter.toYCbCr(image, Subsampling.YCBCR_444);
+        assertSimilar(image, converter.toRgb(planes), 2);
+        assertSimilar(image, converter.toRgb(YCbCrImage.of(planes.toRaster())), 2);
+    }
+
+    static void assertSimilar(BufferedImage expected, BufferedImage actual, int tolerance) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                for (int shift = 0; shift < 24; shift += 8) {
+                    final int difference = ((expected.getRGB(x, y) >> shift) & 0xff) - ((actual.getRGB(x, y) >> shift) & 0xff);
+                    assertTrue("Pixel " + x + "," + y + ": " + Integer.toHexString(expected.getRGB(x, y)) + " != "
+                            + Integer.toHexString(actual.getRGB(x, y)), Math.abs(difference) <= tolerance);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package no.nixx.opencl.metrics;
+
+import no.nixx.opencl.ImageBatchResizer;
+import no.nixx.opencl.ImageResizer;
+import no.nixx.opencl.OCLDevice;
+import no.nixx.opencl.OCLRegistry;
+import no.nixx.opencl.util.DeviceProbe;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class KernelMetricsTest {
+
+    @Test
+    public void testSizeBuckets() {
+        assertEquals(64, KernelMetrics.getSizeBucket(10, 10));
+        assertEquals(64, KernelMetrics.getSizeBucket(64, 32));
+        assertEquals(128, KernelMetrics.getSizeBucket(65, 32));
+        assertEquals(2048, KernelMetrics.getSizeBucket(1024, 2048));
+    }
+
+    @Test
+    public void testOperationIsRecordedPerCommandAndStage() {
+        final KernelMetrics metrics = new KernelMetrics();
+        metrics.operationCompleted(new OperationProfile("resizeImage", 800, 600,
+                new CommandTiming(0, 10, 30, 60),
+                new CommandTiming(60, 70, 100, 200),
+                new CommandTiming(200, 210, 220, 400)));
+
+        // Three stages for each of the three commands, plus the total
+        assertEquals(10, metrics.getHistograms().size());
+        assertEquals(30, metrics.get("operation=resizeImage,size=1024,command=upload,stage=running").getMaxNanos());
+        assertEquals(30, metrics.get("operation=resizeImage,size=1024,command=kernel,stage=submitted").getMaxNanos());
+        assertEquals(400, metrics.get("operation=resizeImage,size=1024,command=total,stage=elapsed").getMaxNanos());
+    }
+
+    @Test
+    public void testHistogramsAreRegisteredAsMXBeans() throws Exception {
+        final MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+        final KernelMetrics metrics = new KernelMetrics(mBeanServer);
+        metrics.operationCompleted(new OperationProfile("rotateImage", 100, 100,
+                new CommandTiming(0, 0, 0, 1000), new CommandTiming(1000, 1000, 1000, 3000), new CommandTiming(3000, 3000, 3000, 4000)));
+
+        final ObjectName name = new ObjectName("no.nixx.opencl:type=KernelMetrics,operation=rotateImage,size=128,command=kernel,stage=running");
+        assertEquals(1L, mBeanServer.getAttribute(name, "Count"));
+        assertEquals(2.0, mBeanServer.getAttribute(name, "MaxMicros"));
+
+        metrics.unregister();
+        assertTrue(!mBeanServer.isRegistered(name));
+    }
+
+    @Test
+    public void testResizerReportsToListener() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final OCLDevice device = OCLRegistry.acquireDefaultDevice();
+        final KernelMetrics metrics = new KernelMetrics();
+        device.addMetricsListener(metrics);
+        final ImageResizer resizer = new ImageResizer(device);
+        try {
+            resizer.resize(new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB), 200, 150);
+            resizer.resizeAsync(new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB), 200, 150).join();
+        } finally {
+            device.removeMetricsListener(metrics);
+            resizer.dispose();
+        }
+
+        final LatencyHistogram kernel = metrics.get("operation=resizeImage,size=256,command=kernel,stage=running");
+        assertNotNull(kernel);
+        assertEquals(2, kernel.getCount());
+    }
+
+    @Test
+    public void testBatchResizerReportsEachBatch() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+
+        final OCLDevice device = OCLRegistry.acquireDefaultDevice();
+        final KernelMetrics metrics = new KernelMetrics();
+        device.addMetricsListener(metrics);
+        final ImageBatchResizer resizer = new ImageBatchResizer(device);
+        try {
+            final BufferedImage image = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+            resizer.resize(Arrays.asList(image, image), Arrays.asList(new Dimension(200, 150), new Dimension(100, 75)));
+        } finally {
+            device.removeMetricsListener(metrics);
+            resizer.dispose();
+        }
+
+        // A batch is reported under its largest image
+        final LatencyHistogram kernel = metrics.get("operation=resizeBatch,size=256,command=kernel,stage=running");
+        assertNotNull(kernel);
+        assertEquals(1, kernel.getCount());
+    }
+}
@@ -0,0 +1,47 @@
+package no.nixx.opencl.metrics;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsAreContiguous() {
+        for (long value = 0; value < 1 << 16; value++) {
+            final int index = LatencyHistogram.getBucketIndex(value);
+            assertTrue(LatencyHistogram.getBucketLowerBound(index) <= value);
+            assertTrue(LatencyHistogram.getBucketLowerBound(index + 1) > value);
+        }
+    }
+
+    @Test
+    public void testPercentilesAreWithinBucketPrecision() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000L, histogram.getMaxNanos());
+        assertEquals(500.5, histogram.getMeanMicros(), 0.001);
+        assertEquals(500000, histogram.getPercentileNanos(50), 500000 * 0.125);
+        assertEquals(990000, histogram.getPercentileNanos(99), 990000 * 0.125);
+        assertTrue(histogram.getPercentileNanos(100) <= histogram.getMaxNanos());
+    }
+
+    @Test
+    public void testReset() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(50));
+        assertEquals(0.0, histogram.getMeanMicros());
+    }
+}
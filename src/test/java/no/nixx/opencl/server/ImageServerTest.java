@@ -0,0 +1,115 @@
+package no.nixx.opencl.server;
+
+import no.nixx.opencl.cpu.CpuImageResizer;
+import no.nixx.opencl.cpu.CpuImageRotator;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Runs the server on localhost with the pure-Java operators.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class ImageServerTest {
+
+    private static ImageServer server;
+    private static byte jpeg[];
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        final ImageService service = ImageService.builder()
+                .resizer(new CpuImageResizer())
+                .rotator(new CpuImageRotator())
+                .batchWindow(5, TimeUnit.MILLISECONDS)
+                .build();
+        server = new ImageServer(service, new InetSocketAddress("localhost", 0), 4);
+        server.start();
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream input = ImageServerTest.class.getResourceAsStream("/Car_128x128.jpg")) {
+            final byte buffer[] = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, count);
+            }
+        }
+        jpeg = bytes.toByteArray();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        server.stop();
+        server.getService().dispose();
+    }
+
+    @Test
+    public void testResizeAndRotate() throws IOException {
+        final HttpURLConnection resize = post("/resize?width=64&height=32&format=png");
+        assertEquals(200, resize.getResponseCode());
+        assertEquals("image/png", resize.getContentType());
+        final BufferedImage resized = ImageIO.read(resize.getInputStream());
+        assertEquals(64, resized.getWidth());
+        assertEquals(32, resized.getHeight());
+
+        final HttpURLConnection rotate = post("/rotate?rotation=cw_90");
+        assertEquals(200, rotate.getResponseCode());
+        assertEquals("image/jpeg", rotate.getContentType());
+        assertEquals(128, ImageIO.read(rotate.getInputStream()).getWidth());
+
+        assertEquals(400, post("/resize?width=64").getResponseCode());
+        assertEquals(400, post("/rotate?rotation=sideways").getResponseCode());
+        assertEquals(400, post("/resize?size=0").getResponseCode());
+        assertEquals(400, post("/resize?width=-64&height=32").getResponseCode());
+        assertEquals(400, post("/resize?width=100000&height=100000").getResponseCode());
+    }
+
+    @Test
+    public void testLoadOnLocalhost() throws IOException {
+        final String address = "http://localhost:" + server.getAddress().getPort();
+        final LoadGenerator generator = new LoadGenerator(new URL(address + "/resize?size=64"), jpeg, 8);
+        final LoadGenerator.Report report = generator.run(200);
+        System.out.println(report);
+
+        assertEquals(0, report.getFailed());
+        assertEquals(200, report.getSucceeded() + report.getRejected());
+        assertTrue(report.getLatency().getPercentileNanos(99) > 0);
+
+        final HttpURLConnection statistics = (HttpURLConnection) new URL(address + "/stats").openConnection();
+        assertEquals(200, statistics.getResponseCode());
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream input = statistics.getInputStream()) {
+            int value;
+            while ((value = input.read()) >= 0) {
+                body.write(value);
+            }
+        }
+        System.out.print(body.toString("UTF-8"));
+        assertTrue(body.toString("UTF-8").contains("requests/s"));
+    }
+
+    private static HttpURLConnection post(String path) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getAddress().getPort() + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(jpeg);
+        }
+
+        return connection;
+    }
+}
@@ -0,0 +1,153 @@
+package no.nixx.opencl.server;
+
+import no.nixx.opencl.ImageRotator.Rotation;
+import no.nixx.opencl.Resizer;
+import no.nixx.opencl.cpu.CpuImageResizer;
+import no.nixx.opencl.cpu.CpuImageRotator;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static no.nixx.opencl.TestImages.createRandomImage;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class ImageServiceTest {
+
+    @Test
+    public void testCoalescesRequestsWithinTheWindow() throws Exception {
+        final ImageService service = ImageService.builder()
+                .resizer(new CpuImageResizer())
+                .rotator(new CpuImageRotator())
+                .batchWindow(500, TimeUnit.MILLISECONDS)
+                .maxBatchSize(8)
+                .build();
+        try {
+            final BufferedImage image = createRandomImage(64, 48);
+            final List<CompletableFuture<BufferedImage>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(service.submit(Transform.resize(32 + i, 24), image));
+                futures.add(service.submit(Transform.rotate(Rotation.CW_90), image));
+            }
+
+            for (int i = 0; i < 4; i++) {
+                assertEquals(32 + i, futures.get(2 * i).get().getWidth());
+                assertEquals(64, futures.get(2 * i + 1).get().getHeight());
+            }
+            assertEquals(1, service.getBatches());
+            assertEquals(8, service.getCompleted());
+            assertEquals(8, service.getLatency().getCount());
+            assertEquals(8.0, service.getMeanBatchSize());
+        } finally {
+            service.dispose();
+        }
+    }
+
+    @Test
+    public void testErrorsFailOnlyTheirOwnRequest() throws Exception {
+        final CpuImageResizer cpuResizer = new CpuImageResizer();
+        final ImageService service = ImageService.builder()
+                .resizer(new Resizer() {
+                    @Override
+                    public BufferedImage resize(BufferedImage inputImage, int outputImageWidth, int outputImageHeight) {
+                        return cpuResizer.resize(inputImage, outputImageWidth, outputImageHeight);
+                    }
+
+                    @Override
+                    public CompletableFuture<BufferedImage> resizeAsync(BufferedImage inputImage, int outputImageWidth, int outputImageHeight) {
+                        if (outputImageWidth == 13) {
+                            throw new OutOfMemoryError("Requested image too large");
+                        }
+                        return Resizer.super.resizeAsync(inputImage, outputImageWidth, outputImageHeight);
+                    }
+
+                    @Override
+                    public void dispose() {
+                    }
+                })
+                .rotator(new CpuImageRotator())
+                .batchWindow(0, TimeUnit.MILLISECONDS)
+                .build();
+        try {
+            final BufferedImage image = createRandomImage(40, 30);
+            try {
+                service.submit(Transform.resize(13, 10), image).get();
+                fail("Expected the request to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof OutOfMemoryError);
+            }
+
+            assertEquals(20, service.submit(Transform.resize(20, 15), image).get(10, TimeUnit.SECONDS).getWidth());
+            assertEquals(1, service.getFailed());
+            assertEquals(1, service.getCompleted());
+        } finally {
+            service.dispose();
+        }
+    }
+
+    @Test
+    public void testRejectsRequestsWhenTheQueueIsFull() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CpuImageResizer cpuResizer = new CpuImageResizer();
+        final ImageService service = ImageService.builder()
+                .resizer(new Resizer() {
+                    @Override
+                    public BufferedImage resize(BufferedImage inputImage, int outputImageWidth, int outputImageHeight) {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return cpuResizer.resize(inputImage, outputImageWidth, outputImageHeight);
+                    }
+
+                    @Override
+                    public void dispose() {
+                    }
+                })
+                .rotator(new CpuImageRotator())
+                .batchWindow(0, TimeUnit.MILLISECONDS)
+                .maxBatchSize(1)
+                .maxQueueDepth(2)
+                .build();
+        try {
+            final BufferedImage image = createRandomImage(40, 30);
+            final List<CompletableFuture<BufferedImage>> futures = new ArrayList<>();
+            futures.add(service.submit(Transform.resizeLongEdge(20), image));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            // The first request occupies the dispatcher, so the next two wait and the fourth does not fit
+            futures.add(service.submit(Transform.resizeLongEdge(20), image));
+            futures.add(service.submit(Transform.resizeLongEdge(20), image));
+            try {
+                service.submit(Transform.resizeLongEdge(20), image);
+                fail("Expected the request to be rejected");
+            } catch (RejectedExecutionException e) {
+                assertEquals(1, service.getRejected());
+            }
+
+            release.countDown();
+            for (CompletableFuture<BufferedImage> future : futures) {
+                assertEquals(15, future.get().getHeight());
+            }
+            assertEquals(3, service.getCompleted());
+            assertEquals(0, service.getQueueDepth());
+        } finally {
+            release.countDown();
+            service.dispose();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package no.nixx.opencl.util;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class KernelSourceLoaderTest {
+
+    @Test
+    public void testExpandsEveryIncludeOnce() {
+        // b.cl includes a.cl back, and a.cl includes b.cl a second time by its absolute name
+        assertEquals("// a\n" +
+                "#line 1 \"kernels/b.cl\"\n" +
+                "#define B 1\n" +
+                "\n" +
+                "#line 3 \"kernels/a.cl\"\n" +
+                "\n" +
+                "int a;\n", KernelSourceLoader.load("kernels/a.cl"));
+    }
+
+    @Test
+    public void testRejectsIncludesItCannotResolve() {
+        try {
+            KernelSourceLoader.load("kernels/angled.cl");
+            fail("Expected an angled include to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("kernels/angled.cl line 1"));
+        }
+
+        try {
+            KernelSourceLoader.load("kernels/missing.cl");
+            fail("Expected a missing resource to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("kernels/missing.cl"));
+        }
+    }
+
+    @Test
+    public void testBuildOptions() {
+        final BuildOptions options = BuildOptions.builder().define("ANGLE", 90).define("FAST").option("-cl-mad-enable").build();
+        assertEquals("-D ANGLE=90 -D FAST -cl-mad-enable", options.toString());
+        assertEquals(options, BuildOptions.builder().define("ANGLE", 90).define("FAST").option("-cl-mad-enable").build());
+        assertTrue(BuildOptions.NONE.isEmpty());
+
+        try {
+            BuildOptions.builder().define("ANGLE", "90 -D X");
+            fail("Expected a value with whitespace to be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package no.nixx.opencl.util;
+
+import org.jocl.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static no.nixx.opencl.util.OCLUtils.*;
+import static org.jocl.CL.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Oddbjørn Kvalsund
+ */
+public class ProgramBinaryCacheTest {
+
+    private static cl_platform_id platformId;
+    private static cl_device_id deviceId;
+    private static cl_context context;
+
+    @BeforeClass
+    public static void setup() {
+        assumeTrue(DeviceProbe.isDeviceAvailable());
+        platformId = getFirstPlatformId();
+        deviceId = getFirstDeviceIdForPlatformId(platformId);
+        context = getContextForPlatformIdAndDeviceId(platformId, deviceId);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        if (context != null) {
+            clReleaseContext(context);
+        }
+    }
+
+    @Test
+    public void testSecondLoadIsServedFromDisk() throws IOException {
+        final File directory = Files.createTempDirectory("programs").toFile();
+        final String source = ClasspathUtils.getClasspathResourceAsString("resize.cl");
+
+        final ProgramBinaryCache coldCache = new ProgramBinaryCache(directory);
+        clReleaseProgram(coldCache.getProgram(platformId, deviceId, context, source, null));
+        assertEquals(0, coldCache.getHits());
+        assertEquals(1, coldCache.getMisses());
+
+        final ProgramBinaryCache warmCache = new ProgramBinaryCache(directory);
+        final cl_program program = warmCache.getProgram(platformId, deviceId, context, source, null);
+        clReleaseKernel(clCreateKernel(program, "resizeImage", null));
+        clReleaseProgram(program);
+        assertEquals(1, warmCache.getHits());
+        assertEquals(0, warmCache.getMisses());
+    }
+
+    @Test
+    public void testBuildOptionsArePartOfTheKey() throws IOException {
+        final File directory = Files.createTempDirectory("programs").toFile();
+        final String source = ClasspathUtils.getClasspathResourceAsString("rotate.cl");
+
+        final ProgramBinaryCache cache = new ProgramBinaryCache(directory);
+        clReleaseProgram(cache.getProgram(platformId, deviceId, context, source, null));
+        clReleaseProgram(cache.getProgram(platformId, deviceId, context, source, "-cl-fast-relaxed-math"));
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, directory.listFiles().length);
+    }
+
+    @Test
+    public void testRejectedBinaryFallsBackToSource() throws IOException {
+        final File directory = Files.createTempDirectory("programs").toFile();
+        final String source = ClasspathUtils.getClasspathResourceAsString("resize.cl");
+
+        final ProgramBinaryCache cache = new ProgramBinaryCache(directory);
+        clReleaseProgram(cache.getProgram(platformId, deviceId, context, source, null));
+        for (File entry : directory.listFiles()) {
+            Files.write(entry.toPath(), new byte[]{1, 2, 3, 4});
+        }
+
+        clReleaseProgram(cache.getProgram(platformId, deviceId, context, source, null));
+        assertEquals(1, cache.getRejections());
+        assertEquals(2, cache.getMisses());
+        assertTrue(directory.listFiles()[0].length() > 4);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws IOException {
+        final File directory = Files.createTempDirectory("programs").toFile();
+        final String source = ClasspathUtils.getClasspathResourceAsString("resize.cl");
+
+        final ProgramBinaryCache cache = new ProgramBinaryCache(directory, 2);
+        clReleaseProgram(cache.getProgram(platformId, deviceId, context, source, "-DVARIANT=1"));
+        clReleaseProgram(cache.getProgram(platformId, deviceId, context, source, "-DVARIANT=2"));
+        clReleaseProgram(cache.getProgram(platformId, deviceId, context, source, "-DVARIANT=3"));
+        assertEquals(2, directory.listFiles().length);
+    }
+}
@@ -0,0 +1,113 @@
+package no.nixx.opencl.util;
+
+import no.nixx.opencl.util.CLResource.Type;
+import org.jocl.cl_kernel;
+import org.jocl.cl_mem;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Uses stand-in release actions, so no device is needed.
+ *
+ * @author Oddbjørn Kvalsund
+ */
+public class ResourceTrackerTest {
+
+    private final List<Object> released = new ArrayList<>();
+
+    @After
+    public void teardown() {
+        ResourceTracker.setTracking(false);
+    }
+
+    @Test
+    public void testCountsLiveObjectsAndBytes() {
+        final long kernels = ResourceTracker.getLiveCount(Type.KERNEL);
+        final long mems = ResourceTracker.getLiveCount(Type.MEM);
+        final long bytes = ResourceTracker.getLiveBytes();
+
+        final CLResource<cl_kernel> kernel = kernel();
+        final CLResource<cl_mem> mem = mem(4096);
+        assertEquals(kernels + 1, ResourceTracker.getLiveCount(Type.KERNEL));
+        assertEquals(mems + 1, ResourceTracker.getLiveCount(Type.MEM));
+        assertEquals(bytes + 4096, ResourceTracker.getLiveBytes());
+
+        mem.close();
+        mem.close();
+        kernel.close();
+        assertEquals(2, released.size());
+        assertEquals(kernels, ResourceTracker.getLiveCount(Type.KERNEL));
+        assertEquals(mems, ResourceTracker.getLiveCount(Type.MEM));
+        assertEquals(bytes, ResourceTracker.getLiveBytes());
+    }
+
+    @Test
+    public void testReleasesInReverseOrderAndKeepsGoingOnFailure() {
+        final CLResource<cl_mem> first = mem(16);
+        final CLResource<cl_mem> failing = new CLResource<>(new cl_mem(), Type.MEM, 16, mem -> {
+            throw new IllegalStateException("release failed");
+        });
+        final CLResource<cl_kernel> last = kernel();
+
+        final CLResources resources = new CLResources();
+        resources.add(first);
+        resources.add(failing);
+        resources.onClose(() -> released.add("action"));
+        resources.add(last);
+        try {
+            resources.close();
+            fail("Expected the failed release to be thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("release failed", e.getMessage());
+        }
+
+        assertEquals(3, released.size());
+        assertSame(last.get(), released.get(0));
+        assertEquals("action", released.get(1));
+        assertSame(first.get(), released.get(2));
+        assertTrue(failing.isClosed());
+
+        try {
+            resources.add(mem(16));
+            fail("Expected closed resources to refuse new objects");
+        } catch (IllegalStateException e) {
+            assertEquals(4, released.size());
+        }
+    }
+
+    @Test
+    public void testReportsAllocationSitesOfLeaks() {
+        ResourceTracker.setTracking(true);
+        final long allocationCount = ResourceTracker.getAllocationCount();
+        final CLResource<cl_mem> leaked = mem(1024);
+        mem(2048).close();
+
+        final List<ResourceTracker.Allocation> allocations = ResourceTracker.getTrackedAllocationsSince(allocationCount);
+        assertEquals(1, allocations.size());
+        assertEquals(1024, allocations.get(0).getBytes());
+        assertEquals(getClass().getName(), allocations.get(0).getSite()[0].getClassName());
+
+        final String report = ResourceTracker.getReport(allocations);
+        assertTrue(report, report.contains("mem #"));
+        assertTrue(report, report.contains("testReportsAllocationSitesOfLeaks"));
+
+        leaked.close();
+        assertTrue(ResourceTracker.getTrackedAllocationsSince(allocationCount).isEmpty());
+    }
+
+    private CLResource<cl_kernel> kernel() {
+        return new CLResource<>(new cl_kernel(), Type.KERNEL, 0, released::add);
+    }
+
+    private CLResource<cl_mem> mem(long bytes) {
+        return new CLResource<>(new cl_mem(), Type.MEM, bytes, released::add);
+    }
+}
@@ -0,0 +1,4 @@
+// a
+#include "b.cl"
+#include "/kernels/b.cl"
+int a;
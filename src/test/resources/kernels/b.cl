@@ -0,0 +1,2 @@
+#define B 1
+#include "a.cl"